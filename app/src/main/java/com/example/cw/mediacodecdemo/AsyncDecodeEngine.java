@@ -0,0 +1,285 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Event-driven decode loop for a codec running in asynchronous mode.
+ * <p>
+ * Instead of polling {@code dequeueInputBuffer}/{@code dequeueOutputBuffer} with a timeout, the
+ * engine reacts to {@link Codec.Callback} events: every input slot handed out by the codec is
+ * filled from the {@link SampleSource} straight away, and every output buffer is passed to the
+ * {@link OutputSink}.  All callbacks must arrive on a single thread.
+ * <p>
+ * A codec in synchronous mode can run the same engine through a {@link SyncCodecDriver}, which
+ * polls the codec and turns what it finds into these events.
+ * <p>
+ * When looping, the source is rewound as soon as it runs out and its timestamps continue
+ * through a {@link LoopTimeline}, so the codec never sees end of stream and is never flushed
+ * at the loop boundary.
+ * <p>
+ * For fast scanning the engine can feed sync samples only ({@link #setKeyframesOnly}), skipping
+ * the samples in between without decoding them.
+ */
+public class AsyncDecodeEngine implements Codec.Callback {
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_INPUT_DONE = 2;
+    public static final int STATE_FINISHED = 3;
+    public static final int STATE_ERROR = 4;
+
+    /**
+     * Receives decoded buffers.  Called on the codec callback thread.
+     */
+    public interface OutputSink {
+
+        /**
+         * The sink owns the buffer and must hand it back with one of the
+         * {@code releaseOutputBuffer} calls.
+         */
+        void onOutputBuffer(Codec codec, int index, long presentationTimeUs, int size, int flags);
+
+        /**
+         * The source was rewound; the samples that follow belong to the next iteration.
+         */
+        void onLoopReset();
+
+        /**
+         * Playback reached the end of the stream, or failed when {@code error} is non-null.
+         */
+        void onFinished(Exception error);
+
+    }
+
+    private final Codec mCodec;
+    private final SampleSource mSource;
+    private final OutputSink mSink;
+    private final DecodeMetrics mMetrics;
+    private final QueueLatencyTracker mLatency = new QueueLatencyTracker();
+    private PlaybackStats mStats;
+    private LoopTimeline mLoop;
+    private int mState = STATE_IDLE;
+    private long mSkipUntilUs = -1;
+    private long mLastSampleTimeUs = -1;
+    private int mInFlight;
+    private boolean mSynchronous;
+    private boolean mKeyframesOnly;
+    private long mSkippedSamples;
+
+    public AsyncDecodeEngine(Codec codec, SampleSource source, OutputSink sink, DecodeMetrics metrics) {
+        this.mCodec = codec;
+        this.mSource = source;
+        this.mSink = sink;
+        this.mMetrics = metrics;
+    }
+
+    /**
+     * Loops playback on {@code timeline}, or plays once when null.
+     */
+    public void setLoop(LoopTimeline timeline) {
+        this.mLoop = timeline;
+    }
+
+    /**
+     * Records how long each frame took from queued to out of the codec in {@code stats}, or
+     * nothing when null.
+     */
+    public void setStats(PlaybackStats stats) {
+        this.mStats = stats;
+    }
+
+    /**
+     * Marks the codec as polled by a {@link SyncCodecDriver} rather than calling back: it does
+     * not need restarting after a flush, and the driver counts the wakeups.
+     */
+    void setSynchronous(boolean synchronous) {
+        this.mSynchronous = synchronous;
+    }
+
+    /**
+     * Feeds only sync samples when true.  Turning it off must be followed by a {@link #seekTo} to
+     * a keyframe, since the samples that follow may refer to the ones skipped.
+     */
+    public void setKeyframesOnly(boolean keyframesOnly) {
+        this.mKeyframesOnly = keyframesOnly;
+    }
+
+    /**
+     * @return the number of samples passed over while feeding keyframes only.
+     */
+    public long getSkippedSamples() {
+        return mSkippedSamples;
+    }
+
+    /**
+     * Starts the codec.  {@link Codec#setCallback} must already point at this engine, unless a
+     * {@link SyncCodecDriver} drives it.
+     */
+    public void start() {
+        mMetrics.start(System.nanoTime());
+        mState = STATE_RUNNING;
+        mCodec.start();
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public DecodeMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return the source time of the last sample queued, before any loop offset, or -1.
+     */
+    public long getLastSampleTimeUs() {
+        return mLastSampleTimeUs;
+    }
+
+    /**
+     * Frames before {@code timeUs} are decoded but not passed to the sink, for an exact seek
+     * that can be reached without repositioning the source.
+     */
+    public void skipUntil(long timeUs) {
+        mSkipUntilUs = timeUs;
+    }
+
+    /**
+     * @return samples queued to the codec that have not come out yet.  Approximate: a codec
+     * may swallow a sample without producing output for it.
+     */
+    public int getInFlight() {
+        return mInFlight;
+    }
+
+    private void wakeup() {
+        if (!mSynchronous) {
+            mMetrics.onWakeup();
+        }
+    }
+
+    @Override
+    public void onInputBufferAvailable(int index) {
+        wakeup();
+        if (mState != STATE_RUNNING) {
+            return;
+        }
+        if (mKeyframesOnly) {
+            skipToSyncSample();
+        }
+        ByteBuffer inputBuffer = mCodec.getInputBuffer(index);
+        int chunkSize = mSource.readSampleData(inputBuffer, 0);
+        if (chunkSize < 0 && mLoop != null && mLoop.onWrap()) {
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_LOOP, mLoop.getIterations(), 0);
+            mSource.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            mSink.onLoopReset();
+            chunkSize = mSource.readSampleData(inputBuffer, 0);
+        }
+        if (chunkSize < 0) {
+            mCodec.queueInputBuffer(index, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_INPUT_EOS, index, 0);
+            mState = STATE_INPUT_DONE;
+        } else {
+            mLastSampleTimeUs = mSource.getSampleTime();
+            long presentationTimeUs = mLastSampleTimeUs;
+            if (mLoop != null) {
+                presentationTimeUs = mLoop.map(presentationTimeUs);
+            }
+            mCodec.queueInputBuffer(index, 0, chunkSize, presentationTimeUs, 0);
+            mInFlight++;
+            if (mStats != null) {
+                mLatency.onQueued(presentationTimeUs, System.nanoTime());
+            }
+            EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_INPUT_QUEUED, presentationTimeUs, chunkSize);
+            mSource.advance();
+        }
+    }
+
+    /**
+     * Advances the source to the next sync sample, or to its end.
+     */
+    private void skipToSyncSample() {
+        while (mSource.getSampleTime() >= 0 && (mSource.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) == 0) {
+            mSource.advance();
+            mSkippedSamples++;
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags) {
+        wakeup();
+        if (mState == STATE_FINISHED || mState == STATE_ERROR) {
+            mCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+        if (size != 0 && mInFlight > 0) {
+            mInFlight--;
+        }
+        if (size != 0 && mStats != null) {
+            long latencyNs = mLatency.onOutput(presentationTimeUs, System.nanoTime());
+            if (latencyNs >= 0) {
+                mStats.onDecodeLatency(latencyNs / 1000);
+            }
+        }
+        if (presentationTimeUs < mSkipUntilUs && (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == 0) {
+            // decoding up to an exact seek target
+            mCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+        mSkipUntilUs = -1;
+        EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_OUTPUT_BUFFER, index, size);
+        mSink.onOutputBuffer(mCodec, index, presentationTimeUs, size, flags);
+        if (size != 0) {
+            mMetrics.onFrameRendered(System.nanoTime());
+        }
+        if ((flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_OUTPUT_EOS, index, 0);
+            mState = STATE_FINISHED;
+            mSink.onFinished(null);
+        }
+    }
+
+    @Override
+    public void onOutputFormatChanged() {
+        wakeup();
+    }
+
+    @Override
+    public void onError(Exception e) {
+        wakeup();
+        if (mState == STATE_FINISHED || mState == STATE_ERROR) {
+            return;
+        }
+        mState = STATE_ERROR;
+        mSink.onFinished(e);
+    }
+
+    /**
+     * Repositions the source and flushes the codec.  Must be called on the callback thread.
+     *
+     * @param sourceTimeUs where to position the source, normally a keyframe.
+     * @param mode         MediaExtractor seek mode for the source.
+     * @param skipUntilUs  frames before this are decoded but not passed to the sink, or -1.
+     */
+    public void seekTo(long sourceTimeUs, int mode, long skipUntilUs) {
+        if (mState == STATE_FINISHED || mState == STATE_ERROR) {
+            return;
+        }
+        mSource.seekTo(sourceTimeUs, mode);
+        mCodec.flush();
+        if (mLoop != null) {
+            mLoop.reset();
+        }
+        mSkipUntilUs = skipUntilUs;
+        mLastSampleTimeUs = -1;
+        mInFlight = 0;
+        mLatency.clear();
+        mState = STATE_RUNNING;
+        if (!mSynchronous) {
+            mCodec.start();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Sizes the buffer of an audio track to the load on the device: as small as playback allows
+ * without glitches, for the least latency.
+ * <p>
+ * The buffer starts at a low-latency size and grows when the track underruns, or nearly does:
+ * when the writer, having filled the buffer, comes back later than {@link #NEAR_MISS_PERCENT}
+ * of the buffer's duration.  A write that blocks means the buffer was full, which is where it
+ * should be.  Once the track has played through a quiet period without trouble, the buffer
+ * shrinks a step, and again after each further quiet period.  A glitch soon after a shrink
+ * doubles the quiet period wanted before the next one, so a device with recurring load spikes
+ * settles at a size that covers them instead of going back and forth.
+ * <p>
+ * {@link #onWriteStart} and {@link #onWriteEnd} are called around every write on the output
+ * thread; the latency may be read and {@link #restart} called from any thread.
+ */
+public class AudioBufferController {
+
+    public static final int NEAR_MISS_PERCENT = 75;
+    public static final long DEFAULT_QUIET_MS = 5000;
+    public static final long MAX_QUIET_MS = 80000;
+
+    // a write taking longer than this waited for room in the buffer
+    private static final long BLOCKED_NS = 1000000L;
+    private static final int SHRINK_PERCENT = 25;
+
+    /**
+     * The buffer of an audio output, as seen by the controller.
+     */
+    public interface Track {
+
+        /**
+         * @return how many times the track has run out of audio, counting up.
+         */
+        int getUnderrunCount();
+
+        /**
+         * Sets how much of the buffer is used.
+         *
+         * @return the size set, which the track may have rounded or clamped.
+         */
+        int setBufferSizeInFrames(int frames);
+
+        /**
+         * @return the largest buffer size the track allows.
+         */
+        int getBufferCapacityInFrames();
+
+        int getSampleRate();
+
+    }
+
+    private final Track mTrack;
+    private final NanoClock mClock;
+    private final int mMinFrames;
+    private final int mMaxFrames;
+    private final int mSampleRate;
+    private volatile int mSizeFrames;
+    private volatile boolean mRestartRequested = true;
+    private volatile int mGrowths;
+    private volatile int mShrinks;
+
+    // output thread only
+    private int mUnderruns;
+    private long mWriteStartNs;
+    private long mLastWriteEndNs;
+    private boolean mLastWriteBlocked;
+    private boolean mNearMiss;
+    private long mQuietSinceNs;
+    private long mQuietNs = DEFAULT_QUIET_MS * 1000000L;
+    private long mShrunkAtNs = -1;
+
+    /**
+     * Sets the buffer of {@code track} to {@code minFrames} to start with.
+     *
+     * @param minFrames the low-latency size the buffer starts at and never goes below.
+     * @param maxFrames the most the buffer may grow to, within the track's capacity.
+     */
+    public AudioBufferController(Track track, int minFrames, int maxFrames, NanoClock clock) {
+        if (minFrames <= 0 || maxFrames < minFrames) {
+            throw new IllegalArgumentException("buffer " + minFrames + " to " + maxFrames + " frames");
+        }
+        mTrack = track;
+        mClock = clock;
+        mMinFrames = minFrames;
+        mMaxFrames = Math.min(maxFrames, Math.max(minFrames, track.getBufferCapacityInFrames()));
+        mSampleRate = track.getSampleRate();
+        mSizeFrames = track.setBufferSizeInFrames(minFrames);
+    }
+
+    /**
+     * @return the buffer size in use.
+     */
+    public int getBufferSizeFrames() {
+        return mSizeFrames;
+    }
+
+    /**
+     * @return how long audio written now takes to get through the buffer when it is full, in
+     * microseconds: the delay between writing and playing that the buffer adds.
+     */
+    public long getLatencyUs() {
+        return mSizeFrames * 1000000L / mSampleRate;
+    }
+
+    /**
+     * @return how many times the buffer grew.
+     */
+    public int getGrowths() {
+        return mGrowths;
+    }
+
+    /**
+     * @return how many times the buffer shrank.
+     */
+    public int getShrinks() {
+        return mShrinks;
+    }
+
+    /**
+     * The output stopped and starts again, after a pause, seek or flush: the gap before the
+     * next write and any underrun while stopped are not the device's fault.
+     */
+    public void restart() {
+        mRestartRequested = true;
+    }
+
+    /**
+     * Called on the output thread just before writing to the track.
+     */
+    public void onWriteStart() {
+        long nowNs = mClock.nanoTime();
+        mWriteStartNs = nowNs;
+        // the buffer was full when the last write returned and has nearly run out since
+        mNearMiss = !mRestartRequested && mLastWriteBlocked
+                && (nowNs - mLastWriteEndNs) * 100 > durationNs(mSizeFrames) * NEAR_MISS_PERCENT;
+    }
+
+    /**
+     * Called on the output thread once a write to the track returns.
+     */
+    public void onWriteEnd() {
+        long nowNs = mClock.nanoTime();
+        mLastWriteEndNs = nowNs;
+        mLastWriteBlocked = nowNs - mWriteStartNs >= BLOCKED_NS;
+        int underruns = mTrack.getUnderrunCount();
+        if (mRestartRequested) {
+            mRestartRequested = false;
+            mUnderruns = underruns;
+            mQuietSinceNs = nowNs;
+            return;
+        }
+        if (underruns != mUnderruns) {
+            mUnderruns = underruns;
+            grow(mSizeFrames * 2, nowNs);
+        } else if (mNearMiss) {
+            grow(mSizeFrames + mSizeFrames / 2, nowNs);
+        } else if (nowNs - mQuietSinceNs >= mQuietNs && mSizeFrames > mMinFrames) {
+            shrink(nowNs);
+        }
+    }
+
+    private void grow(int frames, long nowNs) {
+        if (mShrunkAtNs >= 0 && nowNs - mShrunkAtNs < mQuietNs) {
+            // the last shrink went too far: wait longer before the next one
+            mQuietNs = Math.min(mQuietNs * 2, MAX_QUIET_MS * 1000000L);
+        }
+        mShrunkAtNs = -1;
+        mQuietSinceNs = nowNs;
+        int size = Math.min(frames, mMaxFrames);
+        if (size > mSizeFrames) {
+            mSizeFrames = mTrack.setBufferSizeInFrames(size);
+            mGrowths++;
+        }
+    }
+
+    private void shrink(long nowNs) {
+        int size = Math.max(mMinFrames, mSizeFrames - mSizeFrames * SHRINK_PERCENT / 100);
+        mSizeFrames = mTrack.setBufferSizeInFrames(size);
+        mShrinks++;
+        mShrunkAtNs = nowNs;
+        mQuietSinceNs = nowNs;
+    }
+
+    private long durationNs(int frames) {
+        return frames * 1000000000L / mSampleRate;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Position reports of an audio output, as seen by {@link MasterClock}.
+ */
+public interface AudioClockSource {
+
+    /**
+     * Reads the latest hardware timestamp.
+     *
+     * @param out receives the frame position in {@code out[0]} and the {@link System#nanoTime()}
+     *            at which that frame was presented in {@code out[1]}.
+     * @return false if no timestamp is available yet.
+     */
+    boolean getTimestamp(long[] out);
+
+    /**
+     * @return the number of frames played, as an unsigned 32-bit value that may wrap.
+     */
+    int getPlaybackHeadPosition();
+
+    int getSampleRate();
+
+}
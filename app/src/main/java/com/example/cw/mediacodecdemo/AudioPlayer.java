@@ -4,54 +4,151 @@ import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.media.MediaCodec;
-import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AudioPlayer implements MediaTimeProvider{
 
     private static final String TAG = "AudioPlayer";
+    private static final int DEFAULT_RING_DEPTH_MS = 200;
+    // the most the track's buffer may grow to under load
+    private static final int MAX_TRACK_BUFFER_MS = 250;
 
     private File mFileSource;
-    private MediaExtractor mMediaExtractor;
+    private SampleSource mSampleSource;
+    private MediaFormat mMediaFormat;
     private MediaCodec mAudioCodec;
     private MediaCodec.BufferInfo mBufferInfo;
     private int trackIndex;
-    private AudioTrack mAudioTrack;
-    private boolean mIsRequestPaused;
+    // played, stopped and released by the decode thread; paused and resumed from others
+    private final AudioTrack mAudioTrack;
+    private final Object mTrackLock = new Object();
+    // guarded by mTrackLock
+    private boolean mTrackReleased;
+    private final int mChannelCount;
+    private final int mSampleRate;
+    private PcmWriter mPcmWriter;
+    private AudioBufferController mBufferController;
+    private volatile AudioRenderThread mRenderThread;
+    private final MasterClock mMasterClock = new MasterClock(NanoClock.SYSTEM);
+    private int mRingDepthMs = DEFAULT_RING_DEPTH_MS;
+    private volatile boolean mIsRequestPaused;
+    private boolean mLoop;
+    private long mLoopPeriodUs;
+    private Demuxer mDemuxer;
+    private QueueSampleSource mQueueSource;
+    private final AtomicLong mPendingSeekUs = new AtomicLong(-1);
+    // decode thread only
+    private final SampleContinuity mContinuity = new SampleContinuity();
+    private boolean mRebasePending;
+    private boolean mOutputDone;
+    private int mInFlight;
+    private final DecodeMetrics mDecodeMetrics = new DecodeMetrics();
+    private final PlaybackStats mStats = new PlaybackStats();
+    private final QueueLatencyTracker mLatency = new QueueLatencyTracker();
+    private final PauseGate mPauseGate = new PauseGate();
+    private StartupMetrics mStartupMetrics;
+    private boolean mFirstAudioWritten;
+    //speed
+    private volatile float mRequestedRate = 1f;
+    // decode thread only
+    private float mRate = 1f;
+    private boolean mMuted;
+    private TimeStretcher mStretcher;
+    private ByteBuffer mStretchedPcm;
+    //effects
+    private DspChain mDspChain;
+    private ByteBuffer mProcessedPcm;
 
     public AudioPlayer(File mFileSource) {
         this.mFileSource = mFileSource;
         mBufferInfo = new MediaCodec.BufferInfo();
+        MediaExtractor extractor = new MediaExtractor();
         try {
-            mMediaExtractor = new MediaExtractor();
-            mMediaExtractor.setDataSource(mFileSource.toString());
-            trackIndex = selectTrack(mMediaExtractor);
-            if (trackIndex < 0){
-                throw new RuntimeException("could not find audio track index\n");
-            }
-            mMediaExtractor.selectTrack(trackIndex);
-            MediaFormat mediaFormat = mMediaExtractor.getTrackFormat(trackIndex);
-            int audioChannels = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-            int audioSampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-            int minBufferSize = AudioTrack.getMinBufferSize(audioSampleRate, audioChannels==1?AudioFormat.CHANNEL_OUT_MONO:AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
-            mAudioTrack = new AudioTrack(
-                    AudioManager.STREAM_MUSIC,
-                    audioSampleRate,
-                    audioChannels==1?AudioFormat.CHANNEL_OUT_MONO:AudioFormat.CHANNEL_OUT_STEREO,
-                    AudioFormat.ENCODING_PCM_16BIT,
-                    minBufferSize,
-                    AudioTrack.MODE_STREAM
-            );
+            extractor.setDataSource(mFileSource.toString());
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("could not open audio file", e);
         }
+        trackIndex = selectTrack(extractor);
+        if (trackIndex < 0){
+            throw new RuntimeException("could not find audio track index\n");
+        }
+        extractor.selectTrack(trackIndex);
+        mSampleSource = new ExtractorSampleSource(extractor);
+        MediaFormat format = extractor.getTrackFormat(trackIndex);
+        mChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mAudioTrack = createTrack(mSampleRate, mChannelCount);
+        initFormat(format);
+        mLoopPeriodUs = Demuxer.durationOf(extractor);
+    }
+
+    /**
+     * Plays the audio track of a demuxer shared with the video player.
+     */
+    public AudioPlayer(Demuxer demuxer) {
+        mBufferInfo = new MediaCodec.BufferInfo();
+        trackIndex = demuxer.getAudioTrackIndex();
+        if (trackIndex < 0){
+            throw new RuntimeException("could not find audio track index\n");
+        }
+        mDemuxer = demuxer;
+        mQueueSource = demuxer.getAudioSource();
+        mSampleSource = mQueueSource;
+        MediaFormat format = demuxer.getAudioFormat();
+        mChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mAudioTrack = createTrack(mSampleRate, mChannelCount);
+        initFormat(format);
+    }
+
+    private static AudioTrack createTrack(int audioSampleRate, int audioChannels){
+        int minBufferSize = minBufferSize(audioSampleRate, audioChannels);
+        // where the buffer can be resized, allocate room to grow and start small
+        boolean adaptive = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        return new AudioTrack(
+                AudioManager.STREAM_MUSIC,
+                audioSampleRate,
+                channelConfig(audioChannels),
+                AudioFormat.ENCODING_PCM_16BIT,
+                adaptive ? maxBufferSize(audioSampleRate, audioChannels, minBufferSize) : minBufferSize,
+                AudioTrack.MODE_STREAM
+        );
+    }
+
+    private static int minBufferSize(int sampleRate, int channels){
+        return AudioTrack.getMinBufferSize(sampleRate, channelConfig(channels), AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    private static int channelConfig(int channels){
+        return channels==1?AudioFormat.CHANNEL_OUT_MONO:AudioFormat.CHANNEL_OUT_STEREO;
+    }
+
+    private static int maxBufferSize(int sampleRate, int channels, int minBufferSize){
+        return Math.max(minBufferSize, sampleRate * MAX_TRACK_BUFFER_MS / 1000 * channels * 2);
+    }
+
+    private void initFormat(MediaFormat mediaFormat){
+        mMediaFormat = mediaFormat;
+        int minBufferSize = minBufferSize(mSampleRate, mChannelCount);
+        int maxBufferSize = maxBufferSize(mSampleRate, mChannelCount, minBufferSize);
+        int frameSize = mChannelCount * 2;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N){
+            mBufferController = new AudioBufferController(new AudioTrackBuffer(mAudioTrack),
+                    minBufferSize / frameSize, maxBufferSize / frameSize, NanoClock.SYSTEM);
+        }
+        mDspChain = new DspChain(mSampleRate, mChannelCount);
+        mProcessedPcm = ByteBuffer.allocateDirect(mDspChain.getBlockFrames() * frameSize)
+                .order(ByteOrder.nativeOrder());
     }
 
     private int selectTrack(MediaExtractor extractor){
@@ -68,86 +165,489 @@ public class AudioPlayer implements MediaTimeProvider{
     }
 
     private void play() throws IOException{
-        if (!mFileSource.canRead()){
-            throw new FileNotFoundException("can not read audio file!");
+        boolean completed = false;
+        try {
+            if (mFileSource != null && !mFileSource.canRead()){
+                throw new FileNotFoundException("can not read audio file!");
+            }
+            mAudioTrack.play();
+            mMasterClock.setAudioSource(new AudioTrackClockSource(mAudioTrack));
+            mMasterClock.start();
+            startOutput();
+            prepareDecoder();
+            try {
+                mAudioCodec.start();
+            } catch (RuntimeException e) {
+                CodecManager.get().discard(mAudioCodec);
+                mAudioCodec = null;
+                throw e;
+            }
+            doExtract(mSampleSource, mAudioCodec, trackIndex);
+            completed = true;
+        } finally {
+            releaseOutput(completed);
         }
-        mAudioTrack.play();
-        MediaFormat mediaFormat = mMediaExtractor.getTrackFormat(trackIndex);
-        String mime = mediaFormat.getString(MediaFormat.KEY_MIME);
-        String codecName = new MediaCodecList(MediaCodecList.ALL_CODECS).findDecoderForFormat(mediaFormat);
-        if (codecName == null){
-            Log.d(TAG, "play: " + " can bot find suitable audio codec!");
+    }
+
+    /**
+     * Called on the decode thread once it is done with the track.  Lets the output thread play
+     * out what is left in the ring after a complete playback, drops it otherwise, then stops
+     * and releases the track.
+     */
+    private void releaseOutput(boolean drain){
+        AudioRenderThread renderThread = mRenderThread;
+        if (renderThread != null){
+            if (drain && !mIsRequestPaused){
+                renderThread.finish();
+            }else {
+                renderThread.requestStop();
+            }
+            try {
+                renderThread.join();
+            } catch (InterruptedException e) {
+                renderThread.requestStop();
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the clock carries on by itself from where the track stopped
+        mMasterClock.setAudioSource(null);
+        releaseTrack();
+    }
+
+    private void releaseTrack(){
+        synchronized (mTrackLock){
+            if (mTrackReleased){
+                return;
+            }
+            mTrackReleased = true;
+            mAudioTrack.stop();
+            mAudioTrack.release();
+        }
+    }
+
+    /**
+     * Creates and configures the decoder ahead of {@link #play}, so that starting playback only
+     * has to start it.  Hand it back with {@link #releaseDecoder} if playback never starts.
+     */
+    public void prepareDecoder() throws IOException{
+        if (mAudioCodec != null){
+            return;
+        }
+        MediaCodec codec = CodecManager.get().acquireDecoder(mMediaFormat);
+        try {
+            codec.configure(mMediaFormat, null, null, 0);
+        } catch (RuntimeException e) {
+            CodecManager.get().discard(codec);
+            throw e;
         }
-        mAudioCodec = MediaCodec.createDecoderByType(mime);
-        mAudioCodec.configure(mediaFormat, null, null, 0);
-        mAudioCodec.start();
-        doExtract(mMediaExtractor, mAudioCodec, trackIndex);
+        mAudioCodec = codec;
     }
 
-    private void doExtract(MediaExtractor extractor, MediaCodec decoder, int trackIndex){
+    /**
+     * Returns a decoder created by {@link #prepareDecoder}, and releases the track, when
+     * playback never started.
+     */
+    public void releaseDecoder(){
+        MediaCodec codec = mAudioCodec;
+        mAudioCodec = null;
+        if (codec != null){
+            CodecManager.get().recycle(codec);
+        }
+        releaseTrack();
+    }
+
+    /**
+     * Reports the first audio handed to the output to {@code startupMetrics}.  Must be set
+     * before playback starts.
+     */
+    public void setStartupMetrics(StartupMetrics startupMetrics){
+        this.mStartupMetrics = startupMetrics;
+    }
+
+    private void startOutput(){
+        if (mRingDepthMs > 0){
+            mRenderThread = new AudioRenderThread(mAudioTrack,
+                    PcmRingBuffer.forDuration(mRingDepthMs, mSampleRate, mChannelCount),
+                    mMasterClock);
+            mRenderThread.setPauseGate(mPauseGate);
+            mRenderThread.setStats(mStats);
+            mRenderThread.setBufferController(mBufferController);
+            mPcmWriter = new PcmWriter(mRenderThread);
+            mRenderThread.start();
+        }else {
+            mPcmWriter = new PcmWriter(new AudioTrackSink(mAudioTrack, mBufferController));
+        }
+        if (mBufferController != null){
+            mBufferController.restart();
+        }
+    }
+
+    /**
+     * The next sample does not follow on from the last one, because this player or the video
+     * player sharing its demuxer seeked.  Drops everything decoded or queued for output so far
+     * and freezes the clock until the first buffer at the new position sets it.
+     */
+    private void onDiscontinuity(MediaCodec decoder, long sampleTimeUs){
+        Log.d(TAG, "discontinuity: " + mContinuity.getLastTimeUs() + " -> " + sampleTimeUs);
+        decoder.flush();
+        mMasterClock.pause();
+        stopOutput();
+        // a pause that came in meanwhile is left in place: resume() plays the track again
+        synchronized (mTrackLock){
+            if (!mTrackReleased && !mPauseGate.isPaused()){
+                mAudioTrack.play();
+            }
+        }
+        startOutput();
+        mRebasePending = true;
+        mInFlight = 0;
+        mLatency.clear();
+    }
+
+    /**
+     * Stops the output thread and drops the audio queued for output and in the track.
+     */
+    private void stopOutput(){
+        AudioRenderThread renderThread = mRenderThread;
+        if (renderThread != null){
+            renderThread.requestStop();
+            try {
+                renderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (mTrackLock){
+            if (!mTrackReleased){
+                mAudioTrack.pause();
+                mAudioTrack.flush();
+            }
+        }
+        if (mStretcher != null){
+            mStretcher.clear();
+        }
+        mDspChain.reset();
+    }
+
+    /**
+     * Switches to the playback rate requested last, if it changed.  Up to
+     * {@link TimeStretcher#MAX_RATE} the audio is time-stretched and the clock told from which
+     * frame on the track plays at the new rate.  Faster, the audio is muted: decoding stops, the
+     * output is dropped and the clock runs on by itself at the rate, for the video to scan
+     * against.
+     *
+     * @return true if the decoder was flushed, so input has to be fed again.
+     */
+    private boolean applyRate(MediaCodec decoder){
+        float rate = mRequestedRate;
+        if (rate == mRate){
+            return false;
+        }
+        mRate = rate;
+        boolean mute = rate > TimeStretcher.MAX_RATE;
+        if (mute){
+            if (!mMuted){
+                Log.d(TAG, "muted at rate " + rate);
+                mMuted = true;
+                decoder.flush();
+                mInFlight = 0;
+                mLatency.clear();
+                stopOutput();
+                // the clock carries on from the audio played so far
+                mMasterClock.setAudioSource(null);
+            }
+            mMasterClock.setRate(rate, 0);
+            return true;
+        }
+        if (mStretcher == null){
+            mStretcher = new TimeStretcher(mSampleRate, mChannelCount);
+            mStretchedPcm = ByteBuffer.allocateDirect(mStretcher.getSequenceFrames() * mChannelCount * 2)
+                    .order(ByteOrder.nativeOrder());
+        }
+        mStretcher.setRate(rate);
+        if (mMuted){
+            Log.d(TAG, "unmuted at rate " + rate);
+            mMuted = false;
+            mMasterClock.setAudioSource(new AudioTrackClockSource(mAudioTrack));
+            // restarts the output; the clock is set again by the first buffer
+            onDiscontinuity(decoder, mContinuity.getLastTimeUs());
+            mMasterClock.setRate(rate, 0);
+            return true;
+        }
+        long framesWritten = mPcmWriter.getBytesWritten() / (2 * mChannelCount);
+        mMasterClock.setRate(rate, framesWritten);
+        return false;
+    }
+
+    /**
+     * While muted, keeps the source level with the clock, passing over the samples it has
+     * reached without decoding them.  A seek, by this player or the video player sharing its
+     * demuxer, moves the clock to the first sample at the new position.
+     */
+    private void skipMuted(SampleSource extractor, LoopTimeline loop){
+        long clockUs = mMasterClock.getAudioTimeUs();
+        while (!mIsRequestPaused){
+            long sourceTimeUs = extractor.getSampleTime();
+            if (sourceTimeUs < 0){
+                if (loop != null && loop.onWrap()){
+                    extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                    mContinuity.reset();
+                    continue;
+                }
+                break;
+            }
+            long timeUs = loop != null ? loop.map(sourceTimeUs) : sourceTimeUs;
+            if (mRebasePending || isDiscontinuity()){
+                mMasterClock.rebase(timeUs);
+                clockUs = timeUs;
+                mRebasePending = false;
+            }
+            onInput(sourceTimeUs);
+            if (timeUs > clockUs){
+                break;
+            }
+            extractor.advance();
+        }
+    }
+
+    /**
+     * @return true if the video player sharing the demuxer seeked since the last sample taken.
+     * This player's own seeks are handled where they are taken.
+     */
+    private boolean isDiscontinuity(){
+        return mContinuity.isDiscontinuity(sampleSerial());
+    }
+
+    /**
+     * Remembers the sample at the read position as the last one taken, before advancing past it.
+     */
+    private void onInput(long sourceTimeUs){
+        mContinuity.onTaken(sourceTimeUs, sampleSerial());
+    }
+
+    private int sampleSerial(){
+        return mQueueSource != null ? mQueueSource.getSampleSerial() : 0;
+    }
+
+    private void doExtract(SampleSource extractor, MediaCodec decoder, int trackIndex){
         final int TIMEOUT_USEC = 10000;
         boolean inputDone = false;
         boolean outputDone = false;
         long startMs = System.currentTimeMillis();
-        while (!outputDone){
-            if (mIsRequestPaused){
-                return;
-            }
-            if (!inputDone){
-                int inputBufferIndex = decoder.dequeueInputBuffer(TIMEOUT_USEC);
-                if (inputBufferIndex > 0){
+        mOutputDone = false;
+        mInFlight = 0;
+        mDecodeMetrics.start(System.nanoTime());
+        LoopTimeline loop = mLoop && mDemuxer == null ? new LoopTimeline(mLoopPeriodUs) : null;
+        boolean completed = false;
+        try {
+            while (!outputDone){
+                if (mIsRequestPaused){
+                    break;
+                }
+                if (mPauseGate.isPaused() && mPauseGate.awaitResume()){
+                    // the codec, source position and ring are as they were; carry on
+                    mDecodeMetrics.onResume(mPauseGate.getResumeRequestNs());
+                    continue;
+                }
+                if (applyRate(decoder)){
+                    inputDone = false;
+                }
+                long seekUs = mPendingSeekUs.getAndSet(-1);
+                if (seekUs >= 0){
+                    extractor.seekTo(seekUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    inputDone = false;
+                    if (loop != null){
+                        loop.reset();
+                    }
+                    // however short the jump, audio decoded before it must not play and the
+                    // clock has to move with it
+                    if (mMuted){
+                        mRebasePending = true;
+                    }else {
+                        onDiscontinuity(decoder, seekUs);
+                    }
+                    mContinuity.reset();
+                }
+                if (mMuted){
+                    skipMuted(extractor, loop);
+                    try {
+                        Thread.sleep(TIMEOUT_USEC / 1000);
+                    } catch (InterruptedException e) {
+                        // not a stop that was asked for: the codec is not handed on
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                // fill every free input slot, then take every ready output, and only wait on the
+                // codec when neither side had anything to do
+                int queued = 0;
+                while (!inputDone){
+                    int inputBufferIndex = decoder.dequeueInputBuffer(0);
+                    if (inputBufferIndex < 0){
+                        EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_INPUT_UNAVAILABLE, trackIndex, 0);
+                        break;
+                    }
+                    long sampleTimeUs = extractor.getSampleTime();
+                    if (sampleTimeUs >= 0 && isDiscontinuity()){
+                        // the flush takes back the slot just dequeued
+                        onDiscontinuity(decoder, sampleTimeUs);
+                        mContinuity.reset();
+                        continue;
+                    }
                     ByteBuffer byteBuffer = decoder.getInputBuffer(inputBufferIndex);
                     int chunkSize = extractor.readSampleData(byteBuffer, 0);
+                    if (chunkSize < 0 && loop != null && loop.onWrap()){
+                        // rewind without end of stream; the samples that follow are not a discontinuity
+                        EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_LOOP, trackIndex, 0);
+                        extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                        mContinuity.reset();
+                        chunkSize = extractor.readSampleData(byteBuffer, 0);
+                    }
                     if (chunkSize <0){
                         //end of stream
                         decoder.queueInputBuffer(inputBufferIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
                         inputDone = true;
-                        Log.d(TAG, "doExtract: input done");
+                        EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_INPUT_EOS, trackIndex, 0);
                     }else {
-                        long presentationTimeUs = extractor.getSampleTime();
+                        long sourceTimeUs = extractor.getSampleTime();
+                        long presentationTimeUs = loop != null ? loop.map(sourceTimeUs) : sourceTimeUs;
                         decoder.queueInputBuffer(inputBufferIndex, 0 ,chunkSize, presentationTimeUs, 0);
+                        mLatency.onQueued(presentationTimeUs, System.nanoTime());
+                        onInput(sourceTimeUs);
+                        mInFlight++;
                         extractor.advance();
                     }
-                }else {
-                    Log.d(TAG, "doExtract: input buffer index not available" );
+                    queued++;
                 }
-            }
-
-            if (!outputDone){
-                int decoderStatus = decoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-                if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER){
-
-                }else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED){
 
-                }else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED){
+                int drained = drainOutput(decoder, trackIndex, 0);
+                boolean blocked = false;
+                if (queued == 0 && drained == 0 && !mOutputDone){
+                    blocked = true;
+                    drained = drainOutput(decoder, trackIndex, TIMEOUT_USEC);
+                }
+                outputDone = mOutputDone;
+                mDecodeMetrics.onWakeup();
+                mDecodeMetrics.onIteration(queued, drained, mInFlight, blocked);
+            }
+            completed = true;
+        } finally {
+            Log.d(TAG, "doExtract: " + mDecodeMetrics + " stats: " + mStats.snapshot());
+            // a codec left by a throw or an interrupt may be in any state: do not hand it to the
+            // next player
+            if (!completed){
+                CodecManager.get().discard(mAudioCodec);
+            }else {
+                CodecManager.get().recycle(mAudioCodec);
+            }
+            mAudioCodec = null;
+            mSampleSource.release();
+        }
+    }
 
-                }else if (decoderStatus <0){
+    /**
+     * Takes every output buffer the decoder has ready and writes it to the track.
+     *
+     * @param firstTimeoutUs how long to wait for the first buffer.
+     * @return the number of buffers taken.
+     */
+    private int drainOutput(MediaCodec decoder, int trackIndex, long firstTimeoutUs){
+        int drained = 0;
+        long timeoutUs = firstTimeoutUs;
+        while (!mOutputDone){
+            int decoderStatus = decoder.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+            timeoutUs = 0;
+            if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER){
+                break;
+            }else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED){
 
-                }else {
-                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) !=0){
-                        Log.d(TAG, "output EOS");
-                        outputDone = true;
+            }else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED){
+                Log.d(TAG, "decoder output format changed: " + decoder.getOutputFormat());
+            }else if (decoderStatus <0){
+                break;
+            }else {
+                drained++;
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) !=0){
+                    EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_OUTPUT_EOS, trackIndex, 0);
+                    mOutputDone = true;
+                }
+                ByteBuffer byteBuffer = decoder.getOutputBuffer(decoderStatus);
+//                decodeDelay(mBufferInfo, startMs);
+                // 如果解码成功，则将解码后的音频PCM数据用AudioTrack播放出来
+                if (mBufferInfo.size > 0) {
+                    if (mInFlight > 0){
+                        mInFlight--;
+                    }
+                    long latencyNs = mLatency.onOutput(mBufferInfo.presentationTimeUs, System.nanoTime());
+                    if (latencyNs >= 0){
+                        mStats.onDecodeLatency(latencyNs / 1000);
+                    }
+                    if (mRebasePending){
+                        mMasterClock.rebase(mBufferInfo.presentationTimeUs);
+                        mRebasePending = false;
+                    }
+                    if (mStretcher != null && !mStretcher.isIdle()){
+                        writeStretched(byteBuffer, mBufferInfo.offset, mBufferInfo.size);
+                    }else {
+                        writePcm(byteBuffer, mBufferInfo.offset, mBufferInfo.size);
                     }
-                    ByteBuffer byteBuffer = decoder.getOutputBuffer(decoderStatus);
-//                    decodeDelay(mBufferInfo, startMs);
-                    // 如果解码成功，则将解码后的音频PCM数据用AudioTrack播放出来
-                    byte[] mAudioOutTempBuf;
-                    if (mBufferInfo.size > 0) {
-                        mAudioOutTempBuf = new byte[mBufferInfo.size];
-                        byteBuffer.position(0);
-                        byteBuffer.get(mAudioOutTempBuf, 0, mBufferInfo.size);
-                        byteBuffer.clear();
-                        if (mAudioTrack != null)
-                            mAudioTrack.write(mAudioOutTempBuf, 0, mBufferInfo.size);
+                    EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_AUDIO_WRITTEN,
+                            mBufferInfo.presentationTimeUs, mBufferInfo.size);
+                    mDecodeMetrics.onFrameRendered(System.nanoTime());
+                    if (!mFirstAudioWritten){
+                        mFirstAudioWritten = true;
+                        if (mStartupMetrics != null){
+                            mStartupMetrics.onFirstAudio(System.nanoTime());
+                        }
+                    }
+                    if (mRenderThread == null) {
+                        mMasterClock.update();
                     }
-                    // 释放资源
-                    decoder.releaseOutputBuffer(decoderStatus, false);
                 }
+                // 释放资源
+                decoder.releaseOutputBuffer(decoderStatus, false);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Writes a decoded buffer to the output through the time-stretcher.
+     */
+    private void writeStretched(ByteBuffer buffer, int offset, int size){
+        buffer.limit(offset + size);
+        buffer.position(offset);
+        while (true){
+            mStretcher.putSamples(buffer);
+            mStretchedPcm.clear();
+            mStretcher.receiveSamples(mStretchedPcm);
+            int stretched = mStretchedPcm.position();
+            if (stretched == 0 && !buffer.hasRemaining()){
+                return;
+            }
+            writePcm(mStretchedPcm, 0, stretched);
+        }
+    }
+
+    /**
+     * Writes PCM to the output through the effects chain, in blocks, unless every effect is
+     * bypassed.
+     */
+    private void writePcm(ByteBuffer buffer, int offset, int size){
+        if (!mDspChain.isActive()){
+            mPcmWriter.write(buffer, offset, size);
+            return;
+        }
+        buffer.limit(offset + size);
+        buffer.position(offset);
+        while (true){
+            mProcessedPcm.clear();
+            if (mDspChain.process(buffer, mProcessedPcm) == 0){
+                return;
             }
+            mPcmWriter.write(mProcessedPcm, 0, mProcessedPcm.position());
         }
-        mAudioCodec.stop();
-        mAudioCodec.release();
-        mMediaExtractor.release();
     }
 
     private void decodeDelay(MediaCodec.BufferInfo bufferInfo, long startMs){
@@ -162,28 +662,162 @@ public class AudioPlayer implements MediaTimeProvider{
         }
     }
 
+    /**
+     * Moves playback to {@code timeUs}.  May be called from any thread; only the latest of
+     * several pending seeks is performed.  When the demuxer is shared with a
+     * {@link VideoPlayer}, seek the video player only: this player follows the jump in the
+     * demuxed samples on its own.
+     */
+    public void seekTo(long timeUs){
+        mPendingSeekUs.set(Math.max(0, timeUs));
+    }
+
+    /**
+     * Sets the playback speed, from {@link TimeStretcher#MIN_RATE} to
+     * {@link VideoPlayer#MAX_PLAYBACK_RATE}.  Up to {@link TimeStretcher#MAX_RATE} the audio is
+     * time-stretched, keeping its pitch; faster, it is muted and the clock runs at the rate on
+     * its own.  May be called from any thread, before or during playback; set the same rate on
+     * the video player.
+     */
+    public void setPlaybackRate(float rate){
+        if (!(rate >= TimeStretcher.MIN_RATE && rate <= VideoPlayer.MAX_PLAYBACK_RATE)){
+            throw new IllegalArgumentException("playback rate " + rate);
+        }
+        mRequestedRate = rate;
+    }
+
+    public float getPlaybackRate(){
+        return mRequestedRate;
+    }
+
+    /**
+     * @return the effects run on the audio on its way to the track, empty to begin with.
+     * Stages may be added, bypassed and adjusted from any thread during playback.
+     */
+    public DspChain getDspChain(){
+        return mDspChain;
+    }
+
+    /**
+     * Sets the loop mode.  If true, playback loops forever without a gap, on the container
+     * duration so that a {@link VideoPlayer} looping the same file stays in lockstep.  With a
+     * shared {@link Demuxer} the demuxer does the looping for both players.  Must be set before
+     * playback starts.
+     */
+    public void setLoop(boolean loopMode){
+        this.mLoop = loopMode;
+        if (mDemuxer != null){
+            mDemuxer.setLoop(loopMode);
+        }
+    }
+
+    /**
+     * Asks the decode thread to stop.  It stops the output and releases the track itself once
+     * out of its loop, so this returns at once.
+     */
     public void requestStop(){
         mIsRequestPaused= true;
-        if (mAudioTrack != null){
-            mAudioTrack.stop();
-            mAudioTrack = null;
-        }
+        mPauseGate.release();
     }
 
+    /**
+     * Pauses playback, keeping the decoder, the source position and the decoded audio not
+     * played yet.  The decode and output threads park until {@link #resume}.
+     */
     public void requestPause(){
-        mIsRequestPaused= true;
-        if (mAudioTrack != null){
-            mAudioTrack.pause();
+        mPauseGate.pause();
+        mMasterClock.pause();
+        synchronized (mTrackLock){
+            if (!mTrackReleased){
+                mAudioTrack.pause();
+            }
+        }
+    }
+
+    /**
+     * Continues from where {@link #requestPause} left off.  The clock resumes with the track,
+     * so video synchronised to it picks up in sync.
+     */
+    public void resume(){
+        synchronized (mTrackLock){
+            if (!mTrackReleased){
+                mAudioTrack.play();
+            }
+        }
+        if (mBufferController != null){
+            mBufferController.restart();
+        }
+        mMasterClock.resume();
+        mPauseGate.resume(System.nanoTime());
+    }
+
+    /**
+     * Sets how much decoded audio may queue up between the decode thread and the output
+     * thread.  Zero writes straight to the track from the decode thread.  Must be set before
+     * playback starts.
+     */
+    public void setRingDepthMs(int ringDepthMs){
+        this.mRingDepthMs = ringDepthMs;
+    }
+
+    /**
+     * Decode loop counters of the current or last playback, including how full the codec was
+     * kept.
+     */
+    public DecodeMetrics getDecodeMetrics(){
+        return mDecodeMetrics;
+    }
+
+    /**
+     * Quality of service of this player, accumulated over every play: decode latency and, when
+     * playing through the output thread, underruns.  May be sampled from any thread while
+     * playing.
+     */
+    public PlaybackStats getPlaybackStats(){
+        return mStats;
+    }
+
+    /**
+     * @return the number of samples waiting for the output thread, or 0 when not playing.
+     */
+    public int getRingFillLevel(){
+        return mRenderThread != null ? mRenderThread.getRing().getFillLevel() : 0;
+    }
+
+    /**
+     * @return how many times the output thread ran out of decoded audio.
+     */
+    public long getRingUnderrunCount(){
+        return mRenderThread != null ? mRenderThread.getRing().getUnderrunCount() : 0;
+    }
+
+    /**
+     * @return the delay the track's buffer adds between writing audio and hearing it, in
+     * microseconds, as currently sized.  The clock reads the position the track is playing
+     * and needs no correction for it; anything timed against writes should subtract it.
+     */
+    public long getOutputLatencyUs(){
+        if (mBufferController != null){
+            return mBufferController.getLatencyUs();
         }
+        return minBufferSize(mSampleRate, mChannelCount) / (mChannelCount * 2) * 1000000L / mSampleRate;
+    }
+
+    /**
+     * Adjusts the size of the track's buffer to underruns during playback, on Android 7.0 and
+     * later; null before.
+     */
+    public AudioBufferController getBufferController(){
+        return mBufferController;
     }
 
+    /**
+     * Playback position of the audio output, interpolated between hardware timestamps.  Keeps
+     * running on the system clock after the track is stopped.
+     */
     @Override
     public long getAudioTimeUs() {
-        if (mAudioTrack != null){
-            int numFramePlayed = mAudioTrack.getPlaybackHeadPosition();
-            return (numFramePlayed *1000000L) / mAudioTrack.getSampleRate();
-        }
-        return -1L;
+        return mMasterClock.getAudioTimeUs();
     }
 
     public static class PlayAudioTask implements Runnable{
@@ -213,8 +847,16 @@ public class AudioPlayer implements MediaTimeProvider{
             return mAudioPlayer.mIsRequestPaused;
         }
 
-        public void requestPause() {
+        public void requestStop() {
             mAudioPlayer.requestStop();
         }
+
+        public void requestPause() {
+            mAudioPlayer.requestPause();
+        }
+
+        public void requestResume() {
+            mAudioPlayer.resume();
+        }
     }
 }
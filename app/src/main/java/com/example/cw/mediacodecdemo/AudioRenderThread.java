@@ -0,0 +1,141 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.AudioTrack;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated output thread between the audio decoder and {@link AudioTrack}.
+ * <p>
+ * The decode thread writes PCM into a {@link PcmRingBuffer} through the {@link PcmSink}
+ * interface and only waits when the ring is full; this thread drains the ring into the track,
+ * so a blocking {@code AudioTrack.write} no longer stalls decoder input.
+ */
+public class AudioRenderThread extends Thread implements PcmSink {
+
+    private static final int CHUNK_SAMPLES = 1024;
+    private static final long IDLE_WAIT_NS = 1000000L;
+
+    private final AudioTrack mAudioTrack;
+    private final PcmRingBuffer mRing;
+    private final MasterClock mClock;
+    private final short[] mChunk = new short[CHUNK_SAMPLES];
+    private volatile boolean mStopRequested;
+    private volatile boolean mDraining;
+    private PauseGate mPauseGate;
+    private PlaybackStats mStats;
+    private AudioBufferController mBufferController;
+
+    /**
+     * @param clock updated after every write to the track, may be null.
+     */
+    public AudioRenderThread(AudioTrack audioTrack, PcmRingBuffer ring, MasterClock clock) {
+        super("AudioRender");
+        this.mAudioTrack = audioTrack;
+        this.mRing = ring;
+        this.mClock = clock;
+    }
+
+    /**
+     * While {@code pauseGate} is closed both this thread and a decode thread waiting on a full
+     * ring park on it instead of polling.  Must be set before the thread starts.
+     */
+    public void setPauseGate(PauseGate pauseGate) {
+        this.mPauseGate = pauseGate;
+    }
+
+    /**
+     * Counts each time the ring runs dry while playing in {@code stats}.  Must be set before
+     * the thread starts.
+     */
+    public void setStats(PlaybackStats stats) {
+        this.mStats = stats;
+    }
+
+    /**
+     * Tells {@code bufferController} about every write to the track, so it can size the
+     * track's buffer.  Must be set before the thread starts.
+     */
+    public void setBufferController(AudioBufferController bufferController) {
+        this.mBufferController = bufferController;
+    }
+
+    public PcmRingBuffer getRing() {
+        return mRing;
+    }
+
+    /**
+     * Called on the decode thread.  Waits while the ring is full.
+     */
+    @Override
+    public int write(ByteBuffer buffer, int size) {
+        buffer.order(ByteOrder.nativeOrder());
+        while (!mStopRequested) {
+            int written = mRing.write(buffer, size);
+            if (written > 0) {
+                return written;
+            }
+            if (!awaitResume()) {
+                LockSupport.parkNanos(IDLE_WAIT_NS);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * No more PCM will be written; the thread exits once the ring is empty.
+     */
+    public void finish() {
+        mDraining = true;
+    }
+
+    /**
+     * Stops output immediately, dropping whatever is still in the ring.
+     */
+    public void requestStop() {
+        mStopRequested = true;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        boolean playing = false;
+        while (!mStopRequested) {
+            if (mDraining && mRing.getFillLevel() == 0) {
+                break;
+            }
+            if (awaitResume()) {
+                continue;
+            }
+            int count = mRing.read(mChunk, 0, CHUNK_SAMPLES);
+            if (count > 0) {
+                playing = true;
+                if (mBufferController != null) {
+                    mBufferController.onWriteStart();
+                    mAudioTrack.write(mChunk, 0, count);
+                    mBufferController.onWriteEnd();
+                } else {
+                    mAudioTrack.write(mChunk, 0, count);
+                }
+                if (mClock != null) {
+                    mClock.update();
+                }
+            } else {
+                if (playing && !mDraining && mStats != null) {
+                    // once per starvation, not once per idle poll
+                    mStats.onAudioUnderrun();
+                }
+                playing = false;
+                LockSupport.parkNanos(IDLE_WAIT_NS);
+            }
+        }
+    }
+
+    private boolean awaitResume() {
+        PauseGate gate = mPauseGate;
+        return gate != null && gate.isPaused() && gate.awaitResume();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.cw.mediacodecdemo;
+
+import android.annotation.TargetApi;
+import android.media.AudioTrack;
+import android.os.Build;
+
+/**
+ * {@link AudioBufferController.Track} backed by an {@link AudioTrack}.  Resizing the buffer
+ * needs Android 7.0.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class AudioTrackBuffer implements AudioBufferController.Track {
+
+    private final AudioTrack mAudioTrack;
+
+    public AudioTrackBuffer(AudioTrack audioTrack) {
+        this.mAudioTrack = audioTrack;
+    }
+
+    @Override
+    public int getUnderrunCount() {
+        return mAudioTrack.getUnderrunCount();
+    }
+
+    @Override
+    public int setBufferSizeInFrames(int frames) {
+        int size = mAudioTrack.setBufferSizeInFrames(frames);
+        return size > 0 ? size : mAudioTrack.getBufferSizeInFrames();
+    }
+
+    @Override
+    public int getBufferCapacityInFrames() {
+        return mAudioTrack.getBufferCapacityInFrames();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mAudioTrack.getSampleRate();
+    }
+}
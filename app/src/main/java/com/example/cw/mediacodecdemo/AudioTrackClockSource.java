@@ -0,0 +1,37 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+/**
+ * {@link AudioClockSource} reading an {@link AudioTrack}.
+ */
+public class AudioTrackClockSource implements AudioClockSource {
+
+    private final AudioTrack mAudioTrack;
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+
+    public AudioTrackClockSource(AudioTrack audioTrack) {
+        this.mAudioTrack = audioTrack;
+    }
+
+    @Override
+    public boolean getTimestamp(long[] out) {
+        if (!mAudioTrack.getTimestamp(mTimestamp)) {
+            return false;
+        }
+        out[0] = mTimestamp.framePosition;
+        out[1] = mTimestamp.nanoTime;
+        return true;
+    }
+
+    @Override
+    public int getPlaybackHeadPosition() {
+        return mAudioTrack.getPlaybackHeadPosition();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mAudioTrack.getSampleRate();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.AudioTrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PcmSink} that hands the decoder's buffer to {@link AudioTrack} without copying it
+ * into a Java array first.
+ */
+public class AudioTrackSink implements PcmSink {
+
+    private final AudioTrack mAudioTrack;
+    private final AudioBufferController mBufferController;
+
+    public AudioTrackSink(AudioTrack audioTrack) {
+        this(audioTrack, null);
+    }
+
+    /**
+     * @param bufferController told about every write, may be null.
+     */
+    public AudioTrackSink(AudioTrack audioTrack, AudioBufferController bufferController) {
+        this.mAudioTrack = audioTrack;
+        this.mBufferController = bufferController;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, int size) {
+        if (mBufferController == null) {
+            return mAudioTrack.write(buffer, size, AudioTrack.WRITE_BLOCKING);
+        }
+        mBufferController.onWriteStart();
+        int written = mAudioTrack.write(buffer, size, AudioTrack.WRITE_BLOCKING);
+        mBufferController.onWriteEnd();
+        return written;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts frames from many clips in parallel, e.g. timeline thumbnails, with a
+ * {@link FrameExtractor} per clip.
+ * <p>
+ * The clips are worked through by a fixed number of threads, which should be the number of
+ * decoders that can run at once: more would only wait for a codec instance, fewer would leave
+ * one idle.  Each thread opens a clip, decodes its frames and closes it before taking the next,
+ * so at most that many codecs and sources are open at a time.  A clip that fails is reported
+ * and the others carry on.
+ * <p>
+ * Thread safe; several batches may run at once and share the threads.
+ */
+public class BatchFrameExtractor<T> {
+
+    /**
+     * A clip ready to decode: its video track selected and a decoder configured for byte
+     * buffer output, not started.
+     */
+    public interface Clip {
+
+        Codec getCodec();
+
+        SampleSource getSource();
+
+        /**
+         * @return how the decoded frames are laid out, or null if not known.
+         */
+        YuvLayout getLayout();
+
+        /**
+         * Gives back the codec and the source.
+         *
+         * @param failed true if the codec must not be reused.
+         */
+        void close(boolean failed);
+    }
+
+    /**
+     * Opens clips, on the worker threads.
+     */
+    public interface Opener<T> {
+
+        Clip open(T clip) throws IOException;
+    }
+
+    /**
+     * Receives the frames and the outcome of each clip, on the worker threads.
+     */
+    public interface Listener<T> {
+
+        /**
+         * @param frame only valid during the call.
+         */
+        void onFrame(T clip, int request, long presentationTimeUs, ByteBuffer frame, YuvLayout layout);
+
+        /**
+         * @param error null if the clip was decoded.
+         */
+        void onClipDone(T clip, int frames, Exception error);
+    }
+
+    /**
+     * Outcome of a batch.  Immutable.
+     */
+    public static final class Report {
+
+        private final int mClips;
+        private final int mFailedClips;
+        private final long mFrames;
+        private final long mSamplesQueued;
+        private final long mElapsedNs;
+
+        Report(int clips, int failedClips, long frames, long samplesQueued, long elapsedNs) {
+            this.mClips = clips;
+            this.mFailedClips = failedClips;
+            this.mFrames = frames;
+            this.mSamplesQueued = samplesQueued;
+            this.mElapsedNs = elapsedNs;
+        }
+
+        public int getClips() {
+            return mClips;
+        }
+
+        public int getFailedClips() {
+            return mFailedClips;
+        }
+
+        public long getFrames() {
+            return mFrames;
+        }
+
+        /**
+         * @return samples fed to the decoders, against {@link #getFrames()} to see how much
+         * decoding each frame cost.
+         */
+        public long getSamplesQueued() {
+            return mSamplesQueued;
+        }
+
+        public long getElapsedNs() {
+            return mElapsedNs;
+        }
+
+        public float getClipsPerSecond() {
+            return mElapsedNs > 0 ? mClips * 1e9f / mElapsedNs : 0f;
+        }
+
+        public float getFramesPerSecond() {
+            return mElapsedNs > 0 ? mFrames * 1e9f / mElapsedNs : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return "clips=" + mClips + " failed=" + mFailedClips + " frames=" + mFrames
+                    + " samples=" + mSamplesQueued + " elapsed=" + mElapsedNs / 1000000 + "ms"
+                    + " clips/s=" + getClipsPerSecond() + " frames/s=" + getFramesPerSecond();
+        }
+    }
+
+    private final Opener<T> mOpener;
+    private final int mParallelism;
+    private final ExecutorService mWorkers;
+
+    /**
+     * @param parallelism how many clips are decoded at once.
+     */
+    public BatchFrameExtractor(Opener<T> opener, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism " + parallelism);
+        }
+        this.mOpener = opener;
+        this.mParallelism = parallelism;
+        this.mWorkers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FrameExtractor-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Decodes a frame at each of {@code timesUs} from every clip, blocking until all are done.
+     *
+     * @param timesUs in ascending order; the same for every clip.
+     * @param mode    one of the {@code FrameExtractor.MODE_*} values.
+     */
+    public Report extract(final List<T> clips, final long[] timesUs, final int mode, final Listener<T> listener)
+            throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong samples = new AtomicLong();
+        int workers = Math.min(mParallelism, clips.size());
+        final CountDownLatch done = new CountDownLatch(workers);
+        long startNs = System.nanoTime();
+        for (int i = 0; i < workers; i++) {
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int index;
+                        while ((index = next.getAndIncrement()) < clips.size()) {
+                            T clip = clips.get(index);
+                            Exception error = null;
+                            int count = 0;
+                            FrameExtractor extractor = null;
+                            try {
+                                Clip opened = mOpener.open(clip);
+                                extractor = new FrameExtractor(opened.getCodec(), opened.getSource());
+                                count = extract(clip, opened, extractor, timesUs, mode, listener);
+                            } catch (IOException | RuntimeException e) {
+                                error = e;
+                                failed.incrementAndGet();
+                            }
+                            frames.addAndGet(count);
+                            if (extractor != null) {
+                                samples.addAndGet(extractor.getSamplesQueued());
+                            }
+                            listener.onClipDone(clip, count, error);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        return new Report(clips.size(), failed.get(), frames.get(), samples.get(), System.nanoTime() - startNs);
+    }
+
+    private int extract(final T clip, final Clip opened, FrameExtractor extractor, long[] timesUs, int mode,
+                        final Listener<T> listener) throws IOException {
+        boolean failed = true;
+        try {
+            int count = extractor.extract(timesUs, mode, new FrameExtractor.FrameSink() {
+                @Override
+                public void onFrame(int request, long presentationTimeUs, ByteBuffer frame) {
+                    listener.onFrame(clip, request, presentationTimeUs, frame, opened.getLayout());
+                }
+            });
+            failed = false;
+            return count;
+        } finally {
+            opened.close(failed);
+        }
+    }
+
+    /**
+     * Stops the worker threads once the batches running have finished.
+     */
+    public void shutdown() {
+        mWorkers.shutdown();
+    }
+}
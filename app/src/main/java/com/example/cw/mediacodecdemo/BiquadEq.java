@@ -0,0 +1,281 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * A {@link DspChain} stage holding one band of parametric EQ: a second-order filter with the
+ * responses of the Audio EQ Cookbook (R. Bristow-Johnson), run per channel in transposed direct
+ * form II.  Several bands make a multi-band EQ.
+ * <p>
+ * Parameters may be set from any thread; they are published together as one immutable set.
+ * The audio thread glides the frequency, Q and gain to each new setting over about
+ * {@link #GLIDE_MS}, working out new coefficients every {@link #GLIDE_STEP_FRAMES} frames, so
+ * that sweeping a band does not click.  A change of type takes effect at once.
+ */
+public class BiquadEq implements DspChain.Stage {
+
+    public static final int TYPE_PEAKING = 0;
+    public static final int TYPE_LOW_SHELF = 1;
+    public static final int TYPE_HIGH_SHELF = 2;
+    public static final int TYPE_LOW_PASS = 3;
+    public static final int TYPE_HIGH_PASS = 4;
+
+    public static final int GLIDE_MS = 20;
+    public static final int GLIDE_STEP_FRAMES = 32;
+
+    // filter state this small is flushed to zero so that silence does not run on denormals
+    private static final float DENORMAL = 1e-15f;
+
+    private static final class Settings {
+
+        final int type;
+        final double frequencyHz;
+        final double q;
+        final double gainDb;
+
+        Settings(int type, double frequencyHz, double q, double gainDb) {
+            this.type = type;
+            this.frequencyHz = frequencyHz;
+            this.q = q;
+            this.gainDb = gainDb;
+        }
+    }
+
+    private volatile Settings mSettings;
+    private int mSampleRate;
+    private int mChannels;
+    private double mGlide;
+    // audio thread only: the settings glided to and the ones in use now
+    private Settings mTarget;
+    private int mType;
+    private double mLogFrequency;
+    private double mQ;
+    private double mGainDb;
+    private boolean mGliding;
+    private int mUntilStep;
+    private final double[] mCoefficients = new double[5];
+    private float mB0;
+    private float mB1;
+    private float mB2;
+    private float mA1;
+    private float mA2;
+    private float[] mZ1;
+    private float[] mZ2;
+
+    public BiquadEq(int type, float frequencyHz, float q, float gainDb) {
+        set(type, frequencyHz, q, gainDb);
+    }
+
+    /**
+     * Sets the band.
+     *
+     * @param frequencyHz the centre frequency of a peak, the corner of a shelf or a pass filter.
+     * @param q the sharpness; 0.707 gives a flat pass filter.
+     * @param gainDb the boost or cut of a peak or shelf; ignored by the pass filters.
+     */
+    public void set(int type, float frequencyHz, float q, float gainDb) {
+        if (type < TYPE_PEAKING || type > TYPE_HIGH_PASS) {
+            throw new IllegalArgumentException("type " + type);
+        }
+        if (!(frequencyHz > 0) || !(q > 0) || Float.isInfinite(frequencyHz) || Float.isInfinite(q)
+                || Float.isNaN(gainDb) || Float.isInfinite(gainDb)) {
+            throw new IllegalArgumentException("frequency " + frequencyHz + " Hz, Q " + q + ", gain "
+                    + gainDb + " dB");
+        }
+        mSettings = new Settings(type, frequencyHz, q, gainDb);
+    }
+
+    public int getType() {
+        return mSettings.type;
+    }
+
+    public float getFrequencyHz() {
+        return (float) mSettings.frequencyHz;
+    }
+
+    public float getQ() {
+        return (float) mSettings.q;
+    }
+
+    public float getGainDb() {
+        return (float) mSettings.gainDb;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channels) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mGlide = 1 - Math.exp(-GLIDE_STEP_FRAMES * 1000.0 / (sampleRate * (double) GLIDE_MS));
+        mZ1 = new float[channels];
+        mZ2 = new float[channels];
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        jumpTo(mSettings);
+        for (int c = 0; c < mChannels; c++) {
+            mZ1[c] = 0;
+            mZ2[c] = 0;
+        }
+    }
+
+    @Override
+    public void process(float[] samples, int offset, int frames) {
+        Settings settings = mSettings;
+        if (settings != mTarget) {
+            if (settings.type != mType) {
+                jumpTo(settings);
+            } else {
+                mTarget = settings;
+                mGliding = true;
+                mUntilStep = 0;
+            }
+        }
+        int channels = mChannels;
+        while (frames > 0) {
+            int run = frames;
+            if (mGliding) {
+                if (mUntilStep == 0) {
+                    glide();
+                    mUntilStep = GLIDE_STEP_FRAMES;
+                }
+                run = Math.min(run, mUntilStep);
+                mUntilStep -= run;
+            }
+            for (int c = 0; c < channels; c++) {
+                filter(samples, offset + c, run, c);
+            }
+            offset += run * channels;
+            frames -= run;
+        }
+    }
+
+    private void filter(float[] samples, int start, int frames, int channel) {
+        int channels = mChannels;
+        float b0 = mB0;
+        float b1 = mB1;
+        float b2 = mB2;
+        float a1 = mA1;
+        float a2 = mA2;
+        float z1 = mZ1[channel];
+        float z2 = mZ2[channel];
+        int end = start + frames * channels;
+        for (int i = start; i < end; i += channels) {
+            float x = samples[i];
+            float y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            samples[i] = y;
+        }
+        mZ1[channel] = Math.abs(z1) < DENORMAL ? 0 : z1;
+        mZ2[channel] = Math.abs(z2) < DENORMAL ? 0 : z2;
+    }
+
+    private void jumpTo(Settings settings) {
+        mTarget = settings;
+        mType = settings.type;
+        mLogFrequency = Math.log(settings.frequencyHz);
+        mQ = settings.q;
+        mGainDb = settings.gainDb;
+        mGliding = false;
+        updateCoefficients();
+    }
+
+    /**
+     * Moves the settings in use a step towards the target, snapping to it once close.
+     */
+    private void glide() {
+        Settings target = mTarget;
+        double logFrequency = Math.log(target.frequencyHz);
+        mLogFrequency += (logFrequency - mLogFrequency) * mGlide;
+        mQ += (target.q - mQ) * mGlide;
+        mGainDb += (target.gainDb - mGainDb) * mGlide;
+        if (Math.abs(logFrequency - mLogFrequency) < 1e-4 && Math.abs(target.q - mQ) < 1e-4 * target.q
+                && Math.abs(target.gainDb - mGainDb) < 1e-3) {
+            mLogFrequency = logFrequency;
+            mQ = target.q;
+            mGainDb = target.gainDb;
+            mGliding = false;
+        }
+        updateCoefficients();
+    }
+
+    private void updateCoefficients() {
+        coefficients(mType, mSampleRate, Math.exp(mLogFrequency), mQ, mGainDb, mCoefficients);
+        mB0 = (float) mCoefficients[0];
+        mB1 = (float) mCoefficients[1];
+        mB2 = (float) mCoefficients[2];
+        mA1 = (float) mCoefficients[3];
+        mA2 = (float) mCoefficients[4];
+    }
+
+    /**
+     * Works out the cookbook coefficients, normalised so that a0 is 1, into {@code out} as b0,
+     * b1, b2, a1, a2.  The frequency is kept below Nyquist.
+     */
+    static void coefficients(int type, int sampleRate, double frequencyHz, double q, double gainDb,
+            double[] out) {
+        double w0 = 2 * Math.PI * Math.min(frequencyHz, sampleRate * 0.499) / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a = Math.pow(10, gainDb / 40);
+        double b0;
+        double b1;
+        double b2;
+        double a0;
+        double a1;
+        double a2;
+        switch (type) {
+            case TYPE_PEAKING:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+            case TYPE_LOW_SHELF: {
+                double shelf = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) - (a - 1) * cos + shelf);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - shelf);
+                a0 = (a + 1) + (a - 1) * cos + shelf;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - shelf;
+                break;
+            }
+            case TYPE_HIGH_SHELF: {
+                double shelf = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) + (a - 1) * cos + shelf);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - shelf);
+                a0 = (a + 1) - (a - 1) * cos + shelf;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - shelf;
+                break;
+            }
+            case TYPE_LOW_PASS:
+                b0 = (1 - cos) / 2;
+                b1 = 1 - cos;
+                b2 = (1 - cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case TYPE_HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            default:
+                throw new IllegalArgumentException("type " + type);
+        }
+        out[0] = b0 / a0;
+        out[1] = b1 / a0;
+        out[2] = b2 / a0;
+        out[3] = a1 / a0;
+        out[4] = a2 / a0;
+    }
+}
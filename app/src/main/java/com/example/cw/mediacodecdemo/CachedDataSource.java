@@ -0,0 +1,37 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * {@link MediaDataSource} serving {@link android.media.MediaExtractor} reads from a
+ * {@link ChunkCache}, e.g. for a progressive HTTP download.
+ */
+public class CachedDataSource extends MediaDataSource {
+
+    private final ChunkCache mCache;
+
+    public CachedDataSource(ChunkCache cache) {
+        this.mCache = cache;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return mCache.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mCache.getSize();
+    }
+
+    public ChunkCache getCache() {
+        return mCache;
+    }
+
+    @Override
+    public void close() {
+        mCache.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.cw.mediacodecdemo;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+/**
+ * {@link VsyncSource} fed by {@link Choreographer}.
+ * <p>
+ * The period comes from the display's refresh rate, so the phase only has to be sampled now and
+ * then: the frame callback is posted every {@link #RESYNC_INTERVAL_MS} rather than every vsync,
+ * which keeps the sampling thread asleep almost all the time.
+ */
+public class ChoreographerVsyncSource implements VsyncSource, Choreographer.FrameCallback {
+
+    private static final long RESYNC_INTERVAL_MS = 500;
+
+    private final long mPeriodNs;
+    private volatile long mLastVsyncNs = -1;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Choreographer mChoreographer;
+
+    /**
+     * @param refreshRate frames per second of the display, e.g. from
+     *                    {@link android.view.Display#getRefreshRate()}.
+     */
+    public ChoreographerVsyncSource(float refreshRate) {
+        this.mPeriodNs = (long) (1000000000L / refreshRate);
+    }
+
+    /**
+     * Starts sampling on a thread of its own.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("Vsync");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // the instance belongs to the calling thread's looper
+                mChoreographer = Choreographer.getInstance();
+                mChoreographer.postFrameCallback(ChoreographerVsyncSource.this);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mChoreographer != null) {
+                    mChoreographer.removeFrameCallback(ChoreographerVsyncSource.this);
+                }
+            }
+        });
+        mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mLastVsyncNs = frameTimeNanos;
+        mChoreographer.postFrameCallbackDelayed(this, RESYNC_INTERVAL_MS);
+    }
+
+    @Override
+    public long getLastVsyncNs() {
+        return mLastVsyncNs;
+    }
+
+    @Override
+    public long getVsyncPeriodNs() {
+        return mPeriodNs;
+    }
+}
@@ -0,0 +1,472 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random access reads over a slow or remote resource, served from a cache of fixed-size chunks.
+ * <p>
+ * Chunks are kept in memory up to a bound and, optionally, in a cache file on disk up to a
+ * second bound, both evicted least recently used first.  A chunk that is not cached is fetched
+ * whole by the reader that needs it; readers wanting a chunk that is already being fetched wait
+ * for that fetch instead of starting their own.  When reads move forward chunk by chunk, the
+ * following chunks are fetched ahead of time on a background thread.  So a player reading a
+ * progressive download sequentially rarely waits, and seeks back or loops are served from the
+ * cache instead of fetched again.
+ * <p>
+ * The disk cache only lives as long as this object.  Thread safe.
+ */
+public class ChunkCache {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Where the chunks come from.  Called from several threads at once.
+     */
+    public interface Fetcher {
+
+        /**
+         * @return the size of the resource in bytes.
+         */
+        long getSize() throws IOException;
+
+        /**
+         * Reads exactly {@code length} bytes at {@code position}, which lie within the resource.
+         */
+        void fetch(long position, byte[] buffer, int length) throws IOException;
+
+        void close();
+    }
+
+    private final Fetcher mFetcher;
+    private final int mChunkSize;
+    private final int mMaxMemoryChunks;
+    private final Object mLock = new Object();
+    // guarded by mLock; both in access order, least recently used first
+    private final LinkedHashMap<Long, byte[]> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Integer> mDisk = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Long, Pending> mPending = new HashMap<>();
+    private final HashSet<Long> mQueued = new HashSet<>();
+    private long mSize = -1;
+    private long mLastReadChunk = -1;
+    private boolean mClosed;
+
+    private File mDiskFile;
+    private FileChannel mDiskChannel;
+    private int mMaxDiskChunks;
+    private int mDiskSlots;
+    private int mReadAheadChunks;
+    private ExecutorService mPrefetcher;
+
+    private long mRequests;
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mSharedFetches;
+    private long mMisses;
+    private long mPrefetches;
+    private long mBytesFetched;
+
+    /**
+     * A fetch in progress, which other readers of the same chunk wait for.
+     */
+    private static final class Pending {
+        byte[] data;
+        IOException error;
+        boolean done;
+    }
+
+    public ChunkCache(Fetcher fetcher, int chunkSize, int maxMemoryChunks) {
+        if (chunkSize <= 0 || maxMemoryChunks < 1) {
+            throw new IllegalArgumentException("chunk size " + chunkSize + ", memory chunks " + maxMemoryChunks);
+        }
+        this.mFetcher = fetcher;
+        this.mChunkSize = chunkSize;
+        this.mMaxMemoryChunks = maxMemoryChunks;
+    }
+
+    /**
+     * Also keeps up to {@code maxChunks} chunks in a cache file in {@code directory}, which is
+     * deleted by {@link #close}.  Must be called before the first read.
+     */
+    public void setDiskCache(File directory, int maxChunks) throws IOException {
+        mDiskFile = File.createTempFile("chunks", ".cache", directory);
+        mDiskChannel = new RandomAccessFile(mDiskFile, "rw").getChannel();
+        mMaxDiskChunks = maxChunks;
+    }
+
+    /**
+     * Fetches up to {@code chunks} chunks ahead of sequential reads.  It is capped below the
+     * memory bound, so prefetched chunks do not evict the one being read.  Must be called before
+     * the first read.
+     */
+    public void setReadAhead(int chunks) {
+        mReadAheadChunks = Math.min(chunks, mMaxMemoryChunks - 1);
+        if (mReadAheadChunks > 0 && mPrefetcher == null) {
+            mPrefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ChunkPrefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public long getSize() throws IOException {
+        synchronized (mLock) {
+            if (mSize < 0) {
+                mSize = mFetcher.getSize();
+            }
+            return mSize;
+        }
+    }
+
+    /**
+     * Copies up to {@code length} bytes at {@code position} into {@code buffer}, blocking while
+     * chunks are fetched.
+     *
+     * @return the number of bytes read, or -1 if {@code position} is at or past the end.
+     */
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        long size = getSize();
+        if (position >= size) {
+            return -1;
+        }
+        length = (int) Math.min(length, size - position);
+        int read = 0;
+        while (read < length) {
+            long chunk = (position + read) / mChunkSize;
+            int chunkOffset = (int) ((position + read) % mChunkSize);
+            byte[] data = chunk(chunk, false);
+            int count = Math.min(length - read, chunkLength(chunk, size) - chunkOffset);
+            System.arraycopy(data, chunkOffset, buffer, offset + read, count);
+            read += count;
+            onRead(chunk);
+        }
+        return read;
+    }
+
+    /**
+     * Starts the read-ahead when reads move on to the next chunk.
+     */
+    private void onRead(long chunk) throws IOException {
+        boolean sequential;
+        synchronized (mLock) {
+            if (chunk == mLastReadChunk) {
+                return;
+            }
+            sequential = chunk == mLastReadChunk + 1;
+            mLastReadChunk = chunk;
+        }
+        if (!sequential || mPrefetcher == null) {
+            return;
+        }
+        long chunkCount = (getSize() + mChunkSize - 1) / mChunkSize;
+        for (long next = chunk + 1; next <= chunk + mReadAheadChunks && next < chunkCount; next++) {
+            synchronized (mLock) {
+                if (mClosed || mMemory.containsKey(next) || mPending.containsKey(next) || !mQueued.add(next)) {
+                    continue;
+                }
+            }
+            final long prefetch = next;
+            try {
+                mPrefetcher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mLock) {
+                            mQueued.remove(prefetch);
+                            // stale after a seek
+                            if (mClosed || prefetch <= mLastReadChunk
+                                    || prefetch > mLastReadChunk + mReadAheadChunks) {
+                                return;
+                            }
+                        }
+                        try {
+                            chunk(prefetch, true);
+                        } catch (IOException e) {
+                            // the reader will fetch it again and see the error
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the data of {@code chunk}, from memory, disk or the fetcher.
+     */
+    private byte[] chunk(long chunk, boolean prefetch) throws IOException {
+        Pending pending;
+        Integer slot;
+        boolean fetch = false;
+        synchronized (mLock) {
+            if (mClosed) {
+                throw new IOException("cache closed");
+            }
+            if (!prefetch) {
+                mRequests++;
+            }
+            byte[] data = mMemory.get(chunk);
+            if (data != null) {
+                if (!prefetch) {
+                    mMemoryHits++;
+                }
+                return data;
+            }
+            pending = mPending.get(chunk);
+            slot = mDisk.get(chunk);
+            if (pending == null) {
+                pending = new Pending();
+                mPending.put(chunk, pending);
+                fetch = true;
+                if (prefetch) {
+                    mPrefetches++;
+                } else if (slot != null) {
+                    mDiskHits++;
+                } else {
+                    mMisses++;
+                }
+            } else if (!prefetch) {
+                mSharedFetches++;
+            }
+        }
+        if (!fetch) {
+            return await(pending);
+        }
+        byte[] data = null;
+        IOException error = null;
+        try {
+            data = new byte[mChunkSize];
+            int length = chunkLength(chunk, getSize());
+            if (slot == null || !readDisk(chunk, slot, data, length)) {
+                mFetcher.fetch(chunk * mChunkSize, data, length);
+                synchronized (mLock) {
+                    mBytesFetched += length;
+                }
+                writeDisk(chunk, data, length);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (mLock) {
+            mPending.remove(chunk);
+            if (error == null) {
+                putMemory(chunk, data);
+            }
+        }
+        synchronized (pending) {
+            pending.data = data;
+            pending.error = error;
+            pending.done = true;
+            pending.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+        return data;
+    }
+
+    private static byte[] await(Pending pending) throws IOException {
+        synchronized (pending) {
+            while (!pending.done) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for a chunk");
+                }
+            }
+            if (pending.error != null) {
+                throw pending.error;
+            }
+            return pending.data;
+        }
+    }
+
+    private int chunkLength(long chunk, long size) {
+        return (int) Math.min(mChunkSize, size - chunk * mChunkSize);
+    }
+
+    /**
+     * Holds {@code mLock}.
+     */
+    private void putMemory(long chunk, byte[] data) {
+        mMemory.put(chunk, data);
+        Iterator<Map.Entry<Long, byte[]>> eldest = mMemory.entrySet().iterator();
+        while (mMemory.size() > mMaxMemoryChunks) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return false if the slot was given to another chunk meanwhile.
+     */
+    private boolean readDisk(long chunk, int slot, byte[] data, int length) throws IOException {
+        // a slot is taken over under mLock before it is written under the channel's lock
+        synchronized (mDiskChannel) {
+            synchronized (mLock) {
+                Integer current = mDisk.get(chunk);
+                if (current == null || current != slot) {
+                    return false;
+                }
+            }
+            ByteBuffer target = ByteBuffer.wrap(data, 0, length);
+            long position = (long) slot * mChunkSize;
+            while (target.hasRemaining()) {
+                if (mDiskChannel.read(target, position + target.position()) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void writeDisk(long chunk, byte[] data, int length) throws IOException {
+        if (mDiskChannel == null) {
+            return;
+        }
+        int slot;
+        synchronized (mLock) {
+            if (mDiskSlots < mMaxDiskChunks) {
+                slot = mDiskSlots++;
+            } else if (!mDisk.isEmpty()) {
+                Iterator<Map.Entry<Long, Integer>> eldest = mDisk.entrySet().iterator();
+                slot = eldest.next().getValue();
+                eldest.remove();
+            } else {
+                return;
+            }
+        }
+        synchronized (mDiskChannel) {
+            ByteBuffer source = ByteBuffer.wrap(data, 0, length);
+            long position = (long) slot * mChunkSize;
+            while (source.hasRemaining()) {
+                mDiskChannel.write(source, position + source.position());
+            }
+        }
+        synchronized (mLock) {
+            mDisk.put(chunk, slot);
+        }
+    }
+
+    /**
+     * Stops the read-ahead and drops the cache.  Reads waiting for a fetch still complete.
+     */
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mMemory.clear();
+            mDisk.clear();
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.shutdownNow();
+            try {
+                mPrefetcher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mFetcher.close();
+        if (mDiskChannel != null) {
+            synchronized (mDiskChannel) {
+                try {
+                    mDiskChannel.close();
+                } catch (IOException e) {
+                    // nothing left to do with it
+                }
+            }
+            mDiskFile.delete();
+        }
+    }
+
+    /**
+     * @return the share of chunk lookups by readers that did not need a fetch of their own.
+     * Prefetches do not count as lookups.
+     */
+    public float getHitRatio() {
+        synchronized (mLock) {
+            return mRequests > 0 ? 1 - (float) mMisses / mRequests : 0;
+        }
+    }
+
+    public long getBytesFetched() {
+        synchronized (mLock) {
+            return mBytesFetched;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (mLock) {
+            return mMisses;
+        }
+    }
+
+    public long getPrefetches() {
+        synchronized (mLock) {
+            return mPrefetches;
+        }
+    }
+
+    /**
+     * @return how many lookups waited for a fetch started by another reader or the read-ahead.
+     */
+    public long getSharedFetches() {
+        synchronized (mLock) {
+            return mSharedFetches;
+        }
+    }
+
+    public long getDiskHits() {
+        synchronized (mLock) {
+            return mDiskHits;
+        }
+    }
+
+    /**
+     * @return the number of chunks currently in the disk cache.
+     */
+    public int getDiskChunks() {
+        synchronized (mLock) {
+            return mDisk.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "requests=" + mRequests
+                    + " memoryHits=" + mMemoryHits
+                    + " diskHits=" + mDiskHits
+                    + " sharedFetches=" + mSharedFetches
+                    + " misses=" + mMisses
+                    + " prefetches=" + mPrefetches
+                    + " bytesFetched=" + mBytesFetched
+                    + " hitRatio=" + getHitRatio();
+        }
+    }
+}
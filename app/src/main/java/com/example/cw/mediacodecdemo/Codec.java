@@ -0,0 +1,77 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thin view of a {@link android.media.MediaCodec} decoder.
+ * <p>
+ * Only the calls the decode loops need are exposed, and none of them take Android types, so
+ * the loops can be driven by a scripted fake on the JVM.
+ */
+public interface Codec {
+
+    /**
+     * Synchronous mode only.
+     *
+     * @return an input slot index, or {@code MediaCodec.INFO_TRY_AGAIN_LATER}.
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * Synchronous mode only.
+     *
+     * @return an output slot index described by {@code info}, or one of the
+     * {@code MediaCodec.INFO_*} codes.
+     */
+    int dequeueOutputBuffer(BufferInfo info, long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+
+    /**
+     * Switches the codec to asynchronous mode.  Must be called before the codec is configured.
+     */
+    void setCallback(Callback callback);
+
+    void start();
+
+    void flush();
+
+    void stop();
+
+    void release();
+
+    /**
+     * Metadata of a dequeued output buffer, mirroring {@link android.media.MediaCodec.BufferInfo}.
+     */
+    final class BufferInfo {
+
+        public int offset;
+        public int size;
+        public long presentationTimeUs;
+        public int flags;
+    }
+
+    /**
+     * Asynchronous codec events, mirroring {@link android.media.MediaCodec.Callback}.
+     */
+    interface Callback {
+
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags);
+
+        void onOutputFormatChanged();
+
+        void onError(Exception e);
+
+    }
+
+}
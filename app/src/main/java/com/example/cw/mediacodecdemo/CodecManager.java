@@ -0,0 +1,193 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide source of decoders.
+ * <p>
+ * Decoder lookups are cached by MIME type and profile, so {@link MediaCodecList} is queried
+ * once per kind of stream instead of on every play.  Decoders are taken from a
+ * {@link CodecPool} keyed by codec name: a stopped decoder can be configured again for any
+ * format it was found for, so switching clips skips the codec allocation.  The pool also caps
+ * the number of decoder instances alive at once.
+ */
+public final class CodecManager {
+
+    private static final String TAG = "CodecManager";
+    private static final int MAX_IDLE_DECODERS = 2;
+    private static final int MAX_DECODER_INSTANCES = 4;
+    private static final long ACQUIRE_TIMEOUT_MS = 2000;
+
+    private static CodecManager sInstance;
+
+    private final Map<String, String> mDecoderNames = new HashMap<>();
+    private final CodecPool<MediaCodec> mPool;
+    // created outside the pool because no decoder was listed for their format
+    private final Set<MediaCodec> mUnpooled =
+            Collections.newSetFromMap(new IdentityHashMap<MediaCodec, Boolean>());
+    private MediaCodecList mCodecList;
+
+    private CodecManager(int maxIdle, int maxInstances) {
+        mPool = new CodecPool<>(new CodecPool.Factory<MediaCodec>() {
+            @Override
+            public MediaCodec create(String name) throws IOException {
+                return MediaCodec.createByCodecName(name);
+            }
+
+            @Override
+            public void reset(MediaCodec codec) {
+                codec.stop();
+                // a codec last run in asynchronous mode would stay in it otherwise
+                codec.setCallback(null);
+            }
+
+            @Override
+            public void release(MediaCodec codec) {
+                codec.release();
+            }
+        }, maxIdle, maxInstances);
+    }
+
+    public static synchronized CodecManager get() {
+        if (sInstance == null) {
+            sInstance = new CodecManager(MAX_IDLE_DECODERS, MAX_DECODER_INSTANCES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads the codec list, which takes tens of milliseconds on some devices, so that it can
+     * happen while a file is being opened instead of before its first decoder is created.
+     */
+    public synchronized void warmUp() {
+        if (mCodecList == null) {
+            mCodecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
+        }
+    }
+
+    /**
+     * @return the name of a decoder for {@code format}, or null if the device has none.
+     */
+    public synchronized String findDecoderName(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        String key = format.containsKey(MediaFormat.KEY_PROFILE)
+                ? mime + "/" + format.getInteger(MediaFormat.KEY_PROFILE) : mime;
+        if (mDecoderNames.containsKey(key)) {
+            return mDecoderNames.get(key);
+        }
+        warmUp();
+        String name = mCodecList.findDecoderForFormat(format);
+        Log.d(TAG, "findDecoderName: " + key + " -> " + name);
+        mDecoderNames.put(key, name);
+        return name;
+    }
+
+    /**
+     * @return a stopped decoder for {@code format}, ready to be configured.  Hand it back with
+     * {@link #recycle} or {@link #discard}.
+     */
+    public MediaCodec acquireDecoder(MediaFormat format) throws IOException {
+        String name = findDecoderName(format);
+        if (name == null) {
+            return createUnpooled(format);
+        }
+        try {
+            return mPool.acquire(name, ACQUIRE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for decoder " + name);
+        }
+    }
+
+    /**
+     * Like {@link #acquireDecoder}, but returns at once instead of waiting for another decoder
+     * to be handed back, for callers that must not block, e.g. {@link PlaybackScheduler} jobs.
+     *
+     * @return a stopped decoder for {@code format}, or null if the instance limit is reached.
+     */
+    public MediaCodec tryAcquireDecoder(MediaFormat format) throws IOException {
+        String name = findDecoderName(format);
+        if (name == null) {
+            return createUnpooled(format);
+        }
+        return mPool.tryAcquire(name);
+    }
+
+    private MediaCodec createUnpooled(MediaFormat format) throws IOException {
+        // let the platform pick, e.g. when findDecoderForFormat rejects a key it does not know
+        Log.d(TAG, "acquireDecoder: no decoder listed for " + format);
+        MediaCodec codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        synchronized (this) {
+            mUnpooled.add(codec);
+        }
+        return codec;
+    }
+
+    /**
+     * @return how many decoders for {@code format} can run at once: the pool's instance limit,
+     * or less if the decoder supports fewer instances.
+     */
+    public synchronized int getMaxDecoderInstances(MediaFormat format) {
+        String name = findDecoderName(format);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (name == null) {
+            return 1;
+        }
+        for (MediaCodecInfo info : mCodecList.getCodecInfos()) {
+            if (info.getName().equals(name)) {
+                int supported = info.getCapabilitiesForType(mime).getMaxSupportedInstances();
+                return Math.max(1, Math.min(MAX_DECODER_INSTANCES, supported));
+            }
+        }
+        return MAX_DECODER_INSTANCES;
+    }
+
+    /**
+     * Stops a decoder and keeps it for the next playback.
+     */
+    public void recycle(MediaCodec codec) {
+        if (removeUnpooled(codec)) {
+            codec.stop();
+            codec.release();
+        } else {
+            mPool.recycle(codec.getName(), codec);
+        }
+    }
+
+    /**
+     * Releases a decoder that failed and must not be reused.
+     */
+    public void discard(MediaCodec codec) {
+        if (removeUnpooled(codec)) {
+            codec.release();
+        } else {
+            mPool.discard(codec);
+        }
+    }
+
+    /**
+     * Releases every idle decoder, e.g. when the app goes to the background.
+     */
+    public void trimMemory() {
+        mPool.clear();
+    }
+
+    public CodecPool<MediaCodec> getPool() {
+        return mPool;
+    }
+
+    private synchronized boolean removeUnpooled(MediaCodec codec) {
+        return mUnpooled.remove(codec);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of stopped codecs, keyed by what they can be configured for, with a limit on
+ * how many codec instances exist at once.
+ * <p>
+ * Creating a hardware decoder costs tens of milliseconds and the platform only supports a few
+ * at a time.  Codecs handed back with {@link #recycle} are kept idle, up to {@code maxIdle}, and
+ * given out again to the next {@link #acquire} with the same key.  Every live codec, idle or in
+ * use, holds one of {@code maxInstances} permits; when none is left the least recently used
+ * idle codec is released to make room, and if there is none either the caller waits.
+ * <p>
+ * Thread safe.
+ */
+public class CodecPool<C> {
+
+    /**
+     * Creates and tears down the pooled codecs.
+     */
+    public interface Factory<C> {
+
+        C create(String key) throws IOException;
+
+        /**
+         * Brings a codec back to a state in which it can be configured again, e.g. stopped.
+         */
+        void reset(C codec);
+
+        void release(C codec);
+    }
+
+    private final Factory<C> mFactory;
+    private final int mMaxIdle;
+    private final Semaphore mInstances;
+    // least recently used first
+    private final ArrayDeque<Idle<C>> mIdle = new ArrayDeque<>();
+
+    private long mCreated;
+    private long mReused;
+    private long mEvicted;
+
+    public CodecPool(Factory<C> factory, int maxIdle, int maxInstances) {
+        this.mFactory = factory;
+        this.mMaxIdle = maxIdle;
+        this.mInstances = new Semaphore(maxInstances, true);
+    }
+
+    /**
+     * @return an idle codec for {@code key}, or a new one once the instance limit allows.
+     * @throws IOException if no instance became available within {@code timeoutMs} or the
+     *                     factory failed.
+     */
+    public C acquire(String key, long timeoutMs) throws IOException, InterruptedException {
+        C codec = takeIdle(key);
+        if (codec != null) {
+            return codec;
+        }
+        if (!mInstances.tryAcquire()) {
+            evictIdle();
+            if (!mInstances.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("no codec instance available for " + key);
+            }
+        }
+        return create(key);
+    }
+
+    /**
+     * Like {@link #acquire}, but returns at once instead of waiting for an instance.
+     *
+     * @return the codec, or null if every instance is in use.
+     * @throws IOException if the factory failed.
+     */
+    public C tryAcquire(String key) throws IOException {
+        C codec = takeIdle(key);
+        if (codec != null) {
+            return codec;
+        }
+        if (!mInstances.tryAcquire()) {
+            evictIdle();
+            if (!mInstances.tryAcquire()) {
+                return null;
+            }
+        }
+        return create(key);
+    }
+
+    /**
+     * Creates a codec for a permit already taken, giving the permit back if that fails.
+     */
+    private C create(String key) throws IOException {
+        C codec;
+        try {
+            codec = mFactory.create(key);
+        } catch (IOException | RuntimeException e) {
+            mInstances.release();
+            throw e;
+        }
+        synchronized (this) {
+            mCreated++;
+        }
+        return codec;
+    }
+
+    /**
+     * Returns a codec that is no longer needed.  It is reset and kept for reuse, releasing the
+     * least recently used idle codec if the pool is full.
+     */
+    public void recycle(String key, C codec) {
+        try {
+            mFactory.reset(codec);
+        } catch (RuntimeException e) {
+            discard(codec);
+            return;
+        }
+        C evicted = null;
+        synchronized (this) {
+            mIdle.addLast(new Idle<>(key, codec));
+            if (mIdle.size() > mMaxIdle) {
+                evicted = mIdle.pollFirst().codec;
+                mEvicted++;
+            }
+        }
+        if (evicted != null) {
+            mFactory.release(evicted);
+            mInstances.release();
+        }
+    }
+
+    /**
+     * Releases a codec that must not be reused, e.g. after an unrecoverable error.
+     */
+    public void discard(C codec) {
+        mFactory.release(codec);
+        mInstances.release();
+    }
+
+    /**
+     * Releases every idle codec.
+     */
+    public void clear() {
+        while (evictIdle()) {
+            // keep going
+        }
+    }
+
+    private synchronized C takeIdle(String key) {
+        // most recently used first, its buffers are most likely still warm
+        Iterator<Idle<C>> it = mIdle.descendingIterator();
+        while (it.hasNext()) {
+            Idle<C> idle = it.next();
+            if (idle.key.equals(key)) {
+                it.remove();
+                mReused++;
+                return idle.codec;
+            }
+        }
+        return null;
+    }
+
+    private boolean evictIdle() {
+        C evicted;
+        synchronized (this) {
+            Idle<C> idle = mIdle.pollFirst();
+            if (idle == null) {
+                return false;
+            }
+            evicted = idle.codec;
+            mEvicted++;
+        }
+        mFactory.release(evicted);
+        mInstances.release();
+        return true;
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getCreatedCount() {
+        return mCreated;
+    }
+
+    public synchronized long getReusedCount() {
+        return mReused;
+    }
+
+    public synchronized long getEvictedCount() {
+        return mEvicted;
+    }
+
+    private static final class Idle<C> {
+
+        final String key;
+        final C codec;
+
+        Idle(String key, C codec) {
+            this.key = key;
+            this.codec = codec;
+        }
+    }
+}
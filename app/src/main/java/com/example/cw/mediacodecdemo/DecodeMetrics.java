@@ -0,0 +1,177 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Counters used to compare decode loops: how long the first frame took, how many times the
+ * decode thread woke up per rendered frame, and for polled loops how full the codec was kept.
+ * <p>
+ * Written by the decode thread only; the getters may be read from any thread once the loop has
+ * finished.
+ */
+public class DecodeMetrics {
+
+    private long mStartNs;
+    private long mFirstFrameNs = -1;
+    private long mWakeups;
+    private long mFrames;
+    private long mSeekRequestNs = -1;
+    private long mLastSeekLatencyNs = -1;
+    private long mResumeRequestNs = -1;
+    private long mLastResumeLatencyNs = -1;
+    private long mCodecSetupNs = -1;
+    private long mIterations;
+    private long mBlockedIterations;
+    private long mInFlightSum;
+    private int mMaxInFlight;
+    private int mMaxQueuedPerIteration;
+
+    public void start(long nowNs) {
+        mStartNs = nowNs;
+        mFirstFrameNs = -1;
+        mWakeups = 0;
+        mFrames = 0;
+        mIterations = 0;
+        mBlockedIterations = 0;
+        mInFlightSum = 0;
+        mMaxInFlight = 0;
+        mMaxQueuedPerIteration = 0;
+    }
+
+    /**
+     * Records how long getting the codec configured and started took before {@link #start}.
+     * Time-to-first-frame of a play is this plus {@link #getTimeToFirstFrameNs()}.
+     */
+    public void setCodecSetupNs(long codecSetupNs) {
+        mCodecSetupNs = codecSetupNs;
+    }
+
+    public long getCodecSetupNs() {
+        return mCodecSetupNs;
+    }
+
+    /**
+     * Called each time the decode thread returns from a codec call or receives a codec event.
+     */
+    public void onWakeup() {
+        mWakeups++;
+    }
+
+    /**
+     * Called at the end of each iteration of a polled decode loop.
+     *
+     * @param queued   samples queued in this iteration.
+     * @param drained  output buffers taken in this iteration.
+     * @param inFlight samples inside the codec afterwards.
+     * @param blocked  whether the iteration had to wait for the codec.
+     */
+    public void onIteration(int queued, int drained, int inFlight, boolean blocked) {
+        mIterations++;
+        if (blocked) {
+            mBlockedIterations++;
+        }
+        mInFlightSum += inFlight;
+        mMaxInFlight = Math.max(mMaxInFlight, inFlight);
+        mMaxQueuedPerIteration = Math.max(mMaxQueuedPerIteration, queued);
+    }
+
+    public long getIterations() {
+        return mIterations;
+    }
+
+    public long getBlockedIterations() {
+        return mBlockedIterations;
+    }
+
+    /**
+     * @return the mean number of samples inside the codec at the end of an iteration.
+     */
+    public float getAverageInFlight() {
+        return mIterations == 0 ? 0f : (float) mInFlightSum / mIterations;
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    public int getMaxQueuedPerIteration() {
+        return mMaxQueuedPerIteration;
+    }
+
+    public void onFrameRendered(long nowNs) {
+        if (mFirstFrameNs < 0) {
+            mFirstFrameNs = nowNs;
+        }
+        if (mSeekRequestNs >= 0) {
+            mLastSeekLatencyNs = nowNs - mSeekRequestNs;
+            mSeekRequestNs = -1;
+        }
+        if (mResumeRequestNs >= 0) {
+            mLastResumeLatencyNs = nowNs - mResumeRequestNs;
+            mResumeRequestNs = -1;
+        }
+        mFrames++;
+    }
+
+    /**
+     * Called when a seek is applied; the next rendered frame completes it.
+     *
+     * @param requestNs when the seek was requested.
+     */
+    public void onSeek(long requestNs) {
+        mSeekRequestNs = requestNs;
+    }
+
+    /**
+     * @return nanoseconds from the last completed seek request to its first rendered frame,
+     * or -1 if there was none.
+     */
+    public long getLastSeekLatencyNs() {
+        return mLastSeekLatencyNs;
+    }
+
+    /**
+     * Called when the decode thread wakes up from a pause; the next rendered frame completes
+     * the resume.
+     *
+     * @param requestNs when the resume was requested.
+     */
+    public void onResume(long requestNs) {
+        mResumeRequestNs = requestNs;
+    }
+
+    /**
+     * @return nanoseconds from the last resume request to the first frame rendered after it,
+     * or -1 if there was none.
+     */
+    public long getLastResumeLatencyNs() {
+        return mLastResumeLatencyNs;
+    }
+
+    /**
+     * @return nanoseconds from {@link #start} to the first rendered frame, or -1 if none yet.
+     */
+    public long getTimeToFirstFrameNs() {
+        return mFirstFrameNs < 0 ? -1 : mFirstFrameNs - mStartNs;
+    }
+
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public float getWakeupsPerFrame() {
+        return mFrames == 0 ? 0f : (float) mWakeups / mFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "codec setup=" + mCodecSetupNs / 1000 + "us, ttff=" + getTimeToFirstFrameNs() / 1000
+                + "us, frames=" + mFrames
+                + ", wakeups=" + mWakeups + ", wakeups/frame=" + getWakeupsPerFrame()
+                + ", last seek=" + mLastSeekLatencyNs / 1000 + "us, last resume=" + mLastResumeLatencyNs / 1000 + "us"
+                + (mIterations == 0 ? "" : ", iterations=" + mIterations + ", blocked=" + mBlockedIterations
+                + ", in flight avg=" + getAverageInFlight() + " max=" + mMaxInFlight);
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a container once and routes its samples to per-track {@link PacketQueue}s.
+ * <p>
+ * The video and audio players each consume a {@link QueueSampleSource} instead of opening their
+ * own {@link MediaExtractor}, so the file is read and parsed once.  A seek from either consumer
+ * repositions every track together.
+ * <p>
+ * When looping, the container is rewound as soon as it runs out and all tracks continue on one
+ * {@link LoopTimeline}, so consumers see a single endless stream and stay in lockstep.
+ */
+public class Demuxer implements Runnable {
+
+    private static final String TAG = "Demuxer";
+
+    private static final int VIDEO_QUEUE_CAPACITY = 8;
+    private static final int AUDIO_QUEUE_CAPACITY = 32;
+    private static final int DEFAULT_VIDEO_SAMPLE_SIZE = 1 << 20;
+    private static final int DEFAULT_AUDIO_SAMPLE_SIZE = 1 << 16;
+    private static final long WAIT_TIMEOUT_MS = 10;
+    private static final long IDLE_WAIT_NS = 5000000L;
+
+    private final SampleSource mSource;
+    private File mFile;
+    private boolean mMp4;
+    private int[] mTrackIndices = new int[0];
+    private PacketQueue[] mQueues = new PacketQueue[0];
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private int mOpenSources;
+
+    private volatile int mSeekSerial;
+    private volatile long mSeekTimeUs;
+    private volatile int mSeekMode;
+    private int mAppliedSerial;
+    private boolean mEndOfStream;
+    private volatile long mBytesRead;
+    private volatile boolean mLoop;
+    private long mLoopPeriodUs;
+    private LoopTimeline mTimeline;
+
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+    private int mVideoTrackIndex = -1;
+    private int mAudioTrackIndex = -1;
+    private QueueSampleSource mVideoSource;
+    private QueueSampleSource mAudioSource;
+
+    /**
+     * @param source reads every track that will be added; its samples arrive interleaved.
+     */
+    public Demuxer(SampleSource source) {
+        this.mSource = source;
+    }
+
+    /**
+     * Opens {@code file} and selects its first video and first audio track.
+     */
+    public static Demuxer open(File file) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        extractor.setDataSource(file.toString());
+        Demuxer demuxer = open(extractor);
+        demuxer.mFile = file;
+        return demuxer;
+    }
+
+    /**
+     * Opens a container read through {@code dataSource}, e.g. a {@link CachedDataSource} over
+     * an HTTP download, and selects its first video and first audio track.
+     */
+    public static Demuxer open(MediaDataSource dataSource) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        extractor.setDataSource(dataSource);
+        return open(extractor);
+    }
+
+    private static Demuxer open(MediaExtractor extractor) {
+        Demuxer demuxer = new Demuxer(new ExtractorSampleSource(extractor));
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime.startsWith("video/") && demuxer.mVideoTrackIndex < 0) {
+                extractor.selectTrack(i);
+                demuxer.mVideoTrackIndex = i;
+                demuxer.mVideoFormat = format;
+                demuxer.mVideoSource = demuxer.addTrack(i, VIDEO_QUEUE_CAPACITY,
+                        maxSampleSize(format, DEFAULT_VIDEO_SAMPLE_SIZE));
+            } else if (mime.startsWith("audio/") && demuxer.mAudioTrackIndex < 0) {
+                extractor.selectTrack(i);
+                demuxer.mAudioTrackIndex = i;
+                demuxer.mAudioFormat = format;
+                demuxer.mAudioSource = demuxer.addTrack(i, AUDIO_QUEUE_CAPACITY,
+                        maxSampleSize(format, DEFAULT_AUDIO_SAMPLE_SIZE));
+            }
+        }
+        demuxer.mLoopPeriodUs = durationOf(extractor);
+        Log.d(TAG, "open: video track " + demuxer.mVideoTrackIndex + ", audio track " + demuxer.mAudioTrackIndex);
+        return demuxer;
+    }
+
+    /**
+     * Like {@link #open}, but demuxes with {@link Mp4Extractor} instead of
+     * {@link MediaExtractor}.  The file must be an MP4.
+     */
+    public static Demuxer openMp4(File file) throws IOException {
+        Mp4Extractor extractor = new Mp4Extractor(file);
+        Demuxer demuxer = new Demuxer(extractor);
+        demuxer.mFile = file;
+        demuxer.mMp4 = true;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            Mp4Extractor.Track track = extractor.getTrack(i);
+            if (track.isVideo() && demuxer.mVideoTrackIndex < 0) {
+                extractor.selectTrack(i);
+                demuxer.mVideoTrackIndex = i;
+                demuxer.mVideoFormat = formatOf(track);
+                demuxer.mVideoSource = demuxer.addTrack(i, VIDEO_QUEUE_CAPACITY, track.getMaxSampleSize());
+            } else if (track.isAudio() && demuxer.mAudioTrackIndex < 0) {
+                extractor.selectTrack(i);
+                demuxer.mAudioTrackIndex = i;
+                demuxer.mAudioFormat = formatOf(track);
+                demuxer.mAudioSource = demuxer.addTrack(i, AUDIO_QUEUE_CAPACITY, track.getMaxSampleSize());
+            }
+            demuxer.mLoopPeriodUs = Math.max(demuxer.mLoopPeriodUs, track.getDurationUs());
+        }
+        Log.d(TAG, "openMp4: video track " + demuxer.mVideoTrackIndex + ", audio track " + demuxer.mAudioTrackIndex);
+        return demuxer;
+    }
+
+    /**
+     * Describes a track of an {@link Mp4Extractor} the way {@link MediaExtractor#getTrackFormat}
+     * would.
+     */
+    static MediaFormat formatOf(Mp4Extractor.Track track) {
+        MediaFormat format;
+        if (track.isVideo()) {
+            format = MediaFormat.createVideoFormat(track.getMime(), track.getWidth(), track.getHeight());
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, Math.round(track.getFrameRate()));
+        } else {
+            format = MediaFormat.createAudioFormat(track.getMime(), track.getSampleRate(), track.getChannelCount());
+        }
+        for (int i = 0; i < track.getCsdCount(); i++) {
+            format.setByteBuffer("csd-" + i, ByteBuffer.wrap(track.getCsd(i)));
+        }
+        format.setLong(MediaFormat.KEY_DURATION, track.getDurationUs());
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, track.getMaxSampleSize());
+        return format;
+    }
+
+    /**
+     * @return the duration of the longest track, or 0 if no track declares one.  Used as the
+     * loop period so that every track of a file wraps at the same time.
+     */
+    static long durationOf(MediaExtractor extractor) {
+        long durationUs = 0;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                durationUs = Math.max(durationUs, format.getLong(MediaFormat.KEY_DURATION));
+            }
+        }
+        return durationUs;
+    }
+
+    private static int maxSampleSize(MediaFormat format, int defaultSize) {
+        return format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : defaultSize;
+    }
+
+    /**
+     * Routes samples of {@code trackIndex} to a new queue.  Must be called before {@link #start}.
+     */
+    public QueueSampleSource addTrack(int trackIndex, int queueCapacity, int maxSampleSize) {
+        int count = mTrackIndices.length;
+        int[] trackIndices = new int[count + 1];
+        PacketQueue[] queues = new PacketQueue[count + 1];
+        System.arraycopy(mTrackIndices, 0, trackIndices, 0, count);
+        System.arraycopy(mQueues, 0, queues, 0, count);
+        trackIndices[count] = trackIndex;
+        queues[count] = new PacketQueue(queueCapacity, maxSampleSize);
+        mTrackIndices = trackIndices;
+        mQueues = queues;
+        mOpenSources++;
+        return new QueueSampleSource(this, queues[count], trackIndex);
+    }
+
+    /**
+     * @return the file passed to {@link #open}, or null for a demuxer over another source.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return true if the file is read with {@link Mp4Extractor}.
+     */
+    public boolean isMp4() {
+        return mMp4;
+    }
+
+    /**
+     * Sets the loop mode.  If true, every track plays forever without an end of stream.
+     */
+    public void setLoop(boolean loop) {
+        this.mLoop = loop;
+    }
+
+    public void start() {
+        mTimeline = new LoopTimeline(mLoopPeriodUs);
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    public MediaFormat getVideoFormat() {
+        return mVideoFormat;
+    }
+
+    public MediaFormat getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    public int getVideoTrackIndex() {
+        return mVideoTrackIndex;
+    }
+
+    public int getAudioTrackIndex() {
+        return mAudioTrackIndex;
+    }
+
+    public QueueSampleSource getVideoSource() {
+        return mVideoSource;
+    }
+
+    public QueueSampleSource getAudioSource() {
+        return mAudioSource;
+    }
+
+    /**
+     * @return the number of sample bytes read from the container so far.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    int getSeekSerial() {
+        return mSeekSerial;
+    }
+
+    /**
+     * Repositions every track.  Samples already queued are discarded.  Called from any
+     * consumer thread; later requests replace earlier ones that were not applied yet.
+     */
+    public synchronized void seekTo(long timeUs, int mode) {
+        mSeekTimeUs = timeUs;
+        mSeekMode = mode;
+        mSeekSerial++;
+        for (PacketQueue queue : mQueues) {
+            queue.clear();
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Called by each {@link QueueSampleSource} when its consumer is done; the demuxer stops
+     * and releases the container once every source is released.
+     */
+    synchronized void onSourceReleased() {
+        mOpenSources--;
+        if (mOpenSources == 0) {
+            release();
+        }
+    }
+
+    /**
+     * Stops the demux thread and releases the container.
+     */
+    public void release() {
+        mRunning = false;
+        if (mThread == null) {
+            mSource.release();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                int seekSerial = mSeekSerial;
+                if (seekSerial != mAppliedSerial) {
+                    mSource.seekTo(mSeekTimeUs, mSeekMode);
+                    mAppliedSerial = seekSerial;
+                    mEndOfStream = false;
+                    mTimeline.reset();
+                }
+                if (mEndOfStream) {
+                    LockSupport.parkNanos(IDLE_WAIT_NS);
+                    continue;
+                }
+                int trackIndex = mSource.getSampleTrackIndex();
+                if (trackIndex < 0) {
+                    onEndOfSource();
+                    continue;
+                }
+                PacketQueue queue = queueFor(trackIndex);
+                if (queue == null) {
+                    mSource.advance();
+                    continue;
+                }
+                PacketQueue.Packet packet = obtain(queue);
+                if (packet == null) {
+                    continue;
+                }
+                packet.size = mSource.readSampleData(packet.data, 0);
+                if (packet.size < 0) {
+                    queue.recycle(packet);
+                    onEndOfSource();
+                    continue;
+                }
+                packet.timeUs = mTimeline.map(mSource.getSampleTime());
+                packet.flags = mSource.getSampleFlags();
+                packet.serial = mAppliedSerial;
+                mBytesRead += packet.size;
+                queue.put(packet);
+                mSource.advance();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "demux thread interrupted");
+        } finally {
+            mRunning = false;
+            mSource.release();
+        }
+    }
+
+    private void onEndOfSource() throws InterruptedException {
+        if (mLoop && mTimeline.onWrap()) {
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_LOOP, mTimeline.getIterations(), 0);
+            mSource.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        } else {
+            queueEndOfStream();
+        }
+    }
+
+    private void queueEndOfStream() throws InterruptedException {
+        for (PacketQueue queue : mQueues) {
+            PacketQueue.Packet packet = obtain(queue);
+            if (packet == null) {
+                return;
+            }
+            packet.endOfStream = true;
+            packet.serial = mAppliedSerial;
+            queue.put(packet);
+        }
+        mEndOfStream = true;
+    }
+
+    /**
+     * Waits for a free packet, giving up if the demuxer stops or a seek comes in meanwhile.
+     */
+    private PacketQueue.Packet obtain(PacketQueue queue) throws InterruptedException {
+        while (mRunning && mSeekSerial == mAppliedSerial) {
+            PacketQueue.Packet packet = queue.obtain(WAIT_TIMEOUT_MS);
+            if (packet != null) {
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    private PacketQueue queueFor(int trackIndex) {
+        for (int i = 0; i < mTrackIndices.length; i++) {
+            if (mTrackIndices[i] == trackIndex) {
+                return mQueues[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A chain of audio processing stages run on decoded PCM between the decoder and the output.
+ * <p>
+ * The stages work in place on blocks of interleaved floats at full scale 1; 16-bit PCM is
+ * converted into a reusable block and back, clipped.  Nothing is allocated while processing.
+ * Stages can be added, removed and bypassed from any thread while audio runs through the
+ * chain: the stage list is replaced as a whole and read once per block.  Going in and out of
+ * bypass cross-fades between the processed and the unprocessed signal, so it does not click.
+ * <p>
+ * {@link #process} and {@link #reset} must be called on one audio thread.
+ */
+public class DspChain {
+
+    public static final int DEFAULT_BLOCK_FRAMES = 512;
+    private static final int BYPASS_RAMP_MS = 10;
+
+    /**
+     * One processing step.  Parameters set from other threads must be safe to read on the
+     * audio thread without locking, e.g. volatile, and take effect without clicks.
+     */
+    public interface Stage {
+
+        /**
+         * Called once, when the stage is added to a chain and before it processes anything, on
+         * the thread adding it.  Per-channel state is allocated here.
+         */
+        void configure(int sampleRate, int channels);
+
+        /**
+         * Processes {@code frames} interleaved frames of {@code samples} from {@code offset},
+         * in place.
+         */
+        void process(float[] samples, int offset, int frames);
+
+        /**
+         * Forgets the signal history, e.g. after a seek; parameter changes in progress complete
+         * at once.
+         */
+        void reset();
+
+    }
+
+    private static final class Slot {
+
+        final Stage stage;
+        volatile boolean bypassed;
+        // audio thread only: share of the processed signal in the output, ramped on bypass
+        float mix = 1f;
+
+        Slot(Stage stage) {
+            this.stage = stage;
+        }
+    }
+
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mBlockFrames;
+    private final float mRampStep;
+    private final float[] mBlock;
+    private final float[] mDry;
+    private volatile Slot[] mSlots = new Slot[0];
+
+    public DspChain(int sampleRate, int channels) {
+        this(sampleRate, channels, DEFAULT_BLOCK_FRAMES);
+    }
+
+    /**
+     * @param blockFrames how many frames are processed at a time.
+     */
+    public DspChain(int sampleRate, int channels, int blockFrames) {
+        if (sampleRate <= 0 || channels <= 0 || blockFrames <= 0) {
+            throw new IllegalArgumentException("sample rate " + sampleRate + ", channels " + channels
+                    + ", block " + blockFrames);
+        }
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBlockFrames = blockFrames;
+        mRampStep = 1000f / (sampleRate * BYPASS_RAMP_MS);
+        mBlock = new float[blockFrames * channels];
+        mDry = new float[blockFrames * channels];
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getBlockFrames() {
+        return mBlockFrames;
+    }
+
+    /**
+     * Configures {@code stage} for this chain's format and appends it.  A stage may only be in
+     * one chain.
+     */
+    public synchronized void add(Stage stage) {
+        stage.configure(mSampleRate, mChannels);
+        Slot[] slots = mSlots;
+        Slot[] added = new Slot[slots.length + 1];
+        System.arraycopy(slots, 0, added, 0, slots.length);
+        added[slots.length] = new Slot(stage);
+        mSlots = added;
+    }
+
+    /**
+     * Takes {@code stage} out of the chain at once.  Bypass it first and wait for the
+     * cross-fade for a removal that does not click.
+     *
+     * @return false if the stage was not in the chain.
+     */
+    public synchronized boolean remove(Stage stage) {
+        Slot[] slots = mSlots;
+        int index = indexOf(slots, stage);
+        if (index < 0) {
+            return false;
+        }
+        Slot[] removed = new Slot[slots.length - 1];
+        System.arraycopy(slots, 0, removed, 0, index);
+        System.arraycopy(slots, index + 1, removed, index, slots.length - index - 1);
+        mSlots = removed;
+        return true;
+    }
+
+    /**
+     * Bypasses {@code stage}, or puts it back in, with a short cross-fade.
+     */
+    public void setBypassed(Stage stage, boolean bypassed) {
+        Slot[] slots = mSlots;
+        int index = indexOf(slots, stage);
+        if (index < 0) {
+            throw new IllegalArgumentException("stage not in the chain");
+        }
+        slots[index].bypassed = bypassed;
+    }
+
+    public boolean isBypassed(Stage stage) {
+        Slot[] slots = mSlots;
+        int index = indexOf(slots, stage);
+        return index < 0 || slots[index].bypassed;
+    }
+
+    private static int indexOf(Slot[] slots, Stage stage) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].stage == stage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return false if every stage is bypassed and faded out, so audio can skip the chain.
+     * Audio thread only.
+     */
+    public boolean isActive() {
+        for (Slot slot : mSlots) {
+            if (!slot.bypassed || slot.mix > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resets every stage, e.g. after a seek.
+     */
+    public void reset() {
+        for (Slot slot : mSlots) {
+            slot.stage.reset();
+            slot.mix = slot.bypassed ? 0f : 1f;
+        }
+    }
+
+    /**
+     * Processes interleaved floats in place.
+     */
+    public void process(float[] samples, int offset, int frames) {
+        Slot[] slots = mSlots;
+        while (frames > 0) {
+            int block = Math.min(frames, mBlockFrames);
+            processBlock(slots, samples, offset, block);
+            offset += block * mChannels;
+            frames -= block;
+        }
+    }
+
+    /**
+     * Processes interleaved 16-bit samples in place.
+     */
+    public void process(short[] samples, int offset, int frames) {
+        Slot[] slots = mSlots;
+        while (frames > 0) {
+            int block = Math.min(frames, mBlockFrames);
+            int length = block * mChannels;
+            for (int i = 0; i < length; i++) {
+                mBlock[i] = samples[offset + i] * (1f / 32768);
+            }
+            processBlock(slots, mBlock, 0, block);
+            for (int i = 0; i < length; i++) {
+                samples[offset + i] = toShort(mBlock[i]);
+            }
+            offset += length;
+            frames -= block;
+        }
+    }
+
+    /**
+     * Processes native-order 16-bit samples from the position of {@code in} up to its limit,
+     * at most one block, into {@code out} from its position.  Both positions move past the
+     * frames processed.
+     *
+     * @return the number of frames processed, 0 once either buffer has no whole frame left.
+     */
+    public int process(ByteBuffer in, ByteBuffer out) {
+        in.order(ByteOrder.nativeOrder());
+        out.order(ByteOrder.nativeOrder());
+        int frameBytes = 2 * mChannels;
+        int frames = Math.min(mBlockFrames, Math.min(in.remaining(), out.remaining()) / frameBytes);
+        int length = frames * mChannels;
+        for (int i = 0; i < length; i++) {
+            mBlock[i] = in.getShort() * (1f / 32768);
+        }
+        processBlock(mSlots, mBlock, 0, frames);
+        for (int i = 0; i < length; i++) {
+            out.putShort(toShort(mBlock[i]));
+        }
+        return frames;
+    }
+
+    private static short toShort(float sample) {
+        int value = Math.round(sample * 32768);
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+
+    private void processBlock(Slot[] slots, float[] samples, int offset, int frames) {
+        int length = frames * mChannels;
+        for (Slot slot : slots) {
+            boolean on = !slot.bypassed;
+            float mix = slot.mix;
+            if (on && mix == 1f) {
+                slot.stage.process(samples, offset, frames);
+                continue;
+            }
+            if (!on && mix == 0f) {
+                continue;
+            }
+            if (mix == 0f) {
+                // history from before the bypass would be heard
+                slot.stage.reset();
+            }
+            System.arraycopy(samples, offset, mDry, 0, length);
+            slot.stage.process(samples, offset, frames);
+            float step = on ? mRampStep : -mRampStep;
+            for (int frame = 0; frame < frames; frame++) {
+                mix = Math.max(0f, Math.min(1f, mix + step));
+                int base = frame * mChannels;
+                for (int c = 0; c < mChannels; c++) {
+                    float dry = mDry[base + c];
+                    samples[offset + base + c] = dry + (samples[offset + base + c] - dry) * mix;
+                }
+            }
+            slot.mix = mix;
+        }
+    }
+}
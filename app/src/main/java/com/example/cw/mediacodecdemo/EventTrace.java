@@ -0,0 +1,126 @@
+package com.example.cw.mediacodecdemo;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide trace of decode-loop events, cheap enough for the per-frame hot paths.
+ * <p>
+ * Each event is a fixed record of an event id, a {@link System#nanoTime()} timestamp and two
+ * long arguments, written into a preallocated ring; nothing is formatted or allocated until
+ * the ring is dumped.  Events above {@link #COMPILED_LEVEL} are dropped at compile time in
+ * release builds, and the rest can be filtered at runtime with {@link #setLevel}.
+ * <p>
+ * Any thread may record.  Dumps are best effort: an event being written while the ring is
+ * dumped may show up half written.
+ */
+public final class EventTrace {
+
+    private static final String TAG = "EventTrace";
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_INFO = 1;
+    public static final int LEVEL_VERBOSE = 2;
+
+    /**
+     * Highest level compiled into this build.
+     */
+    public static final int COMPILED_LEVEL = BuildConfig.DEBUG ? LEVEL_VERBOSE : LEVEL_INFO;
+
+    public static final int EVENT_INPUT_QUEUED = 0;
+    public static final int EVENT_INPUT_UNAVAILABLE = 1;
+    public static final int EVENT_INPUT_EOS = 2;
+    public static final int EVENT_OUTPUT_TRY_AGAIN = 3;
+    public static final int EVENT_OUTPUT_BUFFER = 4;
+    public static final int EVENT_OUTPUT_EOS = 5;
+    public static final int EVENT_FRAME_RENDERED = 6;
+    public static final int EVENT_FRAME_DROPPED = 7;
+    public static final int EVENT_AUDIO_WRITTEN = 8;
+    public static final int EVENT_WRONG_TRACK = 9;
+    public static final int EVENT_LOOP = 10;
+
+    private static final String[] EVENT_NAMES = {
+            "input_queued", "input_unavailable", "input_eos", "output_try_again", "output_buffer",
+            "output_eos", "frame_rendered", "frame_dropped", "audio_written", "wrong_track", "loop",
+    };
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final int SLOT_SIZE = 4;
+
+    private static final long[] sSlots = new long[CAPACITY * SLOT_SIZE];
+    private static final AtomicLong sNext = new AtomicLong();
+    private static volatile int sLevel = COMPILED_LEVEL;
+
+    private EventTrace() {
+    }
+
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    /**
+     * Records an event if {@code level} is enabled.
+     */
+    public static void record(int level, int event, long arg1, long arg2) {
+        if (level > COMPILED_LEVEL || level > sLevel) {
+            return;
+        }
+        int base = (int) (sNext.getAndIncrement() & MASK) * SLOT_SIZE;
+        sSlots[base] = event;
+        sSlots[base + 1] = System.nanoTime();
+        sSlots[base + 2] = arg1;
+        sSlots[base + 3] = arg2;
+    }
+
+    /**
+     * @return the number of events recorded since the last {@link #clear()}, including those
+     * already overwritten.
+     */
+    public static long getRecordedCount() {
+        return sNext.get();
+    }
+
+    public static void clear() {
+        sNext.set(0);
+    }
+
+    /**
+     * Writes the retained events, oldest first, one per line as
+     * {@code timeNs event arg1 arg2}.
+     */
+    public static void dump(Writer out) throws IOException {
+        long end = sNext.get();
+        StringBuilder line = new StringBuilder(64);
+        for (long i = Math.max(0, end - CAPACITY); i < end; i++) {
+            formatEvent(i, line);
+            out.write(line.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Dumps the retained events to logcat.
+     */
+    public static void dumpToLog() {
+        long end = sNext.get();
+        StringBuilder line = new StringBuilder(64);
+        for (long i = Math.max(0, end - CAPACITY); i < end; i++) {
+            formatEvent(i, line);
+            Log.d(TAG, line.toString());
+        }
+    }
+
+    private static void formatEvent(long index, StringBuilder line) {
+        int base = (int) (index & MASK) * SLOT_SIZE;
+        int event = (int) sSlots[base];
+        line.setLength(0);
+        line.append(sSlots[base + 1]).append(' ')
+                .append(event >= 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : "unknown")
+                .append(' ').append(sSlots[base + 2])
+                .append(' ').append(sSlots[base + 3]);
+    }
+}
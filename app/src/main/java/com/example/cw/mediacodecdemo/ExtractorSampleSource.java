@@ -0,0 +1,52 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} backed by a {@link MediaExtractor} that already has its track selected.
+ */
+public class ExtractorSampleSource implements SampleSource {
+
+    private final MediaExtractor mExtractor;
+
+    public ExtractorSampleSource(MediaExtractor extractor) {
+        this.mExtractor = extractor;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        return mExtractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mExtractor.getSampleFlags();
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mExtractor.getSampleTrackIndex();
+    }
+
+    @Override
+    public boolean advance() {
+        return mExtractor.advance();
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        mExtractor.seekTo(timeUs, mode);
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+}
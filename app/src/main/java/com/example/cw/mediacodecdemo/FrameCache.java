@@ -0,0 +1,389 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decoded frames kept off the Java heap by presentation time, so scrubbing back over a stretch
+ * already decoded needs no seek and no decoding.
+ * <p>
+ * Frames are copied into direct buffers, and the buffers of all the frames held plus a few
+ * spare ones never take more than a fixed number of bytes.  When a new frame does not fit,
+ * frames are evicted: by default the ones farthest from the playhead, so the frames around it
+ * stay; or the least recently used.  A frame farther from the playhead than all the others is
+ * not taken in at their expense.  Evicted buffers are reused for later frames of the same size,
+ * so a cache that is full allocates nothing.
+ * <p>
+ * Frames handed out by {@link #acquire} are pinned, neither evicted nor overwritten, until
+ * given back with {@link #release}.  Thread safe.
+ */
+public class FrameCache {
+
+    public static final int EVICT_FARTHEST = 0;
+    public static final int EVICT_LEAST_RECENTLY_USED = 1;
+
+    /**
+     * A cached frame.  Only valid between {@link #acquire} and {@link #release}.
+     */
+    public static final class Frame {
+
+        private final ByteBuffer mBuffer;
+        private final long mPresentationTimeUs;
+        private final YuvLayout mLayout;
+        // guarded by the cache's lock
+        private int mPins;
+
+        private Frame(ByteBuffer buffer, long presentationTimeUs, YuvLayout layout) {
+            this.mBuffer = buffer;
+            this.mPresentationTimeUs = presentationTimeUs;
+            this.mLayout = layout;
+        }
+
+        /**
+         * @return the frame, from position 0 to its limit.  Must not be written to or moved.
+         */
+        public ByteBuffer getData() {
+            return mBuffer;
+        }
+
+        public long getPresentationTimeUs() {
+            return mPresentationTimeUs;
+        }
+
+        /**
+         * @return how the frame is laid out, or null if not known.
+         */
+        public YuvLayout getLayout() {
+            return mLayout;
+        }
+    }
+
+    private final long mMaxBytes;
+    private final int mPolicy;
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private final TreeMap<Long, Frame> mByTime = new TreeMap<>();
+    // in access order, least recently used first
+    private final LinkedHashMap<Long, Frame> mByUse = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayList<ByteBuffer> mSpare = new ArrayList<>();
+    private long mPlayheadUs;
+    private long mAllocatedBytes;
+    private long mFrameBytes;
+
+    private long mLookups;
+    private long mHits;
+    private long mPuts;
+    private long mRejected;
+    private long mEvictions;
+    private long mAllocations;
+
+    /**
+     * @param maxBytes most bytes of direct buffers held, frames and spare buffers together.
+     * @param policy   {@link #EVICT_FARTHEST} or {@link #EVICT_LEAST_RECENTLY_USED}.
+     */
+    public FrameCache(long maxBytes, int policy) {
+        if (maxBytes <= 0 || (policy != EVICT_FARTHEST && policy != EVICT_LEAST_RECENTLY_USED)) {
+            throw new IllegalArgumentException("max bytes " + maxBytes + ", policy " + policy);
+        }
+        this.mMaxBytes = maxBytes;
+        this.mPolicy = policy;
+    }
+
+    /**
+     * Moves the point that {@link #EVICT_FARTHEST} measures from.
+     */
+    public void setPlayheadUs(long playheadUs) {
+        synchronized (mLock) {
+            mPlayheadUs = playheadUs;
+        }
+    }
+
+    public long getPlayheadUs() {
+        synchronized (mLock) {
+            return mPlayheadUs;
+        }
+    }
+
+    /**
+     * Copies {@code frame}, from its position to its limit, in as the frame presented at
+     * {@code presentationTimeUs}, evicting others to make room.  The position of {@code frame}
+     * is left as it was.
+     *
+     * @return false if the frame was not taken: it is bigger than the budget, or only frames
+     * closer to the playhead or pinned ones could make room for it.
+     */
+    public boolean put(long presentationTimeUs, ByteBuffer frame, YuvLayout layout) {
+        int size = frame.remaining();
+        synchronized (mLock) {
+            mPuts++;
+            if (mByTime.containsKey(presentationTimeUs)) {
+                // decoded again; the copy held is the same
+                mByUse.get(presentationTimeUs);
+                return true;
+            }
+            ByteBuffer buffer = obtain(size, presentationTimeUs);
+            if (buffer == null) {
+                mRejected++;
+                return false;
+            }
+            buffer.clear();
+            buffer.put(frame.duplicate());
+            buffer.flip();
+            Frame cached = new Frame(buffer, presentationTimeUs, layout);
+            mByTime.put(presentationTimeUs, cached);
+            mByUse.put(presentationTimeUs, cached);
+            mFrameBytes += buffer.capacity();
+            return true;
+        }
+    }
+
+    /**
+     * Holds {@code mLock}.
+     *
+     * @return a buffer of at least {@code size} bytes within the budget, or null.
+     */
+    private ByteBuffer obtain(int size, long presentationTimeUs) {
+        if (size > mMaxBytes) {
+            return null;
+        }
+        while (true) {
+            for (int i = mSpare.size() - 1; i >= 0; i--) {
+                if (mSpare.get(i).capacity() >= size) {
+                    return mSpare.remove(i);
+                }
+            }
+            if (mAllocatedBytes + size <= mMaxBytes) {
+                mAllocatedBytes += size;
+                mAllocations++;
+                return ByteBuffer.allocateDirect(size);
+            }
+            if (!mSpare.isEmpty()) {
+                // too small for this frame; let it go to make room
+                mAllocatedBytes -= mSpare.remove(mSpare.size() - 1).capacity();
+                continue;
+            }
+            Frame victim = victim(presentationTimeUs);
+            if (victim == null) {
+                return null;
+            }
+            remove(victim);
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Holds {@code mLock}.
+     *
+     * @return the frame to evict for one at {@code presentationTimeUs}, or null if none should.
+     */
+    private Frame victim(long presentationTimeUs) {
+        if (mPolicy == EVICT_LEAST_RECENTLY_USED) {
+            for (Frame frame : mByUse.values()) {
+                if (frame.mPins == 0) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+        // the farthest unpinned frame is the first or the last one not pinned
+        Frame low = null;
+        for (Frame frame : mByTime.values()) {
+            if (frame.mPins == 0) {
+                low = frame;
+                break;
+            }
+        }
+        Frame high = null;
+        for (Frame frame : mByTime.descendingMap().values()) {
+            if (frame.mPins == 0) {
+                high = frame;
+                break;
+            }
+        }
+        if (low == null) {
+            return null;
+        }
+        Frame farthest = distance(low.mPresentationTimeUs) >= distance(high.mPresentationTimeUs) ? low : high;
+        return distance(farthest.mPresentationTimeUs) > distance(presentationTimeUs) ? farthest : null;
+    }
+
+    private long distance(long presentationTimeUs) {
+        return Math.abs(presentationTimeUs - mPlayheadUs);
+    }
+
+    /**
+     * Holds {@code mLock}.  Keeps the frame's buffer as a spare.
+     */
+    private void remove(Frame frame) {
+        mByTime.remove(frame.mPresentationTimeUs);
+        mByUse.remove(frame.mPresentationTimeUs);
+        mFrameBytes -= frame.mBuffer.capacity();
+        mSpare.add(frame.mBuffer);
+    }
+
+    /**
+     * @return the frame presented at {@code presentationTimeUs}, pinned, or null if not cached.
+     */
+    public Frame acquire(long presentationTimeUs) {
+        return acquire(presentationTimeUs, 0);
+    }
+
+    /**
+     * @param toleranceUs how long before {@code timeUs} the frame may start, e.g. just under a
+     *                    frame duration to get the frame on screen at {@code timeUs}.
+     * @return the latest frame at or before {@code timeUs} within the tolerance, pinned, or null.
+     */
+    public Frame acquire(long timeUs, long toleranceUs) {
+        synchronized (mLock) {
+            mLookups++;
+            Map.Entry<Long, Frame> entry = mByTime.floorEntry(timeUs);
+            if (entry == null || timeUs - entry.getKey() > toleranceUs) {
+                return null;
+            }
+            mHits++;
+            Frame frame = entry.getValue();
+            mByUse.get(entry.getKey());
+            frame.mPins++;
+            return frame;
+        }
+    }
+
+    /**
+     * Unpins a frame from {@link #acquire}.
+     */
+    public void release(Frame frame) {
+        synchronized (mLock) {
+            if (frame.mPins <= 0) {
+                throw new IllegalStateException("frame at " + frame.mPresentationTimeUs + " not acquired");
+            }
+            frame.mPins--;
+            if (frame.mPins == 0 && mByTime.get(frame.mPresentationTimeUs) != frame) {
+                // cleared while pinned
+                mAllocatedBytes -= frame.mBuffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * @return true if the frame presented at {@code presentationTimeUs} is cached.
+     */
+    public boolean contains(long presentationTimeUs) {
+        synchronized (mLock) {
+            return mByTime.containsKey(presentationTimeUs);
+        }
+    }
+
+    /**
+     * @return the number of frames cached from {@code startUs} to {@code endUs}, both included.
+     */
+    public int count(long startUs, long endUs) {
+        synchronized (mLock) {
+            return endUs < startUs ? 0 : mByTime.subMap(startUs, true, endUs, true).size();
+        }
+    }
+
+    /**
+     * Drops every frame and spare buffer.  Pinned frames stay usable until released, and count
+     * against the budget until then.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            Iterator<Frame> frames = mByTime.values().iterator();
+            while (frames.hasNext()) {
+                Frame frame = frames.next();
+                if (frame.mPins == 0) {
+                    mAllocatedBytes -= frame.mBuffer.capacity();
+                }
+                mFrameBytes -= frame.mBuffer.capacity();
+                frames.remove();
+            }
+            mByUse.clear();
+            for (ByteBuffer spare : mSpare) {
+                mAllocatedBytes -= spare.capacity();
+            }
+            mSpare.clear();
+        }
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return bytes of direct buffers held, including spare ones and pinned frames dropped by
+     * {@link #clear}.  Never more than {@link #getMaxBytes()}.
+     */
+    public long getAllocatedBytes() {
+        synchronized (mLock) {
+            return mAllocatedBytes;
+        }
+    }
+
+    /**
+     * @return bytes of the buffers of the frames cached.
+     */
+    public long getFrameBytes() {
+        synchronized (mLock) {
+            return mFrameBytes;
+        }
+    }
+
+    public int getFrameCount() {
+        synchronized (mLock) {
+            return mByTime.size();
+        }
+    }
+
+    /**
+     * @return the share of {@link #acquire} calls that found a frame.
+     */
+    public float getHitRatio() {
+        synchronized (mLock) {
+            return mLookups > 0 ? (float) mHits / mLookups : 0;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (mLock) {
+            return mEvictions;
+        }
+    }
+
+    /**
+     * @return frames not taken by {@link #put}.
+     */
+    public long getRejected() {
+        synchronized (mLock) {
+            return mRejected;
+        }
+    }
+
+    /**
+     * @return direct buffers allocated; stays put once the cache is full of frames of one size.
+     */
+    public long getAllocations() {
+        synchronized (mLock) {
+            return mAllocations;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "frames=" + mByTime.size()
+                    + " frameBytes=" + mFrameBytes
+                    + " allocatedBytes=" + mAllocatedBytes + "/" + mMaxBytes
+                    + " lookups=" + mLookups
+                    + " hits=" + mHits
+                    + " puts=" + mPuts
+                    + " rejected=" + mRejected
+                    + " evictions=" + mEvictions
+                    + " allocations=" + mAllocations
+                    + " hitRatio=" + getHitRatio();
+        }
+    }
+}
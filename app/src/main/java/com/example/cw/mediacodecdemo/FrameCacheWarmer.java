@@ -0,0 +1,317 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Keeps a {@link FrameCache} filled with the frames around the playhead, decoding them on a
+ * background thread from a clip of its own.
+ * <p>
+ * Each move of the playhead asks for a window of frames around it.  Stretches decoded before
+ * whose frames are all still cached are not decoded again, so scrubbing back and forth only
+ * decodes the part of the window that is new; the decode in progress is abandoned when the
+ * playhead moves out of its window.  Thread safe.
+ */
+public class FrameCacheWarmer {
+
+    public static final long DEFAULT_BEHIND_US = 500000;
+    public static final long DEFAULT_AHEAD_US = 1000000;
+    // stretches remembered, the farthest from the playhead dropped first
+    private static final int MAX_SPANS = 16;
+
+    /**
+     * Frames from {@link #mStartUs} to {@link #mEndUs} that were all decoded, and how many of
+     * them were cached right after.
+     */
+    private static final class Span {
+        long mStartUs;
+        long mEndUs;
+        int mFrames;
+
+        Span(long startUs, long endUs, int frames) {
+            this.mStartUs = startUs;
+            this.mEndUs = endUs;
+            this.mFrames = frames;
+        }
+    }
+
+    private final FrameCache mCache;
+    private final BatchFrameExtractor.Clip mClip;
+    private final FrameExtractor mExtractor;
+    private final Thread mThread;
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private long mBehindUs = DEFAULT_BEHIND_US;
+    private long mAheadUs = DEFAULT_AHEAD_US;
+    private long mRequestedUs = -1;
+    private int mRequestGeneration;
+    private int mDoneGeneration;
+    private long mRunningStartUs = -1;
+    private long mRunningEndUs = -1;
+    private boolean mRunningCancelled;
+    private boolean mReleased;
+    private long mFramesDecoded;
+    private long mRuns;
+    private long mSkippedRequests;
+    private IOException mError;
+    // decode thread only
+    private final ArrayList<Span> mSpans = new ArrayList<>();
+    private long mLastDeliveredUs;
+    private YuvLayout mRunLayout;
+
+    /**
+     * @param clip decoded by the warmer and closed by {@link #release}.
+     */
+    public FrameCacheWarmer(FrameCache cache, BatchFrameExtractor.Clip clip) {
+        this.mCache = cache;
+        this.mClip = clip;
+        this.mExtractor = new FrameExtractor(clip.getCodec(), clip.getSource());
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "FrameCacheWarmer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Sets how much before and after the playhead is kept decoded, which should fit the cache's
+     * budget.
+     */
+    public void setWindow(long behindUs, long aheadUs) {
+        synchronized (mLock) {
+            mBehindUs = behindUs;
+            mAheadUs = aheadUs;
+        }
+    }
+
+    /**
+     * Moves the playhead, of the cache as well, and starts warming the window around it.
+     */
+    public void setPlayheadUs(long playheadUs) {
+        mCache.setPlayheadUs(playheadUs);
+        synchronized (mLock) {
+            mRequestedUs = Math.max(0, playheadUs);
+            mRequestGeneration++;
+            if (mRunningStartUs >= 0 && (playheadUs < mRunningStartUs || playheadUs > mRunningEndUs)) {
+                mRunningCancelled = true;
+                mExtractor.cancel();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            int generation;
+            long playheadUs;
+            long startUs;
+            long endUs;
+            synchronized (mLock) {
+                while (!mReleased && mRequestGeneration == mDoneGeneration) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        mReleased = true;
+                    }
+                }
+                if (mReleased) {
+                    break;
+                }
+                generation = mRequestGeneration;
+                playheadUs = mRequestedUs;
+                startUs = Math.max(0, playheadUs - mBehindUs);
+                endUs = playheadUs + mAheadUs;
+            }
+            try {
+                warm(playheadUs, startUs, endUs);
+            } catch (IOException e) {
+                synchronized (mLock) {
+                    mError = e;
+                    mReleased = true;
+                    mLock.notifyAll();
+                }
+                break;
+            }
+            synchronized (mLock) {
+                mDoneGeneration = generation;
+                mLock.notifyAll();
+            }
+        }
+        mClip.close(getError() != null);
+    }
+
+    /**
+     * Decodes the frames from {@code startUs} to {@code endUs} that no span still covers.
+     */
+    private void warm(long playheadUs, long startUs, long endUs) throws IOException {
+        dropStaleSpans(playheadUs);
+        for (Span span : mSpans) {
+            if (span.mStartUs <= startUs && span.mEndUs >= startUs) {
+                startUs = span.mEndUs + 1;
+            }
+            if (span.mStartUs <= endUs && span.mEndUs >= endUs) {
+                endUs = span.mStartUs - 1;
+            }
+        }
+        if (startUs > endUs) {
+            synchronized (mLock) {
+                mSkippedRequests++;
+            }
+            return;
+        }
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            mRunningStartUs = startUs;
+            mRunningEndUs = endUs;
+            mRunningCancelled = false;
+            mRuns++;
+        }
+        mLastDeliveredUs = -1;
+        mRunLayout = null;
+        int frames;
+        boolean cancelled;
+        try {
+            frames = mExtractor.extractRange(startUs, endUs, new FrameExtractor.FrameSink() {
+                @Override
+                public void onFrame(int request, long presentationTimeUs, ByteBuffer frame) {
+                    if (mRunLayout == null) {
+                        // settled once the first frame is out
+                        mRunLayout = mClip.getLayout();
+                    }
+                    mCache.put(presentationTimeUs, frame, mRunLayout);
+                    mLastDeliveredUs = presentationTimeUs;
+                }
+            });
+        } finally {
+            synchronized (mLock) {
+                cancelled = mRunningCancelled;
+                mRunningStartUs = -1;
+                mRunningEndUs = -1;
+            }
+        }
+        synchronized (mLock) {
+            mFramesDecoded += frames;
+        }
+        long coveredUs = cancelled ? mLastDeliveredUs : endUs;
+        if (coveredUs >= startUs) {
+            addSpan(startUs, coveredUs);
+        }
+    }
+
+    /**
+     * Forgets spans some of whose frames were evicted, and the farthest ones past
+     * {@link #MAX_SPANS}.
+     */
+    private void dropStaleSpans(long playheadUs) {
+        for (int i = mSpans.size() - 1; i >= 0; i--) {
+            Span span = mSpans.get(i);
+            if (mCache.count(span.mStartUs, span.mEndUs) != span.mFrames) {
+                mSpans.remove(i);
+            }
+        }
+        while (mSpans.size() > MAX_SPANS) {
+            int farthest = 0;
+            for (int i = 1; i < mSpans.size(); i++) {
+                if (distance(mSpans.get(i), playheadUs) > distance(mSpans.get(farthest), playheadUs)) {
+                    farthest = i;
+                }
+            }
+            mSpans.remove(farthest);
+        }
+    }
+
+    private static long distance(Span span, long playheadUs) {
+        if (playheadUs < span.mStartUs) {
+            return span.mStartUs - playheadUs;
+        }
+        return playheadUs > span.mEndUs ? playheadUs - span.mEndUs : 0;
+    }
+
+    /**
+     * Records a stretch just decoded, merged with the spans it touches.
+     */
+    private void addSpan(long startUs, long endUs) {
+        for (int i = mSpans.size() - 1; i >= 0; i--) {
+            Span span = mSpans.get(i);
+            if (span.mStartUs <= endUs + 1 && span.mEndUs + 1 >= startUs) {
+                startUs = Math.min(startUs, span.mStartUs);
+                endUs = Math.max(endUs, span.mEndUs);
+                mSpans.remove(i);
+            }
+        }
+        mSpans.add(new Span(startUs, endUs, mCache.count(startUs, endUs)));
+    }
+
+    /**
+     * Stops warming and closes the clip, once the decode in progress has stopped.
+     */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mRunningCancelled = true;
+            mExtractor.cancel();
+            mLock.notifyAll();
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the error that stopped the warmer, or null.
+     */
+    public IOException getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    public long getFramesDecoded() {
+        synchronized (mLock) {
+            return mFramesDecoded;
+        }
+    }
+
+    /**
+     * @return decodes started; a playhead whose window was already cached starts none.
+     */
+    public long getRuns() {
+        synchronized (mLock) {
+            return mRuns;
+        }
+    }
+
+    /**
+     * @return windows found already cached.
+     */
+    public long getSkippedRequests() {
+        synchronized (mLock) {
+            return mSkippedRequests;
+        }
+    }
+
+    /**
+     * Waits until the last playhead set has been dealt with, for tests.
+     */
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (mLock) {
+            while (!mReleased && mDoneGeneration != mRequestGeneration) {
+                long remainingMs = deadline - System.currentTimeMillis();
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                mLock.wait(remainingMs);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the frames of one clip at a list of times to byte buffers, e.g. for thumbnails.
+ * <p>
+ * The codec runs in synchronous mode with no output surface.  In
+ * {@link #MODE_NEAREST_KEYFRAME} only the sync sample closest to each time is fed to the
+ * codec, once even when several times share it, and every frame decoded is one asked for.  In
+ * {@link #MODE_EXACT} decoding starts at the sync sample before each time and the frames up to
+ * it are released without being looked at; a time in the group of pictures already being
+ * decoded carries on from where the codec is instead of flushing it.  {@link #extractRange}
+ * decodes every frame of a stretch of the clip the same way.
+ * <p>
+ * Not thread safe, except {@link #cancel}; one extractor per codec.
+ */
+public class FrameExtractor {
+
+    /**
+     * Each time gets the sync frame closest to it.  Fast: one sample decoded per frame.
+     */
+    public static final int MODE_NEAREST_KEYFRAME = 0;
+    /**
+     * Each time gets the first frame at or after it.
+     */
+    public static final int MODE_EXACT = 1;
+    // every frame between the two times, for extractRange
+    private static final int MODE_RANGE = 2;
+
+    private static final long TIMEOUT_US = 10000;
+    // consecutive empty polls before the codec is taken to be stuck
+    private static final int MAX_IDLE_POLLS = 200;
+
+    /**
+     * Receives the decoded frames, on the thread calling {@link #extract}.
+     */
+    public interface FrameSink {
+
+        /**
+         * @param request index of the time the frame is for; a frame may be passed for
+         *                several.
+         * @param frame   the codec's output buffer, from its position to its limit.  Only valid
+         *                during the call.
+         */
+        void onFrame(int request, long presentationTimeUs, ByteBuffer frame);
+    }
+
+    private final Codec mCodec;
+    private final SampleSource mSource;
+    private final Codec.BufferInfo mInfo = new Codec.BufferInfo();
+    private boolean mStarted;
+    private volatile boolean mCancelled;
+
+    private long[] mTimesUs;
+    private int mMode;
+    private FrameSink mSink;
+    // first request not yet given a frame or given up on
+    private int mNextRequest;
+    private boolean mInputDone;
+    private boolean mOutputDone;
+    private boolean mQueuedAny;
+    private int mDelivered;
+    // keyframe mode: the sync sample of every request looked up so far, -1 for none
+    private long[] mKeyframesUs;
+    private int mNextLookup;
+    private long mLastQueuedKeyframeUs;
+    // exact mode: the group of pictures being decoded
+    private int mPositionedFor;
+    private long mGroupKeyframeUs;
+    private int mQueuedInGroup;
+    private long mLastOutputUs;
+
+    private long mSamplesQueued;
+    private long mFramesDecoded;
+    private long mFramesSkipped;
+
+    public FrameExtractor(Codec codec, SampleSource source) {
+        this.mCodec = codec;
+        this.mSource = source;
+    }
+
+    /**
+     * Starts the codec, which must be configured for byte buffer output, and decodes a frame for
+     * each of {@code timesUs}.  The codec is left started; later calls flush it instead.
+     *
+     * @param timesUs in ascending order.
+     * @return how many of the times got a frame; times past the end of the clip get none.
+     * @throws IOException if the codec failed or stopped producing output.
+     */
+    public int extract(long[] timesUs, int mode, FrameSink sink) throws IOException {
+        for (int i = 1; i < timesUs.length; i++) {
+            if (timesUs[i] < timesUs[i - 1]) {
+                throw new IllegalArgumentException("times not in ascending order");
+            }
+        }
+        return run(timesUs, mode, sink);
+    }
+
+    /**
+     * Decodes every frame presented from {@code startUs} to {@code endUs}, both included, and
+     * passes each in presentation order as request 0.
+     *
+     * @return the number of frames passed.
+     */
+    public int extractRange(long startUs, long endUs, FrameSink sink) throws IOException {
+        if (endUs < startUs) {
+            throw new IllegalArgumentException("range " + startUs + " to " + endUs);
+        }
+        return run(new long[]{startUs, endUs}, MODE_RANGE, sink);
+    }
+
+    /**
+     * Makes the extraction running on another thread return soon with the frames it has so far.
+     * Has no effect on later ones.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    private int run(long[] timesUs, int mode, FrameSink sink) throws IOException {
+        mCancelled = false;
+        mTimesUs = timesUs;
+        mMode = mode;
+        mSink = sink;
+        mNextRequest = 0;
+        mInputDone = false;
+        mOutputDone = false;
+        mQueuedAny = false;
+        mDelivered = 0;
+        mKeyframesUs = new long[timesUs.length];
+        mNextLookup = 0;
+        mLastQueuedKeyframeUs = -1;
+        mPositionedFor = -1;
+        mGroupKeyframeUs = -1;
+        mLastOutputUs = -1;
+        try {
+            if (mStarted) {
+                // whatever the last run left in the codec, including an end of stream
+                mCodec.flush();
+            } else {
+                mCodec.start();
+                mStarted = true;
+            }
+            if (mode == MODE_NEAREST_KEYFRAME) {
+                lookUpKeyframes();
+            }
+            int idlePolls = 0;
+            while (mNextRequest < timesUs.length && !mOutputDone && !mCancelled) {
+                int queued = fill();
+                int drained = drain(queued > 0 ? 0 : TIMEOUT_US);
+                if (queued > 0 || drained > 0) {
+                    idlePolls = 0;
+                } else if (++idlePolls > MAX_IDLE_POLLS) {
+                    throw new IOException("decoder produced no output");
+                }
+            }
+        } catch (IllegalStateException e) {
+            // MediaCodec.CodecException is one
+            throw new IOException("decoder failed", e);
+        } finally {
+            mSink = null;
+        }
+        return mDelivered;
+    }
+
+    /**
+     * Queues samples into every free input slot, as far as the mode wants them.
+     *
+     * @return the number of input slots used.
+     */
+    private int fill() {
+        int queued = 0;
+        while (!mInputDone && mNextRequest < mTimesUs.length) {
+            if (mMode != MODE_NEAREST_KEYFRAME && mPositionedFor != mNextRequest) {
+                // before taking a slot, which a flush would take back
+                position(mTimesUs[mNextRequest]);
+            }
+            int index = mCodec.dequeueInputBuffer(0);
+            if (index < 0) {
+                break;
+            }
+            if (mMode == MODE_NEAREST_KEYFRAME) {
+                queueKeyframe(index);
+            } else {
+                queueNext(index);
+            }
+            queued++;
+        }
+        return queued;
+    }
+
+    /**
+     * Finds the sync sample of each request from {@link #mNextLookup} on, up to the first one
+     * that has to be decoded.  Requests sharing a sync sample with the one before them are
+     * served by the same frame.
+     */
+    private void lookUpKeyframes() {
+        while (mNextLookup < mTimesUs.length) {
+            mSource.seekTo(mTimesUs[mNextLookup], MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            long keyframeUs = mSource.getSampleTime();
+            mKeyframesUs[mNextLookup] = keyframeUs;
+            if (keyframeUs >= 0 && keyframeUs != mLastQueuedKeyframeUs) {
+                // the source is left on it
+                return;
+            }
+            mNextLookup++;
+        }
+    }
+
+    private void queueKeyframe(int index) {
+        if (mNextLookup >= mTimesUs.length) {
+            queueEndOfStream(index);
+            return;
+        }
+        ByteBuffer buffer = mCodec.getInputBuffer(index);
+        int size = mSource.readSampleData(buffer, 0);
+        if (size < 0) {
+            queueEndOfStream(index);
+            return;
+        }
+        mLastQueuedKeyframeUs = mKeyframesUs[mNextLookup];
+        mCodec.queueInputBuffer(index, 0, size, mLastQueuedKeyframeUs, 0);
+        mQueuedAny = true;
+        mSamplesQueued++;
+        mNextLookup++;
+        lookUpKeyframes();
+    }
+
+    /**
+     * Gets the source ready to decode towards {@code targetUs}: carries on with the group of
+     * pictures in the codec if the target is further on in it, otherwise flushes and starts at
+     * the target's sync sample.
+     */
+    private void position(long targetUs) {
+        mSource.seekTo(targetUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        long keyframeUs = mSource.getSampleTime();
+        if (keyframeUs >= 0 && keyframeUs == mGroupKeyframeUs && targetUs > mLastOutputUs && !mInputDone) {
+            // back to where the source was; advancing does not read the samples
+            for (int i = 0; i < mQueuedInGroup; i++) {
+                mSource.advance();
+            }
+        } else {
+            if (mQueuedAny) {
+                mCodec.flush();
+                mQueuedAny = false;
+            }
+            mGroupKeyframeUs = keyframeUs;
+            mQueuedInGroup = 0;
+            mLastOutputUs = -1;
+        }
+        mPositionedFor = mNextRequest;
+    }
+
+    private void queueNext(int index) {
+        ByteBuffer buffer = mCodec.getInputBuffer(index);
+        int size = mSource.readSampleData(buffer, 0);
+        if (size < 0) {
+            queueEndOfStream(index);
+            return;
+        }
+        mCodec.queueInputBuffer(index, 0, size, mSource.getSampleTime(), 0);
+        mQueuedAny = true;
+        mSamplesQueued++;
+        mQueuedInGroup++;
+        mSource.advance();
+    }
+
+    private void queueEndOfStream(int index) {
+        mCodec.queueInputBuffer(index, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        mQueuedAny = true;
+        mInputDone = true;
+    }
+
+    /**
+     * @return the number of output buffers taken.
+     */
+    private int drain(long firstTimeoutUs) {
+        int drained = 0;
+        long timeoutUs = firstTimeoutUs;
+        while (!mOutputDone && mNextRequest < mTimesUs.length && !mCancelled) {
+            int index = mCodec.dequeueOutputBuffer(mInfo, timeoutUs);
+            timeoutUs = 0;
+            if (index < 0) {
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED || index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    continue;
+                }
+                break;
+            }
+            drained++;
+            if (mInfo.size > 0) {
+                mFramesDecoded++;
+                onFrame(index, mInfo.presentationTimeUs);
+            } else {
+                mCodec.releaseOutputBuffer(index, false);
+            }
+            if ((mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mOutputDone = true;
+            }
+        }
+        return drained;
+    }
+
+    private void onFrame(int index, long presentationTimeUs) {
+        if (mMode == MODE_RANGE) {
+            onRangeFrame(index, presentationTimeUs);
+            return;
+        }
+        int first = mNextRequest;
+        if (mMode == MODE_NEAREST_KEYFRAME) {
+            // requests whose sync sample was missing or never came out get nothing
+            while (mNextRequest < mNextLookup && mKeyframesUs[mNextRequest] < presentationTimeUs) {
+                mNextRequest++;
+            }
+            first = mNextRequest;
+            while (mNextRequest < mNextLookup && mKeyframesUs[mNextRequest] == presentationTimeUs) {
+                mNextRequest++;
+            }
+        } else {
+            mLastOutputUs = presentationTimeUs;
+            while (mNextRequest < mTimesUs.length && mTimesUs[mNextRequest] <= presentationTimeUs) {
+                mNextRequest++;
+            }
+        }
+        if (first == mNextRequest) {
+            mFramesSkipped++;
+            mCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+        ByteBuffer frame = mCodec.getOutputBuffer(index);
+        for (int request = first; request < mNextRequest; request++) {
+            frame.limit(mInfo.offset + mInfo.size);
+            frame.position(mInfo.offset);
+            mSink.onFrame(request, presentationTimeUs, frame);
+            mDelivered++;
+        }
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    private void onRangeFrame(int index, long presentationTimeUs) {
+        mLastOutputUs = presentationTimeUs;
+        if (presentationTimeUs < mTimesUs[0] || presentationTimeUs > mTimesUs[1]) {
+            if (presentationTimeUs > mTimesUs[1]) {
+                mNextRequest = mTimesUs.length;
+            }
+            mFramesSkipped++;
+            mCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+        ByteBuffer frame = mCodec.getOutputBuffer(index);
+        frame.limit(mInfo.offset + mInfo.size);
+        frame.position(mInfo.offset);
+        mSink.onFrame(0, presentationTimeUs, frame);
+        mDelivered++;
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    /**
+     * @return samples fed to the codec over every {@link #extract} call.
+     */
+    public long getSamplesQueued() {
+        return mSamplesQueued;
+    }
+
+    public long getFramesDecoded() {
+        return mFramesDecoded;
+    }
+
+    /**
+     * @return frames decoded on the way to a requested one and released unread.
+     */
+    public long getFramesSkipped() {
+        return mFramesSkipped;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Snaps frame release times to the display's vsync grid.
+ * <p>
+ * A frame released with a plain presentation timestamp is shown at whichever vsync happens to
+ * latch it first.  When the frame rate does not divide the refresh rate, e.g. 24 fps on 60 Hz,
+ * many frames are due almost exactly between two vsyncs and small clock noise decides between
+ * them, so frames are held for 2, 3, 3, 2, 2, 3... vsyncs instead of a steady 3:2 cadence.
+ * <p>
+ * This picks the target vsync for each frame itself.  When the frame rate is known and close to
+ * a ratio p/q of the refresh rate with a short cycle (q up to {@link #MAX_CADENCE_CYCLE}),
+ * frames fall on at most q phases of the vsync grid; the rounding boundary is put halfway
+ * between two of those phases, as close to plain rounding as possible, so no frame is ever
+ * near a tie and the cadence stays regular.  Otherwise frames go to the nearest vsync.  Frames
+ * are released {@link #setReleaseLead a fraction of a period} before their vsync so it latches
+ * them, and never to a vsync that is too close to make.
+ * <p>
+ * Also keeps per-frame statistics: the error between the vsync a frame was shown at and the
+ * time it was due, and how many vsyncs each frame stayed on screen.  Not thread safe; call
+ * from the decode thread.  The getters may be read from any thread once playback has finished.
+ */
+public class FramePresentationScheduler {
+
+    public static final int MAX_CADENCE_CYCLE = 8;
+    public static final float DEFAULT_RELEASE_LEAD = 0.5f;
+    // how far the frame/vsync ratio may be from p/q to still count as that cadence
+    private static final double CADENCE_TOLERANCE = 0.005;
+    private static final int MAX_HELD_VSYNCS = 4;
+
+    private final VsyncSource mVsync;
+    private float mFrameRate;
+    private float mReleaseLead = DEFAULT_RELEASE_LEAD;
+
+    private long mPeriodNs;
+    private int mCadenceCycle;
+    private double mBoundary = Double.NaN;
+    private long mPresentationNs = -1;
+    private long mLastPresentationNs = -1;
+
+    private long mFrames;
+    private long mErrorSumNs;
+    private long mAbsErrorSumNs;
+    private double mErrorSquareSum;
+    private long mMaxAbsErrorNs;
+    private final long[] mHeldVsyncs = new long[MAX_HELD_VSYNCS + 1];
+
+    public FramePresentationScheduler(VsyncSource vsync) {
+        this.mVsync = vsync;
+    }
+
+    /**
+     * Sets the nominal frame rate of the content, or 0 if unknown, in which case frames simply
+     * go to the nearest vsync.  May change during playback, e.g. with the playback speed.
+     */
+    public void setFrameRate(float frameRate) {
+        this.mFrameRate = frameRate;
+        // the cadence is worked out again at the next frame
+        mPeriodNs = 0;
+        reset();
+    }
+
+    /**
+     * Sets how long before its vsync a frame is released, as a fraction of the period.
+     */
+    public void setReleaseLead(float releaseLead) {
+        if (releaseLead <= 0 || releaseLead >= 1) {
+            throw new IllegalArgumentException("release lead " + releaseLead);
+        }
+        this.mReleaseLead = releaseLead;
+    }
+
+    /**
+     * Forgets the cadence phase, e.g. after a seek, a resume or a change of master clock.
+     */
+    public void reset() {
+        mBoundary = Double.NaN;
+        mLastPresentationNs = -1;
+    }
+
+    /**
+     * Picks the vsync for a frame.
+     *
+     * @param desiredNs when the frame is due, on the {@link System#nanoTime()} timeline.
+     * @param nowNs     the current time.
+     * @return the time to release the frame at, {@link #getPresentationTimeNs()} less the
+     * release lead; or {@code desiredNs} itself while no vsync was seen yet.
+     */
+    public long schedule(long desiredNs, long nowNs) {
+        long lastVsyncNs = mVsync.getLastVsyncNs();
+        long periodNs = mVsync.getVsyncPeriodNs();
+        if (lastVsyncNs < 0 || periodNs <= 0) {
+            mPresentationNs = -1;
+            return desiredNs;
+        }
+        if (periodNs != mPeriodNs) {
+            mPeriodNs = periodNs;
+            mCadenceCycle = cadenceCycle(mFrameRate, periodNs);
+            reset();
+        }
+        double position = (double) (desiredNs - lastVsyncNs) / periodNs;
+        if (Double.isNaN(mBoundary)) {
+            mBoundary = boundaryFor(position - Math.floor(position), mCadenceCycle);
+        }
+        // frames whose phase is below the boundary round down, the others up
+        long index = (long) Math.floor(position - mBoundary) + 1;
+        long earliest = (long) Math.ceil((double) (nowNs - lastVsyncNs) / periodNs + mReleaseLead);
+        if (index < earliest) {
+            index = earliest;
+        }
+        mPresentationNs = lastVsyncNs + index * periodNs;
+        onScheduled(mPresentationNs - desiredNs, periodNs);
+        return mPresentationNs - (long) (periodNs * mReleaseLead);
+    }
+
+    /**
+     * @return the vsync the last scheduled frame should be shown at, or -1 if it was not
+     * aligned.
+     */
+    public long getPresentationTimeNs() {
+        return mPresentationNs;
+    }
+
+    /**
+     * @return the q of the p/q cadence in use, e.g. 2 for 24 fps on 60 Hz, or 0 if frames go to
+     * the nearest vsync.
+     */
+    public int getCadenceCycle() {
+        return mCadenceCycle;
+    }
+
+    private void onScheduled(long errorNs, long periodNs) {
+        mFrames++;
+        mErrorSumNs += errorNs;
+        mAbsErrorSumNs += Math.abs(errorNs);
+        mErrorSquareSum += (double) errorNs * errorNs;
+        mMaxAbsErrorNs = Math.max(mMaxAbsErrorNs, Math.abs(errorNs));
+        if (mLastPresentationNs >= 0) {
+            long held = Math.round((double) (mPresentationNs - mLastPresentationNs) / periodNs);
+            mHeldVsyncs[(int) Math.max(0, Math.min(held, MAX_HELD_VSYNCS))]++;
+        }
+        mLastPresentationNs = mPresentationNs;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * @return the average of presentation vsync minus due time; positive means late.
+     */
+    public long getMeanErrorNs() {
+        return mFrames > 0 ? mErrorSumNs / mFrames : 0;
+    }
+
+    public long getMeanAbsErrorNs() {
+        return mFrames > 0 ? mAbsErrorSumNs / mFrames : 0;
+    }
+
+    public long getErrorStdDevNs() {
+        if (mFrames == 0) {
+            return 0;
+        }
+        double mean = (double) mErrorSumNs / mFrames;
+        return (long) Math.sqrt(Math.max(0, mErrorSquareSum / mFrames - mean * mean));
+    }
+
+    public long getMaxAbsErrorNs() {
+        return mMaxAbsErrorNs;
+    }
+
+    /**
+     * @return how many frames stayed on screen for {@code vsyncs} vsyncs until the next frame,
+     * where 0 means the next frame replaced it before it was shown, and
+     * {@link #MAX_HELD_VSYNCS} counts that many or more.
+     */
+    public long getHeldCount(int vsyncs) {
+        return mHeldVsyncs[Math.min(vsyncs, MAX_HELD_VSYNCS)];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder held = new StringBuilder();
+        for (int i = 0; i <= MAX_HELD_VSYNCS; i++) {
+            if (i > 0) {
+                held.append(',');
+            }
+            held.append(mHeldVsyncs[i]);
+        }
+        return "frames=" + mFrames
+                + " cadence=" + mCadenceCycle
+                + " meanErrorUs=" + getMeanErrorNs() / 1000
+                + " meanAbsErrorUs=" + getMeanAbsErrorNs() / 1000
+                + " stdDevUs=" + getErrorStdDevNs() / 1000
+                + " maxAbsErrorUs=" + mMaxAbsErrorNs / 1000
+                + " heldVsyncs=" + held;
+    }
+
+    /**
+     * @return the smallest q such that frames per vsync is within tolerance of some p/q, or 0.
+     */
+    static int cadenceCycle(float frameRate, long periodNs) {
+        if (frameRate <= 0) {
+            return 0;
+        }
+        double vsyncsPerFrame = 1e9 / frameRate / periodNs;
+        for (int q = 1; q <= MAX_CADENCE_CYCLE; q++) {
+            double p = Math.rint(vsyncsPerFrame * q);
+            if (p > 0 && Math.abs(vsyncsPerFrame - p / q) < CADENCE_TOLERANCE) {
+                return q;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * With a p/q cadence, frames fall on the phases {@code phase + k/q}; the candidate
+     * boundaries lie halfway between them.  Of those, takes the one closest to plain rounding.
+     */
+    static double boundaryFor(double phase, int cycle) {
+        if (cycle == 0) {
+            return 0.5;
+        }
+        double best = 0.5;
+        double bestDistance = Double.MAX_VALUE;
+        for (int j = 0; j < cycle; j++) {
+            double boundary = phase + (2 * j + 1) / (2.0 * cycle);
+            boundary -= Math.floor(boundary);
+            double distance = Math.abs(boundary - 0.5);
+            if (distance < bestDistance) {
+                best = boundary;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * A {@link DspChain} stage that scales the signal by a gain, ramping linearly to each new gain
+ * over a fixed time so that volume changes do not click.
+ * <p>
+ * The gain may be set from any thread; a change made during a ramp starts a new ramp from
+ * wherever the gain has got to.
+ */
+public class GainRamp implements DspChain.Stage {
+
+    public static final int DEFAULT_RAMP_MS = 20;
+
+    private final int mRampMs;
+    private volatile float mTarget = 1f;
+    private int mChannels;
+    private int mRampFrames;
+    // audio thread only
+    private float mGain = 1f;
+    private float mRampTarget = 1f;
+    private float mStep;
+    private int mRemaining;
+
+    public GainRamp() {
+        this(DEFAULT_RAMP_MS);
+    }
+
+    public GainRamp(int rampMs) {
+        if (rampMs < 0) {
+            throw new IllegalArgumentException("ramp " + rampMs + " ms");
+        }
+        mRampMs = rampMs;
+    }
+
+    /**
+     * Sets the linear gain; 1 leaves the signal unchanged.
+     */
+    public void setGain(float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new IllegalArgumentException("gain " + gain);
+        }
+        mTarget = gain;
+    }
+
+    public void setGainDb(float gainDb) {
+        setGain((float) Math.pow(10, gainDb / 20));
+    }
+
+    /**
+     * @return the gain last set, which the signal may still be ramping to.
+     */
+    public float getGain() {
+        return mTarget;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channels) {
+        mChannels = channels;
+        mRampFrames = Math.max(1, sampleRate * mRampMs / 1000);
+    }
+
+    @Override
+    public void process(float[] samples, int offset, int frames) {
+        float target = mTarget;
+        if (target != mRampTarget) {
+            mRampTarget = target;
+            mRemaining = mRampFrames;
+            mStep = (target - mGain) / mRampFrames;
+        }
+        int channels = mChannels;
+        int i = offset;
+        int end = offset + frames * channels;
+        while (mRemaining > 0 && i < end) {
+            mRemaining--;
+            mGain = mRemaining == 0 ? mRampTarget : mGain + mStep;
+            for (int c = 0; c < channels; c++, i++) {
+                samples[i] *= mGain;
+            }
+        }
+        float gain = mGain;
+        if (gain != 1f) {
+            for (; i < end; i++) {
+                samples[i] *= gain;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        mRampTarget = mTarget;
+        mGain = mRampTarget;
+        mRemaining = 0;
+    }
+}
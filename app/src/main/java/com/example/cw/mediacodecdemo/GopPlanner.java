@@ -0,0 +1,87 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Plans the decoding for playing a clip backwards, one stretch of frames at a time.
+ * <p>
+ * A frame can only be decoded from the sync sample before it, so going backwards means
+ * decoding forwards from a keyframe and showing the frames in reverse.  Each {@link Segment}
+ * is one such decode: from its keyframe up to and including its end.  When the frames of a
+ * long group of pictures do not all fit in the buffer, only the last ones of a decode are
+ * kept and the next segment stops just before the earliest kept, starting again from the same
+ * keyframe; otherwise it is the whole previous group.  Both come out of {@link #before}, so
+ * memory stays bounded whatever the group length, at the cost of decoding a long group more
+ * than once.
+ * <p>
+ * Thread safe, as the {@link KeyframeIndex} it reads is.
+ */
+public class GopPlanner {
+
+    /**
+     * Frames from a keyframe to an end time, both included.  Immutable.
+     */
+    public static final class Segment {
+
+        private final long mKeyframeUs;
+        private final long mEndUs;
+
+        Segment(long keyframeUs, long endUs) {
+            this.mKeyframeUs = keyframeUs;
+            this.mEndUs = endUs;
+        }
+
+        public long getKeyframeUs() {
+            return mKeyframeUs;
+        }
+
+        public long getEndUs() {
+            return mEndUs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Segment)) {
+                return false;
+            }
+            Segment other = (Segment) o;
+            return mKeyframeUs == other.mKeyframeUs && mEndUs == other.mEndUs;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mKeyframeUs * 31 + mEndUs);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + mKeyframeUs + ", " + mEndUs + "]";
+        }
+    }
+
+    private final KeyframeIndex mIndex;
+
+    public GopPlanner(KeyframeIndex index) {
+        this.mIndex = index;
+    }
+
+    /**
+     * @return the segment ending with the frame on screen at {@code timeUs}, or null if the
+     * keyframe before it is not indexed yet.
+     */
+    public Segment at(long timeUs) {
+        long keyframeUs = mIndex.floor(timeUs);
+        return keyframeUs >= 0 ? new Segment(keyframeUs, timeUs) : null;
+    }
+
+    /**
+     * @param earliestUs the earliest frame already decoded, or the keyframe of a segment that
+     *                   gave none.
+     * @return the segment of the frames just before {@code earliestUs}, or null at the start of
+     * the clip.
+     */
+    public Segment before(long earliestUs) {
+        if (earliestUs <= 0) {
+            return null;
+        }
+        return at(earliestUs - 1);
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.cw.mediacodecdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of long values that can be recorded from one thread and read from
+ * any other without locking.
+ * <p>
+ * The range {@code [min, max)} is split into equal buckets, with one more bucket on each side
+ * for values outside it.  Recording a value is a handful of atomic operations and never
+ * allocates.  {@link #snapshot()} copies the counts; since recording carries on meanwhile, the
+ * totals of a snapshot may be off by the values recorded while it was taken, but its buckets
+ * always add up to its count.
+ */
+public class Histogram {
+
+    private final long mMin;
+    private final long mBucketWidth;
+    private final int mBuckets;
+    // [0] below min, [1..mBuckets] the range, [mBuckets + 1] at or above max
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMinSeen = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMaxSeen = new AtomicLong(Long.MIN_VALUE);
+
+    public Histogram(long min, long max, int buckets) {
+        if (buckets < 1 || max <= min || (max - min) % buckets != 0) {
+            throw new IllegalArgumentException("range [" + min + ", " + max + ") in " + buckets + " buckets");
+        }
+        this.mMin = min;
+        this.mBucketWidth = (max - min) / buckets;
+        this.mBuckets = buckets;
+        this.mCounts = new AtomicLongArray(buckets + 2);
+    }
+
+    public void record(long value) {
+        int bucket;
+        if (value < mMin) {
+            bucket = 0;
+        } else {
+            long offset = (value - mMin) / mBucketWidth;
+            bucket = offset >= mBuckets ? mBuckets + 1 : (int) offset + 1;
+        }
+        mCounts.incrementAndGet(bucket);
+        mSum.addAndGet(value);
+        long seen;
+        while (value < (seen = mMinSeen.get()) && !mMinSeen.compareAndSet(seen, value)) {
+            // raced with another writer; look again
+        }
+        while (value > (seen = mMaxSeen.get()) && !mMaxSeen.compareAndSet(seen, value)) {
+            // raced with another writer; look again
+        }
+    }
+
+    /**
+     * Forgets every value recorded.  Values recorded at the same time may survive.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMinSeen.set(Long.MAX_VALUE);
+        mMaxSeen.set(Long.MIN_VALUE);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(this, counts, count, mSum.get(), mMinSeen.get(), mMaxSeen.get());
+    }
+
+    /**
+     * The counts of a {@link Histogram} at one moment.  Immutable.
+     */
+    public static final class Snapshot {
+
+        private final long mRangeMin;
+        private final long mBucketWidth;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        private Snapshot(Histogram histogram, long[] counts, long count, long sum, long min, long max) {
+            this.mRangeMin = histogram.mMin;
+            this.mBucketWidth = histogram.mBucketWidth;
+            this.mCounts = counts;
+            this.mCount = count;
+            this.mSum = sum;
+            this.mMin = min;
+            this.mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the mean of the values, or 0 if there were none.
+         */
+        public long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @return the smallest value recorded, or 0 if there were none.
+         */
+        public long getMin() {
+            return mCount > 0 ? mMin : 0;
+        }
+
+        /**
+         * @return the largest value recorded, or 0 if there were none.
+         */
+        public long getMax() {
+            return mCount > 0 ? mMax : 0;
+        }
+
+        /**
+         * @param percentile from 0 to 100.
+         * @return an estimate of the value below which {@code percentile} percent of the values
+         * fall: the middle of the bucket it is in, kept within the smallest and largest values
+         * recorded.  0 if there were none.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            int bucket = 0;
+            while (bucket < mCounts.length - 1) {
+                seen += mCounts[bucket];
+                if (seen >= rank) {
+                    break;
+                }
+                bucket++;
+            }
+            long value;
+            if (bucket == 0) {
+                value = mMin;
+            } else if (bucket == mCounts.length - 1) {
+                value = mMax;
+            } else {
+                value = mRangeMin + (bucket - 1) * mBucketWidth + mBucketWidth / 2;
+            }
+            return Math.max(mMin, Math.min(mMax, value));
+        }
+
+        /**
+         * @return how many values fell in bucket {@code bucket} of the range, counting from 0.
+         */
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket + 1];
+        }
+
+        public long getUnderflowCount() {
+            return mCounts[0];
+        }
+
+        public long getOverflowCount() {
+            return mCounts[mCounts.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0) {
+                return "n=0";
+            }
+            return "n=" + mCount + " mean=" + getMean() + " p50=" + getPercentile(50) + " p90="
+                    + getPercentile(90) + " p99=" + getPercentile(99) + " max=" + getMax();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link ChunkCache.Fetcher} reading a progressive HTTP resource with range requests.
+ */
+public class HttpChunkFetcher implements ChunkCache.Fetcher {
+
+    private static final int TIMEOUT_MS = 10000;
+
+    private final URL mUrl;
+
+    public HttpChunkFetcher(URL url) {
+        this.mUrl = url;
+    }
+
+    /**
+     * Asks for the first byte only and takes the size from {@code Content-Range}, which works
+     * with servers that do not answer {@code HEAD}.
+     */
+    @Override
+    public long getSize() throws IOException {
+        HttpURLConnection connection = open(0, 0);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String range = connection.getHeaderField("Content-Range");
+                int slash = range != null ? range.lastIndexOf('/') : -1;
+                if (slash >= 0 && !range.endsWith("*")) {
+                    return Long.parseLong(range.substring(slash + 1).trim());
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                String length = connection.getHeaderField("Content-Length");
+                if (length != null) {
+                    return Long.parseLong(length.trim());
+                }
+            }
+            throw new IOException("no size for " + mUrl + ", response " + code);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void fetch(long position, byte[] buffer, int length) throws IOException {
+        HttpURLConnection connection = open(position, position + length - 1);
+        try {
+            int code = connection.getResponseCode();
+            InputStream in = connection.getInputStream();
+            try {
+                if (code == HttpURLConnection.HTTP_OK) {
+                    // the server ignored the range and sends it all
+                    skipFully(in, position);
+                } else if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("response " + code + " for " + mUrl);
+                }
+                int read = 0;
+                while (read < length) {
+                    int count = in.read(buffer, read, length - read);
+                    if (count < 0) {
+                        throw new IOException("short read at " + (position + read) + " of " + mUrl);
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private HttpURLConnection open(long first, long last) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        // ranges of compressed content would be ranges of the compressed bytes
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
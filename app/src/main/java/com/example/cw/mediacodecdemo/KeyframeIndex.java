@@ -0,0 +1,109 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import java.util.Arrays;
+
+/**
+ * Sorted presentation times of the sync samples of one track.
+ * <p>
+ * Filled by a single background thread with {@link #scan}, while the decode thread looks up
+ * keyframes at the same time.  Lookups past the part scanned so far return -1, since a
+ * keyframe that has not been seen yet could be the right answer.
+ */
+public class KeyframeIndex {
+
+    private volatile long[] mTimes = new long[256];
+    private volatile int mCount;
+    private volatile boolean mComplete;
+    private volatile boolean mCancelled;
+
+    /**
+     * Walks {@code source} from its current position to the end, recording every sync sample.
+     * Only sample metadata is read.
+     */
+    public void scan(SampleSource source) {
+        while (!mCancelled) {
+            long timeUs = source.getSampleTime();
+            if (timeUs < 0) {
+                mComplete = true;
+                return;
+            }
+            if ((source.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                add(timeUs);
+            }
+            source.advance();
+        }
+    }
+
+    /**
+     * Stops a running {@link #scan}.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    void add(long timeUs) {
+        long[] times = mTimes;
+        int count = mCount;
+        if (count > 0 && timeUs <= times[count - 1]) {
+            return;
+        }
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            mTimes = times;
+        }
+        times[count] = timeUs;
+        mCount = count + 1;
+    }
+
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the latest keyframe at or before {@code timeUs}, or -1 if not known yet.
+     */
+    public long floor(long timeUs) {
+        int count = mCount;
+        long[] times = mTimes;
+        if (count == 0 || (!mComplete && timeUs > times[count - 1])) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(times, 0, count, timeUs);
+        if (index >= 0) {
+            return times[index];
+        }
+        int insertion = -index - 1;
+        return insertion == 0 ? -1 : times[insertion - 1];
+    }
+
+    /**
+     * @return the keyframe nearest to {@code timeUs}, or -1 if not known yet.
+     */
+    public long closest(long timeUs) {
+        int count = mCount;
+        long[] times = mTimes;
+        if (count == 0 || (!mComplete && timeUs > times[count - 1])) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(times, 0, count, timeUs);
+        if (index >= 0) {
+            return times[index];
+        }
+        int insertion = -index - 1;
+        if (insertion == 0) {
+            return times[0];
+        }
+        if (insertion == count) {
+            return times[count - 1];
+        }
+        long before = times[insertion - 1];
+        long after = times[insertion];
+        return timeUs - before <= after - timeUs ? before : after;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Maps the sample times of a looping source onto one continuously increasing timeline.
+ * <p>
+ * When the source runs out it is rewound, without flushing the decoder, and every later
+ * sample is shifted by one more loop period.  Renderers never see time jump back, so frames
+ * can still be scheduled ahead across the loop boundary.  Tracks that should stay in lockstep
+ * must use the same period, normally the container duration.
+ * <p>
+ * Not thread safe; used from the thread that reads the source.
+ */
+public class LoopTimeline {
+
+    private final long mPeriodUs;
+    private long mOffsetUs;
+    private int mIterations;
+    private long mLastSampleUs = -1;
+    private long mLastDeltaUs;
+    private long mEndUs;
+    private int mSamplesSinceWrap;
+
+    /**
+     * @param periodUs length of one iteration.  Zero or less measures it from the samples
+     *                 instead: the last sample time plus the last gap between samples.
+     */
+    public LoopTimeline(long periodUs) {
+        this.mPeriodUs = periodUs;
+    }
+
+    /**
+     * @return the presentation time for a sample read from the source at {@code sampleUs}.
+     */
+    public long map(long sampleUs) {
+        if (mLastSampleUs >= 0 && sampleUs > mLastSampleUs) {
+            mLastDeltaUs = sampleUs - mLastSampleUs;
+        }
+        mLastSampleUs = sampleUs;
+        mEndUs = Math.max(mEndUs, sampleUs + mLastDeltaUs);
+        mSamplesSinceWrap++;
+        return sampleUs + mOffsetUs;
+    }
+
+    /**
+     * The source reached its end and is about to be rewound.
+     *
+     * @return false if the last iteration produced no samples, so looping would spin forever.
+     */
+    public boolean onWrap() {
+        if (mSamplesSinceWrap == 0) {
+            return false;
+        }
+        mOffsetUs += mPeriodUs > 0 ? mPeriodUs : mEndUs;
+        mIterations++;
+        mLastSampleUs = -1;
+        mSamplesSinceWrap = 0;
+        return true;
+    }
+
+    /**
+     * Back to the first iteration, e.g. after a seek.
+     */
+    public void reset() {
+        mOffsetUs = 0;
+        mIterations = 0;
+        mLastSampleUs = -1;
+        mSamplesSinceWrap = 0;
+    }
+
+    public long getOffsetUs() {
+        return mOffsetUs;
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.cw.mediacodecdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Playback clock that video is synchronised to.
+ * <p>
+ * The audio thread calls {@link #update()} after writing to the track; that samples the
+ * track's hardware timestamp (or its play head while no timestamp is available yet) and
+ * publishes it as an anchor.  {@link #getAudioTimeUs()} interpolates from the latest anchor
+ * with the system clock, so readers get a smooth value without taking a lock.
+ * <p>
+ * The frame counter is extended past its 32-bit wraparound, the returned time never goes
+ * backwards except across {@link #rebase}, the clock stands still while paused, and it keeps
+ * running on the system clock once no audio source is attached.
+ * <p>
+ * Away from normal speed ({@link #setRate}) each played frame stands for {@code rate} frames of
+ * media, and the system clock is scaled likewise.
+ */
+public class MasterClock implements MediaTimeProvider {
+
+    // the hardware timestamp only needs refreshing now and then once it is running
+    private static final long TIMESTAMP_POLL_NS = 250000000L;
+    // how far the clock may run ahead of the last audio anchor, e.g. during an underrun
+    private static final long MAX_INTERPOLATION_US = 500000;
+
+    private final NanoClock mClock;
+    private final long[] mTimestamp = new long[2];
+    private volatile Anchor mAnchor;
+    private volatile boolean mPaused;
+
+    // audio thread only
+    private AudioClockSource mSource;
+    private long mLastRawPosition;
+    private long mWrapOffset;
+    private long mNextPollNs;
+    private long mResumedAtNs;
+    private boolean mHaveTimestamp;
+    private long mBaseUs;
+    // media time at mRateFrame, relative to mBaseUs, and the rate from that frame on
+    private float mRate = 1f;
+    private long mRateFrame;
+    private long mRateBaseUs;
+    // a rate change not played yet, or 0
+    private float mPendingRate;
+    private long mPendingRateFrame;
+
+    public MasterClock(NanoClock clock) {
+        this.mClock = clock;
+    }
+
+    /**
+     * Attaches the audio output that drives the clock, or detaches it when null, after which
+     * the clock free-runs from its current value.
+     */
+    public synchronized void setAudioSource(AudioClockSource source) {
+        long nowNs = mClock.nanoTime();
+        restartRateSegment();
+        if (mAnchor != null) {
+            mAnchor = new Anchor(currentUs(mAnchor, nowNs), nowNs, false, mRate, mAnchor.lastUs);
+        }
+        mSource = source;
+        mLastRawPosition = 0;
+        mWrapOffset = 0;
+        mNextPollNs = nowNs;
+        mHaveTimestamp = false;
+    }
+
+    /**
+     * Sets how fast media time runs against real time, for playback at other than normal speed.
+     * <p>
+     * With an audio source, the change takes effect once {@code fromFrame}, counted like the
+     * source's play head since the last {@link #rebase}, is played: the first frame written at
+     * the new rate, so the audio still queued in the track keeps its own rate.  A change that
+     * has not been reached yet is replaced.  Without an audio source it takes effect at once.
+     */
+    public synchronized void setRate(float rate, long fromFrame) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate " + rate);
+        }
+        if (mSource != null) {
+            mPendingRate = rate;
+            mPendingRateFrame = fromFrame;
+            return;
+        }
+        mRate = rate;
+        if (mAnchor != null) {
+            long nowNs = mClock.nanoTime();
+            long timeUs = mPaused ? mAnchor.mediaUs : currentUs(mAnchor, nowNs);
+            mAnchor = new Anchor(timeUs, nowNs, false, rate, mAnchor.lastUs);
+        }
+    }
+
+    /**
+     * Starts the clock at zero if it is not running yet.
+     */
+    public synchronized void start() {
+        if (mAnchor == null) {
+            mAnchor = new Anchor(0, mClock.nanoTime(), false, mRate, new AtomicLong(-1));
+        }
+    }
+
+    /**
+     * Samples the audio source.  Cheap enough to call after every write; the hardware
+     * timestamp is only read as often as needed.
+     */
+    public synchronized void update() {
+        if (mSource == null || mPaused) {
+            return;
+        }
+        long nowNs = mClock.nanoTime();
+        if (mHaveTimestamp && nowNs < mNextPollNs) {
+            return;
+        }
+        long framePosition;
+        long anchorNs;
+        if (mSource.getTimestamp(mTimestamp) && mTimestamp[1] >= mResumedAtNs) {
+            mHaveTimestamp = true;
+            mNextPollNs = nowNs + TIMESTAMP_POLL_NS;
+            framePosition = extend(mTimestamp[0]);
+            anchorNs = mTimestamp[1];
+        } else {
+            framePosition = extend(mSource.getPlaybackHeadPosition());
+            anchorNs = nowNs;
+        }
+        long mediaUs = mBaseUs + mediaTimeAt(framePosition);
+        mAnchor = new Anchor(mediaUs, anchorNs, true, mRate, mAnchor.lastUs);
+    }
+
+    /**
+     * @return the media time of a frame since the base, applying a pending rate change the
+     * frame has reached.
+     */
+    private long mediaTimeAt(long framePosition) {
+        int sampleRate = mSource.getSampleRate();
+        if (mPendingRate > 0 && framePosition >= mPendingRateFrame) {
+            mRateBaseUs += (long) ((mPendingRateFrame - mRateFrame) * 1000000.0 * mRate / sampleRate);
+            mRateFrame = mPendingRateFrame;
+            mRate = mPendingRate;
+            mPendingRate = 0;
+        }
+        return mRateBaseUs + (long) ((framePosition - mRateFrame) * 1000000.0 * mRate / sampleRate);
+    }
+
+    /**
+     * The frame counter starts again from zero: the current or pending rate applies from there.
+     */
+    private void restartRateSegment() {
+        if (mPendingRate > 0) {
+            mRate = mPendingRate;
+            mPendingRate = 0;
+        }
+        mRateFrame = 0;
+        mRateBaseUs = 0;
+    }
+
+    /**
+     * Freezes the clock at its current value.
+     */
+    public synchronized void pause() {
+        if (mPaused || mAnchor == null) {
+            return;
+        }
+        long nowNs = mClock.nanoTime();
+        mAnchor = new Anchor(currentUs(mAnchor, nowNs), nowNs, false, mAnchor.rate, mAnchor.lastUs);
+        mPaused = true;
+    }
+
+    /**
+     * Lets the clock run again from where it was paused.  Timestamps taken before the resume
+     * are ignored so the pause is not counted as played time.
+     */
+    public synchronized void resume() {
+        if (!mPaused) {
+            return;
+        }
+        long nowNs = mClock.nanoTime();
+        mAnchor = new Anchor(mAnchor.mediaUs, nowNs, false, mAnchor.rate, mAnchor.lastUs);
+        mResumedAtNs = nowNs;
+        mHaveTimestamp = false;
+        mPaused = false;
+    }
+
+    /**
+     * Restarts the clock at {@code timeUs} after the audio source was flushed, so its frame
+     * counter starts again from zero.  The clock may go backwards here, and it runs (if it was
+     * paused) from the new position.
+     */
+    public synchronized void rebase(long timeUs) {
+        long nowNs = mClock.nanoTime();
+        mBaseUs = timeUs;
+        mLastRawPosition = 0;
+        mWrapOffset = 0;
+        mNextPollNs = nowNs;
+        mResumedAtNs = nowNs;
+        mHaveTimestamp = false;
+        restartRateSegment();
+        // a fresh monotonic floor: readers still holding the old anchor cannot push it forward
+        mAnchor = new Anchor(timeUs, nowNs, false, mRate, new AtomicLong(-1));
+        mPaused = false;
+    }
+
+    /**
+     * @return the playback position in microseconds, or -1 before the clock has started.
+     */
+    @Override
+    public long getAudioTimeUs() {
+        Anchor anchor = mAnchor;
+        if (anchor == null) {
+            return -1L;
+        }
+        long timeUs = mPaused ? anchor.mediaUs : currentUs(anchor, mClock.nanoTime());
+        AtomicLong floor = anchor.lastUs;
+        while (true) {
+            long lastUs = floor.get();
+            if (timeUs <= lastUs) {
+                return lastUs;
+            }
+            if (floor.compareAndSet(lastUs, timeUs)) {
+                return timeUs;
+            }
+        }
+    }
+
+    private static long currentUs(Anchor anchor, long nowNs) {
+        long elapsedUs = Math.max(0, nowNs - anchor.nanoTime) / 1000;
+        if (anchor.fromAudio && elapsedUs > MAX_INTERPOLATION_US) {
+            elapsedUs = MAX_INTERPOLATION_US;
+        }
+        return anchor.mediaUs + (long) (elapsedUs * (double) anchor.rate);
+    }
+
+    /**
+     * Turns a 32-bit frame counter into a 64-bit one, counting wraparounds.
+     */
+    private long extend(long rawPosition) {
+        long raw = rawPosition & 0xFFFFFFFFL;
+        if (raw < mLastRawPosition && mLastRawPosition - raw > 0x80000000L) {
+            mWrapOffset += 0x100000000L;
+        }
+        mLastRawPosition = raw;
+        return mWrapOffset + raw;
+    }
+
+    private static final class Anchor {
+
+        final long mediaUs;
+        final long nanoTime;
+        final boolean fromAudio;
+        final float rate;
+        // highest time handed out since the last rebase, shared by successive anchors
+        final AtomicLong lastUs;
+
+        Anchor(long mediaUs, long nanoTime, boolean fromAudio, float rate, AtomicLong lastUs) {
+            this.mediaUs = mediaUs;
+            this.nanoTime = nanoTime;
+            this.fromAudio = fromAudio;
+            this.rate = rate;
+            this.lastUs = lastUs;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Codec} backed by a real {@link MediaCodec}.
+ */
+public class MediaCodecAdapter implements Codec {
+
+    private static final String TAG = "MediaCodecAdapter";
+
+    private final MediaCodec mMediaCodec;
+    private final Handler mCallbackHandler;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * @param callbackHandler handler whose looper receives the asynchronous callbacks, may be
+     *                        null when the codec is only used in synchronous mode.
+     */
+    public MediaCodecAdapter(MediaCodec mediaCodec, Handler callbackHandler) {
+        this.mMediaCodec = mediaCodec;
+        this.mCallbackHandler = callbackHandler;
+    }
+
+    public MediaCodec getMediaCodec() {
+        return mMediaCodec;
+    }
+
+    public void configure(MediaFormat format, Surface surface) {
+        mMediaCodec.configure(format, surface, null, 0);
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mMediaCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        int index = mMediaCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+        if (index >= 0) {
+            info.offset = mBufferInfo.offset;
+            info.size = mBufferInfo.size;
+            info.presentationTimeUs = mBufferInfo.presentationTimeUs;
+            info.flags = mBufferInfo.flags;
+        } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            Log.d(TAG, "decoder output format changed: " + mMediaCodec.getOutputFormat());
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mMediaCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mMediaCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mMediaCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mMediaCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        mMediaCodec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        mMediaCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                callback.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info.offset, info.size, info.presentationTimeUs, info.flags);
+            }
+
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                Log.d(TAG, "decoder output format changed: " + format);
+                callback.onOutputFormatChanged();
+            }
+        }, mCallbackHandler);
+    }
+
+    @Override
+    public void start() {
+        mMediaCodec.start();
+    }
+
+    @Override
+    public void flush() {
+        mMediaCodec.flush();
+    }
+
+    @Override
+    public void stop() {
+        mMediaCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mMediaCodec.release();
+    }
+}
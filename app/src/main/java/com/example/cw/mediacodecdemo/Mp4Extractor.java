@@ -0,0 +1,823 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link SampleSource} that demuxes an MP4 (ISO BMFF) file in Java, as an alternative to
+ * {@link MediaExtractor}.
+ * <p>
+ * The file is mapped with {@link FileChannel#map} and the {@code moov} box is parsed once into
+ * one primitive-array sample table per track: file offsets, sizes, decode and presentation
+ * times and the sync sample numbers.  Reading a sample is then a single copy from the mapped
+ * region into the caller's buffer, and the whole sample table is available through
+ * {@link #getTrack}.  As with {@link MediaExtractor}, samples of the selected tracks come in
+ * decode time order, and AVC/HEVC samples are handed out with start codes instead of length
+ * prefixes.
+ * <p>
+ * Handles progressive files up to 2 GB with AVC, HEVC, MPEG-4 video, AAC and MP3 tracks and a
+ * leading edit list; fragmented files are rejected.  Not thread safe.
+ */
+public class Mp4Extractor implements SampleSource {
+
+    private static final int FTYP = fourcc("ftyp");
+    private static final int MOOV = fourcc("moov");
+    private static final int MVHD = fourcc("mvhd");
+    private static final int MVEX = fourcc("mvex");
+    private static final int TRAK = fourcc("trak");
+    private static final int TKHD = fourcc("tkhd");
+    private static final int EDTS = fourcc("edts");
+    private static final int ELST = fourcc("elst");
+    private static final int MDIA = fourcc("mdia");
+    private static final int MDHD = fourcc("mdhd");
+    private static final int HDLR = fourcc("hdlr");
+    private static final int MINF = fourcc("minf");
+    private static final int STBL = fourcc("stbl");
+    private static final int STSD = fourcc("stsd");
+    private static final int STTS = fourcc("stts");
+    private static final int CTTS = fourcc("ctts");
+    private static final int STSS = fourcc("stss");
+    private static final int STSZ = fourcc("stsz");
+    private static final int STSC = fourcc("stsc");
+    private static final int STCO = fourcc("stco");
+    private static final int CO64 = fourcc("co64");
+    private static final int AVC1 = fourcc("avc1");
+    private static final int AVC3 = fourcc("avc3");
+    private static final int AVCC = fourcc("avcC");
+    private static final int HVC1 = fourcc("hvc1");
+    private static final int HEV1 = fourcc("hev1");
+    private static final int HVCC = fourcc("hvcC");
+    private static final int MP4V = fourcc("mp4v");
+    private static final int MP4A = fourcc("mp4a");
+    private static final int ESDS = fourcc("esds");
+    private static final int VIDE = fourcc("vide");
+    private static final int SOUN = fourcc("soun");
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    /**
+     * Description and sample table of one track.
+     */
+    public static final class Track {
+
+        private int mTrackId;
+        private String mMime;
+        private long mTimescale;
+        private long mDurationUs;
+        private int mWidth;
+        private int mHeight;
+        private int mSampleRate;
+        private int mChannelCount;
+        private byte[][] mCsd = new byte[0][];
+        // 0 if the samples are not length-prefixed NAL units
+        private int mNalLengthSize;
+        private int mMaxSampleSize;
+
+        private int mSampleCount;
+        private long[] mOffsets;
+        private int[] mSizes;
+        private long[] mDecodeTimesUs;
+        private long[] mTimesUs;
+        // 0-based, ascending; null if every sample is a sync sample
+        private int[] mSyncSamples;
+
+        public int getTrackId() {
+            return mTrackId;
+        }
+
+        /**
+         * @return the MIME type in {@link android.media.MediaFormat} terms, or null if the
+         * codec is not supported.
+         */
+        public String getMime() {
+            return mMime;
+        }
+
+        public boolean isVideo() {
+            return mMime != null && mMime.startsWith("video/");
+        }
+
+        public boolean isAudio() {
+            return mMime != null && mMime.startsWith("audio/");
+        }
+
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        /**
+         * @return the average frame rate, or 0 for audio or an empty track.
+         */
+        public float getFrameRate() {
+            return isVideo() && mDurationUs > 0 ? mSampleCount * 1e6f / mDurationUs : 0;
+        }
+
+        /**
+         * @return codec specific data {@code i}, as {@code csd-i} of a
+         * {@link android.media.MediaFormat}: parameter sets with start codes for AVC and HEVC,
+         * the decoder specific info for MPEG-4 streams.
+         */
+        public byte[] getCsd(int i) {
+            return mCsd[i];
+        }
+
+        public int getCsdCount() {
+            return mCsd.length;
+        }
+
+        /**
+         * @return the largest sample as returned by {@link #readSampleData}.
+         */
+        public int getMaxSampleSize() {
+            return mMaxSampleSize;
+        }
+
+        public int getSampleCount() {
+            return mSampleCount;
+        }
+
+        public long getSampleOffset(int sample) {
+            return mOffsets[sample];
+        }
+
+        public int getSampleSize(int sample) {
+            return mSizes[sample];
+        }
+
+        public long getSampleTimeUs(int sample) {
+            return mTimesUs[sample];
+        }
+
+        public long getSampleDecodeTimeUs(int sample) {
+            return mDecodeTimesUs[sample];
+        }
+
+        public boolean isSyncSample(int sample) {
+            return mSyncSamples == null || Arrays.binarySearch(mSyncSamples, sample) >= 0;
+        }
+
+        /**
+         * @return the sync sample at or before {@code timeUs}, or the first sync sample.
+         */
+        int syncSampleAtOrBefore(long timeUs) {
+            if (syncSampleCount() == 0) {
+                return 0;
+            }
+            int after = firstSyncAtOrAfter(timeUs + 1);
+            return syncSample(Math.max(0, after - 1));
+        }
+
+        /**
+         * @return the first sync sample at or after {@code timeUs}, or -1.
+         */
+        int syncSampleAtOrAfter(long timeUs) {
+            int i = firstSyncAtOrAfter(timeUs);
+            return i < syncSampleCount() ? syncSample(i) : -1;
+        }
+
+        /**
+         * Binary search over the sync samples, whose presentation times ascend even when
+         * the samples in between are reordered.
+         *
+         * @return the index among the sync samples, or their count if none qualifies.
+         */
+        private int firstSyncAtOrAfter(long timeUs) {
+            int low = 0;
+            int high = syncSampleCount();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mTimesUs[syncSample(mid)] < timeUs) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int syncSampleCount() {
+            return mSyncSamples != null ? mSyncSamples.length : mSampleCount;
+        }
+
+        private int syncSample(int i) {
+            return mSyncSamples != null ? mSyncSamples[i] : i;
+        }
+    }
+
+    private ByteBuffer mMap;
+    // position and limit are moved for every copy; never handed out
+    private ByteBuffer mReader;
+    private final Track[] mTracks;
+    private final boolean[] mSelected;
+    private final int[] mCursor;
+    private int mCurrentTrack = -1;
+    private long mMovieTimescale = 1000;
+    private boolean mFragmented;
+
+    public Mp4Extractor(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("files over 2 GB are not supported: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mMap = map;
+        } finally {
+            raf.close();
+        }
+        mReader = mMap.duplicate();
+        try {
+            mTracks = parse();
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferOverflowException e) {
+            throw new IOException("malformed MP4 file: " + file, e);
+        }
+        mSelected = new boolean[mTracks.length];
+        mCursor = new int[mTracks.length];
+    }
+
+    private Track[] parse() throws IOException {
+        int end = mMap.capacity();
+        int moov = end >= 8 && mMap.getInt(4) == FTYP ? findBox(0, end, MOOV) : -1;
+        if (moov < 0) {
+            throw new IOException("not an MP4 file, or no moov box");
+        }
+        if (moov + u32(moov) > end) {
+            throw new IOException("truncated moov box");
+        }
+        List<Track> tracks = new ArrayList<>();
+        int moovEnd = boxEnd(moov, end);
+        for (int pos = contentStart(moov); pos + 8 <= moovEnd; pos = boxEnd(pos, moovEnd)) {
+            int type = mMap.getInt(pos + 4);
+            if (type == MVHD) {
+                int content = contentStart(pos);
+                mMovieTimescale = u32(content + (mMap.get(content) == 1 ? 20 : 12));
+            } else if (type == MVEX) {
+                mFragmented = true;
+            } else if (type == TRAK) {
+                Track track = parseTrak(pos, moovEnd);
+                if (track != null) {
+                    tracks.add(track);
+                }
+            }
+        }
+        if (mFragmented) {
+            throw new IOException("fragmented MP4 files are not supported");
+        }
+        return tracks.toArray(new Track[tracks.size()]);
+    }
+
+    private Track parseTrak(int trak, int parentEnd) throws IOException {
+        Track track = new Track();
+        int end = boxEnd(trak, parentEnd);
+        int elst = -1;
+        int stbl = -1;
+        int handler = 0;
+        for (int pos = contentStart(trak); pos + 8 <= end; pos = boxEnd(pos, end)) {
+            int type = mMap.getInt(pos + 4);
+            int content = contentStart(pos);
+            if (type == TKHD) {
+                track.mTrackId = (int) u32(content + (mMap.get(content) == 1 ? 20 : 12));
+            } else if (type == EDTS) {
+                elst = findBox(content, boxEnd(pos, end), ELST);
+            } else if (type == MDIA) {
+                int mdiaEnd = boxEnd(pos, end);
+                for (int child = content; child + 8 <= mdiaEnd; child = boxEnd(child, mdiaEnd)) {
+                    int childType = mMap.getInt(child + 4);
+                    int childContent = contentStart(child);
+                    if (childType == MDHD) {
+                        boolean v1 = mMap.get(childContent) == 1;
+                        track.mTimescale = u32(childContent + (v1 ? 20 : 12));
+                        long duration = v1 ? mMap.getLong(childContent + 24) : u32(childContent + 16);
+                        track.mDurationUs = toUs(duration, track.mTimescale);
+                    } else if (childType == HDLR) {
+                        handler = mMap.getInt(childContent + 8);
+                    } else if (childType == MINF) {
+                        stbl = findBox(childContent, boxEnd(child, mdiaEnd), STBL);
+                    }
+                }
+            }
+        }
+        if ((handler != VIDE && handler != SOUN) || stbl < 0 || track.mTimescale <= 0) {
+            return null;
+        }
+        parseStbl(track, stbl, end, editShift(elst, track.mTimescale));
+        return track;
+    }
+
+    /**
+     * @param shift added to every decode and presentation time, in the track's timescale.
+     */
+    private void parseStbl(Track track, int stbl, int parentEnd, long shift) throws IOException {
+        int end = boxEnd(stbl, parentEnd);
+        int stts = -1, ctts = -1, stss = -1, stsz = -1, stsc = -1, stco = -1;
+        boolean co64 = false;
+        for (int pos = contentStart(stbl); pos + 8 <= end; pos = boxEnd(pos, end)) {
+            int type = mMap.getInt(pos + 4);
+            int content = contentStart(pos);
+            if (type == STSD) {
+                parseStsd(track, content, boxEnd(pos, end));
+            } else if (type == STTS) {
+                stts = content;
+            } else if (type == CTTS) {
+                ctts = content;
+            } else if (type == STSS) {
+                stss = content;
+            } else if (type == STSZ) {
+                stsz = content;
+            } else if (type == STSC) {
+                stsc = content;
+            } else if (type == STCO || type == CO64) {
+                stco = content;
+                co64 = type == CO64;
+            }
+        }
+        if (stts < 0 || stsz < 0 || stsc < 0 || stco < 0) {
+            throw new IOException("incomplete sample table in track " + track.mTrackId);
+        }
+
+        // sizes
+        int defaultSize = (int) u32(stsz + 4);
+        int count = (int) u32(stsz + 8);
+        track.mSampleCount = count;
+        track.mSizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            track.mSizes[i] = defaultSize != 0 ? defaultSize : (int) u32(stsz + 12 + 4 * i);
+        }
+
+        // offsets: walk the chunks, each holding the number of samples its stsc run says
+        track.mOffsets = new long[count];
+        int chunkCount = (int) u32(stco + 4);
+        int runCount = (int) u32(stsc + 4);
+        int sample = 0;
+        for (int run = 0; run < runCount && sample < count; run++) {
+            int entry = stsc + 8 + 12 * run;
+            int firstChunk = (int) u32(entry) - 1;
+            int lastChunk = run + 1 < runCount ? (int) u32(entry + 12) - 1 : chunkCount;
+            int samplesPerChunk = (int) u32(entry + 4);
+            for (int chunk = firstChunk; chunk < lastChunk && chunk < chunkCount && sample < count; chunk++) {
+                long offset = co64 ? mMap.getLong(stco + 8 + 8 * chunk) : u32(stco + 8 + 4 * chunk);
+                for (int i = 0; i < samplesPerChunk && sample < count; i++) {
+                    track.mOffsets[sample] = offset;
+                    offset += track.mSizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample < count) {
+            throw new IOException("chunk table short of " + (count - sample) + " samples in track " + track.mTrackId);
+        }
+
+        // decode times from stts, presentation times with the ctts offsets
+        long[] decodeTimes = new long[count];
+        int entries = (int) u32(stts + 4);
+        long time = 0;
+        sample = 0;
+        for (int e = 0; e < entries && sample < count; e++) {
+            long runLength = u32(stts + 8 + 8 * e);
+            long delta = u32(stts + 12 + 8 * e);
+            for (long i = 0; i < runLength && sample < count; i++) {
+                decodeTimes[sample++] = time;
+                time += delta;
+            }
+        }
+        // a short stts leaves the rest on the last time, as other demuxers do
+        for (; sample < count; sample++) {
+            decodeTimes[sample] = time;
+        }
+        track.mDecodeTimesUs = new long[count];
+        track.mTimesUs = new long[count];
+        int cttsEntries = ctts >= 0 ? (int) u32(ctts + 4) : 0;
+        int cttsEntry = 0;
+        long cttsLeft = cttsEntries > 0 ? u32(ctts + 8) : 0;
+        for (int i = 0; i < count; i++) {
+            long compositionOffset = 0;
+            if (cttsEntry < cttsEntries) {
+                // signed in version 1, and written signed by many muxers in version 0 as well
+                compositionOffset = mMap.getInt(ctts + 12 + 8 * cttsEntry);
+                if (--cttsLeft == 0 && ++cttsEntry < cttsEntries) {
+                    cttsLeft = u32(ctts + 8 + 8 * cttsEntry);
+                }
+            }
+            track.mDecodeTimesUs[i] = toUs(decodeTimes[i] + shift, track.mTimescale);
+            track.mTimesUs[i] = toUs(decodeTimes[i] + compositionOffset + shift, track.mTimescale);
+        }
+
+        if (stss >= 0) {
+            int syncCount = (int) u32(stss + 4);
+            track.mSyncSamples = new int[syncCount];
+            for (int i = 0; i < syncCount; i++) {
+                track.mSyncSamples[i] = (int) u32(stss + 8 + 4 * i) - 1;
+            }
+            Arrays.sort(track.mSyncSamples);
+        }
+
+        int maxSize = 0;
+        for (int i = 0; i < count; i++) {
+            maxSize = Math.max(maxSize, track.mSizes[i]);
+        }
+        // start codes can be longer than the length prefixes they replace
+        int lengthSize = track.mNalLengthSize;
+        track.mMaxSampleSize = lengthSize > 0 && lengthSize < START_CODE.length
+                ? maxSize + maxSize / (lengthSize + 1) * (START_CODE.length - lengthSize) : maxSize;
+    }
+
+    private void parseStsd(Track track, int content, int end) throws IOException {
+        if (u32(content + 4) == 0) {
+            return;
+        }
+        // only the first sample description is used
+        int entry = content + 8;
+        int type = mMap.getInt(entry + 4);
+        int entryEnd = boxEnd(entry, end);
+        int body = contentStart(entry);
+        if (type == AVC1 || type == AVC3 || type == HVC1 || type == HEV1 || type == MP4V) {
+            track.mWidth = u16(body + 24);
+            track.mHeight = u16(body + 26);
+            int children = body + 78;
+            if (type == AVC1 || type == AVC3) {
+                track.mMime = "video/avc";
+                int avcC = findBox(children, entryEnd, AVCC);
+                if (avcC >= 0) {
+                    parseAvcC(track, contentStart(avcC));
+                }
+            } else if (type == HVC1 || type == HEV1) {
+                track.mMime = "video/hevc";
+                int hvcC = findBox(children, entryEnd, HVCC);
+                if (hvcC >= 0) {
+                    parseHvcC(track, contentStart(hvcC));
+                }
+            } else {
+                track.mMime = "video/mp4v-es";
+                parseEsds(track, findBox(children, entryEnd, ESDS));
+            }
+        } else if (type == MP4A) {
+            int version = u16(body + 8);
+            track.mChannelCount = u16(body + 16);
+            track.mSampleRate = (int) (u32(body + 24) >>> 16);
+            int children = body + 28 + (version == 1 ? 16 : version == 2 ? 36 : 0);
+            track.mMime = "audio/mp4a-latm";
+            parseEsds(track, findBox(children, entryEnd, ESDS));
+        }
+    }
+
+    private void parseAvcC(Track track, int pos) {
+        track.mNalLengthSize = (mMap.get(pos + 4) & 3) + 1;
+        int spsCount = mMap.get(pos + 5) & 31;
+        pos += 6;
+        ByteBuffer sps = ByteBuffer.allocate(1024);
+        pos = copyParameterSets(pos, spsCount, sps);
+        int ppsCount = mMap.get(pos) & 0xff;
+        ByteBuffer pps = ByteBuffer.allocate(1024);
+        copyParameterSets(pos + 1, ppsCount, pps);
+        track.mCsd = new byte[][]{toArray(sps), toArray(pps)};
+    }
+
+    private void parseHvcC(Track track, int pos) {
+        track.mNalLengthSize = (mMap.get(pos + 21) & 3) + 1;
+        int arrays = mMap.get(pos + 22) & 0xff;
+        pos += 23;
+        ByteBuffer csd = ByteBuffer.allocate(4096);
+        for (int i = 0; i < arrays; i++) {
+            int count = u16(pos + 1);
+            pos = copyParameterSets(pos + 3, count, csd);
+        }
+        track.mCsd = new byte[][]{toArray(csd)};
+    }
+
+    /**
+     * Copies {@code count} 16-bit length-prefixed parameter sets to {@code out}, each behind a
+     * start code.
+     *
+     * @return the position after them.
+     */
+    private int copyParameterSets(int pos, int count, ByteBuffer out) {
+        for (int i = 0; i < count; i++) {
+            int length = u16(pos);
+            out.put(START_CODE);
+            mReader.limit(pos + 2 + length).position(pos + 2);
+            out.put(mReader);
+            pos += 2 + length;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads the decoder specific info out of an {@code esds} box as csd-0, and the stream type
+     * to tell MP3 from AAC.
+     */
+    private void parseEsds(Track track, int esds) {
+        if (esds < 0) {
+            return;
+        }
+        int end = boxEnd(esds, mMap.capacity());
+        int pos = contentStart(esds) + 4;
+        while (pos < end) {
+            int tag = mMap.get(pos++) & 0xff;
+            int size = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = mMap.get(pos++) & 0xff;
+                size = size << 7 | b & 0x7f;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (tag == 3) {
+                int flags = mMap.get(pos + 2) & 0xff;
+                pos += 3;
+                if ((flags & 0x80) != 0) {
+                    pos += 2;
+                }
+                if ((flags & 0x40) != 0) {
+                    pos += 1 + (mMap.get(pos) & 0xff);
+                }
+                if ((flags & 0x20) != 0) {
+                    pos += 2;
+                }
+            } else if (tag == 4) {
+                int objectType = mMap.get(pos) & 0xff;
+                if (objectType == 0x69 || objectType == 0x6b) {
+                    track.mMime = "audio/mpeg";
+                }
+                pos += 13;
+            } else if (tag == 5) {
+                byte[] csd = new byte[size];
+                mReader.limit(pos + size).position(pos);
+                mReader.get(csd);
+                track.mCsd = new byte[][]{csd};
+                return;
+            } else {
+                pos += size;
+            }
+        }
+    }
+
+    /**
+     * Works out how far a leading empty edit and the media time of the first real edit shift
+     * the timeline, so that playback starts at 0 where the file says it does.
+     *
+     * @return the shift in {@code timescale} units.
+     */
+    private long editShift(int elst, long timescale) {
+        if (elst < 0) {
+            return 0;
+        }
+        int content = contentStart(elst);
+        boolean v1 = mMap.get(content) == 1;
+        int entries = (int) u32(content + 4);
+        int entrySize = v1 ? 20 : 12;
+        long empty = 0;
+        long mediaTime = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = content + 8 + entrySize * i;
+            long segmentDuration = v1 ? mMap.getLong(entry) : u32(entry);
+            long time = v1 ? mMap.getLong(entry + 8) : mMap.getInt(entry + 4);
+            if (time == -1) {
+                empty += segmentDuration;
+            } else {
+                mediaTime = time;
+                break;
+            }
+        }
+        return empty * timescale / mMovieTimescale - mediaTime;
+    }
+
+    public int getTrackCount() {
+        return mTracks.length;
+    }
+
+    public Track getTrack(int index) {
+        return mTracks[index];
+    }
+
+    public void selectTrack(int index) {
+        mSelected[index] = true;
+        mCurrentTrack = -1;
+    }
+
+    public void unselectTrack(int index) {
+        mSelected[index] = false;
+        mCurrentTrack = -1;
+    }
+
+    /**
+     * @return the selected track whose next sample has the lowest decode time, or -1 when all
+     * of them have run out.
+     */
+    private int currentTrack() {
+        if (mCurrentTrack >= 0) {
+            return mCurrentTrack;
+        }
+        long bestTimeUs = Long.MAX_VALUE;
+        for (int i = 0; i < mTracks.length; i++) {
+            if (!mSelected[i] || mCursor[i] >= mTracks[i].mSampleCount) {
+                continue;
+            }
+            long timeUs = mTracks[i].mDecodeTimesUs[mCursor[i]];
+            if (timeUs < bestTimeUs) {
+                bestTimeUs = timeUs;
+                mCurrentTrack = i;
+            }
+        }
+        return mCurrentTrack;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        int trackIndex = currentTrack();
+        if (trackIndex < 0) {
+            return -1;
+        }
+        Track track = mTracks[trackIndex];
+        int sample = mCursor[trackIndex];
+        int position = (int) track.mOffsets[sample];
+        int size = track.mSizes[sample];
+        if (track.mOffsets[sample] + size > mMap.capacity()) {
+            // truncated file
+            return -1;
+        }
+        buffer.limit(buffer.capacity()).position(offset);
+        int written;
+        if (track.mNalLengthSize == 0) {
+            mReader.limit(position + size).position(position);
+            buffer.put(mReader);
+            written = size;
+        } else {
+            written = copyNalUnits(track.mNalLengthSize, position, position + size, buffer);
+        }
+        buffer.limit(offset + written).position(offset);
+        return written;
+    }
+
+    /**
+     * Copies length-prefixed NAL units to {@code out}, each behind a start code.
+     *
+     * @return the number of bytes written.
+     */
+    private int copyNalUnits(int lengthSize, int pos, int end, ByteBuffer out) {
+        int written = 0;
+        while (pos + lengthSize <= end) {
+            int length = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                length = length << 8 | mMap.get(pos + i) & 0xff;
+            }
+            pos += lengthSize;
+            length = Math.min(length, end - pos);
+            out.put(START_CODE);
+            mReader.limit(pos + length).position(pos);
+            out.put(mReader);
+            pos += length;
+            written += START_CODE.length + length;
+        }
+        return written;
+    }
+
+    @Override
+    public long getSampleTime() {
+        int trackIndex = currentTrack();
+        return trackIndex >= 0 ? mTracks[trackIndex].mTimesUs[mCursor[trackIndex]] : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        int trackIndex = currentTrack();
+        if (trackIndex < 0) {
+            return 0;
+        }
+        return mTracks[trackIndex].isSyncSample(mCursor[trackIndex]) ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return currentTrack();
+    }
+
+    @Override
+    public boolean advance() {
+        int trackIndex = currentTrack();
+        if (trackIndex < 0) {
+            return false;
+        }
+        mCursor[trackIndex]++;
+        mCurrentTrack = -1;
+        return currentTrack() >= 0;
+    }
+
+    /**
+     * Positions every selected track.  Video tracks go to a sync sample picked by {@code mode},
+     * one of the {@code MediaExtractor.SEEK_TO_*} values; tracks where every sample is a sync
+     * sample go to the last sample at or before {@code timeUs}.
+     */
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        for (int i = 0; i < mTracks.length; i++) {
+            if (mSelected[i]) {
+                mCursor[i] = seekPosition(mTracks[i], timeUs, mode);
+            }
+        }
+        mCurrentTrack = -1;
+    }
+
+    private static int seekPosition(Track track, long timeUs, int mode) {
+        if (track.mSampleCount == 0) {
+            return 0;
+        }
+        int before = track.syncSampleAtOrBefore(timeUs);
+        if (mode == MediaExtractor.SEEK_TO_PREVIOUS_SYNC || track.mSyncSamples == null) {
+            return before;
+        }
+        int after = track.syncSampleAtOrAfter(timeUs);
+        if (mode == MediaExtractor.SEEK_TO_NEXT_SYNC) {
+            return after >= 0 ? after : track.mSampleCount;
+        }
+        if (after < 0 || track.mTimesUs[before] > timeUs) {
+            return before;
+        }
+        return timeUs - track.mTimesUs[before] <= track.mTimesUs[after] - timeUs ? before : after;
+    }
+
+    @Override
+    public void release() {
+        // the mapping goes once it is unreachable
+        mMap = null;
+        mReader = null;
+    }
+
+    private int findBox(int start, int end, int type) {
+        for (int pos = start; pos + 8 <= end; pos = boxEnd(pos, end)) {
+            if (mMap.getInt(pos + 4) == type) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private int contentStart(int box) {
+        return box + (mMap.getInt(box) == 1 ? 16 : 8);
+    }
+
+    /**
+     * @return the end of the box at {@code box}, clipped to {@code parentEnd}.
+     */
+    private int boxEnd(int box, int parentEnd) {
+        long size = u32(box);
+        if (size == 1) {
+            size = mMap.getLong(box + 8);
+        } else if (size == 0) {
+            return parentEnd;
+        }
+        if (size < 8) {
+            // malformed; skip the rest of the parent rather than loop
+            return parentEnd;
+        }
+        return (int) Math.min(box + size, parentEnd);
+    }
+
+    private long u32(int pos) {
+        return mMap.getInt(pos) & 0xffffffffL;
+    }
+
+    private int u16(int pos) {
+        return mMap.getShort(pos) & 0xffff;
+    }
+
+    private static long toUs(long time, long timescale) {
+        return time / timescale * 1000000L + time % timescale * 1000000L / timescale;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static int fourcc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+}
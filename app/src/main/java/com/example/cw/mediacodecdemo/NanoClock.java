@@ -0,0 +1,17 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Monotonic time source, so timing logic can run against a fake clock in tests.
+ */
+public interface NanoClock {
+
+    NanoClock SYSTEM = new NanoClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+
+}
@@ -0,0 +1,89 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of compressed samples for one track, fed by {@link Demuxer}.
+ * <p>
+ * Packets come from a fixed pool, so the demuxer blocks once every packet is queued or held by
+ * the consumer; that is the backpressure that keeps one track from reading far ahead.
+ */
+public class PacketQueue {
+
+    public static final class Packet {
+
+        final ByteBuffer data;
+        int size;
+        long timeUs;
+        int flags;
+        int serial;
+        boolean endOfStream;
+
+        Packet(int maxSampleSize) {
+            data = ByteBuffer.allocateDirect(maxSampleSize);
+        }
+    }
+
+    private final ArrayBlockingQueue<Packet> mFilled;
+    private final ArrayBlockingQueue<Packet> mFree;
+
+    public PacketQueue(int capacity, int maxSampleSize) {
+        mFilled = new ArrayBlockingQueue<>(capacity);
+        mFree = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mFree.add(new Packet(maxSampleSize));
+        }
+    }
+
+    /**
+     * Producer side.  Waits up to {@code timeoutMs} for a free packet.
+     *
+     * @return an empty packet, or null on timeout.
+     */
+    Packet obtain(long timeoutMs) throws InterruptedException {
+        Packet packet = mFree.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (packet != null) {
+            packet.data.clear();
+            packet.size = 0;
+            packet.flags = 0;
+            packet.endOfStream = false;
+        }
+        return packet;
+    }
+
+    /**
+     * Producer side.  Never blocks, since every packet came from the pool.
+     */
+    void put(Packet packet) {
+        mFilled.add(packet);
+    }
+
+    /**
+     * Consumer side.  Waits up to {@code timeoutMs} for the next packet.
+     *
+     * @return the next packet, or null on timeout.
+     */
+    Packet take(long timeoutMs) throws InterruptedException {
+        return mFilled.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands a packet obtained with {@link #take} back to the pool.
+     */
+    void recycle(Packet packet) {
+        mFree.add(packet);
+    }
+
+    /**
+     * Drops every queued packet, e.g. on seek.  Safe to call from any thread.
+     */
+    void clear() {
+        mFilled.drainTo(mFree);
+    }
+
+    public int size() {
+        return mFilled.size();
+    }
+}
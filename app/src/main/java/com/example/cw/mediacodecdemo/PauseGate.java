@@ -0,0 +1,76 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Parks playback threads while paused.
+ * <p>
+ * Threads check {@link #isPaused()}, a volatile read, in their loops and call
+ * {@link #awaitResume()} when it is set; they then sleep in {@link Object#wait()} until
+ * {@link #resume} or {@link #release}, so a paused player uses no CPU while its codec,
+ * source position and buffers stay as they are.
+ */
+public class PauseGate {
+
+    private volatile boolean mPaused;
+    private boolean mReleased;
+    private long mResumeRequestNs = -1;
+
+    public synchronized void pause() {
+        if (!mReleased) {
+            mPaused = true;
+        }
+    }
+
+    /**
+     * Wakes the parked threads.
+     *
+     * @param nowNs recorded as the resume request time, see {@link #getResumeRequestNs()}.
+     */
+    public synchronized void resume(long nowNs) {
+        if (mPaused) {
+            mPaused = false;
+            mResumeRequestNs = nowNs;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Opens the gate for good, e.g. when playback stops, so no thread stays parked.
+     */
+    public synchronized void release() {
+        mReleased = true;
+        mPaused = false;
+        notifyAll();
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Blocks while paused.  Returns early, with the interrupt flag set, if the thread is
+     * interrupted.
+     *
+     * @return true if the thread was parked.
+     */
+    public synchronized boolean awaitResume() {
+        if (!mPaused) {
+            return false;
+        }
+        while (mPaused) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return when the last {@link #resume} happened, or -1 if it never did.
+     */
+    public synchronized long getResumeRequestNs() {
+        return mResumeRequestNs;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of 16-bit PCM samples.
+ * <p>
+ * Exactly one thread may write and exactly one other thread may read.  The indices only ever
+ * grow and are published with ordered stores, so neither side takes a lock or allocates.
+ */
+public class PcmRingBuffer {
+
+    private final short[] mBuffer;
+    private final int mMask;
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    private final AtomicLong mReadIndex = new AtomicLong();
+    private final AtomicLong mUnderruns = new AtomicLong();
+    // reader only: the last read found the ring empty
+    private boolean mStarved = true;
+
+    /**
+     * @param minCapacity capacity in samples, rounded up to a power of two.
+     */
+    public PcmRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("bad ring capacity: " + minCapacity);
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        mBuffer = new short[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Creates a ring holding at least {@code depthMs} of interleaved audio.
+     */
+    public static PcmRingBuffer forDuration(int depthMs, int sampleRate, int channelCount) {
+        return new PcmRingBuffer((int) ((long) depthMs * sampleRate * channelCount / 1000));
+    }
+
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return the number of samples waiting to be read.
+     */
+    public int getFillLevel() {
+        return (int) (mWriteIndex.get() - mReadIndex.get());
+    }
+
+    /**
+     * @return how many times the reader found the ring empty after playback had started,
+     * counting each starvation once however often the reader polls meanwhile.
+     */
+    public long getUnderrunCount() {
+        return mUnderruns.get();
+    }
+
+    /**
+     * Producer side.  Copies as many samples as fit.
+     *
+     * @return the number of samples written.
+     */
+    public int write(short[] src, int offset, int length) {
+        long writeIndex = mWriteIndex.get();
+        int count = Math.min(length, mBuffer.length - (int) (writeIndex - mReadIndex.get()));
+        for (int i = 0; i < count; i++) {
+            mBuffer[(int) (writeIndex + i) & mMask] = src[offset + i];
+        }
+        mWriteIndex.lazySet(writeIndex + count);
+        return count;
+    }
+
+    /**
+     * Producer side.  Copies as many whole samples of the {@code sizeBytes} bytes at the
+     * buffer's position as fit, using the buffer's byte order, and advances the position past
+     * them.
+     *
+     * @return the number of bytes consumed.
+     */
+    public int write(ByteBuffer src, int sizeBytes) {
+        long writeIndex = mWriteIndex.get();
+        int count = Math.min(sizeBytes >> 1, mBuffer.length - (int) (writeIndex - mReadIndex.get()));
+        int position = src.position();
+        for (int i = 0; i < count; i++) {
+            mBuffer[(int) (writeIndex + i) & mMask] = src.getShort(position + (i << 1));
+        }
+        src.position(position + (count << 1));
+        mWriteIndex.lazySet(writeIndex + count);
+        return count << 1;
+    }
+
+    /**
+     * Consumer side.  Copies up to {@code length} samples.
+     *
+     * @return the number of samples read.
+     */
+    public int read(short[] dst, int offset, int length) {
+        long readIndex = mReadIndex.get();
+        long writeIndex = mWriteIndex.get();
+        int count = Math.min(length, (int) (writeIndex - readIndex));
+        if (count > 0) {
+            mStarved = false;
+        } else if (length > 0 && !mStarved) {
+            mStarved = true;
+            mUnderruns.lazySet(mUnderruns.get() + 1);
+        }
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = mBuffer[(int) (readIndex + i) & mMask];
+        }
+        mReadIndex.lazySet(readIndex + count);
+        return count;
+    }
+}
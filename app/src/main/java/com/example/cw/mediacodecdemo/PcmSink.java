@@ -0,0 +1,17 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for decoded 16-bit PCM.
+ */
+public interface PcmSink {
+
+    /**
+     * Consumes up to {@code size} bytes starting at the buffer's position.
+     *
+     * @return the number of bytes consumed, or a negative error code.
+     */
+    int write(ByteBuffer buffer, int size);
+
+}
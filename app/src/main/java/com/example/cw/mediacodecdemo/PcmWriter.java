@@ -0,0 +1,47 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Moves decoded PCM from codec output buffers into a {@link PcmSink}.
+ * <p>
+ * The buffer is passed through as-is, only its position and limit are moved, so nothing is
+ * allocated per buffer on the audio hot path.
+ */
+public class PcmWriter {
+
+    private final PcmSink mSink;
+    private long mBytesWritten;
+
+    public PcmWriter(PcmSink sink) {
+        this.mSink = sink;
+    }
+
+    /**
+     * Writes {@code size} bytes of {@code buffer} starting at {@code offset}, as described by the
+     * codec's buffer info.
+     *
+     * @return the number of bytes written, or a negative error code from the sink.
+     */
+    public int write(ByteBuffer buffer, int offset, int size) {
+        buffer.limit(offset + size);
+        buffer.position(offset);
+        int remaining = size;
+        while (remaining > 0) {
+            int written = mSink.write(buffer, remaining);
+            if (written < 0) {
+                return written;
+            }
+            if (written == 0) {
+                break;
+            }
+            remaining -= written;
+        }
+        mBytesWritten += size - remaining;
+        return size - remaining;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+}
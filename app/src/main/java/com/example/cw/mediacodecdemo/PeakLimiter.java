@@ -0,0 +1,123 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * A {@link DspChain} stage that keeps peaks under a ceiling without adding latency.
+ * <p>
+ * An envelope follows the loudest channel of each frame, rising at once and falling
+ * exponentially with the release time, and every channel is scaled by the same gain, the
+ * ceiling over the envelope whenever the envelope is above it.  Because the envelope is never
+ * below the frame's peak, no sample comes out above the ceiling; there is no look-ahead, so
+ * the attack is instant.  A new ceiling is glided to over a few milliseconds.
+ */
+public class PeakLimiter implements DspChain.Stage {
+
+    public static final int DEFAULT_RELEASE_MS = 100;
+    private static final int CEILING_GLIDE_MS = 5;
+
+    private volatile float mCeiling;
+    private volatile int mReleaseMs;
+    private volatile float mGainReductionDb;
+    private int mSampleRate;
+    private int mChannels;
+    private float mCeilingGlide;
+    // audio thread only
+    private int mAppliedReleaseMs = -1;
+    private float mRelease;
+    private float mEnvelope;
+    private float mCeilingNow;
+
+    /**
+     * @param ceilingDb the highest level let out, at most 0 dB full scale.
+     */
+    public PeakLimiter(float ceilingDb) {
+        this(ceilingDb, DEFAULT_RELEASE_MS);
+    }
+
+    public PeakLimiter(float ceilingDb, int releaseMs) {
+        setCeilingDb(ceilingDb);
+        setReleaseMs(releaseMs);
+        mCeilingNow = mCeiling;
+    }
+
+    public void setCeilingDb(float ceilingDb) {
+        if (!(ceilingDb <= 0) || Float.isInfinite(ceilingDb)) {
+            throw new IllegalArgumentException("ceiling " + ceilingDb + " dB");
+        }
+        mCeiling = (float) Math.pow(10, ceilingDb / 20);
+    }
+
+    public float getCeilingDb() {
+        return (float) (20 * Math.log10(mCeiling));
+    }
+
+    public void setReleaseMs(int releaseMs) {
+        if (releaseMs <= 0) {
+            throw new IllegalArgumentException("release " + releaseMs + " ms");
+        }
+        mReleaseMs = releaseMs;
+    }
+
+    /**
+     * @return how far the gain was pulled down at the end of the last block, in dB, 0 when not
+     * limiting.  For a meter; may be read on any thread.
+     */
+    public float getGainReductionDb() {
+        return mGainReductionDb;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channels) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mCeilingGlide = (float) (1 - Math.exp(-1000.0 / (sampleRate * (double) CEILING_GLIDE_MS)));
+        mAppliedReleaseMs = -1;
+    }
+
+    @Override
+    public void reset() {
+        mEnvelope = 0;
+        mCeilingNow = mCeiling;
+        mGainReductionDb = 0;
+    }
+
+    @Override
+    public void process(float[] samples, int offset, int frames) {
+        int releaseMs = mReleaseMs;
+        if (releaseMs != mAppliedReleaseMs) {
+            mAppliedReleaseMs = releaseMs;
+            mRelease = (float) Math.exp(-1000.0 / (mSampleRate * (double) releaseMs));
+        }
+        float target = mCeiling;
+        float ceiling = mCeilingNow;
+        float envelope = mEnvelope;
+        float release = mRelease;
+        float glide = mCeilingGlide;
+        int channels = mChannels;
+        float gain = 1f;
+        int end = offset + frames * channels;
+        for (int i = offset; i < end; i += channels) {
+            float peak = 0;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, Math.abs(samples[i + c]));
+            }
+            envelope = Math.max(peak, envelope * release);
+            if (ceiling != target) {
+                ceiling += (target - ceiling) * glide;
+                if (Math.abs(target - ceiling) < 1e-6f) {
+                    ceiling = target;
+                }
+            }
+            if (envelope > ceiling) {
+                gain = ceiling / envelope;
+                for (int c = 0; c < channels; c++) {
+                    samples[i + c] *= gain;
+                }
+            } else {
+                gain = 1f;
+            }
+        }
+        mEnvelope = envelope < 1e-15f ? 0 : envelope;
+        mCeilingNow = ceiling;
+        mGainReductionDb = gain < 1f ? (float) (20 * Math.log10(gain)) : 0f;
+    }
+}
@@ -13,15 +13,14 @@ import android.widget.RelativeLayout;
 
 import java.io.File;
 
-public class PlayMovieSurfaceActivity extends AppCompatActivity implements SurfaceHolder.Callback, FrameCallback, PlayFeedback{
+public class PlayMovieSurfaceActivity extends AppCompatActivity implements SurfaceHolder.Callback, Playback.Callback{
 
     private static final String TAG = "SurfaceActivity";
 
     private SurfaceView mSurfaceView;
-    private VideoPlayer mVideoPlayer;
-    private AudioPlayer mAudioPlayer;
-    private VideoPlayer.PlayTask mVideoPlayTask;
-    private AudioPlayer.PlayAudioTask mAudioPlayTask;
+    private Surface mSurface;
+    private Playback mPlayback;
+    private ChoreographerVsyncSource mVsyncSource;
     private int movieWidth;
     private int movieHeight;
 
@@ -31,42 +30,67 @@ public class PlayMovieSurfaceActivity extends AppCompatActivity implements Surfa
         setContentView(R.layout.activity_play_movie);
         mSurfaceView = findViewById(R.id.surface_view);
         mSurfaceView.getHolder().addCallback(this);
+        mVsyncSource = new ChoreographerVsyncSource(getWindow().getWindowManager().getDefaultDisplay().getRefreshRate());
     }
 
     @Override
-    public void surfaceCreated(SurfaceHolder surfaceHolder) {
-        File file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/test.mp4");
-        Surface surface = surfaceHolder.getSurface();
-        mVideoPlayer = new VideoPlayer(file, surface, this);
-        mAudioPlayer = new AudioPlayer(file);
-        mVideoPlayer.setMediaTimeProvider(mAudioPlayer);
-
-        movieWidth = mVideoPlayer.getVideoWidth();
-        movieHeight = mVideoPlayer.getVideoHeight();
-        resetSurfaceSize();
-        Log.d(TAG, "surfaceCreated width width: "+ movieWidth + ", height: "+ movieHeight);
-        mVideoPlayTask = new VideoPlayer.PlayTask(mVideoPlayer, this);
-        mVideoPlayTask.execute();
-
-        mAudioPlayTask = new AudioPlayer.PlayAudioTask(mAudioPlayer);
-        mAudioPlayTask.execute();
+    protected void onResume() {
+        super.onResume();
+        mVsyncSource.start();
+        if (mPlayback == null){
+            // open the file and create the decoders while the surface is being created
+            File file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/test.mp4");
+            mPlayback = new Playback(file, this);
+            mPlayback.setVsyncSource(mVsyncSource);
+            mPlayback.prepareAsync();
+        }
+        mPlayback.setSurface(mSurface);
+        mPlayback.start();
+    }
 
+    @Override
+    public void surfaceCreated(SurfaceHolder surfaceHolder) {
+        mSurface = surfaceHolder.getSurface();
+        if (mPlayback != null){
+            mPlayback.setSurface(mSurface);
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        mVideoPlayTask.requestStop();
-        mAudioPlayTask.requestPause();
+        if (mPlayback != null){
+            // keeps the decoders and the position for onResume
+            mPlayback.pause();
+        }
+        mVsyncSource.stop();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mVideoPlayTask = null;
-        mAudioPlayTask = null;
-        mAudioPlayer = null;
-        mVideoPlayer = null;
+        if (mPlayback != null){
+            mPlayback.release();
+            mPlayback = null;
+        }
+    }
+
+    @Override
+    public void onPrepared(Playback playback) {
+        movieWidth = playback.getVideoPlayer().getVideoWidth();
+        movieHeight = playback.getVideoPlayer().getVideoHeight();
+        resetSurfaceSize();
+        Log.d(TAG, "onPrepared width: "+ movieWidth + ", height: "+ movieHeight);
+    }
+
+    @Override
+    public void onPrepareFailed(Exception e) {
+        Log.e(TAG, "onPrepareFailed", e);
+    }
+
+    @Override
+    public void onStartupComplete(StartupMetrics metrics) {
+        Log.d(TAG, "onStartupComplete: " + metrics);
     }
 
     private void resetSurfaceSize(){
@@ -87,22 +111,10 @@ public class PlayMovieSurfaceActivity extends AppCompatActivity implements Surfa
 
     @Override
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
-
-    }
-
-    @Override
-    public void preRender(long presentationTimeUsec) {
-
-    }
-
-    @Override
-    public void postRender() {
-
-    }
-
-    @Override
-    public void loopReset() {
-
+        mSurface = null;
+        if (mPlayback != null){
+            mPlayback.setSurface(null);
+        }
     }
 
     @Override
@@ -0,0 +1,417 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaDataSource;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Video and audio playback of one file, prepared off the main thread.
+ * <p>
+ * {@link #prepareAsync} returns at once.  A worker thread opens the container while the codec
+ * list loads, then creates the video decoder while a second thread creates and configures the
+ * audio decoder and track.  None of this needs the surface, so it overlaps with the surface
+ * being created; the video decoder is configured with it when playback starts.  Playback
+ * starts once {@link #start} was called, preparation finished and the surface was set, in any
+ * order.
+ * <p>
+ * {@link #pause} keeps both decoders, the source position and the decoded data; {@link #start}
+ * after it resumes, once a surface is set again if the old one was destroyed meanwhile.
+ * <p>
+ * All methods must be called on the main thread, and all callbacks arrive on it.
+ */
+public class Playback implements StartupMetrics.Listener {
+
+    private static final String TAG = "Playback";
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PREPARING = 1;
+    private static final int STATE_PREPARED = 2;
+    private static final int STATE_STARTED = 3;
+    private static final int STATE_PAUSED = 4;
+    private static final int STATE_RELEASED = 5;
+    private static final int STATE_ERROR = 6;
+
+    /**
+     * Preparation and startup events, delivered on the main thread.
+     */
+    public interface Callback extends PlayFeedback {
+
+        /**
+         * The players are ready; the video size is known.
+         */
+        void onPrepared(Playback playback);
+
+        void onPrepareFailed(Exception e);
+
+        /**
+         * The first frame is on screen and the first audio has been handed to the output.
+         */
+        void onStartupComplete(StartupMetrics metrics);
+
+    }
+
+    private final File mFile;
+    private final MediaDataSource mDataSource;
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private int mState = STATE_IDLE;
+    private boolean mStartRequested;
+    private boolean mLoop;
+    private boolean mMp4Extractor;
+    private PlaybackScheduler mScheduler;
+    private int mPriority = PlaybackScheduler.PRIORITY_VISIBLE;
+    private float mPlaybackRate = 1f;
+    private VsyncSource mVsyncSource;
+    private Surface mSurface;
+    private StartupMetrics mStartupMetrics;
+    private Demuxer mDemuxer;
+    private VideoPlayer mVideoPlayer;
+    private AudioPlayer mAudioPlayer;
+    private VideoPlayer.PlayTask mVideoPlayTask;
+    private AudioPlayer.PlayAudioTask mAudioPlayTask;
+
+    public Playback(File file, Callback callback) {
+        this.mFile = file;
+        this.mDataSource = null;
+        this.mCallback = callback;
+    }
+
+    /**
+     * Plays a container read through {@code dataSource}, e.g. a {@link CachedDataSource} over
+     * an HTTP download.  The source is not closed by {@link #release}.
+     */
+    public Playback(MediaDataSource dataSource, Callback callback) {
+        this.mFile = null;
+        this.mDataSource = dataSource;
+        this.mCallback = callback;
+    }
+
+    /**
+     * Sets the loop mode.  Must be set before {@link #prepareAsync}.
+     */
+    public void setLoop(boolean loop) {
+        this.mLoop = loop;
+    }
+
+    /**
+     * Demuxes with the Java {@link Mp4Extractor} instead of {@link android.media.MediaExtractor}.
+     * Must be set before {@link #prepareAsync}; the file must be an MP4.  Has no effect on a
+     * playback of a data source.
+     */
+    public void setUseMp4Extractor(boolean useMp4Extractor) {
+        this.mMp4Extractor = useMp4Extractor;
+    }
+
+    /**
+     * Runs the video decode on {@code scheduler}'s shared workers, for screens that play many
+     * videos at once.  Must be set before {@link #prepareAsync}.
+     *
+     * @param priority one of the {@code PlaybackScheduler.PRIORITY_*} values.
+     */
+    public void setScheduler(PlaybackScheduler scheduler, int priority) {
+        this.mScheduler = scheduler;
+        this.mPriority = priority;
+    }
+
+    /**
+     * Aligns video frames to the display's vsync.  Must be set before {@link #prepareAsync}.
+     */
+    public void setVsyncSource(VsyncSource vsyncSource) {
+        this.mVsyncSource = vsyncSource;
+    }
+
+    /**
+     * Changes the scheduling priority, e.g. when the view scrolls into focus.
+     */
+    public void setPriority(int priority) {
+        this.mPriority = priority;
+        if (mVideoPlayer != null) {
+            mVideoPlayer.setPriority(priority);
+        }
+    }
+
+    /**
+     * Opens the file and sets up both players on background threads.  The outcome is reported
+     * to {@link Callback#onPrepared} or {@link Callback#onPrepareFailed}.
+     */
+    public void prepareAsync() {
+        if (mState != STATE_IDLE) {
+            throw new IllegalStateException("prepareAsync called in state " + mState);
+        }
+        mState = STATE_PREPARING;
+        mStartupMetrics = new StartupMetrics(System.nanoTime());
+        mStartupMetrics.setListener(this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prepare(mStartupMetrics);
+            }
+        }, "Prepare").start();
+    }
+
+    /**
+     * Sets the surface to render to, or null when it was destroyed.  May be called before or
+     * after preparation finishes, and while paused.
+     */
+    public void setSurface(Surface surface) {
+        mSurface = surface;
+        if (surface != null && mStartupMetrics != null) {
+            mStartupMetrics.onSurface(System.nanoTime());
+        }
+        maybeStart();
+    }
+
+    /**
+     * Sets the playback speed of both players, at any time: audio is time-stretched up to
+     * {@link TimeStretcher#MAX_RATE} and muted beyond, where video shows keyframes only.  See
+     * {@link VideoPlayer#setPlaybackRate}.
+     */
+    public void setPlaybackRate(float rate) {
+        if (!(rate >= TimeStretcher.MIN_RATE && rate <= VideoPlayer.MAX_PLAYBACK_RATE)) {
+            throw new IllegalArgumentException("playback rate " + rate);
+        }
+        mPlaybackRate = rate;
+        if (mVideoPlayer != null) {
+            mVideoPlayer.setPlaybackRate(rate);
+        }
+        if (mAudioPlayer != null) {
+            mAudioPlayer.setPlaybackRate(rate);
+        }
+    }
+
+    /**
+     * Starts or resumes playback as soon as the players are prepared and the surface is set.
+     */
+    public void start() {
+        mStartRequested = true;
+        maybeStart();
+    }
+
+    /**
+     * Pauses playback, or keeps it from starting if it has not yet.
+     */
+    public void pause() {
+        mStartRequested = false;
+        if (mState != STATE_STARTED) {
+            return;
+        }
+        if (mAudioPlayTask != null) {
+            mAudioPlayTask.requestPause();
+        }
+        mVideoPlayTask.requestPause();
+        mState = STATE_PAUSED;
+    }
+
+    /**
+     * Stops playback, or cancels a preparation still running, and gives back the decoders.
+     */
+    public void release() {
+        if (mState == STATE_STARTED || mState == STATE_PAUSED) {
+            mVideoPlayTask.requestStop();
+            if (mAudioPlayTask != null) {
+                mAudioPlayTask.requestStop();
+            }
+        } else if (mState == STATE_PREPARED) {
+            releasePrepared(mDemuxer, mVideoPlayer, mAudioPlayer);
+        }
+        // a preparation still running cleans up after itself when it finds this state
+        mState = STATE_RELEASED;
+    }
+
+    public VideoPlayer getVideoPlayer() {
+        return mVideoPlayer;
+    }
+
+    /**
+     * @return the audio player, or null if the file has no audio track.
+     */
+    public AudioPlayer getAudioPlayer() {
+        return mAudioPlayer;
+    }
+
+    public StartupMetrics getStartupMetrics() {
+        return mStartupMetrics;
+    }
+
+    /**
+     * Runs on the prepare thread.
+     */
+    private void prepare(final StartupMetrics metrics) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CodecManager.get().warmUp();
+            }
+        }, "CodecListWarmUp").start();
+
+        final Demuxer demuxer;
+        try {
+            if (mDataSource != null) {
+                demuxer = Demuxer.open(mDataSource);
+            } else {
+                demuxer = mMp4Extractor ? Demuxer.openMp4(mFile) : Demuxer.open(mFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            postFailure(e);
+            return;
+        }
+        metrics.onOpened(System.nanoTime());
+        metrics.setExpectsAudio(demuxer.getAudioTrackIndex() >= 0);
+
+        FutureTask<AudioPlayer> audioSetup = null;
+        if (demuxer.getAudioTrackIndex() >= 0) {
+            audioSetup = new FutureTask<>(new Callable<AudioPlayer>() {
+                @Override
+                public AudioPlayer call() throws IOException {
+                    AudioPlayer audioPlayer = new AudioPlayer(demuxer);
+                    audioPlayer.setStartupMetrics(metrics);
+                    audioPlayer.prepareDecoder();
+                    metrics.onAudioReady(System.nanoTime());
+                    return audioPlayer;
+                }
+            });
+            new Thread(audioSetup, "PrepareAudio").start();
+        }
+
+        VideoPlayer videoPlayer = null;
+        Exception failure = null;
+        try {
+            videoPlayer = new VideoPlayer(demuxer, null, null);
+            videoPlayer.setStartupMetrics(metrics);
+            videoPlayer.prepareDecoder();
+            metrics.onVideoReady(System.nanoTime());
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+
+        AudioPlayer audioPlayer = null;
+        if (audioSetup != null) {
+            try {
+                audioPlayer = audioSetup.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            releasePrepared(demuxer, videoPlayer, audioPlayer);
+            postFailure(failure);
+            return;
+        }
+        if (audioPlayer != null) {
+            videoPlayer.setMediaTimeProvider(audioPlayer);
+        }
+        // read ahead so the first samples are queued by the time the decoders start
+        demuxer.start();
+        postPrepared(demuxer, videoPlayer, audioPlayer);
+    }
+
+    private void postPrepared(final Demuxer demuxer, final VideoPlayer videoPlayer, final AudioPlayer audioPlayer) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState != STATE_PREPARING) {
+                    releasePrepared(demuxer, videoPlayer, audioPlayer);
+                    return;
+                }
+                mDemuxer = demuxer;
+                mVideoPlayer = videoPlayer;
+                mAudioPlayer = audioPlayer;
+                mVideoPlayer.setLoop(mLoop);
+                if (mScheduler != null) {
+                    mVideoPlayer.setScheduler(mScheduler, mPriority);
+                }
+                mVideoPlayer.setVsyncSource(mVsyncSource);
+                mVideoPlayer.setPlaybackRate(mPlaybackRate);
+                if (mAudioPlayer != null) {
+                    mAudioPlayer.setLoop(mLoop);
+                    mAudioPlayer.setPlaybackRate(mPlaybackRate);
+                }
+                mState = STATE_PREPARED;
+                mStartupMetrics.onPrepared(System.nanoTime());
+                Log.d(TAG, "prepared: " + mStartupMetrics);
+                mCallback.onPrepared(Playback.this);
+                maybeStart();
+            }
+        });
+    }
+
+    private void postFailure(final Exception e) {
+        Log.e(TAG, "prepare failed", e);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState != STATE_PREPARING) {
+                    return;
+                }
+                mState = STATE_ERROR;
+                mCallback.onPrepareFailed(e);
+            }
+        });
+    }
+
+    private void maybeStart() {
+        if (!mStartRequested || mSurface == null) {
+            return;
+        }
+        if (mState == STATE_PAUSED) {
+            mState = STATE_STARTED;
+            mVideoPlayer.setOutputSurface(mSurface);
+            // audio first: the video is synchronised to the clock it restarts
+            if (mAudioPlayTask != null) {
+                mAudioPlayTask.requestResume();
+            }
+            mVideoPlayTask.requestResume();
+            return;
+        }
+        if (mState != STATE_PREPARED) {
+            return;
+        }
+        mState = STATE_STARTED;
+        mStartupMetrics.onStart(System.nanoTime());
+        mVideoPlayer.setOutputSurface(mSurface);
+        mVideoPlayTask = new VideoPlayer.PlayTask(mVideoPlayer, mCallback);
+        mVideoPlayTask.execute();
+        if (mAudioPlayer != null) {
+            mAudioPlayTask = new AudioPlayer.PlayAudioTask(mAudioPlayer);
+            mAudioPlayTask.execute();
+        }
+    }
+
+    private static void releasePrepared(Demuxer demuxer, VideoPlayer videoPlayer, AudioPlayer audioPlayer) {
+        if (videoPlayer != null) {
+            videoPlayer.releaseDecoder();
+            videoPlayer.requestStop();
+        }
+        if (audioPlayer != null) {
+            audioPlayer.releaseDecoder();
+            audioPlayer.requestStop();
+        }
+        demuxer.release();
+    }
+
+    @Override
+    public void onStartupComplete(final StartupMetrics metrics) {
+        Log.d(TAG, "startup: " + metrics);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onStartupComplete(metrics);
+            }
+        });
+    }
+}
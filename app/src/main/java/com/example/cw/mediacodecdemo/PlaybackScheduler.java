@@ -0,0 +1,496 @@
+package com.example.cw.mediacodecdemo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Runs many players on a small, fixed set of worker threads.
+ * <p>
+ * A player is a {@link Job} that does its work in short, non-blocking {@link Job#step steps}.
+ * Workers take the runnable job with the highest priority, least recently run first, step it
+ * once and put it back: right away if it made progress, after a short back-off if it was idle,
+ * or not until {@link Handle#wake} if it is parked, e.g. paused or driven by codec callbacks.
+ * <p>
+ * Each admitted job holds one of {@code maxDecoders} decoder slots from {@link Job#start} until
+ * {@link Job#release}.  Jobs submitted while every slot is taken wait for one, highest priority
+ * first and in submission order within a priority, so a stream of new visible players cannot
+ * overtake one that has been waiting.
+ * <p>
+ * The decoders themselves come from {@link CodecManager}, which players outside the scheduler,
+ * e.g. audio, draw from as well, so a slot does not guarantee a decoder.  A job that finds none
+ * free returns false from {@link Job#start} instead of waiting for one, and keeps its slot and
+ * tries again after the idle back-off: a worker never blocks on a codec.
+ * <p>
+ * Thread safe.
+ */
+public class PlaybackScheduler {
+
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+    public static final int PRIORITY_FOCUSED = 2;
+
+    /**
+     * The job did some work and should run again soon.
+     */
+    public static final int STEP_BUSY = 0;
+    /**
+     * The job had nothing to do; it runs again after the idle back-off.
+     */
+    public static final int STEP_IDLE = 1;
+    /**
+     * The job runs again only after {@link Handle#wake}.
+     */
+    public static final int STEP_PARKED = 2;
+    /**
+     * The job has finished; it is released and gives back its decoder slot.
+     */
+    public static final int STEP_DONE = 3;
+
+    private static final long DEFAULT_IDLE_BACKOFF_NS = 2000000L;
+
+    /**
+     * One player.  All calls come from worker threads, one at a time.
+     */
+    public interface Job {
+
+        /**
+         * Called once a decoder slot is granted, before the first step; typically creates and
+         * starts the decoder.  Must not wait for a decoder.  A failure releases the job with the
+         * exception.
+         *
+         * @return false if no decoder is free yet; start is called again after the idle
+         * back-off.
+         */
+        boolean start() throws Exception;
+
+        /**
+         * Does a bounded amount of work without blocking.  A runtime exception releases the job
+         * with the exception.
+         *
+         * @return one of the {@code STEP_*} values.
+         */
+        int step();
+
+        /**
+         * Gives back the decoder.  Called once when the job is done, failed or was cancelled,
+         * also if it was cancelled before {@link #start} got a decoder or was called at all.
+         *
+         * @param error what {@link #start} or {@link #step} threw, or null if the job finished
+         *              or was cancelled.
+         */
+        void release(Exception error);
+    }
+
+    /**
+     * Controls a submitted job.
+     */
+    public final class Handle {
+
+        private final Job mJob;
+        private final long mSubmitNs;
+        private final long mSubmitOrder;
+        private int mPriority;
+        private long mRunOrder;
+        private long mWakeNs;
+        private int mState = STATE_WAITING;
+        private boolean mStarted;
+        private boolean mWakePending;
+        private boolean mCancelled;
+        private long mAdmittedNs = -1;
+        private long mSteps;
+        private Exception mError;
+
+        private Handle(Job job, int priority, long order) {
+            this.mJob = job;
+            this.mPriority = priority;
+            this.mSubmitOrder = order;
+            this.mSubmitNs = System.nanoTime();
+        }
+
+        /**
+         * Changes the priority, e.g. when the player scrolls into view or gains focus.
+         */
+        public void setPriority(int priority) {
+            synchronized (mLock) {
+                if (priority == mPriority) {
+                    return;
+                }
+                // both queues order on the priority, so re-insert
+                boolean waiting = mWaiting.remove(this);
+                boolean ready = mReady.remove(this);
+                mPriority = priority;
+                if (waiting) {
+                    mWaiting.add(this);
+                }
+                if (ready) {
+                    mReady.add(this);
+                }
+            }
+        }
+
+        public int getPriority() {
+            synchronized (mLock) {
+                return mPriority;
+            }
+        }
+
+        /**
+         * Makes a parked job runnable again.  A wake that arrives while the job is stepping
+         * keeps it from parking after that step.
+         */
+        public void wake() {
+            synchronized (mLock) {
+                if (mState == STATE_RUNNING) {
+                    mWakePending = true;
+                } else if (mState == STATE_PARKED || mState == STATE_DELAYED) {
+                    makeReady(this);
+                }
+            }
+        }
+
+        /**
+         * Stops the job.  A job still waiting for a slot is dropped without being started and
+         * released on the calling thread; otherwise it is released by a worker.
+         */
+        public void cancel() {
+            synchronized (mLock) {
+                if (mCancelled || mState == STATE_DONE) {
+                    return;
+                }
+                mCancelled = true;
+                if (mState != STATE_WAITING) {
+                    if (mState != STATE_RUNNING) {
+                        makeReady(this);
+                    }
+                    return;
+                }
+                mWaiting.remove(this);
+            }
+            releaseJob(this);
+            synchronized (mLock) {
+                mState = STATE_DONE;
+            }
+        }
+
+        public boolean isAdmitted() {
+            synchronized (mLock) {
+                return mAdmittedNs >= 0;
+            }
+        }
+
+        public boolean isDone() {
+            synchronized (mLock) {
+                return mState == STATE_DONE;
+            }
+        }
+
+        /**
+         * @return how long the job waited for a decoder slot, or -1 while it still waits.
+         */
+        public long getAdmissionWaitNs() {
+            synchronized (mLock) {
+                return mAdmittedNs < 0 ? -1 : mAdmittedNs - mSubmitNs;
+            }
+        }
+
+        public long getSteps() {
+            synchronized (mLock) {
+                return mSteps;
+            }
+        }
+    }
+
+    private static final int STATE_WAITING = 0;
+    private static final int STATE_READY = 1;
+    private static final int STATE_DELAYED = 2;
+    private static final int STATE_PARKED = 3;
+    private static final int STATE_RUNNING = 4;
+    private static final int STATE_DONE = 5;
+
+    private final Object mLock = new Object();
+    private final int mMaxDecoders;
+    private final long mIdleBackoffNs;
+    private final PriorityQueue<Handle> mWaiting = new PriorityQueue<>(11, new Comparator<Handle>() {
+        @Override
+        public int compare(Handle a, Handle b) {
+            if (a.mPriority != b.mPriority) {
+                return a.mPriority > b.mPriority ? -1 : 1;
+            }
+            return Long.compare(a.mSubmitOrder, b.mSubmitOrder);
+        }
+    });
+    private final PriorityQueue<Handle> mReady = new PriorityQueue<>(11, new Comparator<Handle>() {
+        @Override
+        public int compare(Handle a, Handle b) {
+            if (a.mPriority != b.mPriority) {
+                return a.mPriority > b.mPriority ? -1 : 1;
+            }
+            return Long.compare(a.mRunOrder, b.mRunOrder);
+        }
+    });
+    private final PriorityQueue<Handle> mDelayed = new PriorityQueue<>(11, new Comparator<Handle>() {
+        @Override
+        public int compare(Handle a, Handle b) {
+            return Long.compare(a.mWakeNs, b.mWakeNs);
+        }
+    });
+    private final List<Thread> mWorkers = new ArrayList<>();
+    private final List<Handle> mActive = new ArrayList<>();
+    private long mOrder;
+    private int mAdmitted;
+    private int mMaxAdmitted;
+    private boolean mShutdown;
+
+    /**
+     * @param maxDecoders how many jobs may hold a decoder at once, e.g.
+     *                    {@link CodecManager#getMaxDecoderInstances} for the videos played,
+     *                    less any decoders needed elsewhere such as for audio.
+     */
+    public PlaybackScheduler(int workerCount, int maxDecoders) {
+        this(workerCount, maxDecoders, DEFAULT_IDLE_BACKOFF_NS);
+    }
+
+    /**
+     * @param maxDecoders   how many jobs may hold a decoder at once.
+     * @param idleBackoffNs how long a job that reported {@link #STEP_IDLE} waits before it runs
+     *                      again.
+     */
+    public PlaybackScheduler(int workerCount, int maxDecoders, long idleBackoffNs) {
+        if (workerCount < 1 || maxDecoders < 1) {
+            throw new IllegalArgumentException("need at least one worker and one decoder");
+        }
+        this.mMaxDecoders = maxDecoders;
+        this.mIdleBackoffNs = idleBackoffNs;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "PlaybackWorker-" + i);
+            mWorkers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues {@code job}.  It starts as soon as a decoder slot is free.
+     */
+    public Handle submit(Job job, int priority) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("scheduler is shut down");
+            }
+            Handle handle = new Handle(job, priority, mOrder++);
+            mWaiting.add(handle);
+            admit();
+            return handle;
+        }
+    }
+
+    /**
+     * Cancels every job and stops the workers once they have released them.  Jobs still
+     * waiting for a slot are released on the calling thread.
+     */
+    public void shutdown() {
+        List<Handle> active = new ArrayList<>();
+        synchronized (mLock) {
+            mShutdown = true;
+            active.addAll(mWaiting);
+            active.addAll(mActive);
+            mLock.notifyAll();
+        }
+        for (Handle handle : active) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * Waits for the workers to exit after {@link #shutdown}.
+     */
+    public void awaitTermination(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Thread worker : mWorkers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return the number of jobs holding a decoder slot.
+     */
+    public int getAdmittedCount() {
+        synchronized (mLock) {
+            return mAdmitted;
+        }
+    }
+
+    /**
+     * @return the most jobs that ever held a decoder slot at once.
+     */
+    public int getMaxAdmittedCount() {
+        synchronized (mLock) {
+            return mMaxAdmitted;
+        }
+    }
+
+    public int getWaitingCount() {
+        synchronized (mLock) {
+            return mWaiting.size();
+        }
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.size();
+    }
+
+    // mLock held
+    private void admit() {
+        while (mAdmitted < mMaxDecoders && !mWaiting.isEmpty()) {
+            Handle handle = mWaiting.poll();
+            mAdmitted++;
+            mMaxAdmitted = Math.max(mMaxAdmitted, mAdmitted);
+            handle.mAdmittedNs = System.nanoTime();
+            mActive.add(handle);
+            makeReady(handle);
+        }
+    }
+
+    // mLock held
+    private void makeReady(Handle handle) {
+        if (handle.mState == STATE_READY) {
+            return;
+        }
+        if (handle.mState == STATE_DELAYED) {
+            mDelayed.remove(handle);
+        }
+        handle.mState = STATE_READY;
+        handle.mRunOrder = mOrder++;
+        mReady.add(handle);
+        mLock.notify();
+    }
+
+    private void work() {
+        while (true) {
+            Handle handle;
+            synchronized (mLock) {
+                handle = nextReady();
+                if (handle == null) {
+                    return;
+                }
+                handle.mState = STATE_RUNNING;
+                handle.mWakePending = false;
+            }
+            int result = run(handle);
+            boolean release = result == STEP_DONE;
+            if (!release) {
+                synchronized (mLock) {
+                    reschedule(handle, result);
+                }
+            }
+            if (release) {
+                release(handle);
+            }
+        }
+    }
+
+    /**
+     * Waits for a ready job.
+     *
+     * @return the job, or null once shut down with nothing left to release.
+     */
+    // mLock held
+    private Handle nextReady() {
+        while (true) {
+            long nowNs = System.nanoTime();
+            while (!mDelayed.isEmpty() && mDelayed.peek().mWakeNs <= nowNs) {
+                makeReady(mDelayed.peek());
+            }
+            Handle handle = mReady.poll();
+            if (handle != null) {
+                return handle;
+            }
+            if (mShutdown && mAdmitted == 0) {
+                return null;
+            }
+            try {
+                if (mDelayed.isEmpty()) {
+                    mLock.wait();
+                } else {
+                    long waitNs = mDelayed.peek().mWakeNs - nowNs;
+                    mLock.wait(waitNs / 1000000, (int) (waitNs % 1000000));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private int run(Handle handle) {
+        if (handle.mCancelled) {
+            return STEP_DONE;
+        }
+        if (!handle.mStarted) {
+            handle.mStarted = true;
+            try {
+                if (!handle.mJob.start()) {
+                    // no decoder free: try again later, without holding up the worker
+                    handle.mStarted = false;
+                    return STEP_IDLE;
+                }
+            } catch (Exception e) {
+                handle.mError = e;
+                return STEP_DONE;
+            }
+        }
+        int result;
+        try {
+            result = handle.mJob.step();
+        } catch (RuntimeException e) {
+            handle.mError = e;
+            result = STEP_DONE;
+        }
+        synchronized (mLock) {
+            handle.mSteps++;
+        }
+        return result;
+    }
+
+    // mLock held
+    private void reschedule(Handle handle, int result) {
+        if (handle.mCancelled || result == STEP_BUSY || handle.mWakePending) {
+            makeReady(handle);
+        } else if (result == STEP_IDLE) {
+            handle.mState = STATE_DELAYED;
+            handle.mWakeNs = System.nanoTime() + mIdleBackoffNs;
+            mDelayed.add(handle);
+            // a worker waiting without a timeout must pick up the new deadline
+            mLock.notify();
+        } else {
+            handle.mState = STATE_PARKED;
+        }
+    }
+
+    private void release(Handle handle) {
+        releaseJob(handle);
+        synchronized (mLock) {
+            handle.mState = STATE_DONE;
+            mActive.remove(handle);
+            mAdmitted--;
+            admit();
+            if (mShutdown && mAdmitted == 0) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private static void releaseJob(Handle handle) {
+        try {
+            handle.mJob.release(handle.mError);
+        } catch (RuntimeException e) {
+            // the slot is given back regardless
+        }
+    }
+}
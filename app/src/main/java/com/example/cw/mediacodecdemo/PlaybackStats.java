@@ -0,0 +1,156 @@
+package com.example.cw.mediacodecdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quality of service of a player, meant to be sampled for telemetry while it plays.
+ * <p>
+ * Keeps histograms, in microseconds, of decode latency (sample queued to frame out of the
+ * codec), presentation error (when a frame reaches the screen against when it was planned for)
+ * and A/V drift (master clock against the frame's timestamp when it is shown, positive when
+ * video is behind), plus counts of rendered, dropped and late frames and of audio underruns.
+ * A player records from its decode and output threads; {@link #snapshot()} may be called from
+ * any thread at any time and does not block them.  Values accumulate over the life of the
+ * player until {@link #reset()}.
+ */
+public class PlaybackStats {
+
+    /**
+     * Passed for the drift of a frame shown without a master clock.
+     */
+    public static final long NO_DRIFT = Long.MIN_VALUE;
+    public static final long DEFAULT_LATE_THRESHOLD_US = 20000;
+
+    private final Histogram mDecodeLatencyUs = new Histogram(0, 200000, 200);
+    private final Histogram mPresentationErrorUs = new Histogram(-50000, 50000, 200);
+    private final Histogram mAvDriftUs = new Histogram(-200000, 200000, 200);
+    private final AtomicLong mRenderedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mLateFrames = new AtomicLong();
+    private final AtomicLong mAudioUnderruns = new AtomicLong();
+    private volatile long mLateThresholdUs = DEFAULT_LATE_THRESHOLD_US;
+
+    /**
+     * Frames shown later than this against their plan or the master clock count as late.
+     */
+    public void setLateThresholdUs(long lateThresholdUs) {
+        this.mLateThresholdUs = lateThresholdUs;
+    }
+
+    public void onDecodeLatency(long latencyUs) {
+        mDecodeLatencyUs.record(latencyUs);
+    }
+
+    /**
+     * @param presentationErrorUs when the frame reaches the screen minus when it was planned
+     *                            for.
+     * @param avDriftUs           the master clock minus the frame's timestamp at that moment,
+     *                            or {@link #NO_DRIFT}.
+     */
+    public void onFrameRendered(long presentationErrorUs, long avDriftUs) {
+        mRenderedFrames.incrementAndGet();
+        mPresentationErrorUs.record(presentationErrorUs);
+        long lateUs = presentationErrorUs;
+        if (avDriftUs != NO_DRIFT) {
+            mAvDriftUs.record(avDriftUs);
+            lateUs = Math.max(lateUs, avDriftUs);
+        }
+        if (lateUs > mLateThresholdUs) {
+            mLateFrames.incrementAndGet();
+        }
+    }
+
+    public void onFrameDropped() {
+        mDroppedFrames.incrementAndGet();
+    }
+
+    /**
+     * The audio output ran out of decoded audio while playing.
+     */
+    public void onAudioUnderrun() {
+        mAudioUnderruns.incrementAndGet();
+    }
+
+    public void reset() {
+        mDecodeLatencyUs.reset();
+        mPresentationErrorUs.reset();
+        mAvDriftUs.reset();
+        mRenderedFrames.set(0);
+        mDroppedFrames.set(0);
+        mLateFrames.set(0);
+        mAudioUnderruns.set(0);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The statistics at one moment.  Immutable.
+     */
+    public static final class Snapshot {
+
+        private final Histogram.Snapshot mDecodeLatencyUs;
+        private final Histogram.Snapshot mPresentationErrorUs;
+        private final Histogram.Snapshot mAvDriftUs;
+        private final long mRenderedFrames;
+        private final long mDroppedFrames;
+        private final long mLateFrames;
+        private final long mAudioUnderruns;
+
+        private Snapshot(PlaybackStats stats) {
+            mDecodeLatencyUs = stats.mDecodeLatencyUs.snapshot();
+            mPresentationErrorUs = stats.mPresentationErrorUs.snapshot();
+            mAvDriftUs = stats.mAvDriftUs.snapshot();
+            mRenderedFrames = stats.mRenderedFrames.get();
+            mDroppedFrames = stats.mDroppedFrames.get();
+            mLateFrames = stats.mLateFrames.get();
+            mAudioUnderruns = stats.mAudioUnderruns.get();
+        }
+
+        public Histogram.Snapshot getDecodeLatencyUs() {
+            return mDecodeLatencyUs;
+        }
+
+        public Histogram.Snapshot getPresentationErrorUs() {
+            return mPresentationErrorUs;
+        }
+
+        public Histogram.Snapshot getAvDriftUs() {
+            return mAvDriftUs;
+        }
+
+        public long getRenderedFrames() {
+            return mRenderedFrames;
+        }
+
+        public long getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        public long getLateFrames() {
+            return mLateFrames;
+        }
+
+        public long getAudioUnderruns() {
+            return mAudioUnderruns;
+        }
+
+        /**
+         * @return the share of frames that were dropped or shown late, from 0 to 1.
+         */
+        public float getJankRatio() {
+            long frames = mRenderedFrames + mDroppedFrames;
+            return frames > 0 ? (float) (mDroppedFrames + mLateFrames) / frames : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return "rendered=" + mRenderedFrames + " dropped=" + mDroppedFrames + " late=" + mLateFrames
+                    + " underruns=" + mAudioUnderruns
+                    + " decodeLatencyUs[" + mDecodeLatencyUs + "]"
+                    + " presentationErrorUs[" + mPresentationErrorUs + "]"
+                    + " avDriftUs[" + mAvDriftUs + "]";
+        }
+    }
+}
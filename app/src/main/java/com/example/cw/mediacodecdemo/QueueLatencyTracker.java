@@ -0,0 +1,53 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Remembers when recent samples were queued to a codec, by presentation time, so the time each
+ * comes back out can be measured.  Frames may come out in a different order than they went in.
+ * <p>
+ * Holds a fixed number of samples, more than a decoder keeps in flight; the oldest are
+ * forgotten.  Does not allocate.  Not thread safe; call from the decode thread.
+ */
+final class QueueLatencyTracker {
+
+    private static final int CAPACITY = 64;
+
+    private final long[] mTimesUs = new long[CAPACITY];
+    private final long[] mQueuedNs = new long[CAPACITY];
+    private int mNext;
+
+    QueueLatencyTracker() {
+        clear();
+    }
+
+    void onQueued(long presentationTimeUs, long nowNs) {
+        mTimesUs[mNext] = presentationTimeUs;
+        mQueuedNs[mNext] = nowNs;
+        mNext = (mNext + 1) % CAPACITY;
+    }
+
+    /**
+     * @return nanoseconds since the sample at {@code presentationTimeUs} was queued, or -1 if it
+     * is not known.
+     */
+    long onOutput(long presentationTimeUs, long nowNs) {
+        // newest first: after a loop or seek an old entry may carry the same time
+        for (int i = 1; i <= CAPACITY; i++) {
+            int slot = (mNext - i + CAPACITY) % CAPACITY;
+            if (mQueuedNs[slot] >= 0 && mTimesUs[slot] == presentationTimeUs) {
+                long latencyNs = nowNs - mQueuedNs[slot];
+                mQueuedNs[slot] = -1;
+                return latencyNs;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets every sample, e.g. when the codec is flushed.
+     */
+    void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mQueuedNs[i] = -1;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} view of one track of a {@link Demuxer}.
+ * <p>
+ * Reads block until the demuxer has queued the next sample.  Seeks are forwarded to the
+ * demuxer and therefore move every track; samples demuxed before the seek are skipped.
+ */
+public class QueueSampleSource implements SampleSource {
+
+    private static final long POLL_TIMEOUT_MS = 10;
+
+    private final Demuxer mDemuxer;
+    private final PacketQueue mQueue;
+    private final int mTrackIndex;
+    private PacketQueue.Packet mCurrent;
+    private boolean mReleased;
+
+    QueueSampleSource(Demuxer demuxer, PacketQueue queue, int trackIndex) {
+        this.mDemuxer = demuxer;
+        this.mQueue = queue;
+        this.mTrackIndex = trackIndex;
+    }
+
+    public PacketQueue getQueue() {
+        return mQueue;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        PacketQueue.Packet packet = current();
+        if (packet == null || packet.endOfStream) {
+            return -1;
+        }
+        ByteBuffer data = packet.data;
+        data.limit(packet.size);
+        data.position(0);
+        buffer.position(offset);
+        buffer.put(data);
+        buffer.position(offset);
+        return packet.size;
+    }
+
+    @Override
+    public long getSampleTime() {
+        PacketQueue.Packet packet = current();
+        return packet == null || packet.endOfStream ? -1 : packet.timeUs;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        PacketQueue.Packet packet = current();
+        return packet == null || packet.endOfStream ? 0 : packet.flags;
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        PacketQueue.Packet packet = current();
+        return packet == null || packet.endOfStream ? -1 : mTrackIndex;
+    }
+
+    /**
+     * @return the seek serial the sample at the read position was demuxed under, or -1 if there
+     * is none.  It changes with every seek by any consumer of the demuxer, however short the
+     * jump, and stays the same across a loop.
+     */
+    public int getSampleSerial() {
+        PacketQueue.Packet packet = current();
+        return packet == null || packet.endOfStream ? -1 : packet.serial;
+    }
+
+    @Override
+    public boolean advance() {
+        PacketQueue.Packet packet = current();
+        if (packet == null || packet.endOfStream) {
+            return false;
+        }
+        mQueue.recycle(packet);
+        mCurrent = null;
+        return true;
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        dropCurrent();
+        mDemuxer.seekTo(timeUs, mode);
+    }
+
+    @Override
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        dropCurrent();
+        mDemuxer.onSourceReleased();
+    }
+
+    /**
+     * @return the packet at the read position, waiting for the demuxer if needed, or null once
+     * the demuxer has stopped.
+     */
+    private PacketQueue.Packet current() {
+        while (true) {
+            if (mCurrent != null && mCurrent.serial != mDemuxer.getSeekSerial()) {
+                dropCurrent();
+            }
+            if (mCurrent != null) {
+                return mCurrent;
+            }
+            try {
+                mCurrent = mQueue.take(POLL_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (mCurrent == null && !mDemuxer.isRunning()) {
+                return null;
+            }
+        }
+    }
+
+    private void dropCurrent() {
+        if (mCurrent != null) {
+            mQueue.recycle(mCurrent);
+            mCurrent = null;
+        }
+    }
+}
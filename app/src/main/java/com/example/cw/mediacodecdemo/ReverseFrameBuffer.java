@@ -0,0 +1,148 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded run of consecutive decoded frames, in presentation order, for showing them in
+ * reverse.
+ * <p>
+ * Frames are offered in the order they are decoded; once the buffer is full each new frame
+ * pushes out the earliest, so after a decode it holds the last frames of it.  The frames are
+ * copied into direct buffers allocated on first use and reused after {@link #clear}, so the
+ * memory is {@code capacity} frames whatever is decoded into it.
+ * <p>
+ * Not thread safe.
+ */
+public class ReverseFrameBuffer {
+
+    private final ByteBuffer[] mSlots;
+    private final long[] mTimesUs;
+    private int mFirst;
+    private int mCount;
+    private boolean mTruncated;
+    private YuvLayout mLayout;
+    private long mAllocatedBytes;
+
+    public ReverseFrameBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        mSlots = new ByteBuffer[capacity];
+        mTimesUs = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * Empties the buffer, keeping its memory.
+     */
+    public void clear() {
+        mFirst = 0;
+        mCount = 0;
+        mTruncated = false;
+        mLayout = null;
+    }
+
+    /**
+     * Copies {@code frame}, from its position to its limit, in after the frames held, pushing out
+     * the earliest if full.  The position of {@code frame} is left as it was.  A frame not after
+     * the latest one is ignored.
+     */
+    public void offer(long presentationTimeUs, ByteBuffer frame) {
+        if (mCount > 0 && presentationTimeUs <= getLatestUs()) {
+            return;
+        }
+        int slot;
+        if (mCount == mSlots.length) {
+            slot = mFirst;
+            mFirst = (mFirst + 1) % mSlots.length;
+            mTruncated = true;
+        } else {
+            slot = (mFirst + mCount) % mSlots.length;
+            mCount++;
+        }
+        ByteBuffer buffer = mSlots[slot];
+        if (buffer == null || buffer.capacity() < frame.remaining()) {
+            if (buffer != null) {
+                mAllocatedBytes -= buffer.capacity();
+            }
+            buffer = ByteBuffer.allocateDirect(frame.remaining());
+            mAllocatedBytes += buffer.capacity();
+            mSlots[slot] = buffer;
+        }
+        buffer.clear();
+        buffer.put(frame.duplicate());
+        buffer.flip();
+        mTimesUs[slot] = presentationTimeUs;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public boolean isFull() {
+        return mCount == mSlots.length;
+    }
+
+    /**
+     * @return true if frames were pushed out since the last {@link #clear}.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    /**
+     * @param index from 0 for the earliest frame held.
+     */
+    public long getPresentationTimeUs(int index) {
+        return mTimesUs[slot(index)];
+    }
+
+    /**
+     * @return the frame, from position 0 to its limit.  Valid until the next {@link #offer} or
+     * {@link #clear}.
+     */
+    public ByteBuffer getFrame(int index) {
+        ByteBuffer frame = mSlots[slot(index)];
+        frame.position(0);
+        return frame;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("frame " + index + " of " + mCount);
+        }
+        return (mFirst + index) % mSlots.length;
+    }
+
+    /**
+     * @return the time of the earliest frame, or -1 if empty.
+     */
+    public long getEarliestUs() {
+        return mCount > 0 ? mTimesUs[mFirst] : -1;
+    }
+
+    /**
+     * @return the time of the latest frame, or -1 if empty.
+     */
+    public long getLatestUs() {
+        return mCount > 0 ? mTimesUs[(mFirst + mCount - 1) % mSlots.length] : -1;
+    }
+
+    public YuvLayout getLayout() {
+        return mLayout;
+    }
+
+    public void setLayout(YuvLayout layout) {
+        this.mLayout = layout;
+    }
+
+    /**
+     * @return bytes of the direct buffers held.
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+}
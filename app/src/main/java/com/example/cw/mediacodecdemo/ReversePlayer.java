@@ -0,0 +1,471 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Plays a clip backwards and steps through it frame by frame in either direction, from decoded
+ * frames held in byte buffers.
+ * <p>
+ * Two {@link ReverseFrameBuffer}s of a fixed number of frames take turns: the frames of one
+ * are shown in reverse while a worker thread decodes the {@link GopPlanner} segment before
+ * them into the other, so the next group is usually ready when the first runs out.  Memory is
+ * twice the buffer whatever the length of the groups of pictures.  Stepping forward walks back
+ * up the buffer shown; past its end the frames that follow are decoded into the other buffer,
+ * and the one shown until then is kept as the frames before them.
+ * <p>
+ * The clip's codec must be configured for byte buffer output.  The controls block until their
+ * frame is shown and may be called from any thread, one at a time.
+ */
+public class ReversePlayer {
+
+    private static final String TAG = "ReversePlayer";
+
+    // state of the back buffer
+    private static final int BACK_IDLE = 0;
+    private static final int BACK_REQUESTED = 1;
+    private static final int BACK_DECODING = 2;
+    private static final int BACK_READY = 3;
+
+    /**
+     * Shows frames, on the thread of the control that moved to them.
+     */
+    public interface Presenter {
+
+        /**
+         * @param frame only valid during the call.
+         * @param layout of the frame, or null if not known.
+         */
+        void present(long presentationTimeUs, ByteBuffer frame, YuvLayout layout);
+    }
+
+    private final BatchFrameExtractor.Clip mClip;
+    private final FrameExtractor mExtractor;
+    private final GopPlanner mPlanner;
+    private final Presenter mPresenter;
+    private final Thread mWorker;
+    // serializes the controls
+    private final Object mControlLock = new Object();
+    private final Object mLock = new Object();
+
+    // under mControlLock
+    private ReverseFrameBuffer mFront;
+    private int mFrontIndex = -1;
+    // the frames before this are not in the front buffer
+    private long mFrontStartUs = -1;
+    private long mPositionUs = -1;
+
+    // guarded by mLock
+    private ReverseFrameBuffer mBack;
+    private int mBackState = BACK_IDLE;
+    private boolean mBackAtEnd;
+    private long mBackStartUs = -1;
+    private int mJob;
+    private boolean mJobForward;
+    private long mJobFromUs;
+    private long mJobToUs;
+    private boolean mReleased;
+    private IOException mError;
+    private long mSegmentsDecoded;
+    private long mWaits;
+
+    private volatile Thread mPlayThread;
+    private volatile boolean mPlaying;
+
+    /**
+     * @param clip           decoded by the player and closed by {@link #release}.
+     * @param framesPerBuffer frames held by each of the two buffers.
+     */
+    public ReversePlayer(BatchFrameExtractor.Clip clip, KeyframeIndex index, int framesPerBuffer,
+                         Presenter presenter) {
+        this.mClip = clip;
+        this.mExtractor = new FrameExtractor(clip.getCodec(), clip.getSource());
+        this.mPlanner = new GopPlanner(index);
+        this.mPresenter = presenter;
+        this.mFront = new ReverseFrameBuffer(framesPerBuffer);
+        this.mBack = new ReverseFrameBuffer(framesPerBuffer);
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, TAG);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Shows the frame on screen at {@code timeUs}.
+     *
+     * @return its presentation time, or -1 if there is none or the keyframe before
+     * {@code timeUs} is not indexed yet.
+     */
+    public long seekTo(long timeUs) throws IOException {
+        synchronized (mControlLock) {
+            GopPlanner.Segment segment = mPlanner.at(Math.max(0, timeUs));
+            if (segment == null) {
+                return -1;
+            }
+            mFront.clear();
+            mFrontIndex = -1;
+            mFrontStartUs = -1;
+            mPositionUs = -1;
+            requestSegment(segment);
+            if (!awaitBack()) {
+                return -1;
+            }
+            swap();
+            mFrontIndex = mFront.size() - 1;
+            prefetchBefore();
+            return mFrontIndex >= 0 ? present() : -1;
+        }
+    }
+
+    /**
+     * Shows the frame before the one on screen.
+     *
+     * @return its presentation time, or -1 at the start of the clip or before a
+     * {@link #seekTo}.
+     */
+    public long stepBackward() throws IOException {
+        synchronized (mControlLock) {
+            if (mPositionUs < 0) {
+                return -1;
+            }
+            while (mFrontIndex <= 0) {
+                if (!awaitBack()) {
+                    return -1;
+                }
+                swap();
+                mFrontIndex = mFront.size();
+                prefetchBefore();
+            }
+            mFrontIndex--;
+            return present();
+        }
+    }
+
+    /**
+     * Shows the frame after the one on screen.
+     *
+     * @return its presentation time, or -1 at the end of the clip or before a {@link #seekTo}.
+     */
+    public long stepForward() throws IOException {
+        synchronized (mControlLock) {
+            if (mPositionUs < 0) {
+                return -1;
+            }
+            if (mFrontIndex + 1 < mFront.size()) {
+                mFrontIndex++;
+                return present();
+            }
+            // the frames before, prefetched or being decoded, are given up for the ones after
+            synchronized (mLock) {
+                requestLocked(true, mPositionUs + 1, Long.MAX_VALUE);
+            }
+            if (!awaitBack()) {
+                prefetchBefore();
+                return -1;
+            }
+            synchronized (mLock) {
+                // the frames shown until now come right before the new ones
+                ReverseFrameBuffer previous = mFront;
+                long previousStartUs = mFrontStartUs;
+                mFront = mBack;
+                mFrontStartUs = mBackStartUs;
+                mBack = previous;
+                mBackStartUs = previousStartUs;
+                mBackState = BACK_READY;
+                mBackAtEnd = false;
+            }
+            mFrontIndex = 0;
+            return present();
+        }
+    }
+
+    /**
+     * Plays backwards from the frame on screen on a thread of its own, at {@code speed} times the
+     * spacing of the frames, until the start of the clip or {@link #pause}.
+     */
+    public void playBackward(final float speed) {
+        pause();
+        mPlaying = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastPtsUs = -1;
+                long lastShownNs = 0;
+                try {
+                    while (mPlaying) {
+                        long ptsUs = stepBackward();
+                        if (ptsUs < 0) {
+                            break;
+                        }
+                        if (lastPtsUs >= 0) {
+                            long dueNs = lastShownNs + (long) ((lastPtsUs - ptsUs) * 1000 / speed);
+                            long waitNs = dueNs - System.nanoTime();
+                            if (waitNs > 0) {
+                                Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+                            }
+                        }
+                        lastPtsUs = ptsUs;
+                        lastShownNs = System.nanoTime();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // the error stays available from getError
+                }
+                mPlaying = false;
+            }
+        }, TAG + "-play");
+        mPlayThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops {@link #playBackward}, once the frame being shown is out.
+     */
+    public void pause() {
+        mPlaying = false;
+        Thread thread = mPlayThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mPlayThread = null;
+    }
+
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    /**
+     * @return the time of the frame on screen, or -1 before the first.
+     */
+    public long getPositionUs() {
+        synchronized (mControlLock) {
+            return mPositionUs;
+        }
+    }
+
+    /**
+     * Under mControlLock.
+     */
+    private long present() {
+        mPositionUs = mFront.getPresentationTimeUs(mFrontIndex);
+        mPresenter.present(mPositionUs, mFront.getFrame(mFrontIndex), mFront.getLayout());
+        return mPositionUs;
+    }
+
+    /**
+     * Under mControlLock: starts the segment before the front buffer decoding, or marks the
+     * start of the clip.
+     */
+    private void prefetchBefore() {
+        GopPlanner.Segment segment = mPlanner.before(mFrontStartUs);
+        synchronized (mLock) {
+            if (segment != null) {
+                requestLocked(false, segment.getKeyframeUs(), segment.getEndUs());
+            } else {
+                mJob++;
+                mBackState = BACK_READY;
+                mBackAtEnd = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void requestSegment(GopPlanner.Segment segment) {
+        synchronized (mLock) {
+            requestLocked(false, segment.getKeyframeUs(), segment.getEndUs());
+        }
+    }
+
+    /**
+     * Holds mLock.
+     */
+    private void requestLocked(boolean forward, long fromUs, long toUs) {
+        if (mBackState == BACK_DECODING) {
+            mExtractor.cancel();
+        }
+        mJob++;
+        mJobForward = forward;
+        mJobFromUs = fromUs;
+        mJobToUs = toUs;
+        mBackState = BACK_REQUESTED;
+        mBackAtEnd = false;
+        mLock.notifyAll();
+    }
+
+    /**
+     * @return false if the back buffer got no frames: the start or end of the clip.
+     */
+    private boolean awaitBack() throws IOException {
+        synchronized (mLock) {
+            if (mBackState != BACK_READY) {
+                mWaits++;
+            }
+            while (mBackState != BACK_READY && mError == null && !mReleased) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for frames");
+                }
+            }
+            if (mError != null) {
+                throw mError;
+            }
+            if (mReleased) {
+                throw new IOException("player released");
+            }
+            return !mBackAtEnd;
+        }
+    }
+
+    /**
+     * Makes the ready back buffer the front one.  Under mControlLock.
+     */
+    private void swap() {
+        synchronized (mLock) {
+            ReverseFrameBuffer front = mFront;
+            mFront = mBack;
+            mFrontStartUs = mBackStartUs;
+            mBack = front;
+            mBackState = BACK_IDLE;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            ReverseFrameBuffer buffer;
+            int job;
+            boolean forward;
+            long fromUs;
+            long toUs;
+            synchronized (mLock) {
+                while (!mReleased && mBackState != BACK_REQUESTED) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        mReleased = true;
+                    }
+                }
+                if (mReleased) {
+                    break;
+                }
+                mBackState = BACK_DECODING;
+                buffer = mBack;
+                job = mJob;
+                forward = mJobForward;
+                fromUs = mJobFromUs;
+                toUs = mJobToUs;
+            }
+            try {
+                decode(buffer, forward, fromUs, toUs);
+            } catch (IOException e) {
+                synchronized (mLock) {
+                    mError = e;
+                    mLock.notifyAll();
+                }
+                break;
+            }
+            synchronized (mLock) {
+                if (mJob == job && mBackState == BACK_DECODING) {
+                    mBackState = BACK_READY;
+                    mBackAtEnd = buffer.size() == 0 && forward;
+                    // an empty segment still moves the planning back to its keyframe
+                    mBackStartUs = buffer.size() > 0 ? buffer.getEarliestUs() : fromUs;
+                    mSegmentsDecoded++;
+                    mLock.notifyAll();
+                }
+            }
+        }
+        mClip.close(getError() != null);
+    }
+
+    /**
+     * Decodes into {@code buffer}: a segment, of which the buffer keeps the last frames, or
+     * forward from {@code fromUs} until the buffer is full.
+     */
+    private void decode(final ReverseFrameBuffer buffer, final boolean forward, long fromUs, long toUs)
+            throws IOException {
+        buffer.clear();
+        mExtractor.extractRange(fromUs, toUs, new FrameExtractor.FrameSink() {
+            @Override
+            public void onFrame(int request, long presentationTimeUs, ByteBuffer frame) {
+                if (buffer.getLayout() == null) {
+                    buffer.setLayout(mClip.getLayout());
+                }
+                buffer.offer(presentationTimeUs, frame);
+                if (forward && buffer.isFull()) {
+                    mExtractor.cancel();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops playing and decoding, and closes the clip.
+     */
+    public void release() {
+        pause();
+        synchronized (mLock) {
+            mReleased = true;
+            mExtractor.cancel();
+            mLock.notifyAll();
+        }
+        try {
+            mWorker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the error that stopped decoding, or null.
+     */
+    public IOException getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    /**
+     * @return segments decoded, forward runs included.
+     */
+    public long getSegmentsDecoded() {
+        synchronized (mLock) {
+            return mSegmentsDecoded;
+        }
+    }
+
+    /**
+     * @return how often a control had to wait for the worker, i.e. the prefetch was late.
+     */
+    public long getWaits() {
+        synchronized (mLock) {
+            return mWaits;
+        }
+    }
+
+    /**
+     * @return samples fed to the decoder, against frames shown to see what reversing cost.
+     */
+    public long getSamplesQueued() {
+        return mExtractor.getSamplesQueued();
+    }
+
+    /**
+     * @return bytes of decoded frames held, never more than two buffers' worth.
+     */
+    public long getAllocatedBytes() {
+        synchronized (mControlLock) {
+            synchronized (mLock) {
+                return mFront.getAllocatedBytes() + mBack.getAllocatedBytes();
+            }
+        }
+    }
+}
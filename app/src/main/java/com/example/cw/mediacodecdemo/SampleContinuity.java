@@ -0,0 +1,48 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Follows the samples a decode loop takes from its source, to tell when the next one does not
+ * follow on from the last because someone else moved the source: on a source shared through a
+ * {@link Demuxer}, a seek by another consumer changes the seek serial of the samples, however
+ * short the jump.  Seeks and loops of the loop's own are handled where it makes them, and only
+ * {@link #reset} this.  Gaps in the timestamps of a file are not discontinuities.
+ * <p>
+ * Not thread safe; decode thread only.
+ */
+public class SampleContinuity {
+
+    private long mLastTimeUs = -1;
+    private int mLastSerial;
+
+    /**
+     * Forgets the last sample, after a seek or loop that was dealt with: the next sample starts
+     * afresh.
+     */
+    public void reset() {
+        mLastTimeUs = -1;
+    }
+
+    /**
+     * @param serial the seek serial of the sample at the read position, see
+     *               {@link QueueSampleSource#getSampleSerial}, or 0 for a source of the loop's own.
+     * @return true if that sample does not follow on from the last one taken.
+     */
+    public boolean isDiscontinuity(int serial) {
+        return mLastTimeUs >= 0 && serial != mLastSerial;
+    }
+
+    /**
+     * Remembers the sample at the read position as the last one taken, before advancing past it.
+     */
+    public void onTaken(long timeUs, int serial) {
+        mLastTimeUs = timeUs;
+        mLastSerial = serial;
+    }
+
+    /**
+     * @return the source time of the last sample taken, or -1 if none was since the last reset.
+     */
+    public long getLastTimeUs() {
+        return mLastTimeUs;
+    }
+}
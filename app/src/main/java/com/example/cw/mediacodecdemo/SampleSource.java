@@ -0,0 +1,30 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of compressed samples for a decoder, mirroring the subset of
+ * {@link android.media.MediaExtractor} the players use.
+ */
+public interface SampleSource {
+
+    /**
+     * Reads the current sample into {@code buffer} starting at {@code offset}.
+     *
+     * @return the sample size in bytes, or -1 when no more samples are available.
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    long getSampleTime();
+
+    int getSampleFlags();
+
+    int getSampleTrackIndex();
+
+    boolean advance();
+
+    void seekTo(long timeUs, int mode);
+
+    void release();
+
+}
@@ -0,0 +1,163 @@
+package com.example.cw.mediacodecdemo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Milestones of one {@link Playback} startup, measured from the {@link Playback#prepareAsync}
+ * call: container opened, each decoder ready, prepared, surface available, playback started,
+ * first video frame shown and first audio handed to the output.
+ * <p>
+ * Each milestone is written once, by whichever thread reaches it; the getters may be read from
+ * any thread and return -1 for milestones not reached yet.
+ */
+public class StartupMetrics {
+
+    /**
+     * Told once, on the thread that recorded the last of the first frame and first audio.
+     */
+    public interface Listener {
+
+        void onStartupComplete(StartupMetrics metrics);
+
+    }
+
+    private final long mPrepareStartNs;
+    private volatile long mOpenedNs = -1;
+    private volatile long mVideoReadyNs = -1;
+    private volatile long mAudioReadyNs = -1;
+    private volatile long mPreparedNs = -1;
+    private volatile long mSurfaceNs = -1;
+    private volatile long mStartNs = -1;
+    private volatile long mFirstFrameNs = -1;
+    private volatile long mFirstAudioNs = -1;
+    private volatile boolean mExpectsAudio = true;
+    private volatile Listener mListener;
+    private final AtomicBoolean mReported = new AtomicBoolean();
+
+    public StartupMetrics(long prepareStartNs) {
+        this.mPrepareStartNs = prepareStartNs;
+    }
+
+    public void setListener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Set to false for a file without an audio track, so startup completes on the first frame.
+     */
+    public void setExpectsAudio(boolean expectsAudio) {
+        this.mExpectsAudio = expectsAudio;
+        maybeReport();
+    }
+
+    public void onOpened(long nowNs) {
+        mOpenedNs = nowNs;
+    }
+
+    public void onVideoReady(long nowNs) {
+        mVideoReadyNs = nowNs;
+    }
+
+    public void onAudioReady(long nowNs) {
+        mAudioReadyNs = nowNs;
+    }
+
+    public void onPrepared(long nowNs) {
+        mPreparedNs = nowNs;
+    }
+
+    public void onSurface(long nowNs) {
+        if (mSurfaceNs < 0) {
+            mSurfaceNs = nowNs;
+        }
+    }
+
+    public void onStart(long nowNs) {
+        mStartNs = nowNs;
+    }
+
+    /**
+     * Called for the first video frame released to the surface; later calls are ignored.
+     */
+    public void onFirstFrame(long nowNs) {
+        if (mFirstFrameNs < 0) {
+            mFirstFrameNs = nowNs;
+            maybeReport();
+        }
+    }
+
+    /**
+     * Called when the first decoded audio is handed to the output; later calls are ignored.
+     */
+    public void onFirstAudio(long nowNs) {
+        if (mFirstAudioNs < 0) {
+            mFirstAudioNs = nowNs;
+            maybeReport();
+        }
+    }
+
+    /**
+     * @return true once the first frame, and the first audio if expected, have been recorded.
+     */
+    public boolean isComplete() {
+        return mFirstFrameNs >= 0 && (!mExpectsAudio || mFirstAudioNs >= 0);
+    }
+
+    private void maybeReport() {
+        Listener listener = mListener;
+        if (isComplete() && listener != null && mReported.compareAndSet(false, true)) {
+            listener.onStartupComplete(this);
+        }
+    }
+
+    private long since(long ns) {
+        return ns < 0 ? -1 : ns - mPrepareStartNs;
+    }
+
+    public long getOpenNs() {
+        return since(mOpenedNs);
+    }
+
+    public long getVideoReadyNs() {
+        return since(mVideoReadyNs);
+    }
+
+    public long getAudioReadyNs() {
+        return since(mAudioReadyNs);
+    }
+
+    public long getPrepareNs() {
+        return since(mPreparedNs);
+    }
+
+    public long getSurfaceNs() {
+        return since(mSurfaceNs);
+    }
+
+    public long getStartNs() {
+        return since(mStartNs);
+    }
+
+    /**
+     * @return time from the prepare call to the first frame on the surface, or -1.
+     */
+    public long getTimeToFirstFrameNs() {
+        return since(mFirstFrameNs);
+    }
+
+    /**
+     * @return time from the prepare call to the first audio handed to the output, or -1.
+     */
+    public long getTimeToFirstAudioNs() {
+        return since(mFirstAudioNs);
+    }
+
+    @Override
+    public String toString() {
+        return "open " + getOpenNs() / 1000 + "us, video ready " + getVideoReadyNs() / 1000
+                + "us, audio ready " + getAudioReadyNs() / 1000 + "us, prepared " + getPrepareNs() / 1000
+                + "us, surface " + getSurfaceNs() / 1000 + "us, start " + getStartNs() / 1000
+                + "us, first frame " + getTimeToFirstFrameNs() / 1000 + "us, first audio "
+                + getTimeToFirstAudioNs() / 1000 + "us";
+    }
+}
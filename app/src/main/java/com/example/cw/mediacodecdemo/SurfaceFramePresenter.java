@@ -0,0 +1,88 @@
+package com.example.cw.mediacodecdemo;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shows decoded frames from byte buffers on a surface, converting them with a
+ * {@link YuvConverter} and drawing them with a canvas, scaled to fit.
+ * <p>
+ * A surface drawn on this way cannot take a codec's output any more, so it needs a surface of
+ * its own, e.g. a second view over the one playback renders to.  Frames bigger than the
+ * maximum size are scaled down during the conversion.  Not thread safe.
+ */
+public class SurfaceFramePresenter implements ReversePlayer.Presenter {
+
+    private static final String TAG = "SurfaceFramePresenter";
+
+    private final Surface mSurface;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final YuvConverter mConverter = new YuvConverter(null);
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDestination = new Rect();
+    private int[] mPixels = new int[0];
+    private Bitmap mBitmap;
+
+    public SurfaceFramePresenter(Surface surface, int maxWidth, int maxHeight) {
+        this.mSurface = surface;
+        this.mMaxWidth = maxWidth;
+        this.mMaxHeight = maxHeight;
+    }
+
+    @Override
+    public void present(long presentationTimeUs, ByteBuffer frame, YuvLayout layout) {
+        if (layout == null || !mSurface.isValid()) {
+            return;
+        }
+        // fit within the maximum size, keeping the aspect ratio; even sizes for the chroma
+        float scale = Math.min(1f, Math.min((float) mMaxWidth / layout.getWidth(),
+                (float) mMaxHeight / layout.getHeight()));
+        int width = Math.max(2, (int) (layout.getWidth() * scale) & ~1);
+        int height = Math.max(2, (int) (layout.getHeight() * scale) & ~1);
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mPixels = new int[width * height];
+        }
+        mConverter.convert(frame, layout, mPixels, width, height);
+        mBitmap.setPixels(mPixels, 0, width, 0, 0, width, height);
+        Canvas canvas;
+        try {
+            canvas = mSurface.lockCanvas(null);
+        } catch (IllegalArgumentException | Surface.OutOfResourcesException e) {
+            Log.d(TAG, "present: cannot draw on the surface " + e);
+            return;
+        }
+        try {
+            float fit = Math.min((float) canvas.getWidth() / width, (float) canvas.getHeight() / height);
+            int drawnWidth = (int) (width * fit);
+            int drawnHeight = (int) (height * fit);
+            int left = (canvas.getWidth() - drawnWidth) / 2;
+            int top = (canvas.getHeight() - drawnHeight) / 2;
+            mDestination.set(left, top, left + drawnWidth, top + drawnHeight);
+            canvas.drawColor(0xff000000);
+            canvas.drawBitmap(mBitmap, null, mDestination, mPaint);
+        } finally {
+            mSurface.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    /**
+     * Frees the bitmap; the surface belongs to the caller.
+     */
+    public void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
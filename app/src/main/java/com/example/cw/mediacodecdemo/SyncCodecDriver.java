@@ -0,0 +1,98 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+
+/**
+ * Runs an {@link AsyncDecodeEngine} on a codec in synchronous mode.
+ * <p>
+ * Each {@link #step} fills every input slot the codec has free and drains every output it has
+ * ready, without waiting, and delivers them to the engine as if they were callbacks.  It only
+ * blocks, on the output side, when neither side made progress, so the codec's input queue is
+ * kept full instead of getting one sample per timeout.  Occupancy of every step is reported to
+ * the engine's {@link DecodeMetrics}.
+ */
+public class SyncCodecDriver {
+
+    private final Codec mCodec;
+    private final AsyncDecodeEngine mEngine;
+    private final DecodeMetrics mMetrics;
+    private final Codec.BufferInfo mInfo = new Codec.BufferInfo();
+    private boolean mMadeProgress;
+
+    public SyncCodecDriver(Codec codec, AsyncDecodeEngine engine) {
+        this.mCodec = codec;
+        this.mEngine = engine;
+        this.mMetrics = engine.getMetrics();
+        engine.setSynchronous(true);
+    }
+
+    /**
+     * Runs one iteration of the decode loop.
+     *
+     * @param idleTimeoutUs how long to wait for output when there is nothing to do.
+     * @return false once the engine has finished or failed.
+     */
+    public boolean step(long idleTimeoutUs) {
+        if (isDone()) {
+            return false;
+        }
+        int queued = 0;
+        int drained;
+        boolean blocked = false;
+        try {
+            while (mEngine.getState() == AsyncDecodeEngine.STATE_RUNNING) {
+                int index = mCodec.dequeueInputBuffer(0);
+                if (index < 0) {
+                    break;
+                }
+                mEngine.onInputBufferAvailable(index);
+                queued++;
+            }
+            drained = drain(0);
+            if (queued == 0 && drained == 0 && !isDone()) {
+                blocked = true;
+                drained = drain(idleTimeoutUs);
+            }
+        } catch (IllegalStateException e) {
+            // MediaCodec.CodecException is one
+            mEngine.onError(e);
+            return false;
+        }
+        mMadeProgress = queued > 0 || drained > 0;
+        mMetrics.onWakeup();
+        mMetrics.onIteration(queued, drained, mEngine.getInFlight(), blocked);
+        return !isDone();
+    }
+
+    /**
+     * @return true if the last {@link #step} queued or drained anything, so a caller stepping
+     * with no timeout knows whether to come back at once or later.
+     */
+    public boolean madeProgress() {
+        return mMadeProgress;
+    }
+
+    private int drain(long firstTimeoutUs) {
+        int drained = 0;
+        long timeoutUs = firstTimeoutUs;
+        while (!isDone()) {
+            int index = mCodec.dequeueOutputBuffer(mInfo, timeoutUs);
+            timeoutUs = 0;
+            if (index >= 0) {
+                mEngine.onOutputBufferAvailable(index, mInfo.offset, mInfo.size, mInfo.presentationTimeUs,
+                        mInfo.flags);
+                drained++;
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mEngine.onOutputFormatChanged();
+            } else if (index != MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                break;
+            }
+        }
+        return drained;
+    }
+
+    private boolean isDone() {
+        int state = mEngine.getState();
+        return state == AsyncDecodeEngine.STATE_FINISHED || state == AsyncDecodeEngine.STATE_ERROR;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Decides, frame by frame, how decoded video is presented against the master clock.
+ */
+public interface SyncController {
+
+    /**
+     * Release the frame to the display immediately.
+     */
+    int ACTION_RENDER_NOW = 0;
+
+    /**
+     * Release the frame with the timestamp from {@link #getRenderTimeNs()}.
+     */
+    int ACTION_RENDER_AT = 1;
+
+    /**
+     * Release the frame without rendering it.
+     */
+    int ACTION_DROP = 2;
+
+    /**
+     * Called once per decoded frame, in decode order.
+     *
+     * @return one of the {@code ACTION_*} constants.
+     */
+    int onFrame(long presentationTimeUs);
+
+    /**
+     * @return the {@link System#nanoTime()} based release time chosen by the last
+     * {@link #onFrame} call.
+     */
+    long getRenderTimeNs();
+
+    /**
+     * Forgets the timeline, e.g. after a seek or a loop.
+     */
+    void reset();
+
+    /**
+     * Sets how fast the media time runs against real time, for playback at other than normal
+     * speed.
+     */
+    void setRate(float rate);
+
+}
@@ -0,0 +1,165 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * {@link SyncController} that slaves video to a {@link MediaTimeProvider}.
+ * <p>
+ * Early frames are scheduled for the moment the master clock reaches them, slightly late frames
+ * are shown at once, and frames later than the drop threshold are dropped until the lag falls
+ * back below the recover threshold.  The gap between the two thresholds keeps the controller
+ * from flapping between dropping and rendering when the lag hovers around one value.
+ * <p>
+ * While the master clock has no time yet (it returns a negative value), or is further from the
+ * video than the discontinuity threshold because one side has not caught up with a seek or loop
+ * yet, video runs freely from the first frame it sees.  Not thread safe; call from the decode thread.
+ * <p>
+ * Lateness is measured in real time: at other than normal speed ({@link #setRate}) the media
+ * time between master and frame is scaled by the rate, so the thresholds keep their meaning.
+ */
+public class ThresholdSyncController implements SyncController {
+
+    public static final long DEFAULT_DROP_THRESHOLD_US = 40000;
+    public static final long DEFAULT_RECOVER_THRESHOLD_US = 10000;
+    public static final int DEFAULT_MAX_CONSECUTIVE_DROPS = 8;
+    public static final long DEFAULT_DISCONTINUITY_US = 1000000;
+
+    private final MediaTimeProvider mMaster;
+    private final NanoClock mClock;
+    private long mDropThresholdUs = DEFAULT_DROP_THRESHOLD_US;
+    private long mRecoverThresholdUs = DEFAULT_RECOVER_THRESHOLD_US;
+    private int mMaxConsecutiveDrops = DEFAULT_MAX_CONSECUTIVE_DROPS;
+    private long mDiscontinuityUs = DEFAULT_DISCONTINUITY_US;
+    private float mRate = 1f;
+
+    private long mRenderTimeNs;
+    private boolean mDropping;
+    private int mConsecutiveDrops;
+    private long mFreeRunAnchorNs = -1;
+    private long mFreeRunAnchorUs;
+
+    private long mLastDriftUs;
+    private long mMaxAbsDriftUs;
+    private long mCumulativeDriftUs;
+    private long mRenderedFrames;
+    private long mDroppedFrames;
+
+    public ThresholdSyncController(MediaTimeProvider master, NanoClock clock) {
+        this.mMaster = master;
+        this.mClock = clock;
+    }
+
+    /**
+     * @param dropThresholdUs    frames later than this start being dropped.
+     * @param recoverThresholdUs once dropping, frames are rendered again when less late than this.
+     */
+    public void setThresholds(long dropThresholdUs, long recoverThresholdUs) {
+        if (recoverThresholdUs > dropThresholdUs) {
+            throw new IllegalArgumentException("recover threshold above drop threshold");
+        }
+        this.mDropThresholdUs = dropThresholdUs;
+        this.mRecoverThresholdUs = recoverThresholdUs;
+    }
+
+    /**
+     * Caps how many frames in a row may be dropped, so the picture keeps moving when decoding
+     * cannot keep up at all.
+     */
+    public void setMaxConsecutiveDrops(int maxConsecutiveDrops) {
+        this.mMaxConsecutiveDrops = maxConsecutiveDrops;
+    }
+
+    /**
+     * Sets how far apart master and video may be before they are taken to be on different
+     * timelines rather than out of sync.
+     */
+    public void setDiscontinuityThreshold(long discontinuityUs) {
+        this.mDiscontinuityUs = discontinuityUs;
+    }
+
+    @Override
+    public int onFrame(long presentationTimeUs) {
+        long nowNs = mClock.nanoTime();
+        long masterUs = mMaster != null ? mMaster.getAudioTimeUs() : -1;
+        if (masterUs < 0 || Math.abs(masterUs - presentationTimeUs) > mDiscontinuityUs) {
+            if (mFreeRunAnchorNs < 0) {
+                mFreeRunAnchorNs = nowNs;
+                mFreeRunAnchorUs = presentationTimeUs;
+            }
+            masterUs = mFreeRunAnchorUs + (long) ((nowNs - mFreeRunAnchorNs) / 1000 * (double) mRate);
+        } else {
+            mFreeRunAnchorNs = -1;
+        }
+        long lateUs = (long) ((masterUs - presentationTimeUs) / (double) mRate);
+
+        if (mDropping) {
+            if (lateUs < mRecoverThresholdUs) {
+                mDropping = false;
+            }
+        } else if (lateUs > mDropThresholdUs) {
+            mDropping = true;
+        }
+        if (mDropping && mConsecutiveDrops < mMaxConsecutiveDrops) {
+            mConsecutiveDrops++;
+            mDroppedFrames++;
+            return ACTION_DROP;
+        }
+
+        mConsecutiveDrops = 0;
+        mRenderedFrames++;
+        mLastDriftUs = lateUs;
+        mCumulativeDriftUs += Math.abs(lateUs);
+        mMaxAbsDriftUs = Math.max(mMaxAbsDriftUs, Math.abs(lateUs));
+        if (lateUs >= 0) {
+            mRenderTimeNs = nowNs;
+            return ACTION_RENDER_NOW;
+        }
+        mRenderTimeNs = nowNs - lateUs * 1000;
+        return ACTION_RENDER_AT;
+    }
+
+    @Override
+    public long getRenderTimeNs() {
+        return mRenderTimeNs;
+    }
+
+    @Override
+    public void reset() {
+        mDropping = false;
+        mConsecutiveDrops = 0;
+        mFreeRunAnchorNs = -1;
+    }
+
+    @Override
+    public void setRate(float rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate " + rate);
+        }
+        mRate = rate;
+        mFreeRunAnchorNs = -1;
+    }
+
+    /**
+     * @return how late the last rendered frame was against the master clock; negative if early.
+     */
+    public long getLastDriftUs() {
+        return mLastDriftUs;
+    }
+
+    public long getMaxAbsDriftUs() {
+        return mMaxAbsDriftUs;
+    }
+
+    /**
+     * @return the sum of the absolute drift of every rendered frame.
+     */
+    public long getCumulativeDriftUs() {
+        return mCumulativeDriftUs;
+    }
+
+    public long getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+}
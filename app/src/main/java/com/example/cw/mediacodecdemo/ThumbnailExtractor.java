@@ -0,0 +1,184 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens video files for a {@link BatchFrameExtractor}: the video track through
+ * {@link MediaExtractor} or {@link Mp4Extractor}, and a decoder from {@link CodecManager}
+ * configured without a surface, so frames come out in byte buffers.
+ */
+public class ThumbnailExtractor implements BatchFrameExtractor.Opener<File> {
+
+    private static final String TAG = "ThumbnailExtractor";
+    // not public constants before API 33
+    private static final String KEY_CROP_LEFT = "crop-left";
+    private static final String KEY_CROP_TOP = "crop-top";
+    private static final String KEY_CROP_RIGHT = "crop-right";
+    private static final String KEY_CROP_BOTTOM = "crop-bottom";
+
+    private boolean mUseMp4Extractor;
+
+    /**
+     * Demuxes with the Java {@link Mp4Extractor}, which opens MP4 files faster.  Files it
+     * cannot read fail.
+     */
+    public void setUseMp4Extractor(boolean useMp4Extractor) {
+        this.mUseMp4Extractor = useMp4Extractor;
+    }
+
+    /**
+     * @return a batch extractor running as many clips at once as there can be decoders for
+     * {@code format}.
+     */
+    public static BatchFrameExtractor<File> newBatch(MediaFormat format, boolean useMp4Extractor) {
+        ThumbnailExtractor opener = new ThumbnailExtractor();
+        opener.setUseMp4Extractor(useMp4Extractor);
+        return new BatchFrameExtractor<>(opener, CodecManager.get().getMaxDecoderInstances(format));
+    }
+
+    @Override
+    public BatchFrameExtractor.Clip open(File file) throws IOException {
+        SampleSource source;
+        MediaFormat format;
+        if (mUseMp4Extractor) {
+            Mp4Extractor extractor = new Mp4Extractor(file);
+            int track = -1;
+            for (int i = 0; i < extractor.getTrackCount() && track < 0; i++) {
+                if (extractor.getTrack(i).isVideo()) {
+                    track = i;
+                }
+            }
+            if (track < 0) {
+                extractor.release();
+                throw new IOException("no video track in " + file);
+            }
+            extractor.selectTrack(track);
+            source = extractor;
+            format = Demuxer.formatOf(extractor.getTrack(track));
+        } else {
+            MediaExtractor extractor = new MediaExtractor();
+            try {
+                extractor.setDataSource(file.toString());
+            } catch (IOException e) {
+                extractor.release();
+                throw e;
+            }
+            int track = -1;
+            for (int i = 0; i < extractor.getTrackCount() && track < 0; i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    track = i;
+                }
+            }
+            if (track < 0) {
+                extractor.release();
+                throw new IOException("no video track in " + file);
+            }
+            extractor.selectTrack(track);
+            source = new ExtractorSampleSource(extractor);
+            format = extractor.getTrackFormat(track);
+        }
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        MediaCodec decoder;
+        try {
+            decoder = CodecManager.get().acquireDecoder(format);
+        } catch (IOException e) {
+            source.release();
+            throw e;
+        }
+        try {
+            decoder.configure(format, null, null, 0);
+        } catch (RuntimeException e) {
+            CodecManager.get().discard(decoder);
+            source.release();
+            throw new IOException("cannot configure a decoder for " + file, e);
+        }
+        return new FileClip(decoder, source);
+    }
+
+    private static final class FileClip implements BatchFrameExtractor.Clip {
+
+        private final MediaCodec mDecoder;
+        private final MediaCodecAdapter mCodec;
+        private final SampleSource mSource;
+        private YuvLayout mLayout;
+        private MediaFormat mLayoutFormat;
+
+        FileClip(MediaCodec decoder, SampleSource source) {
+            this.mDecoder = decoder;
+            this.mCodec = new MediaCodecAdapter(decoder, null);
+            this.mSource = source;
+        }
+
+        @Override
+        public Codec getCodec() {
+            return mCodec;
+        }
+
+        @Override
+        public SampleSource getSource() {
+            return mSource;
+        }
+
+        @Override
+        public YuvLayout getLayout() {
+            MediaFormat format = mDecoder.getOutputFormat();
+            if (format != mLayoutFormat) {
+                mLayoutFormat = format;
+                mLayout = layoutOf(format);
+            }
+            return mLayout;
+        }
+
+        @Override
+        public void close(boolean failed) {
+            if (failed) {
+                CodecManager.get().discard(mDecoder);
+            } else {
+                CodecManager.get().recycle(mDecoder);
+            }
+            mSource.release();
+        }
+    }
+
+    /**
+     * @return the layout of byte buffer output in {@code format}, or null for a color format
+     * other than the plain planar and semi-planar ones.
+     */
+    static YuvLayout layoutOf(MediaFormat format) {
+        int colorFormat = format.containsKey(MediaFormat.KEY_COLOR_FORMAT)
+                ? format.getInteger(MediaFormat.KEY_COLOR_FORMAT) : 0;
+        int yuvFormat;
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+            yuvFormat = YuvLayout.FORMAT_I420;
+        } else if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+            yuvFormat = YuvLayout.FORMAT_NV12;
+        } else {
+            Log.d(TAG, "layoutOf: unknown color format " + colorFormat);
+            return null;
+        }
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        int stride = format.containsKey(MediaFormat.KEY_STRIDE) ? format.getInteger(MediaFormat.KEY_STRIDE) : width;
+        int sliceHeight = format.containsKey(MediaFormat.KEY_SLICE_HEIGHT)
+                ? format.getInteger(MediaFormat.KEY_SLICE_HEIGHT) : height;
+        int cropLeft = 0;
+        int cropTop = 0;
+        if (format.containsKey(KEY_CROP_LEFT) && format.containsKey(KEY_CROP_RIGHT)) {
+            // KEY_WIDTH and KEY_HEIGHT are then the size of the decoded buffer
+            cropLeft = format.getInteger(KEY_CROP_LEFT) & ~1;
+            cropTop = format.getInteger(KEY_CROP_TOP) & ~1;
+            width = format.getInteger(KEY_CROP_RIGHT) + 1 - cropLeft;
+            height = format.getInteger(KEY_CROP_BOTTOM) + 1 - cropTop;
+        }
+        return new YuvLayout(yuvFormat, width, height, Math.max(stride, cropLeft + width),
+                Math.max(sliceHeight, cropTop + height), cropLeft, cropTop);
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Changes the speed of 16-bit PCM without changing its pitch, by waveform-similarity overlap-add
+ * (WSOLA).
+ * <p>
+ * The output is built from fixed-length sequences of the input, each cross-faded into the tail
+ * of the one before.  The input moves on by {@code rate} times the output each sequence, and
+ * every sequence starts at the offset within a short search window where it lines up best with
+ * the tail it is faded into, so the waveform carries on without a phase jump.  At a rate of
+ * exactly 1 the input is passed through unchanged.
+ * <p>
+ * Audio is pushed in with {@link #putSamples} and taken out with {@link #receiveSamples}, in
+ * interleaved frames.  All buffers are allocated up front; nothing is allocated per call.  Not
+ * thread safe.
+ */
+public class TimeStretcher {
+
+    public static final float MIN_RATE = 0.5f;
+    public static final float MAX_RATE = 4f;
+
+    private static final int SEQUENCE_MS = 40;
+    private static final int OVERLAP_MS = 10;
+    private static final int SEEK_MS = 15;
+    // the search looks at every this many offsets, then refines around the best one
+    private static final int COARSE_STEP = 4;
+
+    private final int mChannels;
+    private final int mSequence;
+    private final int mOverlap;
+    private final int mSeek;
+    private final short[] mInput;
+    private final short[] mOutput;
+    // the tail of the last sequence, faded into the next one
+    private final short[] mTail;
+    private int mInputFrames;
+    private int mOutputStart;
+    private int mOutputFrames;
+    private boolean mHaveTail;
+    // input frame just after the tail, relative to the start of the input; may be negative
+    private int mTailEnd;
+    private float mRate = 1f;
+    private double mSkipRemainder;
+
+    public TimeStretcher(int sampleRate, int channels) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("sample rate " + sampleRate + ", channels " + channels);
+        }
+        mChannels = channels;
+        mSequence = sampleRate * SEQUENCE_MS / 1000;
+        mOverlap = sampleRate * OVERLAP_MS / 1000;
+        mSeek = sampleRate * SEEK_MS / 1000;
+        int maxSkip = (int) Math.ceil(MAX_RATE * (mSequence - mOverlap));
+        mInput = new short[(mSeek + mSequence + maxSkip) * channels];
+        mOutput = new short[2 * mSequence * channels];
+        mTail = new short[mOverlap * channels];
+    }
+
+    /**
+     * Sets the speed, from {@link #MIN_RATE} to {@link #MAX_RATE}.  Takes effect from the next
+     * sequence; audio already received is not affected.
+     */
+    public void setRate(float rate) {
+        if (!(rate >= MIN_RATE && rate <= MAX_RATE)) {
+            throw new IllegalArgumentException("rate " + rate);
+        }
+        mRate = rate;
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    /**
+     * @return true if the rate is 1 and no audio is held, so audio may bypass the stretcher.
+     */
+    public boolean isIdle() {
+        return mRate == 1f && !mHaveTail && mInputFrames == 0 && mOutputFrames == 0;
+    }
+
+    /**
+     * @return the number of input frames a sequence spans.
+     */
+    public int getSequenceFrames() {
+        return mSequence;
+    }
+
+    /**
+     * Copies up to {@code frames} interleaved frames into the stretcher.
+     *
+     * @return the number of frames taken, which is less than asked once the stretcher is full
+     * and its output has to be received first.
+     */
+    public int putSamples(short[] samples, int offset, int frames) {
+        int taken = Math.min(frames, mInput.length / mChannels - mInputFrames);
+        System.arraycopy(samples, offset, mInput, mInputFrames * mChannels, taken * mChannels);
+        mInputFrames += taken;
+        process();
+        return taken;
+    }
+
+    /**
+     * Like {@link #putSamples(short[], int, int)}, reading native-order samples from the position
+     * of {@code buffer} up to its limit and moving the position past the frames taken.
+     */
+    public int putSamples(ByteBuffer buffer) {
+        buffer.order(ByteOrder.nativeOrder());
+        int frames = Math.min(buffer.remaining() / 2 / mChannels, mInput.length / mChannels - mInputFrames);
+        int start = mInputFrames * mChannels;
+        int end = start + frames * mChannels;
+        for (int i = start; i < end; i++) {
+            mInput[i] = buffer.getShort();
+        }
+        mInputFrames += frames;
+        process();
+        return frames;
+    }
+
+    /**
+     * Copies up to {@code maxFrames} interleaved frames of output into {@code samples}.
+     *
+     * @return the number of frames copied.
+     */
+    public int receiveSamples(short[] samples, int offset, int maxFrames) {
+        int frames = Math.min(maxFrames, mOutputFrames);
+        System.arraycopy(mOutput, mOutputStart * mChannels, samples, offset, frames * mChannels);
+        consumeOutput(frames);
+        return frames;
+    }
+
+    /**
+     * Like {@link #receiveSamples(short[], int, int)}, writing native-order samples from the
+     * position of {@code buffer} up to its limit.
+     */
+    public int receiveSamples(ByteBuffer buffer) {
+        buffer.order(ByteOrder.nativeOrder());
+        int frames = Math.min(buffer.remaining() / 2 / mChannels, mOutputFrames);
+        int start = mOutputStart * mChannels;
+        int end = start + frames * mChannels;
+        for (int i = start; i < end; i++) {
+            buffer.putShort(mOutput[i]);
+        }
+        consumeOutput(frames);
+        return frames;
+    }
+
+    /**
+     * Drops all audio held, e.g. after a seek.  The rate is kept.
+     */
+    public void clear() {
+        mInputFrames = 0;
+        mOutputStart = 0;
+        mOutputFrames = 0;
+        mHaveTail = false;
+        mSkipRemainder = 0;
+    }
+
+    private void consumeOutput(int frames) {
+        mOutputStart += frames;
+        mOutputFrames -= frames;
+        if (mOutputFrames == 0) {
+            mOutputStart = 0;
+        }
+        process();
+    }
+
+    /**
+     * Turns as much input into output as the output buffer has room for.
+     */
+    private void process() {
+        while (true) {
+            if (mOutputStart > 0 && mOutputStart + mOutputFrames + mSequence > mOutput.length / mChannels) {
+                System.arraycopy(mOutput, mOutputStart * mChannels, mOutput, 0, mOutputFrames * mChannels);
+                mOutputStart = 0;
+            }
+            int room = mOutput.length / mChannels - mOutputStart - mOutputFrames;
+            // the tail joins on to the input only if it ends inside it; otherwise one more
+            // sequence is spliced at normal speed to get there
+            if (mRate == 1f && (!mHaveTail || mTailEnd >= 0)) {
+                if (!passThrough(room)) {
+                    return;
+                }
+                continue;
+            }
+            int skip = (int) (mSkipRemainder + mRate * (mSequence - mOverlap));
+            if (mInputFrames < Math.max(mSeek + mSequence, skip) || room < mSequence - mOverlap) {
+                return;
+            }
+            stretchSequence(skip);
+        }
+    }
+
+    /**
+     * Copies input straight to output, after the tail left by stretching, which joins on to
+     * the input just after it.
+     *
+     * @return true if anything was copied.
+     */
+    private boolean passThrough(int room) {
+        if (mHaveTail) {
+            if (room < mOverlap || mInputFrames < mTailEnd) {
+                return false;
+            }
+            emit(mTail, 0, mOverlap);
+            if (mTailEnd > 0) {
+                dropInput(mTailEnd);
+            }
+            mHaveTail = false;
+            mSkipRemainder = 0;
+            return true;
+        }
+        int frames = Math.min(room, mInputFrames);
+        if (frames == 0) {
+            return false;
+        }
+        emit(mInput, 0, frames);
+        dropInput(frames);
+        return true;
+    }
+
+    private void stretchSequence(int skip) {
+        int channels = mChannels;
+        int offset = 0;
+        int out = (mOutputStart + mOutputFrames) * channels;
+        if (mHaveTail) {
+            offset = bestOffset();
+            // linear cross-fade from the tail into the new sequence
+            int base = offset * channels;
+            for (int i = 0; i < mOverlap; i++) {
+                for (int c = 0; c < channels; c++) {
+                    int k = i * channels + c;
+                    mOutput[out + k] = (short) ((mTail[k] * (mOverlap - i) + mInput[base + k] * i) / mOverlap);
+                }
+            }
+        } else {
+            System.arraycopy(mInput, 0, mOutput, out, mOverlap * channels);
+        }
+        int middle = mSequence - 2 * mOverlap;
+        System.arraycopy(mInput, (offset + mOverlap) * channels, mOutput, out + mOverlap * channels,
+                middle * channels);
+        mOutputFrames += mSequence - mOverlap;
+        System.arraycopy(mInput, (offset + mSequence - mOverlap) * channels, mTail, 0, mOverlap * channels);
+        mHaveTail = true;
+        mSkipRemainder += mRate * (mSequence - mOverlap) - skip;
+        mTailEnd = offset + mSequence - skip;
+        dropInput(skip);
+    }
+
+    /**
+     * @return the offset within the search window where the input lines up best with the tail,
+     * by normalised cross-correlation.
+     */
+    private int bestOffset() {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int offset = 0; offset < mSeek; offset += COARSE_STEP) {
+            double score = similarity(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        int coarse = best;
+        int from = Math.max(0, coarse - COARSE_STEP + 1);
+        int to = Math.min(mSeek - 1, coarse + COARSE_STEP - 1);
+        for (int offset = from; offset <= to; offset++) {
+            if (offset == coarse) {
+                continue;
+            }
+            double score = similarity(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    private double similarity(int offset) {
+        long correlation = 0;
+        long energy = 0;
+        int base = offset * mChannels;
+        int length = mOverlap * mChannels;
+        for (int i = 0; i < length; i++) {
+            int sample = mInput[base + i];
+            correlation += mTail[i] * sample;
+            energy += sample * sample;
+        }
+        // the sign is kept so that anti-phase never wins
+        return (double) correlation * Math.abs(correlation) / (energy + 1);
+    }
+
+    private void emit(short[] source, int frame, int frames) {
+        System.arraycopy(source, frame * mChannels, mOutput, (mOutputStart + mOutputFrames) * mChannels,
+                frames * mChannels);
+        mOutputFrames += frames;
+    }
+
+    private void dropInput(int frames) {
+        mInputFrames -= frames;
+        System.arraycopy(mInput, frames * mChannels, mInput, 0, mInputFrames * mChannels);
+    }
+}
@@ -1,10 +1,11 @@
 package com.example.cw.mediacodecdemo;
 
 import android.media.MediaCodec;
-import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.util.Log;
@@ -14,49 +15,188 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class VideoPlayer {
 
     private static final String TAG = "VideoPlayer";
+    // frames due later than this are held on the decode thread instead of queued on the surface
+    private static final long MAX_RELEASE_LEAD_NS = 100000000L;
+    // how long an idle decode iteration waits for the codec
+    private static final long TIMEOUT_USEC = 10000;
+
+    /**
+     * Seek mode: snap to the nearest keyframe, whose frame is shown at once.
+     */
+    public static final int SEEK_MODE_FAST = 0;
+    /**
+     * Seek mode: decode from the previous keyframe and show exactly the frame at the target.
+     */
+    public static final int SEEK_MODE_EXACT = 1;
+
+    /**
+     * Fastest playback rate.  Above {@link TimeStretcher#MAX_RATE} the player scans: only
+     * keyframes are decoded and shown.
+     */
+    public static final float MAX_PLAYBACK_RATE = 32f;
 
     private File mFileSource;
     private Surface mOutputSurface;
     private FrameCallback mFrameCallback;
     private int mVideoWidth;
     private int mVideoHeight;
-    private MediaExtractor mMediaExtractor;
-    private MediaCodec mMediaCodec;
+    private SampleSource mSampleSource;
+    private MediaFormat mMediaFormat;
+    private volatile MediaCodec mMediaCodec;
+    private MediaCodec mPreparedCodec;
+    private StartupMetrics mStartupMetrics;
     private int trackIndex;
     private volatile boolean mIsStopRequested;
     private boolean mLoop;
-    private MediaCodec.BufferInfo mBufferInfo;
+    private long mLoopPeriodUs;
+    private Demuxer mDemuxer;
     private int fps;
+    private boolean mAsyncDecode;
+    private volatile Looper mAsyncLooper;
+    private AsyncDecodeEngine mAsyncEngine;
+    private SurfaceOutputSink mAsyncSink;
+    private final DecodeMetrics mDecodeMetrics = new DecodeMetrics();
+    private final PauseGate mPauseGate = new PauseGate();
+    private final PlaybackStats mStats = new PlaybackStats();
+    // decode thread only: release time, due time and expected vsync of the frame planned last
+    private long mPlannedRenderNs;
+    private long mPlannedDueNs;
+    private long mPlannedPresentNs;
+
+    //scheduling
+    private static HandlerThread sCallbackThread;
+    private PlaybackScheduler mScheduler;
+    private int mPriority = PlaybackScheduler.PRIORITY_VISIBLE;
+    private volatile PlaybackScheduler.Handle mScheduledHandle;
+    private ScheduledDecode mScheduledDecode;
+    private boolean mResumePending;
 
     //avsync
     private MediaTimeProvider mediaTimeProvider;
+    private SyncController mSyncController;
+    private SyncController mActiveSync;
+    private VsyncSource mVsyncSource;
+    private FramePresentationScheduler mPresentation;
+
+    //speed
+    private volatile float mRequestedRate = 1f;
+    // decode thread only
+    private float mRate = 1f;
+
+    //seek
+    private final KeyframeIndex mKeyframeIndex = new KeyframeIndex();
+    private final Object mSeekLock = new Object();
+    private long mPendingSeekUs = -1;
+    private int mPendingSeekMode;
+    private long mPendingSeekRequestNs;
+    private volatile Handler mAsyncHandler;
+    // decode thread only
+    private long mSkipUntilUs = -1;
+    private long mSeekTargetUs;
+    private int mSeekMode;
+    private long mSeekSourceUs;
+    private int mSeekSourceMode;
+    private volatile FrameCacheWarmer mFrameCacheWarmer;
 
     public VideoPlayer(File mFileSource, Surface mOutputSurface, FrameCallback mFrameCallback) {
         this.mFileSource = mFileSource;
         this.mOutputSurface = mOutputSurface;
         this.mFrameCallback = mFrameCallback;
-        mBufferInfo = new MediaCodec.BufferInfo();
         try {
-            mMediaExtractor = new MediaExtractor();
-            mMediaExtractor.setDataSource(mFileSource.toString());
-            trackIndex = selectTrack(mMediaExtractor);
+            MediaExtractor extractor = new MediaExtractor();
+            extractor.setDataSource(mFileSource.toString());
+            trackIndex = selectTrack(extractor);
             if (trackIndex < 0){
                 throw new RuntimeException("No Video track found in file: " + mFileSource);
             }
-            mMediaExtractor.selectTrack(trackIndex);
-            MediaFormat mediaFormat = mMediaExtractor.getTrackFormat(trackIndex);
-            mVideoWidth = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
-            mVideoHeight = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
-            Log.d(TAG, "VideoPlayer: width :" + mVideoWidth + ", height :"+ mVideoHeight);
+            extractor.selectTrack(trackIndex);
+            mSampleSource = new ExtractorSampleSource(extractor);
+            initFormat(extractor.getTrackFormat(trackIndex));
+            mLoopPeriodUs = Demuxer.durationOf(extractor);
+            startIndexing(mFileSource, trackIndex, false);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Plays the video track of a demuxer shared with the audio player.
+     */
+    public VideoPlayer(Demuxer demuxer, Surface mOutputSurface, FrameCallback mFrameCallback) {
+        this.mOutputSurface = mOutputSurface;
+        this.mFrameCallback = mFrameCallback;
+        trackIndex = demuxer.getVideoTrackIndex();
+        if (trackIndex < 0){
+            throw new RuntimeException("No Video track found in demuxer");
+        }
+        mDemuxer = demuxer;
+        mSampleSource = demuxer.getVideoSource();
+        initFormat(demuxer.getVideoFormat());
+        if (demuxer.getFile() != null){
+            startIndexing(demuxer.getFile(), trackIndex, demuxer.isMp4());
+        }
+    }
+
+    private void initFormat(MediaFormat mediaFormat){
+        mMediaFormat = mediaFormat;
+        mVideoWidth = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
+        mVideoHeight = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        Log.d(TAG, "VideoPlayer: width :" + mVideoWidth + ", height :"+ mVideoHeight);
+    }
+
+    /**
+     * Builds the keyframe index on a background thread with a second extractor, so opening the
+     * file is not delayed by a walk over the whole sample table.  Seeks issued before it is done
+     * fall back to the extractor's own sync-sample search.
+     *
+     * @param mp4 read the file with {@link Mp4Extractor}, which has the sample table at hand.
+     */
+    private void startIndexing(final File file, final int track, final boolean mp4){
+        Thread indexer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SampleSource source = null;
+                try {
+                    if (mp4){
+                        Mp4Extractor extractor = new Mp4Extractor(file);
+                        extractor.selectTrack(track);
+                        source = extractor;
+                    }else {
+                        MediaExtractor extractor = new MediaExtractor();
+                        source = new ExtractorSampleSource(extractor);
+                        extractor.setDataSource(file.toString());
+                        extractor.selectTrack(track);
+                    }
+                    mKeyframeIndex.scan(source);
+                    Log.d(TAG, "keyframe index: " + mKeyframeIndex.size() + " keyframes");
+                } catch (IOException e) {
+                    Log.w(TAG, "keyframe index failed", e);
+                } finally {
+                    if (source != null){
+                        source.release();
+                    }
+                }
+            }
+        }, "KeyframeIndexer");
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
+    /**
+     * @return the timeline for looping in this player, or null when playing once or when the
+     * shared demuxer does the looping.
+     */
+    private LoopTimeline newLoopTimeline(){
+        return mLoop && mDemuxer == null ? new LoopTimeline(mLoopPeriodUs) : null;
+    }
+
     private int selectTrack(MediaExtractor extractor){
         int numTracks = extractor.getTrackCount();
         for (int i=0; i<numTracks; i++){
@@ -77,132 +217,847 @@ public class VideoPlayer {
      * frameCallback.
      */
     private void play() throws IOException{
-        if (!mFileSource.canRead()){
+        if (mFileSource != null && !mFileSource.canRead()){
             throw new FileNotFoundException("can not read video file!");
         }
-        MediaFormat mediaFormat = mMediaExtractor.getTrackFormat(trackIndex);
+        MediaFormat mediaFormat = mMediaFormat;
         String mime = mediaFormat.getString(MediaFormat.KEY_MIME);
-        fps = mediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
-        String codecName = new MediaCodecList(MediaCodecList.ALL_CODECS).findDecoderForFormat(mediaFormat);
-        if (codecName == null){
-            Log.d(TAG, "play: can not find suitable codec!");
+        setUpSync();
+        if (mAsyncDecode){
+            playAsync(mediaFormat, mime);
+            return;
+        }
+        long setupStartNs = System.nanoTime();
+        mMediaCodec = takeDecoder(mediaFormat);
+        try {
+            mMediaCodec.configure(mediaFormat, mOutputSurface, null, 0);
+        } catch (RuntimeException e) {
+            CodecManager.get().discard(mMediaCodec);
+            throw e;
+        }
+        doExtract(mMediaCodec, setupStartNs);
+    }
+
+    private void setUpSync(){
+        fps = mMediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+        // the requested rate is applied to the new engine and sync state by applyRate
+        mRate = 1f;
+        mActiveSync = mSyncController;
+        if (mActiveSync == null && mediaTimeProvider != null){
+            mActiveSync = new ThresholdSyncController(mediaTimeProvider, NanoClock.SYSTEM);
+        }
+        if (mVsyncSource != null){
+            mPresentation = new FramePresentationScheduler(mVsyncSource);
+            mPresentation.setFrameRate(fps);
         }
-        mMediaCodec = MediaCodec.createDecoderByType(mime);
-        mMediaCodec.configure(mediaFormat, mOutputSurface, null, 0);
-        mMediaCodec.start();
-        doExtract(mMediaExtractor, mMediaCodec, trackIndex, mFrameCallback);
     }
 
     /**
-     * Work loop.  We execute here until we run out of video or are told to stop.
+     * Forgets the sync and cadence state, after a seek or a resume.
      */
-    private void doExtract(MediaExtractor extractor, MediaCodec decoder, int tractIndex, FrameCallback frameCallback){
-        if (fps == 0){
-            fps = 30;
+    private void resetSync(){
+        if (mActiveSync != null){
+            mActiveSync.reset();
+        }
+        if (mPresentation != null){
+            mPresentation.reset();
         }
-        final int TIMEOUT_USEC = 10000;
+    }
 
-        boolean outputDone = false;
-        boolean inputDone = false;
+    /**
+     * Creates the decoder ahead of {@link #play}, e.g. while the surface is still being created.
+     * It is configured when playback starts.  Hand it back with {@link #releaseDecoder} if
+     * playback never starts.
+     */
+    public void prepareDecoder() throws IOException{
+        if (mPreparedCodec == null){
+            mPreparedCodec = CodecManager.get().acquireDecoder(mMediaFormat);
+        }
+    }
 
-        long startMs = System.currentTimeMillis();
-        long startNs = System.nanoTime();
-        while (!outputDone){
-            if (mIsStopRequested){
+    /**
+     * Returns a decoder created by {@link #prepareDecoder} that playback did not take.
+     */
+    public void releaseDecoder(){
+        MediaCodec codec = mPreparedCodec;
+        mPreparedCodec = null;
+        if (codec != null){
+            CodecManager.get().recycle(codec);
+        }
+    }
+
+    private MediaCodec takeDecoder(MediaFormat mediaFormat) throws IOException{
+        MediaCodec codec = mPreparedCodec;
+        mPreparedCodec = null;
+        return codec != null ? codec : CodecManager.get().acquireDecoder(mediaFormat);
+    }
+
+    /**
+     * Asynchronous variant of {@link #play()}: the player thread becomes the looper that receives
+     * the codec callbacks, and {@link AsyncDecodeEngine} feeds and drains the codec as events
+     * arrive instead of polling it.
+     */
+    private void playAsync(MediaFormat mediaFormat, String mime) throws IOException{
+        Looper.prepare();
+        Looper looper = Looper.myLooper();
+        long setupStartNs = System.nanoTime();
+        MediaCodecAdapter codec = new MediaCodecAdapter(takeDecoder(mediaFormat), new Handler(looper));
+        mMediaCodec = codec.getMediaCodec();
+        mAsyncSink = new SurfaceOutputSink(mFrameCallback);
+        AsyncDecodeEngine engine = new AsyncDecodeEngine(codec, mSampleSource, mAsyncSink, mDecodeMetrics);
+        engine.setStats(mStats);
+        engine.setLoop(newLoopTimeline());
+        codec.setCallback(engine);
+        try {
+            codec.configure(mediaFormat, mOutputSurface);
+        } catch (RuntimeException e) {
+            CodecManager.get().discard(mMediaCodec);
+            throw e;
+        }
+        engine.start();
+        mDecodeMetrics.setCodecSetupNs(System.nanoTime() - setupStartNs);
+        mAsyncEngine = engine;
+        mAsyncHandler = new Handler(looper);
+        // a seek or rate requested before the handler existed
+        mAsyncHandler.post(mAsyncRateRunnable);
+        mAsyncHandler.post(mAsyncSeekRunnable);
+        mAsyncLooper = looper;
+        if (!mIsStopRequested){
+            Looper.loop();
+        }
+        mAsyncLooper = null;
+        mAsyncHandler = null;
+        mAsyncEngine = null;
+        mAsyncSink = null;
+        Log.d(TAG, "playAsync: " + mDecodeMetrics + " presentation: " + mPresentation
+                + " stats: " + mStats.snapshot());
+        if (engine.getState() == AsyncDecodeEngine.STATE_ERROR){
+            CodecManager.get().discard(mMediaCodec);
+        }else {
+            CodecManager.get().recycle(mMediaCodec);
+        }
+        mMediaCodec = null;
+        mSampleSource.release();
+    }
+
+    /**
+     * Renders the output of {@link AsyncDecodeEngine} to the surface, paced on the
+     * presentation time.
+     */
+    private class SurfaceOutputSink implements AsyncDecodeEngine.OutputSink{
+
+        private final FrameCallback mCallback;
+        private final boolean mDeferRelease;
+        private long mStartNs = System.nanoTime();
+        private long mLastRenderedUs = -1;
+        private boolean mFirstFrameShown;
+        // deferred release: decoded frames waiting until they are close to due
+        private final ArrayDeque<HeldFrame> mHeld = new ArrayDeque<>();
+        private final ArrayDeque<HeldFrame> mFreeHeld = new ArrayDeque<>();
+        private Codec mHeldCodec;
+        private boolean mFinished;
+
+        SurfaceOutputSink(FrameCallback callback) {
+            this(callback, false);
+        }
+
+        /**
+         * @param deferRelease if true, frames that are not due yet are kept and released later
+         *                     by {@link #releaseDueFrames} instead of waiting for them on the
+         *                     decode thread, which a shared thread must not do.
+         */
+        SurfaceOutputSink(FrameCallback callback, boolean deferRelease) {
+            this.mCallback = callback;
+            this.mDeferRelease = deferRelease;
+        }
+
+        @Override
+        public void onOutputBuffer(Codec codec, int index, long presentationTimeUs, int size, int flags) {
+            if (size == 0){
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+            if (mDeferRelease){
+                hold(codec, index, presentationTimeUs);
                 return;
             }
+            if (mPauseGate.isPaused() && mPauseGate.awaitResume()){
+                if (mIsStopRequested){
+                    codec.releaseOutputBuffer(index, false);
+                    return;
+                }
+                onResumed(presentationTimeUs);
+            }
+            if (releaseFrame(codec, index, presentationTimeUs, mStartNs, mCallback)){
+                onRendered(presentationTimeUs);
+            }
+        }
 
-            //feed more data to the decoder
-            if (!inputDone){
-                int inputBufferIndex = decoder.dequeueInputBuffer(TIMEOUT_USEC);
-                if (inputBufferIndex > 0){
-                    ByteBuffer inputBuffer = decoder.getInputBuffer(inputBufferIndex);
-                    // Read the sample data into the ByteBuffer.  This neither respects nor
-                    // updates inputBuf's position, limit, etc.
-                    int chunkSize = extractor.readSampleData(inputBuffer, 0);
-                    if (chunkSize < 0){
-                        //End of Stream
-                        decoder.queueInputBuffer(inputBufferIndex, 0,0,0L,MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        inputDone = true;
-                        Log.d(TAG, "doExtract: " + "inputDone");
-                    }else {
-                        if (extractor.getSampleTrackIndex() != tractIndex){
-                            Log.d(TAG, "doExtract: " + "get wrong trackIndex!!!");
-                        }
-                        long presentationTimeUs = extractor.getSampleTime();
-                        decoder.queueInputBuffer(inputBufferIndex, 0, chunkSize, presentationTimeUs, 0);
-                        extractor.advance();
-                    }
-                }else {
-                    Log.d(TAG, "doExtract: " + " buffer index not available");
+        private void onRendered(long presentationTimeUs) {
+            mLastRenderedUs = presentationTimeUs;
+            if (!mFirstFrameShown){
+                mFirstFrameShown = true;
+                if (mStartupMetrics != null){
+                    mStartupMetrics.onFirstFrame(System.nanoTime());
                 }
             }
+        }
 
-            if (!outputDone) {
-                int decoderStatus = decoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-                if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // no output available yet
-                    Log.d(TAG, "no output from decoder available");
-                } else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    MediaFormat newFormat = decoder.getOutputFormat();
-                    Log.d(TAG, "decoder output format changed: " + newFormat);
-                } else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED){
-                    Log.d(TAG, "doExtract: output buffers changed");
-                } else if (decoderStatus < 0) {
-                    throw new RuntimeException(
-                            "unexpected result from decoder.dequeueOutputBuffer: " +
-                                    decoderStatus);
-                } else { // decoderStatus >= 0
-                    boolean doLoop = false;
-                    Log.d(TAG, "surface decoder given buffer " + decoderStatus +
-                            " (size=" + mBufferInfo.size + ")");
-                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        Log.d(TAG, "output EOS");
-                        if (mLoop) {
-                            doLoop = true;
-                        } else {
-                            outputDone = true;
-                        }
-                    }
+        private void hold(Codec codec, int index, long presentationTimeUs) {
+            int action = planFrame(presentationTimeUs, mStartNs);
+            if (action == SyncController.ACTION_DROP){
+                codec.releaseOutputBuffer(index, false);
+                EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_FRAME_DROPPED, presentationTimeUs, 0);
+                mStats.onFrameDropped();
+                return;
+            }
+            HeldFrame frame = mFreeHeld.poll();
+            if (frame == null){
+                frame = new HeldFrame();
+            }
+            frame.index = index;
+            frame.presentationTimeUs = presentationTimeUs;
+            frame.action = action;
+            frame.renderTimeNs = mPlannedRenderNs;
+            frame.dueNs = mPlannedDueNs;
+            frame.presentNs = mPlannedPresentNs;
+            mHeld.add(frame);
+            mHeldCodec = codec;
+            if (releaseDueFrames() >= 0 && mScheduledDecode != null){
+                mScheduledDecode.schedule(false);
+            }
+        }
 
-                    boolean doRender = (mBufferInfo.size != 0);
+        /**
+         * Releases the held frames that are close enough to due, unless paused.
+         *
+         * @return when the next held frame can be released, or -1 if none is held.
+         */
+        long releaseDueFrames() {
+            long nowNs = System.nanoTime();
+            while (!mHeld.isEmpty()){
+                HeldFrame frame = mHeld.peek();
+                long releaseNs = frame.renderTimeNs - MAX_RELEASE_LEAD_NS;
+                if (mPauseGate.isPaused()){
+                    return nowNs + MAX_RELEASE_LEAD_NS;
+                }
+                if (releaseNs > nowNs){
+                    return releaseNs;
+                }
+                mHeld.poll();
+                renderFrame(mHeldCodec, frame.index, frame.presentationTimeUs, frame.action, frame.renderTimeNs,
+                        mCallback);
+                recordFrame(frame.presentationTimeUs, frame.action, frame.dueNs, frame.presentNs);
+                onRendered(frame.presentationTimeUs);
+                mFreeHeld.add(frame);
+            }
+            return -1;
+        }
 
-                    if (doRender && frameCallback != null) {
-                        frameCallback.preRender(mBufferInfo.presentationTimeUs);
-                    }
-//                    decodeDelay(mBufferInfo, startMs);
-//                    decoder.releaseOutputBuffer(decoderStatus, doRender);
-
-                    //
-                    if (mediaTimeProvider != null){
-                        long nowUs = mediaTimeProvider.getAudioTimeUs();
-                        long lateUs = mBufferInfo.presentationTimeUs - nowUs;
-                        Log.d(TAG, "doExtract: pts = " + mBufferInfo.presentationTimeUs + startMs *1000);
-                        Log.d(TAG, "doExtract: currUs - nowUs =" + lateUs);
-//                        if (lateUs > 50000){
-//                            decoder.releaseOutputBuffer(decoderStatus, false);
-//                            continue;
-//                        }
-                    }
-                    decoder.releaseOutputBuffer(decoderStatus, mBufferInfo.presentationTimeUs*1000 + startNs);
+        boolean hasHeldFrames() {
+            return !mHeld.isEmpty();
+        }
 
-                    if (doRender && frameCallback != null) {
-                        frameCallback.postRender();
-                    }
+        /**
+         * Gives the held frames back to the codec unshown, e.g. before a flush.
+         */
+        void dropHeldFrames() {
+            HeldFrame frame;
+            while ((frame = mHeld.poll()) != null){
+                mHeldCodec.releaseOutputBuffer(frame.index, false);
+                mFreeHeld.add(frame);
+            }
+        }
+
+        /**
+         * Shows the first held frame now and paces the rest from it, after a pause in deferred
+         * mode.
+         */
+        void resumeHeldFrames() {
+            HeldFrame first = mHeld.peek();
+            if (first == null){
+                return;
+            }
+            onResumed(first.presentationTimeUs);
+            replanHeldFrames();
+        }
+
+        /**
+         * Keeps pacing on from the current position after the rate changed from
+         * {@code oldRate}.
+         */
+        void changeRate(float oldRate) {
+            long positionUs = (long) ((System.nanoTime() - mStartNs) / 1000 * (double) oldRate);
+            rebase(positionUs);
+            replanHeldFrames();
+        }
+
+        /**
+         * Paces the held frames on wall time from {@link #mStartNs}.
+         */
+        private void replanHeldFrames() {
+            for (HeldFrame frame : mHeld){
+                frame.action = SyncController.ACTION_RENDER_AT;
+                frame.renderTimeNs = alignToVsync(dueNs(frame.presentationTimeUs, mStartNs));
+                frame.dueNs = mPlannedDueNs;
+                frame.presentNs = mPlannedPresentNs;
+            }
+        }
+
+        /**
+         * The decode thread was parked holding the frame at {@code presentationTimeUs}, which is
+         * shown straight away.
+         */
+        private void onResumed(long presentationTimeUs) {
+            mDecodeMetrics.onResume(mPauseGate.getResumeRequestNs());
+            resetSync();
+            rebase(presentationTimeUs);
+        }
+
+        /**
+         * Paces from now on as if {@code timeUs} was due at this moment.
+         */
+        void rebase(long timeUs) {
+            mStartNs = System.nanoTime() - (long) (timeUs * 1000.0 / mRate);
+        }
+
+        @Override
+        public void onLoopReset() {
+            // timestamps keep increasing across the loop, so pacing carries on unchanged
+            if (mCallback != null){
+                mCallback.loopReset();
+            }
+        }
+
+        @Override
+        public void onFinished(Exception error) {
+            if (error != null){
+                Log.e(TAG, "decode failed", error);
+            }
+            mFinished = true;
+            PlaybackScheduler.Handle handle = mScheduledHandle;
+            if (handle != null){
+                handle.wake();
+                return;
+            }
+            Looper looper = Looper.myLooper();
+            if (mAsyncDecode && looper != null){
+                looper.quitSafely();
+            }
+        }
+    }
+
+    private static final class HeldFrame{
+        int index;
+        long presentationTimeUs;
+        int action;
+        long renderTimeNs;
+        long dueNs;
+        long presentNs;
+    }
+
+    /**
+     * Applies a seek on the looper thread of the asynchronous engine.  Posted once per
+     * {@link #seekTo} call; posts that find the seek already taken do nothing.
+     */
+    private final Runnable mAsyncSeekRunnable = new Runnable() {
+        @Override
+        public void run() {
+            AsyncDecodeEngine engine = mAsyncEngine;
+            if (engine == null || !takePendingSeek()){
+                return;
+            }
+            applySeek(engine, mAsyncSink);
+        }
+    };
+
+    /**
+     * Applies a rate change on the looper thread of the asynchronous engine.
+     */
+    private final Runnable mAsyncRateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            AsyncDecodeEngine engine = mAsyncEngine;
+            if (engine != null){
+                applyRate(engine, mAsyncSink);
+            }
+        }
+    };
+
+    /**
+     * Switches to the playback rate requested last, if it changed.  Frames are paced on from the
+     * current position at the new rate.  Leaving a scan restarts decoding at the last keyframe
+     * fed, since the frames after it refer to frames that were skipped.
+     */
+    private void applyRate(AsyncDecodeEngine engine, SurfaceOutputSink sink){
+        float rate = mRequestedRate;
+        float oldRate = mRate;
+        if (rate == oldRate){
+            return;
+        }
+        mRate = rate;
+        boolean scanning = isScanning(rate);
+        engine.setKeyframesOnly(scanning);
+        if (mActiveSync != null){
+            mActiveSync.setRate(rate);
+        }
+        if (mPresentation != null){
+            // keyframes come at no steady rate
+            mPresentation.setFrameRate(scanning ? 0 : fps * rate);
+        }
+        resetSync();
+        long keyframeUs = engine.getLastSampleTimeUs();
+        if (isScanning(oldRate) && !scanning && keyframeUs >= 0){
+            sink.dropHeldFrames();
+            engine.seekTo(keyframeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC, -1);
+            sink.mLastRenderedUs = -1;
+            sink.rebase(keyframeUs);
+            return;
+        }
+        sink.changeRate(oldRate);
+    }
+
+    private static boolean isScanning(float rate){
+        return rate > TimeStretcher.MAX_RATE;
+    }
+
+    private void applySeek(AsyncDecodeEngine engine, SurfaceOutputSink sink){
+        sink.dropHeldFrames();
+        if (planSeek(engine.getLastSampleTimeUs(), sink.mLastRenderedUs)){
+            engine.seekTo(mSeekSourceUs, mSeekSourceMode, mSkipUntilUs);
+            sink.mLastRenderedUs = -1;
+        }else {
+            engine.skipUntil(mSkipUntilUs);
+        }
+        sink.rebase(mSeekTargetUs);
+    }
+
+    /**
+     * Moves the pending seek, if any, to the decode thread's fields, and resets the state that
+     * depends on the old position.
+     *
+     * @return false if no seek was pending.
+     */
+    private boolean takePendingSeek(){
+        long requestNs;
+        synchronized (mSeekLock){
+            if (mPendingSeekUs < 0){
+                return false;
+            }
+            mSeekTargetUs = mPendingSeekUs;
+            mSeekMode = mPendingSeekMode;
+            requestNs = mPendingSeekRequestNs;
+            mPendingSeekUs = -1;
+        }
+        mDecodeMetrics.onSeek(requestNs);
+        resetSync();
+        return true;
+    }
+
+    /**
+     * Works out where the source has to be repositioned for the seek just taken, filling in
+     * {@link #mSeekSourceUs} and {@link #mSeekSourceMode}.  In fast mode the target snaps to
+     * the nearest keyframe.
+     *
+     * @param lastQueuedUs   source time of the last sample given to the codec, or -1.
+     * @param lastRenderedUs presentation time of the last frame shown, or -1.
+     * @return true if the source must be repositioned and the codec flushed, false if the
+     * target is in the group of pictures being decoded and can be reached by decoding on.
+     */
+    private boolean planSeek(long lastQueuedUs, long lastRenderedUs){
+        long targetUs = mSeekTargetUs;
+        if (mSeekMode == SEEK_MODE_FAST){
+            long keyframeUs = mKeyframeIndex.closest(targetUs);
+            mSkipUntilUs = -1;
+            if (keyframeUs >= 0){
+                mSeekTargetUs = keyframeUs;
+                mSeekSourceUs = keyframeUs;
+                mSeekSourceMode = MediaExtractor.SEEK_TO_PREVIOUS_SYNC;
+            }else {
+                mSeekSourceUs = targetUs;
+                mSeekSourceMode = MediaExtractor.SEEK_TO_CLOSEST_SYNC;
+            }
+            return true;
+        }
+        long keyframeUs = mKeyframeIndex.floor(targetUs);
+        mSkipUntilUs = targetUs;
+        mSeekSourceUs = keyframeUs >= 0 ? keyframeUs : targetUs;
+        mSeekSourceMode = MediaExtractor.SEEK_TO_PREVIOUS_SYNC;
+        return keyframeUs < 0 || targetUs < lastRenderedUs || lastQueuedUs < keyframeUs
+                || mKeyframeIndex.floor(lastQueuedUs) != keyframeUs;
+    }
+
+    /**
+     * Releases a decoded frame to the surface.  With a sync controller the controller decides
+     * whether and when the frame is shown; otherwise frames are paced on wall time from
+     * {@code startNs}.
+     *
+     * @return true if the frame was rendered, false if it was dropped.
+     */
+    private boolean releaseFrame(Codec codec, int index, long presentationTimeUs, long startNs,
+                                 FrameCallback frameCallback){
+        int action = planFrame(presentationTimeUs, startNs);
+        if (action == SyncController.ACTION_DROP){
+            codec.releaseOutputBuffer(index, false);
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_FRAME_DROPPED, presentationTimeUs, 0);
+            mStats.onFrameDropped();
+            return false;
+        }
+        holdUntil(mPlannedRenderNs);
+        renderFrame(codec, index, presentationTimeUs, action, mPlannedRenderNs, frameCallback);
+        recordFrame(presentationTimeUs, action, mPlannedDueNs, mPlannedPresentNs);
+        return true;
+    }
+
+    /**
+     * Decides whether and when a decoded frame is shown, leaving the time in
+     * {@link #mPlannedRenderNs}, and the due time and vsync for the statistics in
+     * {@link #mPlannedDueNs} and {@link #mPlannedPresentNs}.
+     *
+     * @return one of the {@code SyncController.ACTION_*} values.
+     */
+    private int planFrame(long presentationTimeUs, long startNs){
+        SyncController sync = mActiveSync;
+        if (sync == null){
+            mPlannedRenderNs = alignToVsync(dueNs(presentationTimeUs, startNs));
+            return SyncController.ACTION_RENDER_AT;
+        }
+        int action = sync.onFrame(presentationTimeUs);
+        if (action == SyncController.ACTION_RENDER_AT){
+            mPlannedRenderNs = alignToVsync(sync.getRenderTimeNs());
+        }else {
+            mPlannedRenderNs = sync.getRenderTimeNs();
+            mPlannedDueNs = mPlannedRenderNs;
+            mPlannedPresentNs = mPlannedRenderNs;
+        }
+        return action;
+    }
 
-                    if (doLoop) {
-                        Log.d(TAG, "Reached EOS, looping");
-                        extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-                        inputDone = false;
-                        decoder.flush();    // reset decoder state
-                        frameCallback.loopReset();
+    /**
+     * @return when a frame is due when paced on wall time from {@code startNs}, at the playback
+     * rate.
+     */
+    private long dueNs(long presentationTimeUs, long startNs){
+        return startNs + (long) (presentationTimeUs * 1000.0 / mRate);
+    }
+
+    /**
+     * @return the release time that gets a frame due at {@code renderTimeNs} onto the nearest
+     * vsync, or {@code renderTimeNs} itself without a vsync source.
+     */
+    private long alignToVsync(long renderTimeNs){
+        FramePresentationScheduler presentation = mPresentation;
+        mPlannedDueNs = renderTimeNs;
+        mPlannedPresentNs = renderTimeNs;
+        if (presentation == null){
+            return renderTimeNs;
+        }
+        long releaseNs = presentation.schedule(renderTimeNs, System.nanoTime());
+        if (presentation.getPresentationTimeNs() >= 0){
+            mPlannedPresentNs = presentation.getPresentationTimeNs();
+        }
+        return releaseNs;
+    }
+
+    /**
+     * Records a frame just released to the surface in the statistics.  A frame released after
+     * its vsync is taken to be shown now; its drift is measured against the master clock, unless
+     * the two are on different timelines around a seek or loop.
+     */
+    private void recordFrame(long presentationTimeUs, int action, long dueNs, long presentNs){
+        long nowNs = System.nanoTime();
+        if (action == SyncController.ACTION_RENDER_NOW || presentNs < nowNs){
+            presentNs = nowNs;
+        }
+        long driftUs = PlaybackStats.NO_DRIFT;
+        MediaTimeProvider master = mediaTimeProvider;
+        long masterUs = master != null ? master.getAudioTimeUs() : -1;
+        if (masterUs >= 0){
+            long lagUs = masterUs + (presentNs - nowNs) / 1000 - presentationTimeUs;
+            if (Math.abs(lagUs) <= ThresholdSyncController.DEFAULT_DISCONTINUITY_US){
+                driftUs = lagUs;
+            }
+        }
+        mStats.onFrameRendered((presentNs - dueNs) / 1000, driftUs);
+    }
+
+    private void renderFrame(Codec codec, int index, long presentationTimeUs, int action, long renderTimeNs,
+                             FrameCallback frameCallback){
+        if (frameCallback != null){
+            frameCallback.preRender(presentationTimeUs);
+        }
+        if (action == SyncController.ACTION_RENDER_NOW){
+            codec.releaseOutputBuffer(index, true);
+        }else {
+            codec.releaseOutputBuffer(index, renderTimeNs);
+        }
+        EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_FRAME_RENDERED, presentationTimeUs,
+                renderTimeNs);
+        if (frameCallback != null){
+            frameCallback.postRender();
+        }
+    }
+
+    /**
+     * The surface only accepts release timestamps up to about a second ahead, so frames that
+     * are far too early wait here until they are close to due.
+     */
+    private void holdUntil(long renderTimeNs){
+        long holdNs = renderTimeNs - MAX_RELEASE_LEAD_NS - System.nanoTime();
+        if (holdNs > 0){
+            try {
+                Thread.sleep(holdNs / 1000000, (int) (holdNs % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Work loop.  We execute here until we run out of video or are told to stop.
+     * <p>
+     * Polls the codec through a {@link SyncCodecDriver}, which keeps every input slot filled and
+     * drains all ready output each iteration, and shares the feeding, looping, seeking and
+     * rendering logic with the asynchronous engine.
+     */
+    private void doExtract(MediaCodec decoder, long setupStartNs){
+        MediaCodecAdapter codec = new MediaCodecAdapter(decoder, null);
+        SurfaceOutputSink sink = new SurfaceOutputSink(mFrameCallback);
+        AsyncDecodeEngine engine = new AsyncDecodeEngine(codec, mSampleSource, sink, mDecodeMetrics);
+        engine.setStats(mStats);
+        engine.setLoop(newLoopTimeline());
+        SyncCodecDriver driver = new SyncCodecDriver(codec, engine);
+        engine.start();
+        mDecodeMetrics.setCodecSetupNs(System.nanoTime() - setupStartNs);
+        while (!mIsStopRequested){
+            applyRate(engine, sink);
+            if (takePendingSeek()){
+                applySeek(engine, sink);
+            }
+            if (!driver.step(TIMEOUT_USEC)){
+                break;
+            }
+        }
+        Log.d(TAG, "doExtract: " + mDecodeMetrics + " presentation: " + mPresentation
+                + " stats: " + mStats.snapshot());
+        if (engine.getState() == AsyncDecodeEngine.STATE_ERROR){
+            CodecManager.get().discard(decoder);
+        }else {
+            CodecManager.get().recycle(decoder);
+        }
+        mMediaCodec = null;
+        mSampleSource.release();
+    }
+
+    /**
+     * Shared looper for the codec callbacks of every scheduled player in asynchronous mode.
+     */
+    private static synchronized Looper callbackLooper(){
+        if (sCallbackThread == null){
+            sCallbackThread = new HandlerThread("PlaybackCallbacks");
+            sCallbackThread.start();
+        }
+        return sCallbackThread.getLooper();
+    }
+
+    /**
+     * Playback as a {@link PlaybackScheduler.Job}.  Polled decoders are stepped without
+     * blocking: frames not yet due are held in the sink and the job reports idle instead of
+     * sleeping, and a paused job parks.  Asynchronous decoders run on the shared callback looper
+     * and the job only wakes to finish.
+     */
+    private class ScheduledDecode implements PlaybackScheduler.Job, Runnable{
+
+        private final PlayTask mTask;
+        private MediaCodecAdapter mCodec;
+        private SurfaceOutputSink mSink;
+        private AsyncDecodeEngine mEngine;
+        private SyncCodecDriver mDriver;
+        private Handler mHandler;
+
+        ScheduledDecode(PlayTask task) {
+            this.mTask = task;
+        }
+
+        @Override
+        public boolean start() throws IOException {
+            long setupStartNs = System.nanoTime();
+            MediaCodec decoder = mPreparedCodec;
+            mPreparedCodec = null;
+            if (decoder == null){
+                // the worker is shared: come back later rather than wait for a decoder
+                decoder = CodecManager.get().tryAcquireDecoder(mMediaFormat);
+                if (decoder == null){
+                    return false;
+                }
+            }
+            setUpSync();
+            mMediaCodec = decoder;
+            mSink = new SurfaceOutputSink(mFrameCallback, true);
+            if (mAsyncDecode){
+                mHandler = new Handler(callbackLooper());
+                mCodec = new MediaCodecAdapter(decoder, mHandler);
+            }else {
+                mCodec = new MediaCodecAdapter(decoder, null);
+            }
+            mEngine = new AsyncDecodeEngine(mCodec, mSampleSource, mSink, mDecodeMetrics);
+            mEngine.setStats(mStats);
+            mEngine.setLoop(newLoopTimeline());
+            if (mAsyncDecode){
+                mCodec.setCallback(mEngine);
+            }else {
+                mDriver = new SyncCodecDriver(mCodec, mEngine);
+            }
+            try {
+                mCodec.configure(mMediaFormat, mOutputSurface);
+            } catch (RuntimeException e) {
+                CodecManager.get().discard(decoder);
+                mMediaCodec = null;
+                mEngine = null;
+                throw e;
+            }
+            mEngine.start();
+            mDecodeMetrics.setCodecSetupNs(System.nanoTime() - setupStartNs);
+            if (mAsyncDecode){
+                mAsyncEngine = mEngine;
+                mAsyncSink = mSink;
+                mAsyncHandler = mHandler;
+                mHandler.post(mAsyncRateRunnable);
+                mHandler.post(mAsyncSeekRunnable);
+            }
+            return true;
+        }
+
+        @Override
+        public int step() {
+            if (mIsStopRequested){
+                return PlaybackScheduler.STEP_DONE;
+            }
+            int state = mEngine.getState();
+            boolean ended = state == AsyncDecodeEngine.STATE_FINISHED || state == AsyncDecodeEngine.STATE_ERROR;
+            if (mAsyncDecode){
+                return ended && !mSink.hasHeldFrames() ? PlaybackScheduler.STEP_DONE : PlaybackScheduler.STEP_PARKED;
+            }
+            if (mPauseGate.isPaused()){
+                mResumePending = true;
+                return PlaybackScheduler.STEP_PARKED;
+            }
+            if (mResumePending){
+                mResumePending = false;
+                mSink.resumeHeldFrames();
+            }
+            applyRate(mEngine, mSink);
+            if (takePendingSeek()){
+                applySeek(mEngine, mSink);
+            }
+            mSink.releaseDueFrames();
+            if (mSink.hasHeldFrames()){
+                // the codec has few output buffers; let the held ones go before taking more
+                return mDriver.step(0) && mDriver.madeProgress()
+                        ? PlaybackScheduler.STEP_BUSY : PlaybackScheduler.STEP_IDLE;
+            }
+            if (ended || !mDriver.step(0)){
+                return PlaybackScheduler.STEP_DONE;
+            }
+            return mDriver.madeProgress() ? PlaybackScheduler.STEP_BUSY : PlaybackScheduler.STEP_IDLE;
+        }
+
+        /**
+         * Releases the frames held by the sink as they come due, on the callback looper.
+         */
+        @Override
+        public void run() {
+            mHandler.removeCallbacks(this);
+            if (mPauseGate.isPaused()){
+                return;
+            }
+            if (mResumePending){
+                mResumePending = false;
+                mSink.resumeHeldFrames();
+            }
+            long nextNs = mSink.releaseDueFrames();
+            if (nextNs >= 0){
+                mHandler.postDelayed(this, Math.max(1, (nextNs - System.nanoTime()) / 1000000));
+            }else if (mSink.mFinished){
+                wakeScheduled();
+            }
+        }
+
+        /**
+         * Asks for {@link #run} after a resume or a newly held frame.
+         */
+        void schedule(boolean resumed) {
+            Handler handler = mHandler;
+            if (handler == null){
+                return;
+            }
+            if (resumed){
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResumePending = true;
+                        ScheduledDecode.this.run();
                     }
+                });
+            }else {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void release(Exception error) {
+            if (error != null){
+                Log.e(TAG, "scheduled decode failed", error);
+            }
+            if (mEngine == null){
+                // start() failed, or the job was cancelled before it got a decoder
+                releaseDecoder();
+                finish();
+                return;
+            }
+            if (!mAsyncDecode){
+                mSink.dropHeldFrames();
+                finishDecoder();
+                return;
+            }
+            // the codec is only touched on its callback looper
+            final CountDownLatch released = new CountDownLatch(1);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mHandler.removeCallbacks(ScheduledDecode.this);
+                    mAsyncEngine = null;
+                    mAsyncSink = null;
+                    mAsyncHandler = null;
+                    mSink.dropHeldFrames();
+                    finishDecoder();
+                    released.countDown();
                 }
+            });
+            try {
+                released.await(TIMEOUT_USEC * 100, TimeUnit.MICROSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void finishDecoder() {
+            Log.d(TAG, "scheduled decode: " + mDecodeMetrics + " presentation: " + mPresentation
+                    + " stats: " + mStats.snapshot());
+            if (mEngine.getState() == AsyncDecodeEngine.STATE_ERROR){
+                CodecManager.get().discard(mMediaCodec);
+            }else {
+                CodecManager.get().recycle(mMediaCodec);
             }
+            mMediaCodec = null;
+            finish();
+        }
+
+        private void finish() {
+            mSampleSource.release();
+            mScheduledHandle = null;
+            mTask.onStopped();
         }
-        mMediaCodec.stop();
-        mMediaCodec.release();
-        mMediaExtractor.release();
     }
 
     private void decodeDelay(MediaCodec.BufferInfo bufferInfo, long startMs){
@@ -221,6 +1076,44 @@ public class VideoPlayer {
         this.mediaTimeProvider = mediaTimeProvider;
     }
 
+    /**
+     * Overrides how frames are synchronised to the media time provider.  By default a
+     * {@link ThresholdSyncController} is used whenever a media time provider is set.  Must be
+     * set before playback starts.
+     */
+    public void setSyncController(SyncController syncController) {
+        this.mSyncController = syncController;
+    }
+
+    /**
+     * Aligns frame releases to the vsyncs of {@code vsyncSource}, see
+     * {@link FramePresentationScheduler}.  Must be set before playback starts.
+     */
+    public void setVsyncSource(VsyncSource vsyncSource) {
+        this.mVsyncSource = vsyncSource;
+    }
+
+    /**
+     * Sets the surface to render to, for a player created before its surface was available, or
+     * to switch to a new surface while paused.
+     */
+    public void setOutputSurface(Surface outputSurface){
+        MediaCodec codec = mMediaCodec;
+        if (codec != null && outputSurface != null && outputSurface != mOutputSurface){
+            // the surface was recreated while paused; keep the configured decoder
+            codec.setOutputSurface(outputSurface);
+        }
+        this.mOutputSurface = outputSurface;
+    }
+
+    /**
+     * Reports the first frame shown to {@code startupMetrics}.  Must be set before playback
+     * starts.
+     */
+    public void setStartupMetrics(StartupMetrics startupMetrics){
+        this.mStartupMetrics = startupMetrics;
+    }
+
     public int getVideoWidth(){
         return mVideoWidth;
     }
@@ -231,13 +1124,178 @@ public class VideoPlayer {
 
     public void requestStop(){
         mIsStopRequested = true;
+        mPauseGate.release();
+        mKeyframeIndex.cancel();
+        // a job still waiting for a decoder is dropped before it ever creates one
+        PlaybackScheduler.Handle handle = mScheduledHandle;
+        if (handle != null){
+            handle.cancel();
+        }
+        Looper looper = mAsyncLooper;
+        if (looper != null){
+            looper.quitSafely();
+        }
+    }
+
+    /**
+     * Pauses playback, keeping the decoder configured and the source positioned.  The decode
+     * thread parks holding the next decoded frame, so {@link #resume} shows it at once.  Seeks
+     * requested while paused are applied after the resume.
+     */
+    public void requestPause(){
+        mPauseGate.pause();
+    }
+
+    /**
+     * Continues from where {@link #requestPause} left off.  The time until the next frame is
+     * shown is reported by {@link DecodeMetrics#getLastResumeLatencyNs()}.
+     */
+    public void resume(){
+        mPauseGate.resume(System.nanoTime());
+        ScheduledDecode scheduled = mScheduledDecode;
+        if (scheduled != null && mAsyncDecode){
+            scheduled.schedule(true);
+        }
+        wakeScheduled();
+    }
+
+    private void wakeScheduled(){
+        PlaybackScheduler.Handle handle = mScheduledHandle;
+        if (handle != null){
+            handle.wake();
+        }
+    }
+
+    /**
+     * Runs this player on {@code scheduler}'s shared workers instead of a thread of its own.
+     * Must be set before playback starts.
+     *
+     * @param priority one of the {@code PlaybackScheduler.PRIORITY_*} values.
+     */
+    public void setScheduler(PlaybackScheduler scheduler, int priority){
+        this.mScheduler = scheduler;
+        this.mPriority = priority;
+    }
+
+    /**
+     * Changes the scheduling priority, e.g. when the player becomes visible or focused.
+     */
+    public void setPriority(int priority){
+        this.mPriority = priority;
+        PlaybackScheduler.Handle handle = mScheduledHandle;
+        if (handle != null){
+            handle.setPriority(priority);
+        }
+    }
+
+    /**
+     * Moves playback to {@code timeUs}.  May be called from any thread; seeks that arrive before
+     * the decode thread gets to them are coalesced and only the latest is performed.  The time
+     * from this call to the first frame shown at the new position is reported by
+     * {@link DecodeMetrics#getLastSeekLatencyNs()}.
+     *
+     * @param mode {@link #SEEK_MODE_FAST} or {@link #SEEK_MODE_EXACT}.
+     */
+    public void seekTo(long timeUs, int mode){
+        synchronized (mSeekLock){
+            mPendingSeekUs = Math.max(0, timeUs);
+            mPendingSeekMode = mode;
+            mPendingSeekRequestNs = System.nanoTime();
+        }
+        FrameCacheWarmer warmer = mFrameCacheWarmer;
+        if (warmer != null){
+            warmer.setPlayheadUs(timeUs);
+        }
+        Handler handler = mAsyncHandler;
+        if (handler != null){
+            handler.post(mAsyncSeekRunnable);
+        }
+        wakeScheduled();
+    }
+
+    /**
+     * Sets the playback speed, from {@link TimeStretcher#MIN_RATE} to {@link #MAX_PLAYBACK_RATE}.
+     * Up to {@link TimeStretcher#MAX_RATE} every frame is decoded and released at the rate;
+     * faster, only keyframes are fed to the decoder, since no decoder keeps up with every frame.
+     * May be called from any thread, before or during playback.  A {@link MediaTimeProvider}
+     * has to run at the same rate, e.g. {@link AudioPlayer#setPlaybackRate}.
+     */
+    public void setPlaybackRate(float rate){
+        if (!(rate >= TimeStretcher.MIN_RATE && rate <= MAX_PLAYBACK_RATE)){
+            throw new IllegalArgumentException("playback rate " + rate);
+        }
+        mRequestedRate = rate;
+        Handler handler = mAsyncHandler;
+        if (handler != null){
+            handler.post(mAsyncRateRunnable);
+        }
+        wakeScheduled();
+    }
+
+    public float getPlaybackRate(){
+        return mRequestedRate;
+    }
+
+    /**
+     * Moves the playhead of {@code warmer} along with every seek, so a scrub UI can show frames
+     * from its {@link FrameCache} while the decoder catches up.  The warmer decodes from its own
+     * clip and is not released by the player.
+     */
+    public void setFrameCacheWarmer(FrameCacheWarmer warmer){
+        this.mFrameCacheWarmer = warmer;
+    }
+
+    /**
+     * Sync-sample times of the video track, filled in the background after the file opens.
+     */
+    public KeyframeIndex getKeyframeIndex(){
+        return mKeyframeIndex;
     }
 
     /**
-     * Sets the loop mode.  If true, playback will loop forever.
+     * Sets the loop mode.  If true, playback will loop forever, gaplessly: the start of the
+     * stream is fed to the decoder right behind its end, and timestamps keep increasing across
+     * the boundary.  With a shared {@link Demuxer} the demuxer loops every track, so audio loops
+     * in lockstep.
      */
     public void setLoop(boolean loopMode){
         this.mLoop = loopMode;
+        if (mDemuxer != null){
+            mDemuxer.setLoop(loopMode);
+        }
+    }
+
+    /**
+     * Selects the decode engine.  If true, the codec runs in asynchronous mode and is driven by
+     * its callbacks; otherwise the player polls it with a timeout.  Must be set before playback
+     * starts.
+     */
+    public void setAsyncDecode(boolean asyncDecode){
+        this.mAsyncDecode = asyncDecode;
+    }
+
+    /**
+     * @return the presentation error statistics of the current or last play, or null without a
+     * vsync source.
+     */
+    public FramePresentationScheduler getFramePresentation(){
+        return mPresentation;
+    }
+
+    /**
+     * Time-to-first-frame and wakeup counters of the current or last playback, for either engine.
+     */
+    public DecodeMetrics getDecodeMetrics(){
+        return mDecodeMetrics;
+    }
+
+    /**
+     * Quality of service of this player, accumulated over every play: decode latency,
+     * presentation error, drift against the master clock and dropped and late frames.  May be
+     * sampled from any thread while playing.
+     */
+    public PlaybackStats getPlaybackStats(){
+        return mStats;
     }
 
     public static class PlayTask implements Runnable{
@@ -268,6 +1326,12 @@ public class VideoPlayer {
 
         public void execute(){
             mPlayer.setLoop(mDoLoop);
+            if (mPlayer.mScheduler != null){
+                ScheduledDecode job = mPlayer.new ScheduledDecode(this);
+                mPlayer.mScheduledDecode = job;
+                mPlayer.mScheduledHandle = mPlayer.mScheduler.submit(job, mPlayer.mPriority);
+                return;
+            }
             mThread = new Thread(this, "VideoPlayer");
             mThread.start();
         }
@@ -281,6 +1345,14 @@ public class VideoPlayer {
             mPlayer.requestStop();
         }
 
+        public void requestPause() {
+            mPlayer.requestPause();
+        }
+
+        public void requestResume() {
+            mPlayer.resume();
+        }
+
         public boolean isStopped(){
             return mPlayer.mIsStopRequested;
         }
@@ -292,12 +1364,16 @@ public class VideoPlayer {
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                synchronized (mStopLock){
-                    mStopped = true;
-                    mStopLock.notifyAll();
-                }
-                mLocalHandler.sendMessage(mLocalHandler.obtainMessage(MSG_PLAY_STOPPED, mFeedback));
+                onStopped();
+            }
+        }
+
+        private void onStopped(){
+            synchronized (mStopLock){
+                mStopped = true;
+                mStopLock.notifyAll();
             }
+            mLocalHandler.sendMessage(mLocalHandler.obtainMessage(MSG_PLAY_STOPPED, mFeedback));
         }
     }
 
@@ -306,9 +1382,14 @@ public class VideoPlayer {
         @Override
         public void handleMessage(Message msg) {
             int what = msg.what;
-//            switch (what){
-//                case
-//            }
+            switch (what){
+                case PlayTask.MSG_PLAY_STOPPED:
+                    PlayFeedback feedback = (PlayFeedback) msg.obj;
+                    if (feedback != null){
+                        feedback.playbackStopped();
+                    }
+                    break;
+            }
         }
     }
 
@@ -0,0 +1,16 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Phase and period of the display's vsync, as seen by {@link FramePresentationScheduler}.
+ */
+public interface VsyncSource {
+
+    /**
+     * @return the {@link System#nanoTime()} of a recent vsync, or -1 if none was seen yet.
+     * Later vsyncs are extrapolated from it with {@link #getVsyncPeriodNs()}.
+     */
+    long getLastVsyncNs();
+
+    long getVsyncPeriodNs();
+
+}
@@ -0,0 +1,259 @@
+package com.example.cw.mediacodecdemo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts decoded 4:2:0 frames, laid out as a {@link YuvLayout} describes, to ARGB pixels,
+ * optionally scaled down on the way.
+ * <p>
+ * Colors use integer fixed-point arithmetic for limited-range BT.601 or BT.709.  Scaling picks
+ * the source pixel at the centre of each destination pixel, which is cheap and good enough for
+ * thumbnails; it does not filter.  The source may be a byte array or any byte buffer,
+ * including the direct buffers codecs hand out, read in place.
+ * <p>
+ * With a {@link ForkJoinPool} the rows are split into bands converted in parallel.  After the
+ * first conversion at a given size nothing is allocated: the column tables and the band tasks
+ * are reused.  Not thread safe; use one converter per thread, which may share the pool.
+ */
+public class YuvConverter {
+
+    public static final int STANDARD_BT601 = 0;
+    public static final int STANDARD_BT709 = 1;
+
+    // 10 bit fixed point
+    private static final int SHIFT = 10;
+    private static final int ROUND = 1 << (SHIFT - 1);
+    // limited range Y' scale 255/219, then per standard V to R, U and V to G, U to B
+    private static final int Y_SCALE = 1192;
+    private static final int[][] CHROMA = {
+            {1634, 401, 832, 2066},
+            {1836, 218, 546, 2163},
+    };
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final ForkJoinPool mPool;
+    private int mStandard = STANDARD_BT601;
+    private int mVToR;
+    private int mUToG;
+    private int mVToG;
+    private int mUToB;
+
+    // per conversion
+    private YuvLayout mLayout;
+    private byte[] mSourceArray;
+    private int mSourceOffset;
+    private ByteBuffer mSourceBuffer;
+    private int[] mArgb;
+    private int mDstWidth;
+    private int mDstHeight;
+    // source luma column and chroma byte column of each destination column
+    private int[] mLumaColumns = new int[0];
+    private int[] mChromaColumns = new int[0];
+    private YuvLayout mColumnsLayout;
+    private int mColumnsWidth;
+    private Band[] mBands;
+    private final RecursiveAction mRoot = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            for (Band band : mBands) {
+                band.reinitialize();
+            }
+            invokeAll(mBands);
+        }
+    };
+
+    /**
+     * @param pool to convert in parallel in, or null to convert on the calling thread only.
+     */
+    public YuvConverter(ForkJoinPool pool) {
+        this.mPool = pool;
+        setStandard(STANDARD_BT601);
+    }
+
+    /**
+     * Sets the color matrix, BT.601 for standard definition and BT.709 for HD.
+     */
+    public void setStandard(int standard) {
+        if (standard != STANDARD_BT601 && standard != STANDARD_BT709) {
+            throw new IllegalArgumentException("standard " + standard);
+        }
+        mStandard = standard;
+        mVToR = CHROMA[standard][0];
+        mUToG = CHROMA[standard][1];
+        mVToG = CHROMA[standard][2];
+        mUToB = CHROMA[standard][3];
+    }
+
+    public int getStandard() {
+        return mStandard;
+    }
+
+    /**
+     * Converts the visible part of the frame at {@code offset} in {@code source}, scaled to
+     * {@code dstWidth} by {@code dstHeight}, into {@code argb} row after row.
+     */
+    public void convert(byte[] source, int offset, YuvLayout layout, int[] argb, int dstWidth, int dstHeight) {
+        if (offset < 0 || source.length - offset < layout.getFrameSize()) {
+            throw new IllegalArgumentException("frame of " + layout.getFrameSize() + " bytes at " + offset
+                    + " in " + source.length);
+        }
+        mSourceArray = source;
+        mSourceOffset = offset;
+        run(layout, argb, dstWidth, dstHeight);
+    }
+
+    /**
+     * Converts the frame from the position of {@code source}, which is not moved.
+     */
+    public void convert(ByteBuffer source, YuvLayout layout, int[] argb, int dstWidth, int dstHeight) {
+        if (source.hasArray()) {
+            convert(source.array(), source.arrayOffset() + source.position(), layout, argb, dstWidth, dstHeight);
+            return;
+        }
+        if (source.remaining() < layout.getFrameSize()) {
+            throw new IllegalArgumentException("frame of " + layout.getFrameSize() + " bytes in "
+                    + source.remaining());
+        }
+        mSourceBuffer = source;
+        mSourceOffset = source.position();
+        run(layout, argb, dstWidth, dstHeight);
+    }
+
+    private void run(YuvLayout layout, int[] argb, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > layout.getWidth() || dstHeight > layout.getHeight()) {
+            throw new IllegalArgumentException(dstWidth + "x" + dstHeight + " from " + layout);
+        }
+        if (argb.length < dstWidth * dstHeight) {
+            throw new IllegalArgumentException(argb.length + " pixels for " + dstWidth + "x" + dstHeight);
+        }
+        mLayout = layout;
+        mArgb = argb;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+        prepareColumns(layout, dstWidth);
+        try {
+            int bandCount = mPool != null ? Math.min(mPool.getParallelism() * 2, dstHeight / MIN_ROWS_PER_BAND) : 1;
+            if (bandCount <= 1) {
+                convertRows(0, dstHeight);
+            } else {
+                prepareBands(bandCount);
+                mRoot.reinitialize();
+                mPool.invoke(mRoot);
+            }
+        } finally {
+            mSourceArray = null;
+            mSourceBuffer = null;
+            mArgb = null;
+        }
+    }
+
+    private void prepareColumns(YuvLayout layout, int dstWidth) {
+        if (layout == mColumnsLayout && dstWidth == mColumnsWidth) {
+            return;
+        }
+        if (mLumaColumns.length != dstWidth) {
+            mLumaColumns = new int[dstWidth];
+            mChromaColumns = new int[dstWidth];
+        }
+        int srcWidth = layout.getWidth();
+        int pixelStride = layout.getChromaPixelStride();
+        for (int x = 0; x < dstWidth; x++) {
+            int column = layout.getCropLeft() + sample(x, srcWidth, dstWidth);
+            mLumaColumns[x] = column;
+            mChromaColumns[x] = (column >> 1) * pixelStride;
+        }
+        mColumnsLayout = layout;
+        mColumnsWidth = dstWidth;
+    }
+
+    private void prepareBands(int bandCount) {
+        if (mBands == null || mBands.length != bandCount) {
+            mBands = new Band[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                mBands[i] = new Band();
+            }
+        }
+        for (int i = 0; i < bandCount; i++) {
+            mBands[i].mFirstRow = mDstHeight * i / bandCount;
+            mBands[i].mEndRow = mDstHeight * (i + 1) / bandCount;
+        }
+    }
+
+    /**
+     * @return the source index under the centre of destination index {@code i}.
+     */
+    private static int sample(int i, int srcSize, int dstSize) {
+        return (int) ((2L * i + 1) * srcSize / (2L * dstSize));
+    }
+
+    private void convertRows(int firstRow, int endRow) {
+        YuvLayout layout = mLayout;
+        int stride = layout.getStride();
+        int chromaStride = layout.getChromaStride();
+        int uOffset = mSourceOffset + layout.getUOffset();
+        int vOffset = mSourceOffset + layout.getVOffset();
+        for (int y = firstRow; y < endRow; y++) {
+            int row = layout.getCropTop() + sample(y, layout.getHeight(), mDstHeight);
+            int lumaRow = mSourceOffset + row * stride;
+            int chromaRow = (row >> 1) * chromaStride;
+            if (mSourceArray != null) {
+                convertRow(mSourceArray, lumaRow, uOffset + chromaRow, vOffset + chromaRow, y * mDstWidth);
+            } else {
+                convertRow(mSourceBuffer, lumaRow, uOffset + chromaRow, vOffset + chromaRow, y * mDstWidth);
+            }
+        }
+    }
+
+    private void convertRow(byte[] source, int lumaRow, int uRow, int vRow, int out) {
+        int[] argb = mArgb;
+        int[] lumaColumns = mLumaColumns;
+        int[] chromaColumns = mChromaColumns;
+        for (int x = 0; x < lumaColumns.length; x++) {
+            int chroma = chromaColumns[x];
+            argb[out + x] = pixel(source[lumaRow + lumaColumns[x]] & 0xff, source[uRow + chroma] & 0xff,
+                    source[vRow + chroma] & 0xff);
+        }
+    }
+
+    private void convertRow(ByteBuffer source, int lumaRow, int uRow, int vRow, int out) {
+        int[] argb = mArgb;
+        int[] lumaColumns = mLumaColumns;
+        int[] chromaColumns = mChromaColumns;
+        for (int x = 0; x < lumaColumns.length; x++) {
+            int chroma = chromaColumns[x];
+            argb[out + x] = pixel(source.get(lumaRow + lumaColumns[x]) & 0xff, source.get(uRow + chroma) & 0xff,
+                    source.get(vRow + chroma) & 0xff);
+        }
+    }
+
+    private int pixel(int y, int u, int v) {
+        int luma = (y - 16) * Y_SCALE + ROUND;
+        u -= 128;
+        v -= 128;
+        int r = (luma + mVToR * v) >> SHIFT;
+        int g = (luma - mUToG * u - mVToG * v) >> SHIFT;
+        int b = (luma + mUToB * u) >> SHIFT;
+        return 0xff000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * Converts a range of destination rows; reused from one conversion to the next.
+     */
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        int mFirstRow;
+        int mEndRow;
+
+        @Override
+        protected void compute() {
+            convertRows(mFirstRow, mEndRow);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * How a decoded 4:2:0 frame is laid out in a byte buffer: visible size and where it starts,
+ * row stride and number of rows of the luma plane, and how the chroma samples follow it.
+ * Immutable.
+ */
+public final class YuvLayout {
+
+    /**
+     * Planar: the U plane, then the V plane, each a quarter of the luma plane.
+     */
+    public static final int FORMAT_I420 = 0;
+    /**
+     * Semi-planar: one plane of interleaved U and V samples.
+     */
+    public static final int FORMAT_NV12 = 1;
+    /**
+     * Semi-planar with V before U, as from the camera.
+     */
+    public static final int FORMAT_NV21 = 2;
+
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStride;
+    private final int mSliceHeight;
+    private final int mCropLeft;
+    private final int mCropTop;
+
+    /**
+     * @param width       visible width.
+     * @param height      visible height.
+     * @param stride      bytes from one luma row to the next.
+     * @param sliceHeight rows of the luma plane, including padding.
+     * @param cropLeft    first visible column; even.
+     * @param cropTop     first visible row; even.
+     */
+    public YuvLayout(int format, int width, int height, int stride, int sliceHeight, int cropLeft, int cropTop) {
+        if (format < FORMAT_I420 || format > FORMAT_NV21 || width <= 0 || height <= 0 || cropLeft < 0
+                || cropTop < 0 || (cropLeft & 1) != 0 || (cropTop & 1) != 0 || stride < cropLeft + width
+                || sliceHeight < cropTop + height) {
+            throw new IllegalArgumentException("format " + format + " " + width + "x" + height + " at " + cropLeft
+                    + "," + cropTop + " stride " + stride + " slice height " + sliceHeight);
+        }
+        this.mFormat = format;
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mStride = stride;
+        this.mSliceHeight = sliceHeight;
+        this.mCropLeft = cropLeft;
+        this.mCropTop = cropTop;
+    }
+
+    /**
+     * A frame without cropping.
+     */
+    public YuvLayout(int format, int width, int height, int stride, int sliceHeight) {
+        this(format, width, height, stride, sliceHeight, 0, 0);
+    }
+
+    /**
+     * A tightly packed frame.
+     */
+    public YuvLayout(int format, int width, int height) {
+        this(format, width, height, width, height);
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getStride() {
+        return mStride;
+    }
+
+    public int getSliceHeight() {
+        return mSliceHeight;
+    }
+
+    public int getCropLeft() {
+        return mCropLeft;
+    }
+
+    public int getCropTop() {
+        return mCropTop;
+    }
+
+    /**
+     * @return bytes from one row of a chroma plane to the next.
+     */
+    public int getChromaStride() {
+        return mFormat == FORMAT_I420 ? (mStride + 1) / 2 : mStride;
+    }
+
+    /**
+     * @return where the U samples start, from the start of the frame.
+     */
+    public int getUOffset() {
+        int lumaSize = mStride * mSliceHeight;
+        if (mFormat == FORMAT_I420) {
+            return lumaSize;
+        }
+        return mFormat == FORMAT_NV12 ? lumaSize : lumaSize + 1;
+    }
+
+    /**
+     * @return where the V samples start, from the start of the frame.
+     */
+    public int getVOffset() {
+        int lumaSize = mStride * mSliceHeight;
+        if (mFormat == FORMAT_I420) {
+            // after a whole padded U plane
+            return lumaSize + getChromaStride() * ((mSliceHeight + 1) / 2);
+        }
+        return mFormat == FORMAT_NV12 ? lumaSize + 1 : lumaSize;
+    }
+
+    /**
+     * @return bytes from one U or V sample to the next in a row: 1 planar, 2 interleaved.
+     */
+    public int getChromaPixelStride() {
+        return mFormat == FORMAT_I420 ? 1 : 2;
+    }
+
+    /**
+     * @return the number of bytes the frame takes, up to the end of its last chroma row.
+     */
+    public int getFrameSize() {
+        int chromaRows = (mCropTop + mHeight + 1) / 2;
+        return Math.max(getUOffset(), getVOffset()) - (getChromaPixelStride() - 1) + getChromaStride() * chromaRows;
+    }
+
+    @Override
+    public String toString() {
+        String[] names = {"I420", "NV12", "NV21"};
+        return names[mFormat] + " " + mWidth + "x" + mHeight + " at " + mCropLeft + "," + mCropTop + " stride "
+                + mStride + " slice height " + mSliceHeight;
+    }
+}
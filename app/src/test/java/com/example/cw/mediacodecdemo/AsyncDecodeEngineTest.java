@@ -0,0 +1,182 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AsyncDecodeEngineTest {
+
+    private FakeCodec mCodec;
+    private FakeSampleSource mSource;
+    private RecordingSink mSink;
+    private DecodeMetrics mMetrics;
+    private AsyncDecodeEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mCodec = new FakeCodec(4, 64);
+        mSource = FakeSampleSource.uniform(30, 16, 33333, 10);
+        mSink = new RecordingSink();
+        mMetrics = new DecodeMetrics();
+        mEngine = new AsyncDecodeEngine(mCodec, mSource, mSink, mMetrics);
+        mCodec.setCallback(mEngine);
+    }
+
+    @Test
+    public void decodesEveryFrameInOrderThenFinishes() {
+        mEngine.start();
+        mCodec.pump(Integer.MAX_VALUE);
+
+        assertEquals(AsyncDecodeEngine.STATE_FINISHED, mEngine.getState());
+        assertEquals(1, mSink.finishedCount);
+        assertNull(mSink.error);
+        assertEquals(30, mCodec.renderedPts.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i * 33333L, (long) mCodec.renderedPts.get(i));
+        }
+        assertEquals(30, mMetrics.getFrames());
+        assertTrue(mMetrics.getTimeToFirstFrameNs() >= 0);
+    }
+
+    @Test
+    public void recordsTheLatencyOfEveryFrame() {
+        PlaybackStats stats = new PlaybackStats();
+        mEngine.setStats(stats);
+        mEngine.start();
+        mCodec.pump(Integer.MAX_VALUE);
+
+        Histogram.Snapshot latency = stats.snapshot().getDecodeLatencyUs();
+        assertEquals(30, latency.getCount());
+        assertTrue(latency.getMin() >= 0);
+    }
+
+    @Test
+    public void wakesUpAboutTwicePerFrame() {
+        mEngine.start();
+        mCodec.pump(Integer.MAX_VALUE);
+
+        // one input event and one output event per frame, plus the EOS buffer and the spare slots
+        assertTrue("wakeups/frame " + mMetrics.getWakeupsPerFrame(), mMetrics.getWakeupsPerFrame() <= 2.5f);
+    }
+
+    @Test
+    public void loopsGaplesslyWithIncreasingTimestamps() {
+        mEngine.setLoop(new LoopTimeline(30 * 33333L));
+        mEngine.start();
+        // events delivered between two rendered frames; the flush-based loop had to refill the
+        // whole pipeline here
+        int steadyGap = 0;
+        int boundaryGap = 0;
+        int sinceLastFrame = 0;
+        while (mCodec.renderedPts.size() < 75) {
+            int before = mCodec.renderedPts.size();
+            assertTrue(mCodec.pump(1) > 0);
+            sinceLastFrame++;
+            if (mCodec.renderedPts.size() > before) {
+                if (before == 30) {
+                    boundaryGap = sinceLastFrame;
+                } else if (before > 1) {
+                    steadyGap = Math.max(steadyGap, sinceLastFrame);
+                }
+                sinceLastFrame = 0;
+            }
+        }
+
+        assertEquals(0, mCodec.flushCount);
+        assertEquals(1, mCodec.startCount);
+        assertEquals(2, mSink.loopResetCount);
+        assertEquals(0, mSink.finishedCount);
+        assertTrue("boundary gap " + boundaryGap + " > steady gap " + steadyGap, boundaryGap <= steadyGap);
+        for (int i = 0; i < 75; i++) {
+            assertEquals(i * 33333L, (long) mCodec.renderedPts.get(i));
+        }
+        assertEquals(AsyncDecodeEngine.STATE_RUNNING, mEngine.getState());
+    }
+
+    @Test
+    public void seekRestartsLoopTimeline() {
+        mEngine.setLoop(new LoopTimeline(30 * 33333L));
+        mEngine.start();
+        while (mCodec.renderedPts.size() < 40) {
+            mCodec.pump(1);
+        }
+        mEngine.seekTo(0, 0, -1);
+        mCodec.pump(4);
+
+        // back on the first iteration's timestamps
+        int queued = mCodec.queuedPts.size();
+        assertEquals(3 * 33333L, (long) mCodec.queuedPts.get(queued - 1));
+        assertEquals(0L, (long) mCodec.queuedPts.get(queued - 4));
+    }
+
+    @Test
+    public void keyframesOnlyFeedsSyncSamples() {
+        mEngine.setKeyframesOnly(true);
+        mEngine.start();
+        mCodec.pump(Integer.MAX_VALUE);
+
+        assertEquals(AsyncDecodeEngine.STATE_FINISHED, mEngine.getState());
+        assertEquals(3, mCodec.renderedPts.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i * 10 * 33333L, (long) mCodec.renderedPts.get(i));
+        }
+        assertEquals(27, mEngine.getSkippedSamples());
+    }
+
+    @Test
+    public void keyframesOnlyCanStopAtAKeyframe() {
+        mEngine.setKeyframesOnly(true);
+        mEngine.start();
+        mCodec.pump(2);
+        // fed the first two keyframes; go back to every frame from the second
+        mEngine.setKeyframesOnly(false);
+        mEngine.seekTo(10 * 33333L, 0, 10 * 33333L + 1);
+        mCodec.pump(Integer.MAX_VALUE);
+
+        assertEquals(AsyncDecodeEngine.STATE_FINISHED, mEngine.getState());
+        int rendered = mCodec.renderedPts.size();
+        assertEquals(29 * 33333L, (long) mCodec.renderedPts.get(rendered - 1));
+        assertEquals(11 * 33333L, (long) mCodec.renderedPts.get(rendered - 19));
+    }
+
+    @Test
+    public void codecErrorFinishesOnceAndDropsLaterOutput() {
+        mEngine.start();
+        mCodec.pump(6);
+        IllegalStateException error = new IllegalStateException("boom");
+        mCodec.postError(error);
+        mCodec.pump(Integer.MAX_VALUE);
+
+        assertEquals(AsyncDecodeEngine.STATE_ERROR, mEngine.getState());
+        assertEquals(1, mSink.finishedCount);
+        assertSame(error, mSink.error);
+    }
+
+    private static class RecordingSink implements AsyncDecodeEngine.OutputSink {
+
+        int loopResetCount;
+        int finishedCount;
+        Exception error;
+
+        @Override
+        public void onOutputBuffer(Codec codec, int index, long presentationTimeUs, int size, int flags) {
+            if (size != 0) {
+                codec.releaseOutputBuffer(index, presentationTimeUs * 1000);
+            } else {
+                codec.releaseOutputBuffer(index, false);
+            }
+        }
+
+        @Override
+        public void onLoopReset() {
+            loopResetCount++;
+        }
+
+        @Override
+        public void onFinished(Exception error) {
+            finishedCount++;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioBufferControllerTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int MIN_FRAMES = 480;
+    private static final int MAX_FRAMES = 12000;
+    private static final int BLOCK_FRAMES = 256;
+    // the writer decodes a block in well under its 5.3 ms
+    private static final long WORK_US = 1000;
+
+    /**
+     * A track playing in real time on the fake clock.  Writes wait for room like blocking
+     * writes; running dry while playing counts one underrun.
+     */
+    private static class SimulatedTrack implements AudioBufferController.Track {
+
+        final int capacity;
+        int size;
+        double fill;
+        int underruns;
+        // nothing to run out of before the first write
+        boolean starved = true;
+
+        SimulatedTrack(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public int getUnderrunCount() {
+            return underruns;
+        }
+
+        @Override
+        public int setBufferSizeInFrames(int frames) {
+            size = Math.max(1, Math.min(frames, capacity));
+            return size;
+        }
+
+        @Override
+        public int getBufferCapacityInFrames() {
+            return capacity;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        void play(long us) {
+            double frames = us * (double) SAMPLE_RATE / 1000000;
+            if (frames > fill) {
+                if (!starved) {
+                    underruns++;
+                }
+                starved = true;
+                fill = 0;
+            } else {
+                fill -= frames;
+            }
+        }
+
+        /**
+         * @return how long the write has to wait for room, in microseconds.
+         */
+        long roomWaitUs(int frames) {
+            double missing = fill + frames - size;
+            return missing > 0 ? (long) Math.ceil(missing * 1000000 / SAMPLE_RATE) : 0;
+        }
+
+        void write(int frames) {
+            fill = Math.min(size, fill + frames);
+            starved = false;
+        }
+    }
+
+    private FakeNanoClock mClock;
+    private SimulatedTrack mTrack;
+    private AudioBufferController mController;
+    private long mNextSpikeUs;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeNanoClock();
+        mTrack = new SimulatedTrack(MAX_FRAMES);
+        mController = new AudioBufferController(mTrack, MIN_FRAMES, MAX_FRAMES, mClock);
+    }
+
+    private void advanceUs(long us) {
+        mClock.advanceUs(us);
+        mTrack.play(us);
+    }
+
+    /**
+     * Plays for {@code seconds}, the writer stalling for {@code spikeUs} every
+     * {@code spikeEveryUs} on top of its usual work.
+     *
+     * @return the underruns meanwhile.
+     */
+    private int play(int seconds, long spikeUs, long spikeEveryUs) {
+        int underruns = mTrack.underruns;
+        long endNs = mClock.nowNs + seconds * 1000000000L;
+        while (mClock.nowNs < endNs) {
+            long workUs = WORK_US;
+            if (spikeEveryUs > 0 && mClock.nowNs / 1000 >= mNextSpikeUs) {
+                workUs += spikeUs;
+                mNextSpikeUs = mClock.nowNs / 1000 + spikeEveryUs;
+            }
+            advanceUs(workUs);
+            mController.onWriteStart();
+            advanceUs(mTrack.roomWaitUs(BLOCK_FRAMES));
+            mTrack.write(BLOCK_FRAMES);
+            mController.onWriteEnd();
+        }
+        return mTrack.underruns - underruns;
+    }
+
+    private int play(int seconds) {
+        return play(seconds, 0, 0);
+    }
+
+    @Test
+    public void startsAtTheLowLatencySizeAndStaysThereWhenIdle() {
+        assertEquals(MIN_FRAMES, mTrack.size);
+
+        assertEquals(0, play(60));
+
+        assertEquals(MIN_FRAMES, mController.getBufferSizeFrames());
+        assertEquals(0, mController.getGrowths());
+        assertEquals(10000, mController.getLatencyUs());
+    }
+
+    @Test
+    public void growsUntilLoadSpikesNoLongerUnderrun() {
+        assertTrue(play(10, 40000, 1000000) > 0);
+
+        assertEquals(0, play(60, 40000, 1000000));
+        // covers the spike, without running away
+        long latencyUs = mController.getLatencyUs();
+        assertTrue(latencyUs > 40000);
+        assertTrue(latencyUs <= 160000);
+        assertEquals(mTrack.size, mController.getBufferSizeFrames());
+    }
+
+    @Test
+    public void nearMissGrowsBeforeAnyUnderrun() {
+        play(1);
+
+        // the buffer holds 10 ms; a 7.5 ms stall on top of the work nearly drains it
+        assertEquals(0, play(5, 7500, 1000000));
+
+        assertTrue(mController.getGrowths() > 0);
+        assertTrue(mController.getBufferSizeFrames() > MIN_FRAMES);
+    }
+
+    @Test
+    public void shrinksBackOnceTheLoadGoes() {
+        play(30, 60000, 500000);
+        int grown = mController.getBufferSizeFrames();
+        assertTrue(grown > MIN_FRAMES * 4);
+
+        play(20);
+        assertTrue(mController.getBufferSizeFrames() < grown);
+        play(600);
+
+        assertEquals(MIN_FRAMES, mController.getBufferSizeFrames());
+        assertEquals(MIN_FRAMES, mTrack.size);
+        assertTrue(mController.getShrinks() > 0);
+    }
+
+    /**
+     * Spikes a few seconds apart, farther apart than the quiet period at first: each shrink
+     * that brings them back makes the controller wait longer, so glitches die out.
+     */
+    @Test
+    public void recurringSpikesSettleInsteadOfOscillating() {
+        long spikeEveryUs = 8000000;
+        int early = play(300, 30000, spikeEveryUs);
+        int late = play(600, 30000, spikeEveryUs);
+
+        assertTrue(late <= 2);
+        assertTrue(late < early || early == 0);
+        assertTrue(mController.getLatencyUs() < 100000);
+    }
+
+    @Test
+    public void neverGrowsPastTheMaximum() {
+        play(30, 500000, 1000000);
+
+        assertEquals(MAX_FRAMES, mController.getBufferSizeFrames());
+        assertEquals(250000, mController.getLatencyUs());
+    }
+
+    @Test
+    public void restartForgivesTheGapAndTheUnderrunsWhileStopped() {
+        play(2);
+
+        // paused or seeking: the track runs dry and the writer is away
+        mController.restart();
+        advanceUs(1000000);
+        mController.onWriteStart();
+        mTrack.write(BLOCK_FRAMES);
+        mController.onWriteEnd();
+        assertEquals(0, play(2));
+
+        assertEquals(0, mController.getGrowths());
+        assertEquals(MIN_FRAMES, mController.getBufferSizeFrames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyRange() {
+        new AudioBufferController(mTrack, MIN_FRAMES, MIN_FRAMES - 1, mClock);
+    }
+}
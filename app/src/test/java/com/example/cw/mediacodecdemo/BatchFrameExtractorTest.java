@@ -0,0 +1,200 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchFrameExtractorTest {
+
+    private static final long[] TIMES = {0, 1000000, 2000000, 3000000};
+
+    private BatchFrameExtractor<Integer> mBatch;
+
+    @After
+    public void tearDown() {
+        if (mBatch != null) {
+            mBatch.shutdown();
+        }
+    }
+
+    /**
+     * Opens clip {@code n} as {@code 100 + n} frames over fake codecs, failing the clips asked
+     * to, and keeps track of how many are open at once.
+     */
+    private static class FakeOpener implements BatchFrameExtractor.Opener<Integer> {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        final List<Integer> failedCloses = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> unopenable = new ArrayList<>();
+        final List<Integer> stuck = new ArrayList<>();
+        volatile long openDelayMs;
+
+        @Override
+        public BatchFrameExtractor.Clip open(final Integer clip) throws IOException {
+            if (unopenable.contains(clip)) {
+                throw new IOException("cannot open " + clip);
+            }
+            sleep(openDelayMs);
+            int now = open.incrementAndGet();
+            int max;
+            while (now > (max = maxOpen.get()) && !maxOpen.compareAndSet(max, now)) {
+                // raced with another worker
+            }
+            final FakeCodec codec = new FakeCodec(4, 64) {
+                @Override
+                public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+                    if (stuck.contains(clip)) {
+                        throw new IllegalStateException("codec died");
+                    }
+                    return super.dequeueOutputBuffer(info, timeoutUs);
+                }
+            };
+            final FakeSampleSource source = FakeSampleSource.uniform(100 + clip, 16, 33333, 30);
+            return new BatchFrameExtractor.Clip() {
+                @Override
+                public Codec getCodec() {
+                    return codec;
+                }
+
+                @Override
+                public SampleSource getSource() {
+                    return source;
+                }
+
+                @Override
+                public YuvLayout getLayout() {
+                    return new YuvLayout(YuvLayout.FORMAT_NV12, 4, 2, 4, 2);
+                }
+
+                @Override
+                public void close(boolean failed) {
+                    if (failed) {
+                        failedCloses.add(clip);
+                    }
+                    source.release();
+                    open.decrementAndGet();
+                }
+            };
+        }
+    }
+
+    private static class RecordingListener implements BatchFrameExtractor.Listener<Integer> {
+        final Map<Integer, Integer> frames = Collections.synchronizedMap(new HashMap<Integer, Integer>());
+        final Map<Integer, Exception> errors = Collections.synchronizedMap(new HashMap<Integer, Exception>());
+        final AtomicInteger framesSeen = new AtomicInteger();
+
+        @Override
+        public void onFrame(Integer clip, int request, long presentationTimeUs, ByteBuffer frame, YuvLayout layout) {
+            assertEquals(12, layout.getFrameSize());
+            framesSeen.incrementAndGet();
+        }
+
+        @Override
+        public void onClipDone(Integer clip, int frames, Exception error) {
+            this.frames.put(clip, frames);
+            if (error != null) {
+                errors.put(clip, error);
+            }
+        }
+    }
+
+    @Test
+    public void decodesEveryClipWithBoundedParallelism() throws InterruptedException {
+        FakeOpener opener = new FakeOpener();
+        opener.openDelayMs = 5;
+        mBatch = new BatchFrameExtractor<>(opener, 3);
+        RecordingListener listener = new RecordingListener();
+
+        BatchFrameExtractor.Report report = mBatch.extract(clips(20), TIMES, FrameExtractor.MODE_EXACT, listener);
+
+        assertEquals(20, report.getClips());
+        assertEquals(0, report.getFailedClips());
+        assertEquals(20 * TIMES.length, report.getFrames());
+        assertEquals(20 * TIMES.length, listener.framesSeen.get());
+        assertEquals(20, listener.frames.size());
+        assertTrue("open at once " + opener.maxOpen.get(), opener.maxOpen.get() <= 3);
+        assertEquals(0, opener.open.get());
+        assertTrue(report.getClipsPerSecond() > 0);
+    }
+
+    @Test
+    public void reportsFailedClipsAndCarriesOn() throws InterruptedException {
+        FakeOpener opener = new FakeOpener();
+        opener.unopenable.add(3);
+        opener.stuck.add(5);
+        mBatch = new BatchFrameExtractor<>(opener, 2);
+        RecordingListener listener = new RecordingListener();
+
+        BatchFrameExtractor.Report report = mBatch.extract(clips(8), TIMES, FrameExtractor.MODE_NEAREST_KEYFRAME,
+                listener);
+
+        assertEquals(2, report.getFailedClips());
+        assertEquals(6 * TIMES.length, report.getFrames());
+        assertTrue(listener.errors.get(3) instanceof IOException);
+        assertTrue(listener.errors.get(5) instanceof IOException);
+        // the codec that failed is not handed back for reuse
+        assertEquals(Collections.singletonList(5), opener.failedCloses);
+        assertEquals(0, opener.open.get());
+    }
+
+    @Test
+    public void keyframeModeQueuesFarFewerSamples() throws InterruptedException {
+        FakeOpener opener = new FakeOpener();
+        mBatch = new BatchFrameExtractor<>(opener, 2);
+        long[] times = {500000, 1500000, 2500000};
+
+        BatchFrameExtractor.Report exact = mBatch.extract(clips(10), times, FrameExtractor.MODE_EXACT,
+                new RecordingListener());
+        BatchFrameExtractor.Report keyframes = mBatch.extract(clips(10), times,
+                FrameExtractor.MODE_NEAREST_KEYFRAME, new RecordingListener());
+
+        assertEquals(30, exact.getFrames());
+        assertEquals(30, keyframes.getFrames());
+        assertEquals(30, keyframes.getSamplesQueued());
+        assertTrue(exact.getSamplesQueued() > 3 * keyframes.getSamplesQueued());
+    }
+
+    @Test
+    public void throughput() throws InterruptedException {
+        // not a pass/fail benchmark: prints the scheduling overhead per clip with free decoding
+        for (int parallelism = 1; parallelism <= 4; parallelism *= 2) {
+            BatchFrameExtractor<Integer> batch = new BatchFrameExtractor<>(new FakeOpener(), parallelism);
+            try {
+                BatchFrameExtractor.Report report = batch.extract(clips(2000), TIMES,
+                        FrameExtractor.MODE_NEAREST_KEYFRAME, new RecordingListener());
+                assertEquals(2000 * TIMES.length, report.getFrames());
+                System.out.println("BatchFrameExtractor: " + parallelism + " workers: " + report);
+            } finally {
+                batch.shutdown();
+            }
+        }
+    }
+
+    private static List<Integer> clips(int count) {
+        List<Integer> clips = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clips.add(i);
+        }
+        return clips;
+    }
+
+    private static void sleep(long ms) {
+        if (ms > 0) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
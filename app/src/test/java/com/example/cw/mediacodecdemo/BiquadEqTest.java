@@ -0,0 +1,201 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BiquadEqTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private static BiquadEq band(int type, float frequencyHz, float q, float gainDb) {
+        BiquadEq eq = new BiquadEq(type, frequencyHz, q, gainDb);
+        eq.configure(SAMPLE_RATE, 1);
+        return eq;
+    }
+
+    private static float[] sine(double frequency, int frames, double amplitude) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static double rms(float[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += samples[i] * (double) samples[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    /**
+     * @return the gain of {@code eq} at {@code frequency} in dB, measured on a sine once the
+     * filter has settled.
+     */
+    private static double measureDb(BiquadEq eq, double frequency) {
+        eq.reset();
+        int frames = SAMPLE_RATE / 2;
+        float[] samples = sine(frequency, frames, 0.25);
+        // a whole number of periods at the end
+        int periods = (int) (frames / 2 * frequency / SAMPLE_RATE);
+        int from = frames - (int) Math.round(periods * SAMPLE_RATE / frequency);
+        double before = rms(samples, from, frames);
+        eq.process(samples, 0, frames);
+        return 20 * Math.log10(rms(samples, from, frames) / before);
+    }
+
+    /**
+     * @return the gain of the coefficients at {@code frequency} in dB, from the transfer
+     * function on the unit circle.
+     */
+    private static double responseDb(double[] c, double frequency) {
+        double w = 2 * Math.PI * frequency / SAMPLE_RATE;
+        double numRe = c[0] + c[1] * Math.cos(w) + c[2] * Math.cos(2 * w);
+        double numIm = -c[1] * Math.sin(w) - c[2] * Math.sin(2 * w);
+        double denRe = 1 + c[3] * Math.cos(w) + c[4] * Math.cos(2 * w);
+        double denIm = -c[3] * Math.sin(w) - c[4] * Math.sin(2 * w);
+        return 10 * Math.log10((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+    }
+
+    @Test
+    public void peakBoostsItsCentreFrequencyOnly() {
+        BiquadEq eq = band(BiquadEq.TYPE_PEAKING, 1000, 1f, 6f);
+
+        assertEquals(6, measureDb(eq, 1000), 0.05);
+        assertEquals(0, measureDb(eq, 50), 0.2);
+        assertEquals(0, measureDb(eq, 15000), 0.2);
+    }
+
+    @Test
+    public void peakCutsAsDeepAsItBoosts() {
+        BiquadEq eq = band(BiquadEq.TYPE_PEAKING, 3000, 2f, -9f);
+
+        assertEquals(-9, measureDb(eq, 3000), 0.05);
+    }
+
+    @Test
+    public void flatPeakIsTransparent() {
+        BiquadEq eq = band(BiquadEq.TYPE_PEAKING, 1000, 1f, 0f);
+        float[] samples = sine(440, 4800, 0.5);
+        float[] expected = samples.clone();
+
+        eq.process(samples, 0, samples.length);
+
+        assertArrayEquals(expected, samples, 1e-6f);
+    }
+
+    @Test
+    public void shelvesReachTheirGainAtTheEnds() {
+        BiquadEq low = band(BiquadEq.TYPE_LOW_SHELF, 500, 0.707f, 6f);
+        BiquadEq high = band(BiquadEq.TYPE_HIGH_SHELF, 5000, 0.707f, -6f);
+        double[] c = new double[5];
+
+        assertEquals(6, measureDb(low, 30), 0.1);
+        assertEquals(0, measureDb(low, 15000), 0.1);
+        assertEquals(-6, measureDb(high, 20000), 0.1);
+        assertEquals(0, measureDb(high, 50), 0.1);
+        // and exactly so at DC and Nyquist
+        BiquadEq.coefficients(BiquadEq.TYPE_LOW_SHELF, SAMPLE_RATE, 500, 0.707, 6, c);
+        assertEquals(6, responseDb(c, 0), 1e-9);
+        BiquadEq.coefficients(BiquadEq.TYPE_HIGH_SHELF, SAMPLE_RATE, 5000, 0.707, -6, c);
+        assertEquals(-6, responseDb(c, SAMPLE_RATE / 2.0), 1e-9);
+    }
+
+    @Test
+    public void passFiltersAreThreeDecibelsDownAtTheCorner() {
+        BiquadEq lowPass = band(BiquadEq.TYPE_LOW_PASS, 1000, 0.7071f, 0f);
+        BiquadEq highPass = band(BiquadEq.TYPE_HIGH_PASS, 1000, 0.7071f, 0f);
+
+        assertEquals(-3.01, measureDb(lowPass, 1000), 0.05);
+        assertEquals(0, measureDb(lowPass, 100), 0.05);
+        // 12 dB an octave
+        assertTrue(measureDb(lowPass, 10000) < -38);
+        assertEquals(-3.01, measureDb(highPass, 1000), 0.05);
+        assertEquals(0, measureDb(highPass, 10000), 0.05);
+        assertTrue(measureDb(highPass, 100) < -38);
+    }
+
+    @Test
+    public void filteringMatchesTheTransferFunction() {
+        double[] c = new double[5];
+        float[] frequencies = {60, 250, 1000, 4000, 12000};
+        for (int type = BiquadEq.TYPE_PEAKING; type <= BiquadEq.TYPE_HIGH_PASS; type++) {
+            BiquadEq eq = band(type, 2000, 1.5f, 8f);
+            BiquadEq.coefficients(type, SAMPLE_RATE, 2000, 1.5, 8, c);
+            for (float frequency : frequencies) {
+                double expected = responseDb(c, frequency);
+                if (expected > -40) {
+                    assertEquals("type " + type + " at " + frequency, expected, measureDb(eq, frequency), 0.05);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void filtersEachChannelOnItsOwn() {
+        BiquadEq eq = new BiquadEq(BiquadEq.TYPE_LOW_PASS, 500, 0.707f, 0f);
+        eq.configure(SAMPLE_RATE, 2);
+        float[] samples = new float[2 * 4800];
+        float[] tone = sine(200, 4800, 0.5);
+        for (int i = 0; i < tone.length; i++) {
+            samples[2 * i] = tone[i];
+        }
+
+        eq.process(samples, 0, tone.length);
+
+        for (int i = 1; i < samples.length; i += 2) {
+            assertEquals(0f, samples[i], 0f);
+        }
+        assertTrue(rms(samples, samples.length / 2, samples.length) > 0.1);
+    }
+
+    /**
+     * Turning a band up while a tone plays glides the level up: no step steeper than the
+     * boosted tone itself has, and the new gain is reached.
+     */
+    @Test
+    public void glidesToNewSettingsWithoutClicks() {
+        BiquadEq eq = band(BiquadEq.TYPE_PEAKING, 1000, 1f, 0f);
+        double frequency = 1000;
+        double amplitude = 0.1;
+        int frames = SAMPLE_RATE / 2;
+        float[] samples = sine(frequency, frames, amplitude);
+        double boosted = amplitude * Math.pow(10, 12 / 20.0);
+        double steepest = 2 * Math.PI * frequency * boosted / SAMPLE_RATE;
+
+        eq.process(samples, 0, 4800);
+        eq.set(BiquadEq.TYPE_PEAKING, 1000, 1f, 12f);
+        for (int frame = 4800; frame < frames; frame += 256) {
+            eq.process(samples, frame, Math.min(256, frames - frame));
+        }
+
+        float largest = 0;
+        for (int i = 1; i < samples.length; i++) {
+            largest = Math.max(largest, Math.abs(samples[i] - samples[i - 1]));
+        }
+        assertTrue(largest <= steepest * 1.05);
+        double gainDb = 20 * Math.log10(rms(samples, frames - 4800, frames) / (amplitude / Math.sqrt(2)));
+        assertEquals(12, gainDb, 0.05);
+    }
+
+    @Test
+    public void settlesToSilence() {
+        BiquadEq eq = band(BiquadEq.TYPE_PEAKING, 100, 10f, 12f);
+        float[] samples = sine(100, 4800, 0.5);
+        eq.process(samples, 0, samples.length);
+        float[] silence = new float[SAMPLE_RATE * 10];
+
+        for (int frame = 0; frame < silence.length; frame += DspChain.DEFAULT_BLOCK_FRAMES) {
+            eq.process(silence, frame, Math.min(DspChain.DEFAULT_BLOCK_FRAMES, silence.length - frame));
+        }
+
+        assertEquals(0f, silence[silence.length - 1], 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownType() {
+        new BiquadEq(7, 1000, 1f, 0f);
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.cw.mediacodecdemo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkCacheTest {
+
+    private static final int CHUNK = 1000;
+
+    private File mDirectory;
+    private ChunkCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("chunks", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        if (mCache != null) {
+            mCache.close();
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * Serves {@link #content} with a counter of fetches, optionally holding them until released.
+     */
+    private static class FakeFetcher implements ChunkCache.Fetcher {
+        final byte[] content;
+        final AtomicInteger fetches = new AtomicInteger();
+        volatile CountDownLatch gate;
+        volatile boolean failing;
+
+        FakeFetcher(int size) {
+            content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i * 7 + i / 251);
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return content.length;
+        }
+
+        @Override
+        public void fetch(long position, byte[] buffer, int length) throws IOException {
+            fetches.incrementAndGet();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failing) {
+                throw new IOException("unreachable");
+            }
+            System.arraycopy(content, (int) position, buffer, 0, length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void readsAcrossChunksAndStopsAtTheEnd() throws IOException {
+        FakeFetcher fetcher = new FakeFetcher(3 * CHUNK + 123);
+        mCache = new ChunkCache(fetcher, CHUNK, 8);
+
+        byte[] buffer = new byte[2 * CHUNK];
+        assertEquals(1500, mCache.read(900, buffer, 10, 1500));
+        assertArrayEquals(Arrays.copyOfRange(fetcher.content, 900, 2400), Arrays.copyOfRange(buffer, 10, 1510));
+
+        // the short last chunk
+        assertEquals(123 + 50, mCache.read(3 * CHUNK - 50, buffer, 0, buffer.length));
+        assertArrayEquals(Arrays.copyOfRange(fetcher.content, 3 * CHUNK - 50, fetcher.content.length),
+                Arrays.copyOf(buffer, 173));
+        assertEquals(-1, mCache.read(fetcher.content.length, buffer, 0, 1));
+        assertEquals(4, fetcher.fetches.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChunks() throws IOException {
+        FakeFetcher fetcher = new FakeFetcher(10 * CHUNK);
+        mCache = new ChunkCache(fetcher, CHUNK, 2);
+        byte[] buffer = new byte[1];
+
+        mCache.read(0, buffer, 0, 1);
+        mCache.read(CHUNK, buffer, 0, 1);
+        mCache.read(0, buffer, 0, 1);
+        // chunk 1 is the least recently used and makes room for chunk 2
+        mCache.read(2 * CHUNK, buffer, 0, 1);
+        assertEquals(3, fetcher.fetches.get());
+        mCache.read(0, buffer, 0, 1);
+        assertEquals(3, fetcher.fetches.get());
+        mCache.read(CHUNK, buffer, 0, 1);
+        assertEquals(4, fetcher.fetches.get());
+    }
+
+    @Test
+    public void loopsFromTheDiskCacheWithoutFetchingAgain() throws IOException {
+        FakeFetcher fetcher = new FakeFetcher(20 * CHUNK);
+        mCache = new ChunkCache(fetcher, CHUNK, 2);
+        mCache.setDiskCache(mDirectory, 20);
+
+        byte[] whole = new byte[fetcher.content.length];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int position = 0; position < whole.length; position += 300) {
+                mCache.read(position, whole, position, Math.min(300, whole.length - position));
+            }
+            assertArrayEquals(fetcher.content, whole);
+            Arrays.fill(whole, (byte) 0);
+        }
+        assertEquals(20, fetcher.fetches.get());
+        assertEquals(20 * CHUNK, mCache.getBytesFetched());
+        // the second pass finds every chunk on disk, memory holding only the last two
+        assertEquals(20, mCache.getDiskHits());
+        assertEquals(20, mCache.getDiskChunks());
+    }
+
+    @Test
+    public void boundsTheDiskCache() throws IOException {
+        FakeFetcher fetcher = new FakeFetcher(10 * CHUNK);
+        mCache = new ChunkCache(fetcher, CHUNK, 1);
+        mCache.setDiskCache(mDirectory, 3);
+        byte[] buffer = new byte[CHUNK];
+
+        for (int chunk = 0; chunk < 10; chunk++) {
+            mCache.read(chunk * CHUNK, buffer, 0, CHUNK);
+        }
+        assertEquals(3, mCache.getDiskChunks());
+        // 7, 8 and 9 are on disk; slots taken over from older chunks hold the new data
+        mCache.read(7 * CHUNK, buffer, 0, CHUNK);
+        assertArrayEquals(Arrays.copyOfRange(fetcher.content, 7 * CHUNK, 8 * CHUNK), buffer);
+        assertEquals(10, fetcher.fetches.get());
+        mCache.read(0, buffer, 0, CHUNK);
+        assertEquals(11, fetcher.fetches.get());
+        mCache.close();
+        mCache = null;
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void concurrentReadersShareOneFetch() throws Exception {
+        final FakeFetcher fetcher = new FakeFetcher(4 * CHUNK);
+        fetcher.gate = new CountDownLatch(1);
+        mCache = new ChunkCache(fetcher, CHUNK, 4);
+
+        final byte[][] results = new byte[4][100];
+        final IOException[] errors = new IOException[4];
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            final int reader = i;
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mCache.read(CHUNK + 100 * reader, results[reader], 0, 100);
+                    } catch (IOException e) {
+                        errors[reader] = e;
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        while (mCache.getSharedFetches() < 3) {
+            Thread.sleep(5);
+        }
+        fetcher.gate.countDown();
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].join();
+            assertNull(errors[i]);
+            assertArrayEquals(Arrays.copyOfRange(fetcher.content, CHUNK + 100 * i, CHUNK + 100 * i + 100), results[i]);
+        }
+        assertEquals(1, fetcher.fetches.get());
+        assertEquals(1, mCache.getMisses());
+        assertEquals(0.75f, mCache.getHitRatio(), 0.001f);
+    }
+
+    @Test
+    public void readsAheadOfSequentialReads() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher(10 * CHUNK);
+        mCache = new ChunkCache(fetcher, CHUNK, 4);
+        mCache.setReadAhead(2);
+        byte[] buffer = new byte[CHUNK];
+
+        // reading from the start counts as sequential
+        mCache.read(0, buffer, 0, CHUNK);
+        awaitFetches(fetcher, 3);
+        mCache.read(CHUNK, buffer, 0, CHUNK);
+        awaitFetches(fetcher, 4);
+        assertEquals(3, mCache.getPrefetches());
+
+        mCache.read(2 * CHUNK, buffer, 0, CHUNK);
+        mCache.read(3 * CHUNK, buffer, 0, CHUNK);
+        assertArrayEquals(Arrays.copyOfRange(fetcher.content, 3 * CHUNK, 4 * CHUNK), buffer);
+        assertEquals(1, mCache.getMisses());
+    }
+
+    @Test
+    public void seeksDoNotReadAhead() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher(10 * CHUNK);
+        mCache = new ChunkCache(fetcher, CHUNK, 4);
+        mCache.setReadAhead(2);
+        byte[] buffer = new byte[10];
+
+        mCache.read(0, buffer, 0, 10);
+        mCache.read(5 * CHUNK, buffer, 0, 10);
+        mCache.read(2 * CHUNK, buffer, 0, 10);
+        Thread.sleep(50);
+        assertEquals(0, mCache.getPrefetches());
+        assertEquals(3, fetcher.fetches.get());
+    }
+
+    @Test
+    public void reportsFetchErrorsToEveryReader() throws IOException {
+        FakeFetcher fetcher = new FakeFetcher(4 * CHUNK);
+        fetcher.failing = true;
+        mCache = new ChunkCache(fetcher, CHUNK, 4);
+        byte[] buffer = new byte[10];
+
+        try {
+            mCache.read(0, buffer, 0, 10);
+            fail("read through a failed fetch");
+        } catch (IOException expected) {
+        }
+        // not cached: the next read tries again
+        fetcher.failing = false;
+        assertEquals(10, mCache.read(0, buffer, 0, 10));
+        assertEquals(2, fetcher.fetches.get());
+    }
+
+    @Test
+    public void fetchesRangesOverHttp() throws IOException {
+        final byte[] content = new FakeFetcher(5 * CHUNK + 10).content;
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/media.mp4", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int first = Integer.parseInt(bounds[0]);
+                int last = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + first + "-" + last + "/" + content.length);
+                exchange.sendResponseHeaders(206, last - first + 1);
+                OutputStream body = exchange.getResponseBody();
+                body.write(content, first, last - first + 1);
+                body.close();
+            }
+        });
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/media.mp4");
+            mCache = new ChunkCache(new HttpChunkFetcher(url), CHUNK, 8);
+            CachedDataSource source = new CachedDataSource(mCache);
+
+            assertEquals(content.length, source.getSize());
+            byte[] whole = new byte[content.length];
+            int position = 0;
+            int read;
+            while ((read = source.readAt(position, whole, position, 777)) > 0) {
+                position += read;
+            }
+            assertArrayEquals(content, whole);
+            // one for the size, one per chunk
+            assertEquals(1 + 6, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void awaitFetches(FakeFetcher fetcher, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetcher.fetches.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, fetcher.fetches.get());
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CodecPoolTest {
+
+    private FakeFactory mFactory;
+
+    @Before
+    public void setUp() {
+        mFactory = new FakeFactory();
+    }
+
+    @Test
+    public void reusesRecycledCodecWithSameKey() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 4);
+        FakeDecoder first = pool.acquire("avc", 0);
+        pool.recycle("avc", first);
+
+        assertSame(first, pool.acquire("avc", 0));
+        assertEquals(1, first.resetCount);
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void doesNotHandOutCodecOfAnotherKey() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 4);
+        FakeDecoder avc = pool.acquire("avc", 0);
+        pool.recycle("avc", avc);
+
+        FakeDecoder hevc = pool.acquire("hevc", 0);
+        assertNotSame(avc, hevc);
+        assertEquals("hevc", hevc.key);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenIdlePoolIsFull() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 4);
+        FakeDecoder a = pool.acquire("a", 0);
+        FakeDecoder b = pool.acquire("b", 0);
+        FakeDecoder c = pool.acquire("c", 0);
+        pool.recycle("a", a);
+        pool.recycle("b", b);
+        pool.recycle("c", c);
+
+        assertTrue(a.released);
+        assertFalse(b.released);
+        assertFalse(c.released);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(1, pool.getEvictedCount());
+    }
+
+    @Test
+    public void instanceLimitEvictsIdleCodecBeforeWaiting() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 2);
+        FakeDecoder a = pool.acquire("a", 0);
+        FakeDecoder b = pool.acquire("b", 0);
+        pool.recycle("a", a);
+
+        FakeDecoder c = pool.acquire("c", 0);
+        assertTrue(a.released);
+        assertEquals(2, mFactory.created.size() - mFactory.releasedCount());
+        assertNotNull(c);
+        assertNotNull(b);
+    }
+
+    @Test(expected = IOException.class)
+    public void instanceLimitTimesOutWhenAllCodecsAreInUse() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 2);
+        pool.acquire("a", 0);
+        pool.acquire("b", 0);
+        pool.acquire("c", 50);
+    }
+
+    @Test
+    public void tryAcquireReturnsAtOnceWhenAllCodecsAreInUse() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 2);
+        FakeDecoder a = pool.tryAcquire("a");
+        FakeDecoder b = pool.tryAcquire("b");
+        long startNs = System.nanoTime();
+
+        assertNull(pool.tryAcquire("c"));
+        assertTrue(System.nanoTime() - startNs < 50000000L);
+
+        // an idle codec makes room, as for acquire
+        pool.recycle("a", a);
+        assertNotNull(pool.tryAcquire("c"));
+        assertTrue(a.released);
+        assertNotNull(b);
+    }
+
+    @Test
+    public void waiterGetsInstanceWhenOneIsDiscarded() throws Exception {
+        final CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 1);
+        final FakeDecoder a = pool.acquire("a", 0);
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pool.discard(a);
+            }
+        });
+        releaser.start();
+
+        FakeDecoder b = pool.acquire("b", 5000);
+        releaser.join();
+        assertTrue(a.released);
+        assertEquals("b", b.key);
+    }
+
+    @Test
+    public void failedResetDiscardsCodec() throws Exception {
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 1);
+        FakeDecoder a = pool.acquire("a", 0);
+        a.failReset = true;
+        pool.recycle("a", a);
+
+        assertTrue(a.released);
+        assertEquals(0, pool.getIdleCount());
+        // its instance permit came back
+        assertNotNull(pool.acquire("a", 0));
+    }
+
+    @Test
+    public void reuseCutsSetupTime() throws Exception {
+        mFactory.createDelayMs = 30;
+        CodecPool<FakeDecoder> pool = new CodecPool<>(mFactory, 2, 4);
+
+        long coldNs = System.nanoTime();
+        FakeDecoder decoder = pool.acquire("avc", 0);
+        coldNs = System.nanoTime() - coldNs;
+        pool.recycle("avc", decoder);
+
+        long warmNs = System.nanoTime();
+        pool.acquire("avc", 0);
+        warmNs = System.nanoTime() - warmNs;
+
+        assertTrue("cold " + coldNs + "ns, warm " + warmNs + "ns", warmNs * 10 < coldNs);
+    }
+
+    private static class FakeDecoder {
+
+        final String key;
+        int resetCount;
+        boolean failReset;
+        boolean released;
+
+        FakeDecoder(String key) {
+            this.key = key;
+        }
+    }
+
+    private static class FakeFactory implements CodecPool.Factory<FakeDecoder> {
+
+        final List<FakeDecoder> created = new ArrayList<>();
+        long createDelayMs;
+
+        @Override
+        public FakeDecoder create(String key) throws IOException {
+            if (createDelayMs > 0) {
+                try {
+                    Thread.sleep(createDelayMs);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            FakeDecoder decoder = new FakeDecoder(key);
+            synchronized (created) {
+                created.add(decoder);
+            }
+            return decoder;
+        }
+
+        @Override
+        public void reset(FakeDecoder codec) {
+            if (codec.failReset) {
+                throw new IllegalStateException("reset failed");
+            }
+            codec.resetCount++;
+        }
+
+        @Override
+        public void release(FakeDecoder codec) {
+            codec.released = true;
+        }
+
+        int releasedCount() {
+            int count = 0;
+            synchronized (created) {
+                for (FakeDecoder decoder : created) {
+                    if (decoder.released) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
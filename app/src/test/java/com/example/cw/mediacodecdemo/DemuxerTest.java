@@ -0,0 +1,254 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DemuxerTest {
+
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    @Test
+    public void sharedDemuxerReadsTheContainerOnce() throws Exception {
+        InterleavedSource container = new InterleavedSource(100, -1);
+        Demuxer demuxer = new Demuxer(container);
+        QueueSampleSource video = demuxer.addTrack(VIDEO, 2, 4096);
+        QueueSampleSource audio = demuxer.addTrack(AUDIO, 2, 4096);
+        demuxer.start();
+
+        Drain videoDrain = new Drain(video);
+        Drain audioDrain = new Drain(audio);
+        videoDrain.start();
+        audioDrain.start();
+        videoDrain.join(10000);
+        audioDrain.join(10000);
+
+        assertEquals(100, videoDrain.times.size());
+        assertEquals(100, audioDrain.times.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(container.timeOf(VIDEO, i), (long) videoDrain.times.get(i));
+            assertEquals(container.timeOf(AUDIO, i), (long) audioDrain.times.get(i));
+        }
+        assertEquals(0, videoDrain.badBytes + audioDrain.badBytes);
+        assertEquals(container.totalBytes(), demuxer.getBytesRead());
+
+        // one extractor per player has to read through the other track's samples as well
+        InterleavedSource videoOnly = new InterleavedSource(100, VIDEO);
+        InterleavedSource audioOnly = new InterleavedSource(100, AUDIO);
+        drainDirectly(videoOnly);
+        drainDirectly(audioOnly);
+        assertEquals(2 * demuxer.getBytesRead(), videoOnly.bytesRead + audioOnly.bytesRead);
+    }
+
+    @Test
+    public void fullQueueStopsTheDemuxer() throws Exception {
+        InterleavedSource container = new InterleavedSource(100, -1);
+        Demuxer demuxer = new Demuxer(container);
+        QueueSampleSource video = demuxer.addTrack(VIDEO, 3, 4096);
+        demuxer.addTrack(AUDIO, 3, 4096);
+        demuxer.start();
+        Thread.sleep(200);
+
+        // nobody consumes, so at most one queue's worth of each track is read
+        assertTrue(container.position <= 2 * 3 + 1);
+        assertEquals(3, video.getQueue().size());
+        demuxer.release();
+    }
+
+    @Test
+    public void seekFromOneTrackMovesBoth() throws Exception {
+        InterleavedSource container = new InterleavedSource(100, -1);
+        Demuxer demuxer = new Demuxer(container);
+        QueueSampleSource video = demuxer.addTrack(VIDEO, 4, 4096);
+        QueueSampleSource audio = demuxer.addTrack(AUDIO, 4, 4096);
+        demuxer.start();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 3; i++) {
+            video.readSampleData(buffer, 0);
+            video.advance();
+        }
+        assertEquals(container.timeOf(AUDIO, 0), audio.getSampleTime());
+
+        video.seekTo(container.timeOf(VIDEO, 50), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        assertEquals(container.timeOf(VIDEO, 50), video.getSampleTime());
+        assertEquals(container.timeOf(AUDIO, 50), audio.getSampleTime());
+        video.release();
+        audio.release();
+    }
+
+    @Test
+    public void shortSeekChangesTheSerialTheOtherTrackSees() throws Exception {
+        InterleavedSource container = new InterleavedSource(100, -1);
+        Demuxer demuxer = new Demuxer(container);
+        QueueSampleSource video = demuxer.addTrack(VIDEO, 4, 4096);
+        QueueSampleSource audio = demuxer.addTrack(AUDIO, 4, 4096);
+        demuxer.start();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        audio.readSampleData(buffer, 0);
+        int serial = audio.getSampleSerial();
+        audio.advance();
+
+        // lands just past the audio read so far: nothing in the timestamps gives it away
+        video.seekTo(container.timeOf(VIDEO, 2), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        assertEquals(container.timeOf(AUDIO, 2), audio.getSampleTime());
+        assertNotEquals(serial, audio.getSampleSerial());
+        video.release();
+        audio.release();
+    }
+
+    @Test
+    public void loopingKeepsTracksContinuousAndInLockstep() throws Exception {
+        InterleavedSource container = new InterleavedSource(10, -1);
+        Demuxer demuxer = new Demuxer(container);
+        QueueSampleSource video = demuxer.addTrack(VIDEO, 4, 4096);
+        QueueSampleSource audio = demuxer.addTrack(AUDIO, 4, 4096);
+        demuxer.setLoop(true);
+        demuxer.start();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        // three and a half passes over the file; every step, including the loop boundaries,
+        // is exactly one sample duration
+        int serial = audio.getSampleSerial();
+        for (int i = 0; i < 35; i++) {
+            assertTrue(video.readSampleData(buffer, 0) > 0);
+            assertEquals(container.timeOf(VIDEO, i), video.getSampleTime());
+            video.advance();
+            assertTrue(audio.readSampleData(buffer, 0) > 0);
+            assertEquals(container.timeOf(AUDIO, i), audio.getSampleTime());
+            assertEquals(serial, audio.getSampleSerial());
+            audio.advance();
+        }
+        video.release();
+        audio.release();
+    }
+
+    private static void drainDirectly(SampleSource source) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (source.readSampleData(buffer, 0) >= 0) {
+            source.advance();
+        }
+    }
+
+    /**
+     * Video and audio samples alternating, every sample a sync sample.  With a track selected it
+     * behaves like a single-track extractor that still has to read past the other track.
+     */
+    private static class InterleavedSource implements SampleSource {
+
+        private final int mSamplesPerTrack;
+        private final int mSelectedTrack;
+        int position;
+        long bytesRead;
+
+        InterleavedSource(int samplesPerTrack, int selectedTrack) {
+            this.mSamplesPerTrack = samplesPerTrack;
+            this.mSelectedTrack = selectedTrack;
+            skipUnselected();
+        }
+
+        long timeOf(int track, int sample) {
+            return sample * 20000L + track * 10000L;
+        }
+
+        long totalBytes() {
+            long total = 0;
+            for (int i = 0; i < 2 * mSamplesPerTrack; i++) {
+                total += sizeOf(i);
+            }
+            return total;
+        }
+
+        private int sizeOf(int position) {
+            return position % 2 == VIDEO ? 1000 + position : 200;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (position >= 2 * mSamplesPerTrack) {
+                return -1;
+            }
+            int size = sizeOf(position);
+            for (int i = 0; i < size; i++) {
+                buffer.put(offset + i, (byte) position);
+            }
+            bytesRead += size;
+            return size;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return position < 2 * mSamplesPerTrack ? timeOf(position % 2, position / 2) : -1;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return MediaExtractor.SAMPLE_FLAG_SYNC;
+        }
+
+        @Override
+        public int getSampleTrackIndex() {
+            return position < 2 * mSamplesPerTrack ? position % 2 : -1;
+        }
+
+        @Override
+        public boolean advance() {
+            position++;
+            skipUnselected();
+            return position < 2 * mSamplesPerTrack;
+        }
+
+        private void skipUnselected() {
+            while (mSelectedTrack >= 0 && position < 2 * mSamplesPerTrack && position % 2 != mSelectedTrack) {
+                bytesRead += sizeOf(position);
+                position++;
+            }
+        }
+
+        @Override
+        public void seekTo(long timeUs, int mode) {
+            position = (int) (timeUs / 20000) * 2;
+            skipUnselected();
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private static class Drain extends Thread {
+
+        private final SampleSource mSource;
+        final List<Long> times = new ArrayList<>();
+        int badBytes;
+
+        Drain(SampleSource source) {
+            this.mSource = source;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            int size;
+            while ((size = mSource.readSampleData(buffer, 0)) >= 0) {
+                long timeUs = mSource.getSampleTime();
+                times.add(timeUs);
+                for (int i = 0; i < size; i++) {
+                    if (buffer.get(i) != buffer.get(0)) {
+                        badBytes++;
+                    }
+                }
+                mSource.advance();
+            }
+            mSource.release();
+        }
+    }
+}
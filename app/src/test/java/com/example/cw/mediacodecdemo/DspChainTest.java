@@ -0,0 +1,309 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DspChainTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    /**
+     * Records how many frames it was handed and leaves them alone.
+     */
+    private static class CountingStage implements DspChain.Stage {
+
+        int channels;
+        int frames;
+        int resets;
+
+        @Override
+        public void configure(int sampleRate, int channels) {
+            this.channels = channels;
+        }
+
+        @Override
+        public void process(float[] samples, int offset, int frames) {
+            this.frames += frames;
+        }
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+    }
+
+    private static short[] noise(int samples, long seed) {
+        short[] pcm = new short[samples];
+        Random random = new Random(seed);
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) random.nextInt();
+        }
+        return pcm;
+    }
+
+    @Test
+    public void emptyChainLeavesPcmAlone() {
+        DspChain chain = new DspChain(SAMPLE_RATE, 2, 100);
+        short[] pcm = noise(2 * 1000, 1);
+        short[] expected = pcm.clone();
+
+        chain.process(pcm, 0, 1000);
+
+        assertArrayEquals(expected, pcm);
+        assertFalse(chain.isActive());
+    }
+
+    @Test
+    public void handsStagesBlocksOfAtMostTheBlockSize() {
+        DspChain chain = new DspChain(SAMPLE_RATE, 2, 128);
+        CountingStage stage = new CountingStage();
+        chain.add(stage);
+        short[] pcm = new short[2 * 1000];
+
+        chain.process(pcm, 0, 1000);
+
+        assertEquals(2, stage.channels);
+        assertEquals(1000, stage.frames);
+        assertTrue(chain.isActive());
+    }
+
+    @Test
+    public void runsTheStagesInOrderAndClipsTheResult() {
+        DspChain chain = new DspChain(SAMPLE_RATE, 1);
+        GainRamp gain = new GainRamp(0);
+        gain.setGain(4f);
+        chain.add(gain);
+        short[] pcm = {16384, -16384, 1000};
+
+        chain.process(pcm, 0, 3);
+
+        assertArrayEquals(new short[]{Short.MAX_VALUE, Short.MIN_VALUE, 4000}, pcm);
+
+        PeakLimiter limiter = new PeakLimiter(-6.0206f);
+        chain.add(limiter);
+        short[] limited = {16384, -16384, 1000};
+        chain.process(limited, 0, 3);
+
+        // the limiter sees what the gain made, and holds it at the ceiling
+        assertEquals(16384, limited[0]);
+        assertEquals(-16384, limited[1]);
+        assertEquals(1000, limited[2], 1);
+    }
+
+    @Test
+    public void bypassCrossFadesWithoutClicks() {
+        int rampFrames = SAMPLE_RATE / 100;
+        DspChain chain = new DspChain(SAMPLE_RATE, 2, 256);
+        GainRamp mute = new GainRamp(0);
+        mute.setGain(0f);
+        chain.add(mute);
+        chain.setBypassed(mute, true);
+        chain.reset();
+        float[] samples = new float[2 * rampFrames * 2];
+        Arrays.fill(samples, 0.5f);
+
+        chain.process(samples, 0, rampFrames * 2);
+
+        for (float sample : samples) {
+            assertEquals(0.5f, sample, 0f);
+        }
+
+        chain.setBypassed(mute, false);
+        Arrays.fill(samples, 0.5f);
+        chain.process(samples, 0, rampFrames * 2);
+
+        float step = 0.5f / rampFrames;
+        for (int i = 2; i < samples.length; i += 2) {
+            float fall = samples[i - 2] - samples[i];
+            assertTrue(fall >= 0 && fall <= step * 1.01f);
+            assertEquals(samples[i], samples[i + 1], 0f);
+        }
+        assertEquals(0f, samples[samples.length - 1], 0f);
+        assertTrue(samples[rampFrames * 2 - 2] < step * 2);
+
+        chain.setBypassed(mute, true);
+        Arrays.fill(samples, 0.5f);
+        chain.process(samples, 0, rampFrames * 2);
+
+        assertTrue(samples[0] <= step * 1.01f);
+        assertEquals(0.5f, samples[samples.length - 1], 0f);
+        assertFalse(chain.isActive());
+    }
+
+    @Test
+    public void bypassedStageIsNotRun() {
+        DspChain chain = new DspChain(SAMPLE_RATE, 2);
+        CountingStage stage = new CountingStage();
+        chain.add(stage);
+        chain.setBypassed(stage, true);
+        chain.reset();
+        int resets = stage.resets;
+
+        chain.process(new short[2 * 2000], 0, 2000);
+        assertEquals(0, stage.frames);
+
+        // coming back, it starts afresh
+        chain.setBypassed(stage, false);
+        chain.process(new short[2 * 10], 0, 10);
+        assertEquals(10, stage.frames);
+        assertEquals(resets + 1, stage.resets);
+    }
+
+    @Test
+    public void stagesComeAndGo() {
+        DspChain chain = new DspChain(SAMPLE_RATE, 1);
+        CountingStage first = new CountingStage();
+        CountingStage second = new CountingStage();
+        chain.add(first);
+        chain.add(second);
+
+        assertTrue(chain.remove(first));
+        assertFalse(chain.remove(first));
+        chain.process(new short[10], 0, 10);
+
+        assertEquals(0, first.frames);
+        assertEquals(10, second.frames);
+        assertTrue(chain.isBypassed(first));
+    }
+
+    @Test
+    public void byteBuffersMatchShortArrays() {
+        DspChain reference = new DspChain(SAMPLE_RATE, 2, 64);
+        reference.add(new BiquadEq(BiquadEq.TYPE_PEAKING, 2000, 1f, 6f));
+        reference.add(new PeakLimiter(-1f));
+        short[] expected = noise(2 * 500, 3);
+        ByteBuffer in = ByteBuffer.allocateDirect(expected.length * 2).order(ByteOrder.nativeOrder());
+        in.asShortBuffer().put(expected);
+        reference.process(expected, 0, 500);
+        DspChain chain = new DspChain(SAMPLE_RATE, 2, 64);
+        chain.add(new BiquadEq(BiquadEq.TYPE_PEAKING, 2000, 1f, 6f));
+        chain.add(new PeakLimiter(-1f));
+        ByteBuffer out = ByteBuffer.allocateDirect(100 * 2 * 2);
+        ByteBuffer all = ByteBuffer.allocate(in.capacity()).order(ByteOrder.nativeOrder());
+
+        int frames = 0;
+        while (true) {
+            out.clear();
+            int processed = chain.process(in, out);
+            if (processed == 0) {
+                break;
+            }
+            assertTrue(processed <= 64);
+            frames += processed;
+            out.flip();
+            all.put(out);
+        }
+
+        assertEquals(500, frames);
+        all.flip();
+        for (short sample : expected) {
+            assertEquals(sample, all.getShort());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotBypassAStrangeStage() {
+        new DspChain(SAMPLE_RATE, 2).setBypassed(new CountingStage(), true);
+    }
+
+    /**
+     * Not a pass/fail benchmark: prints the cost of each stage and of the whole chain in
+     * nanoseconds per sample of 48 kHz stereo, and checks that processing does not allocate.
+     */
+    @Test
+    public void throughput() {
+        int seconds = 10;
+        short[] second = noise(SAMPLE_RATE * 2, 11);
+        for (int i = 0; i < second.length; i++) {
+            second[i] /= 4;
+        }
+        short[] pcm = new short[second.length];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        String[] names = {"empty", "gain", "eq", "limiter", "gain+eq*3+limiter", "all bypassed"};
+        for (String name : names) {
+            DspChain chain = chain(name);
+            // warm up
+            run(chain, second, pcm, 2);
+            long allocated = allocatedBytes(threads);
+            long startNs = System.nanoTime();
+            run(chain, second, pcm, seconds);
+            long elapsedNs = System.nanoTime() - startNs;
+            allocated = allocatedBytes(threads) - allocated;
+            double nsPerSample = (double) elapsedNs / (seconds * (long) second.length);
+            System.out.println("DspChain 48 kHz stereo " + name
+                    + String.format(" %.2f ns/sample", nsPerSample)
+                    + (allocated >= 0 ? " allocated=" + allocated + " bytes" : ""));
+            // real time is about 10400 ns a sample
+            assertTrue(nsPerSample < 1000);
+            if (allocated >= 0) {
+                // the JIT may allocate a little once; anything per block would be thousands
+                assertTrue(allocated < 1024);
+            }
+        }
+    }
+
+    private static DspChain chain(String name) {
+        DspChain chain = new DspChain(SAMPLE_RATE, 2);
+        GainRamp gain = new GainRamp();
+        gain.setGainDb(-3f);
+        DspChain.Stage[] stages;
+        switch (name) {
+            case "empty":
+                stages = new DspChain.Stage[0];
+                break;
+            case "gain":
+                stages = new DspChain.Stage[]{gain};
+                break;
+            case "eq":
+                stages = new DspChain.Stage[]{new BiquadEq(BiquadEq.TYPE_PEAKING, 1000, 1.4f, -3f)};
+                break;
+            case "limiter":
+                stages = new DspChain.Stage[]{new PeakLimiter(-1f)};
+                break;
+            default:
+                stages = new DspChain.Stage[]{
+                        gain,
+                        new BiquadEq(BiquadEq.TYPE_LOW_SHELF, 120, 0.707f, 4f),
+                        new BiquadEq(BiquadEq.TYPE_PEAKING, 1000, 1.4f, -3f),
+                        new BiquadEq(BiquadEq.TYPE_HIGH_SHELF, 8000, 0.707f, 2f),
+                        new PeakLimiter(-1f)};
+                break;
+        }
+        for (DspChain.Stage stage : stages) {
+            chain.add(stage);
+            chain.setBypassed(stage, name.equals("all bypassed"));
+        }
+        chain.reset();
+        return chain;
+    }
+
+    private static void run(DspChain chain, short[] second, short[] pcm, int seconds) {
+        for (int s = 0; s < seconds; s++) {
+            System.arraycopy(second, 0, pcm, 0, pcm.length);
+            for (int frame = 0; frame < pcm.length / 2; frame += 1024) {
+                chain.process(pcm, frame * 2, Math.min(1024, pcm.length / 2 - frame));
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 where the JVM does not count them.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()) {
+                return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
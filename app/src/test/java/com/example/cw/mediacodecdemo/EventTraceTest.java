@@ -0,0 +1,84 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class EventTraceTest {
+
+    @Before
+    public void setUp() {
+        EventTrace.setLevel(EventTrace.LEVEL_VERBOSE);
+        EventTrace.clear();
+    }
+
+    @After
+    public void tearDown() {
+        EventTrace.setLevel(EventTrace.COMPILED_LEVEL);
+        EventTrace.clear();
+    }
+
+    @Test
+    public void dumpsEventsInRecordingOrder() throws Exception {
+        EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_INPUT_QUEUED, 33333, 1200);
+        EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_FRAME_DROPPED, 66666, 0);
+
+        StringWriter out = new StringWriter();
+        EventTrace.dump(out);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" input_queued 33333 1200"));
+        assertTrue(lines[1], lines[1].endsWith(" frame_dropped 66666 0"));
+    }
+
+    @Test
+    public void runtimeLevelFiltersEvents() {
+        EventTrace.setLevel(EventTrace.LEVEL_INFO);
+        EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_OUTPUT_TRY_AGAIN, 0, 0);
+        EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_OUTPUT_EOS, 0, 0);
+        assertEquals(1, EventTrace.getRecordedCount());
+
+        EventTrace.setLevel(EventTrace.LEVEL_OFF);
+        EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_OUTPUT_EOS, 0, 0);
+        assertEquals(1, EventTrace.getRecordedCount());
+    }
+
+    @Test
+    public void keepsOnlyTheNewestEventsWhenFull() throws Exception {
+        for (int i = 0; i < 20000; i++) {
+            EventTrace.record(EventTrace.LEVEL_INFO, EventTrace.EVENT_FRAME_RENDERED, i, 0);
+        }
+
+        StringWriter out = new StringWriter();
+        EventTrace.dump(out);
+        String[] lines = out.toString().split("\n");
+
+        assertTrue(lines.length < 20000);
+        assertTrue(lines[lines.length - 1], lines[lines.length - 1].endsWith(" frame_rendered 19999 0"));
+        assertTrue(lines[0], lines[0].endsWith(" frame_rendered " + (20000 - lines.length) + " 0"));
+    }
+
+    @Test
+    public void recordingAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 50000; i++) {
+            EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_OUTPUT_BUFFER, i, i);
+        }
+        int events = 200000;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < events; i++) {
+            EventTrace.record(EventTrace.LEVEL_VERBOSE, EventTrace.EVENT_OUTPUT_BUFFER, i, i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("allocated " + allocated + " bytes for " + events + " events", allocated < events / 100);
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scripted {@link Codec} for JVM tests.
+ * <p>
+ * Every queued input comes straight back as one output buffer with the same timestamp and
+ * flags.  In asynchronous mode the events are queued and only delivered by {@link #pump}, so the
+ * test controls exactly when the code under test wakes up.  In synchronous mode, when no callback
+ * is set, an output only becomes ready once {@link #outputDelay} later inputs are queued behind
+ * it, and an input slot is only free again once its output is released.
+ */
+class FakeCodec implements Codec {
+
+    final int slotCount;
+    final ByteBuffer[] inputBuffers;
+    final ByteBuffer[] outputBuffers;
+    final long[] outputPts;
+    final List<Long> queuedPts = new ArrayList<>();
+    final List<Long> renderedPts = new ArrayList<>();
+    final List<Long> droppedPts = new ArrayList<>();
+    int outputDelay;
+    long blockedUs;
+    int flushCount;
+    int startCount;
+    boolean stopped;
+    boolean released;
+
+    private final ArrayDeque<Runnable> mEvents = new ArrayDeque<>();
+    private Callback mCallback;
+    private final int[] mOutputSizes;
+    private final int[] mOutputFlags;
+    private final ArrayDeque<Integer> mFreeInputs = new ArrayDeque<>();
+    private final ArrayDeque<Integer> mPipeline = new ArrayDeque<>();
+    private final ArrayDeque<Integer> mReadyOutputs = new ArrayDeque<>();
+
+    FakeCodec(int slotCount, int bufferSize) {
+        this.slotCount = slotCount;
+        inputBuffers = new ByteBuffer[slotCount];
+        outputBuffers = new ByteBuffer[slotCount];
+        outputPts = new long[slotCount];
+        mOutputSizes = new int[slotCount];
+        mOutputFlags = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            inputBuffers[i] = ByteBuffer.allocate(bufferSize);
+            outputBuffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    /**
+     * Delivers queued events, including the ones they trigger, until none remain or
+     * {@code maxEvents} have run.
+     *
+     * @return the number of events delivered.
+     */
+    int pump(int maxEvents) {
+        int count = 0;
+        while (count < maxEvents && !mEvents.isEmpty()) {
+            mEvents.poll().run();
+            count++;
+        }
+        return count;
+    }
+
+    void postError(final Exception e) {
+        mEvents.add(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onError(e);
+            }
+        });
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        Integer index = mFreeInputs.poll();
+        if (index == null) {
+            blockedUs += timeoutUs;
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+        return index;
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        Integer index = mReadyOutputs.poll();
+        if (index == null) {
+            blockedUs += timeoutUs;
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+        info.offset = 0;
+        info.size = mOutputSizes[index];
+        info.presentationTimeUs = outputPts[index];
+        info.flags = mOutputFlags[index];
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        inputBuffers[index].clear();
+        return inputBuffers[index];
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(final int index, int offset, final int size, final long presentationTimeUs,
+                                 final int flags) {
+        if ((flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == 0) {
+            queuedPts.add(presentationTimeUs);
+        }
+        outputPts[index] = presentationTimeUs;
+        outputBuffers[index].clear();
+        outputBuffers[index].limit(size);
+        if (mCallback != null) {
+            mEvents.add(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onOutputBufferAvailable(index, 0, size, presentationTimeUs, flags);
+                }
+            });
+            postInputAvailable(index);
+        } else {
+            mOutputSizes[index] = size;
+            mOutputFlags[index] = flags;
+            mPipeline.add(index);
+            boolean endOfStream = (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            while (mPipeline.size() > (endOfStream ? 0 : outputDelay)) {
+                mReadyOutputs.add(mPipeline.poll());
+            }
+        }
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        if (render) {
+            renderedPts.add(outputPts[index]);
+        } else {
+            droppedPts.add(outputPts[index]);
+        }
+        onOutputReleased(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        renderedPts.add(outputPts[index]);
+        onOutputReleased(index);
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public void start() {
+        startCount++;
+        if (mCallback != null) {
+            for (int i = 0; i < slotCount; i++) {
+                postInputAvailable(i);
+            }
+        } else {
+            resetSlots();
+        }
+    }
+
+    @Override
+    public void flush() {
+        flushCount++;
+        mEvents.clear();
+        if (mCallback == null) {
+            // a synchronous codec hands out every input slot again without a restart
+            resetSlots();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        mEvents.clear();
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    private void resetSlots() {
+        mFreeInputs.clear();
+        mPipeline.clear();
+        mReadyOutputs.clear();
+        for (int i = 0; i < slotCount; i++) {
+            mFreeInputs.add(i);
+        }
+    }
+
+    private void onOutputReleased(int index) {
+        if (mCallback == null) {
+            mFreeInputs.add(index);
+        }
+    }
+
+    private void postInputAvailable(final int index) {
+        mEvents.add(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onInputBufferAvailable(index);
+            }
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.cw.mediacodecdemo;
+
+/**
+ * Manually advanced {@link NanoClock} for JVM tests.
+ */
+class FakeNanoClock implements NanoClock {
+
+    long nowNs;
+
+    void advanceUs(long us) {
+        nowNs += us * 1000;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowNs;
+    }
+}
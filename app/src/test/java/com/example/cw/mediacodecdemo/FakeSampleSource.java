@@ -0,0 +1,103 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory {@link SampleSource} for JVM tests.  Each sample is filled with its own index so
+ * consumers can check that the right bytes arrived.
+ */
+class FakeSampleSource implements SampleSource {
+
+    final long[] sampleTimes;
+    final int[] sampleSizes;
+    final boolean[] syncSamples;
+    final int trackIndex;
+    long bytesRead;
+    int seekCount;
+    boolean released;
+
+    private int mPosition;
+
+    FakeSampleSource(long[] sampleTimes, int[] sampleSizes, boolean[] syncSamples, int trackIndex) {
+        this.sampleTimes = sampleTimes;
+        this.sampleSizes = sampleSizes;
+        this.syncSamples = syncSamples;
+        this.trackIndex = trackIndex;
+    }
+
+    /**
+     * {@code count} samples of {@code size} bytes spaced {@code frameDurationUs} apart, with a
+     * sync sample every {@code gop} samples.
+     */
+    static FakeSampleSource uniform(int count, int size, long frameDurationUs, int gop) {
+        long[] times = new long[count];
+        int[] sizes = new int[count];
+        boolean[] sync = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * frameDurationUs;
+            sizes[i] = size;
+            sync[i] = i % gop == 0;
+        }
+        return new FakeSampleSource(times, sizes, sync, 0);
+    }
+
+    int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (mPosition >= sampleTimes.length) {
+            return -1;
+        }
+        int size = sampleSizes[mPosition];
+        for (int i = 0; i < size; i++) {
+            buffer.put(offset + i, (byte) mPosition);
+        }
+        bytesRead += size;
+        return size;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mPosition < sampleTimes.length ? sampleTimes[mPosition] : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mPosition < sampleTimes.length && syncSamples[mPosition] ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mPosition < sampleTimes.length ? trackIndex : -1;
+    }
+
+    @Override
+    public boolean advance() {
+        if (mPosition >= sampleTimes.length) {
+            return false;
+        }
+        mPosition++;
+        return mPosition < sampleTimes.length;
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        seekCount++;
+        int target = 0;
+        for (int i = 0; i < sampleTimes.length; i++) {
+            if (syncSamples[i] && sampleTimes[i] <= timeUs) {
+                target = i;
+            }
+        }
+        mPosition = target;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+}
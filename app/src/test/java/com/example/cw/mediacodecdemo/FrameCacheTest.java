@@ -0,0 +1,184 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameCacheTest {
+
+    private static final int FRAME_SIZE = 1000;
+    private static final long FRAME_US = 33333;
+
+    private static ByteBuffer frame(int index) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        while (frame.hasRemaining()) {
+            frame.put((byte) index);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static long time(int index) {
+        return index * FRAME_US;
+    }
+
+    private static void fill(FrameCache cache, int first, int last) {
+        for (int i = first; i <= last; i++) {
+            cache.put(time(i), frame(i), null);
+        }
+    }
+
+    @Test
+    public void holdsACopyOfTheFrame() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        ByteBuffer source = frame(7);
+
+        assertTrue(cache.put(time(7), source, null));
+        source.put(0, (byte) 0);
+
+        FrameCache.Frame frame = cache.acquire(time(7));
+        assertEquals(time(7), frame.getPresentationTimeUs());
+        assertTrue(frame.getData().isDirect());
+        assertEquals(FRAME_SIZE, frame.getData().remaining());
+        assertEquals(7, frame.getData().get(0));
+        // the source was not moved
+        assertEquals(0, source.position());
+        cache.release(frame);
+    }
+
+    @Test
+    public void neverExceedsTheBudget() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE + 500, FrameCache.EVICT_FARTHEST);
+
+        fill(cache, 0, 99);
+
+        assertEquals(10, cache.getFrameCount());
+        assertEquals(10 * FRAME_SIZE, cache.getAllocatedBytes());
+        assertTrue(cache.getAllocatedBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void evictsTheFramesFarthestFromThePlayhead() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        cache.setPlayheadUs(time(50));
+
+        fill(cache, 40, 60);
+
+        // ten of the closest to frame 50 stay; on a tie the frame already held is kept
+        for (int i = 40; i <= 60; i++) {
+            assertEquals("frame " + i, i >= 45 && i <= 54, cache.contains(time(i)));
+        }
+        assertEquals(6, cache.getRejected());
+        // a frame farther than all of them is not taken
+        assertFalse(cache.put(time(80), frame(80), null));
+        // a closer one is
+        cache.setPlayheadUs(time(58));
+        assertTrue(cache.put(time(58), frame(58), null));
+        assertFalse(cache.contains(time(45)));
+    }
+
+    @Test
+    public void leastRecentlyUsedPolicy() {
+        FrameCache cache = new FrameCache(3 * FRAME_SIZE, FrameCache.EVICT_LEAST_RECENTLY_USED);
+        fill(cache, 0, 2);
+        cache.release(cache.acquire(time(0)));
+
+        cache.put(time(3), frame(3), null);
+
+        assertTrue(cache.contains(time(0)));
+        assertFalse(cache.contains(time(1)));
+        assertTrue(cache.contains(time(2)));
+    }
+
+    @Test
+    public void pinnedFramesAreNotEvicted() {
+        FrameCache cache = new FrameCache(2 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        fill(cache, 0, 1);
+        cache.setPlayheadUs(time(10));
+        FrameCache.Frame zero = cache.acquire(time(0));
+        FrameCache.Frame one = cache.acquire(time(1));
+
+        assertFalse(cache.put(time(10), frame(10), null));
+
+        cache.release(zero);
+        assertTrue(cache.put(time(10), frame(10), null));
+        assertFalse(cache.contains(time(0)));
+        assertEquals(1, one.getData().get(0));
+        cache.release(one);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseTwiceFails() {
+        FrameCache cache = new FrameCache(FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        fill(cache, 0, 0);
+        FrameCache.Frame frame = cache.acquire(time(0));
+        cache.release(frame);
+        cache.release(frame);
+    }
+
+    @Test
+    public void lookupWithTolerance() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        fill(cache, 10, 12);
+
+        FrameCache.Frame frame = cache.acquire(time(11) + 20000, FRAME_US - 1);
+        assertEquals(time(11), frame.getPresentationTimeUs());
+        cache.release(frame);
+        assertNull(cache.acquire(time(11) + 20000));
+        // past the last frame by more than the tolerance
+        assertNull(cache.acquire(time(14), FRAME_US - 1));
+        assertNull(cache.acquire(time(9), FRAME_US - 1));
+
+        assertEquals(0.25f, cache.getHitRatio(), 0.001f);
+    }
+
+    @Test
+    public void reusesEvictedBuffers() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+
+        for (int i = 0; i < 100; i++) {
+            cache.setPlayheadUs(time(i));
+            cache.put(time(i), frame(i), null);
+        }
+
+        assertEquals(10, cache.getAllocations());
+        assertEquals(90, cache.getEvictions());
+        FrameCache.Frame last = cache.acquire(time(99));
+        assertEquals(99, last.getData().get(FRAME_SIZE - 1));
+        cache.release(last);
+    }
+
+    @Test
+    public void countsFramesInARange() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        fill(cache, 0, 4);
+
+        assertEquals(3, cache.count(time(1), time(3)));
+        assertEquals(0, cache.count(time(3), time(1)));
+    }
+
+    @Test
+    public void clearKeepsPinnedFramesUntilReleased() {
+        FrameCache cache = new FrameCache(10 * FRAME_SIZE, FrameCache.EVICT_FARTHEST);
+        fill(cache, 0, 4);
+        FrameCache.Frame pinned = cache.acquire(time(2));
+
+        cache.clear();
+
+        assertEquals(0, cache.getFrameCount());
+        assertEquals(FRAME_SIZE, cache.getAllocatedBytes());
+        assertEquals(2, pinned.getData().get(0));
+        cache.release(pinned);
+        assertEquals(0, cache.getAllocatedBytes());
+    }
+
+    @Test
+    public void tooBigFrameRejected() {
+        FrameCache cache = new FrameCache(FRAME_SIZE - 1, FrameCache.EVICT_FARTHEST);
+
+        assertFalse(cache.put(0, frame(0), null));
+        assertEquals(0, cache.getAllocatedBytes());
+    }
+}
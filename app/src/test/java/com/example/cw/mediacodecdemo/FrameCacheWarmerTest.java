@@ -0,0 +1,123 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameCacheWarmerTest {
+
+    private static final long FRAME_US = 33333;
+    private static final YuvLayout LAYOUT = new YuvLayout(YuvLayout.FORMAT_I420, 4, 2);
+
+    private FakeCodec mCodec;
+    private FakeSampleSource mSource;
+    private FrameCache mCache;
+    private FrameCacheWarmer mWarmer;
+    private boolean mClosed;
+
+    @Before
+    public void setUp() {
+        mCodec = new FakeCodec(4, 64);
+        mCodec.outputDelay = 2;
+        mSource = FakeSampleSource.uniform(300, LAYOUT.getFrameSize(), FRAME_US, 30);
+        mCache = new FrameCache(200 * LAYOUT.getFrameSize(), FrameCache.EVICT_FARTHEST);
+        mWarmer = new FrameCacheWarmer(mCache, new BatchFrameExtractor.Clip() {
+            @Override
+            public Codec getCodec() {
+                return mCodec;
+            }
+
+            @Override
+            public SampleSource getSource() {
+                return mSource;
+            }
+
+            @Override
+            public YuvLayout getLayout() {
+                return LAYOUT;
+            }
+
+            @Override
+            public void close(boolean failed) {
+                mClosed = true;
+            }
+        });
+        mWarmer.setWindow(frame(10), frame(20));
+    }
+
+    @After
+    public void tearDown() {
+        mWarmer.release();
+    }
+
+    private static long frame(int index) {
+        return index * FRAME_US;
+    }
+
+    private void moveTo(int index) throws InterruptedException {
+        mWarmer.setPlayheadUs(frame(index));
+        assertTrue(mWarmer.awaitIdle(5000));
+    }
+
+    @Test
+    public void warmsTheWindowAroundThePlayhead() throws InterruptedException {
+        moveTo(100);
+
+        assertEquals(31, mCache.count(frame(90), frame(120)));
+        assertEquals(31, mCache.getFrameCount());
+        FrameCache.Frame frame = mCache.acquire(frame(95));
+        assertSame(LAYOUT, frame.getLayout());
+        assertEquals(LAYOUT.getFrameSize(), frame.getData().remaining());
+        mCache.release(frame);
+        assertEquals(frame(100), mCache.getPlayheadUs());
+    }
+
+    @Test
+    public void scrubbingOnlyDecodesWhatIsNew() throws InterruptedException {
+        moveTo(100);
+        long decoded = mWarmer.getFramesDecoded();
+
+        moveTo(105);
+        assertEquals(decoded + 5, mWarmer.getFramesDecoded());
+        assertEquals(36, mCache.count(frame(90), frame(125)));
+
+        moveTo(95);
+        assertEquals(decoded + 10, mWarmer.getFramesDecoded());
+
+        // all of it cached already
+        long runs = mWarmer.getRuns();
+        moveTo(100);
+        assertEquals(runs, mWarmer.getRuns());
+        assertEquals(1, mWarmer.getSkippedRequests());
+    }
+
+    @Test
+    public void decodesAgainWhatWasEvicted() throws InterruptedException {
+        moveTo(100);
+        mCache.clear();
+
+        moveTo(100);
+
+        assertEquals(2, mWarmer.getRuns());
+        assertEquals(31, mCache.count(frame(90), frame(120)));
+    }
+
+    @Test
+    public void windowStopsAtTheStartAndEnd() throws InterruptedException {
+        moveTo(3);
+        assertEquals(24, mCache.getFrameCount());
+
+        moveTo(295);
+        assertEquals(24 + 15, mCache.getFrameCount());
+        assertNull(mWarmer.getError());
+    }
+
+    @Test
+    public void releaseClosesTheClip() {
+        mWarmer.release();
+
+        assertTrue(mClosed);
+    }
+}
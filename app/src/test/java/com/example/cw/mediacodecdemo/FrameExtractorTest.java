@@ -0,0 +1,173 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameExtractorTest {
+
+    private static final long FRAME_US = 33333;
+
+    private FakeCodec mCodec;
+    private FakeSampleSource mSource;
+    private FrameExtractor mExtractor;
+    private RecordingSink mSink;
+
+    @Before
+    public void setUp() {
+        mCodec = new FakeCodec(4, 64);
+        mCodec.outputDelay = 2;
+        mSource = FakeSampleSource.uniform(300, 16, FRAME_US, 30);
+        mExtractor = new FrameExtractor(mCodec, mSource);
+        mSink = new RecordingSink();
+    }
+
+    private static class RecordingSink implements FrameExtractor.FrameSink {
+        final List<Integer> requests = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void onFrame(int request, long presentationTimeUs, ByteBuffer frame) {
+            assertEquals(16, frame.remaining());
+            requests.add(request);
+            times.add(presentationTimeUs);
+        }
+    }
+
+    @Test
+    public void keyframeModeDecodesEachSyncSampleOnce() throws IOException {
+        long[] times = {frame(15), frame(27), frame(60), frame(150)};
+
+        int frames = mExtractor.extract(times, FrameExtractor.MODE_NEAREST_KEYFRAME, mSink);
+
+        assertEquals(4, frames);
+        assertEquals(Arrays.asList(0, 1, 2, 3), mSink.requests);
+        assertEquals(Arrays.asList(0L, 0L, frame(60), frame(150)), mSink.times);
+        // only the sync samples went in, and nothing was shown
+        assertEquals(Arrays.asList(0L, frame(60), frame(150)), mCodec.queuedPts);
+        assertEquals(3, mExtractor.getSamplesQueued());
+        assertEquals(0, mExtractor.getFramesSkipped());
+        assertTrue(mCodec.renderedPts.isEmpty());
+    }
+
+    @Test
+    public void exactModeDecodesOnThroughAGroupOfPictures() throws IOException {
+        long[] times = {frame(5), frame(12), frame(12), frame(45)};
+
+        int frames = mExtractor.extract(times, FrameExtractor.MODE_EXACT, mSink);
+
+        assertEquals(4, frames);
+        assertEquals(Arrays.asList(frame(5), frame(12), frame(12), frame(45)), mSink.times);
+        // 5 and 12 share the first group; 45 needs the second
+        assertEquals(1, mCodec.flushCount);
+        int flushedAt = mCodec.queuedPts.indexOf(frame(30));
+        assertTrue(flushedAt > 12);
+        assertEquals(frame(12) + FRAME_US, (long) mCodec.queuedPts.get(13));
+        assertTrue(flushedAt < 12 + 1 + mCodec.slotCount + mCodec.outputDelay);
+        // every frame decoded but the three asked for: at least 0-4, 6-11 and 30-44
+        assertEquals(mExtractor.getFramesDecoded() - 3, mExtractor.getFramesSkipped());
+        assertTrue(mExtractor.getFramesSkipped() >= 26);
+        assertTrue(mCodec.renderedPts.isEmpty());
+    }
+
+    @Test
+    public void exactModeFindsTheFirstFrameAtOrAfterTheTime() throws IOException {
+        long[] times = {frame(3) + 1, frame(40) - 1};
+
+        mExtractor.extract(times, FrameExtractor.MODE_EXACT, mSink);
+
+        assertEquals(Arrays.asList(frame(4), frame(40)), mSink.times);
+    }
+
+    @Test
+    public void timesPastTheEndGetNoFrame() throws IOException {
+        mSource = FakeSampleSource.uniform(30, 16, FRAME_US, 10);
+        mExtractor = new FrameExtractor(mCodec, mSource);
+
+        int frames = mExtractor.extract(new long[]{frame(29), frame(31)}, FrameExtractor.MODE_EXACT, mSink);
+
+        assertEquals(1, frames);
+        assertEquals(Arrays.asList(frame(29)), mSink.times);
+    }
+
+    @Test
+    public void runsAgainWithTheSameCodec() throws IOException {
+        mExtractor.extract(new long[]{frame(100)}, FrameExtractor.MODE_EXACT, mSink);
+        mExtractor.extract(new long[]{frame(10)}, FrameExtractor.MODE_NEAREST_KEYFRAME, mSink);
+
+        assertEquals(Arrays.asList(frame(100), 0L), mSink.times);
+        // started once, then flushed for the second run
+        assertEquals(1, mCodec.startCount);
+        assertTrue(mCodec.flushCount >= 1);
+    }
+
+    @Test
+    public void rangeDecodesEveryFrameInIt() throws IOException {
+        int frames = mExtractor.extractRange(frame(40), frame(70), mSink);
+
+        assertEquals(31, frames);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 40; i <= 70; i++) {
+            expected.add(frame(i));
+            assertEquals(0, (int) mSink.requests.get(i - 40));
+        }
+        assertEquals(expected, mSink.times);
+        // decoding started at the sync sample before the range
+        assertEquals(0, (long) mCodec.queuedPts.get(0) - frame(30));
+        assertTrue(mExtractor.getFramesSkipped() >= 10);
+    }
+
+    @Test
+    public void rangeStopsAtTheEndOfTheClip() throws IOException {
+        int frames = mExtractor.extractRange(frame(295), frame(400), mSink);
+
+        assertEquals(5, frames);
+        assertEquals(frame(299), (long) mSink.times.get(4));
+    }
+
+    @Test
+    public void cancelReturnsTheFramesSoFar() throws IOException {
+        FrameExtractor.FrameSink cancelling = new FrameExtractor.FrameSink() {
+            @Override
+            public void onFrame(int request, long presentationTimeUs, ByteBuffer frame) {
+                mSink.onFrame(request, presentationTimeUs, frame);
+                if (mSink.times.size() == 3) {
+                    mExtractor.cancel();
+                }
+            }
+        };
+
+        assertEquals(3, mExtractor.extractRange(frame(0), frame(100), cancelling));
+        // the next run is not cancelled
+        assertEquals(1, mExtractor.extract(new long[]{frame(200)}, FrameExtractor.MODE_EXACT, mSink));
+    }
+
+    @Test(expected = IOException.class)
+    public void givesUpOnACodecThatProducesNothing() throws IOException {
+        FakeCodec stuck = new FakeCodec(4, 64) {
+            @Override
+            public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+        };
+        new FrameExtractor(stuck, mSource).extract(new long[]{frame(10)}, FrameExtractor.MODE_EXACT, mSink);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTimesOutOfOrder() throws IOException {
+        mExtractor.extract(new long[]{frame(10), frame(5)}, FrameExtractor.MODE_EXACT, mSink);
+    }
+
+    private static long frame(int index) {
+        return index * FRAME_US;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FramePresentationSchedulerTest {
+
+    private static final long PERIOD_NS = 16666667;
+    private static final long ORIGIN_NS = 1000000000L;
+    // frames are decoded this far ahead of their due time
+    private static final long DECODE_AHEAD_NS = 50000000L;
+
+    private final SimulatedDisplay mDisplay = new SimulatedDisplay();
+    private final FramePresentationScheduler mScheduler = new FramePresentationScheduler(mDisplay);
+
+    @Test
+    public void snapsToTheNearestVsyncAndReleasesAheadOfIt() {
+        mDisplay.advanceTo(ORIGIN_NS);
+
+        long releaseNs = mScheduler.schedule(ORIGIN_NS + 10 * PERIOD_NS + 3000000, ORIGIN_NS);
+        assertEquals(ORIGIN_NS + 10 * PERIOD_NS, mScheduler.getPresentationTimeNs());
+        assertEquals(ORIGIN_NS + 10 * PERIOD_NS - PERIOD_NS / 2, releaseNs);
+
+        mScheduler.schedule(ORIGIN_NS + 11 * PERIOD_NS - 3000000, ORIGIN_NS);
+        assertEquals(ORIGIN_NS + 11 * PERIOD_NS, mScheduler.getPresentationTimeNs());
+        assertEquals(1, mScheduler.getHeldCount(1));
+        assertEquals(3000000, mScheduler.getMaxAbsErrorNs());
+        assertEquals(0, mScheduler.getMeanErrorNs());
+    }
+
+    @Test
+    public void keepsASteadyThreeTwoCadenceFor24FpsOn60Hz() {
+        mScheduler.setFrameRate(24);
+        List<Integer> held = play(mScheduler, 24, 240);
+
+        assertEquals(2, mScheduler.getCadenceCycle());
+        for (int i = 1; i < held.size(); i++) {
+            assertTrue("held " + held, held.get(i) == 2 || held.get(i) == 3);
+            assertFalse("held " + held, held.get(i).equals(held.get(i - 1)));
+        }
+        assertTrue(mScheduler.getMaxAbsErrorNs() < PERIOD_NS * 3 / 4);
+        assertTrue(mScheduler.getMeanAbsErrorNs() < PERIOD_NS / 3);
+    }
+
+    @Test
+    public void plainRoundingJuddersOnTheSameContent() {
+        // what the cadence fixes: jitter decides the ties, so holds repeat irregularly
+        List<Integer> held = play(mScheduler, 24, 240);
+
+        assertEquals(0, mScheduler.getCadenceCycle());
+        boolean irregular = false;
+        for (int i = 1; i < held.size(); i++) {
+            irregular |= held.get(i).equals(held.get(i - 1));
+        }
+        assertTrue(irregular);
+    }
+
+    @Test
+    public void repeatsTheCadenceOf25FpsOn60Hz() {
+        mScheduler.setFrameRate(25);
+        List<Integer> held = play(mScheduler, 25, 250);
+
+        assertEquals(5, mScheduler.getCadenceCycle());
+        for (int i = 0; i + 5 < held.size(); i++) {
+            assertEquals("held " + held, held.get(i), held.get(i + 5));
+        }
+        int sum = 0;
+        for (int i = 0; i < 5; i++) {
+            sum += held.get(i);
+        }
+        assertEquals(12, sum);
+    }
+
+    @Test
+    public void framesBetweenVsyncsStayOnOneSide() {
+        mScheduler.setFrameRate(30);
+        // every frame due halfway between two vsyncs
+        List<Integer> held = play(mScheduler, 30, 120, PERIOD_NS / 2);
+
+        assertEquals(119, mScheduler.getHeldCount(2));
+        assertEquals(119, held.size());
+    }
+
+    @Test
+    public void lateFramesGoToTheFirstVsyncTheyCanMake() {
+        mDisplay.advanceTo(ORIGIN_NS + 5 * PERIOD_NS);
+        long nowNs = ORIGIN_NS + 5 * PERIOD_NS + 1000000;
+
+        long releaseNs = mScheduler.schedule(ORIGIN_NS, nowNs);
+
+        assertEquals(ORIGIN_NS + 6 * PERIOD_NS, mScheduler.getPresentationTimeNs());
+        assertTrue(releaseNs >= nowNs);
+        assertEquals(6 * PERIOD_NS, mScheduler.getMeanErrorNs());
+
+        // too close to the next vsync to release half a period ahead of it
+        mScheduler.schedule(ORIGIN_NS, ORIGIN_NS + 6 * PERIOD_NS - 1000000);
+        assertEquals(ORIGIN_NS + 7 * PERIOD_NS, mScheduler.getPresentationTimeNs());
+    }
+
+    @Test
+    public void passesTimesThroughUntilAVsyncIsSeen() {
+        assertEquals(12345, mScheduler.schedule(12345, 0));
+        assertEquals(-1, mScheduler.getPresentationTimeNs());
+        assertEquals(0, mScheduler.getFrames());
+    }
+
+    @Test
+    public void findsTheCadenceCycle() {
+        assertEquals(2, FramePresentationScheduler.cadenceCycle(24, PERIOD_NS));
+        assertEquals(2, FramePresentationScheduler.cadenceCycle(23.976f, PERIOD_NS));
+        assertEquals(5, FramePresentationScheduler.cadenceCycle(25, PERIOD_NS));
+        assertEquals(1, FramePresentationScheduler.cadenceCycle(30, PERIOD_NS));
+        assertEquals(4, FramePresentationScheduler.cadenceCycle(48, PERIOD_NS));
+        assertEquals(2, FramePresentationScheduler.cadenceCycle(120, PERIOD_NS));
+        assertEquals(0, FramePresentationScheduler.cadenceCycle(0, PERIOD_NS));
+    }
+
+    private List<Integer> play(FramePresentationScheduler scheduler, int fps, int frames) {
+        return play(scheduler, fps, frames, 0);
+    }
+
+    /**
+     * Plays {@code frames} frames due from a vsync plus {@code offsetNs}, with the rounding of
+     * container timestamps and up to a millisecond of clock jitter.
+     *
+     * @return how many vsyncs each frame was held for.
+     */
+    private List<Integer> play(FramePresentationScheduler scheduler, int fps, int frames, long offsetNs) {
+        Random random = new Random(42);
+        long startNs = ORIGIN_NS + 10 * PERIOD_NS + offsetNs;
+        List<Integer> held = new ArrayList<>();
+        long lastPresentationNs = -1;
+        for (int i = 0; i < frames; i++) {
+            long ptsUs = i * 1000000L / fps;
+            long desiredNs = startNs + ptsUs * 1000 + (random.nextInt(2000001) - 1000000);
+            long nowNs = desiredNs - DECODE_AHEAD_NS;
+            mDisplay.advanceTo(nowNs);
+            long releaseNs = scheduler.schedule(desiredNs, nowNs);
+            long presentationNs = scheduler.getPresentationTimeNs();
+            assertEquals(0, (presentationNs - ORIGIN_NS) % PERIOD_NS);
+            assertTrue(releaseNs < presentationNs && releaseNs > presentationNs - PERIOD_NS);
+            if (lastPresentationNs >= 0) {
+                held.add((int) ((presentationNs - lastPresentationNs) / PERIOD_NS));
+            }
+            lastPresentationNs = presentationNs;
+        }
+        return held;
+    }
+
+    /**
+     * A 60 Hz display whose last vsync is only sampled now and then, as
+     * {@link ChoreographerVsyncSource} does.
+     */
+    private static class SimulatedDisplay implements VsyncSource {
+
+        private long mLastVsyncNs = -1;
+
+        void advanceTo(long nowNs) {
+            long vsyncs = (nowNs - ORIGIN_NS) / PERIOD_NS;
+            // resample every 30 vsyncs
+            mLastVsyncNs = ORIGIN_NS + (vsyncs - vsyncs % 30) * PERIOD_NS;
+        }
+
+        @Override
+        public long getLastVsyncNs() {
+            return mLastVsyncNs;
+        }
+
+        @Override
+        public long getVsyncPeriodNs() {
+            return PERIOD_NS;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GainRampTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int RAMP_MS = 10;
+    private static final int RAMP_FRAMES = SAMPLE_RATE * RAMP_MS / 1000;
+
+    private GainRamp mGain;
+
+    @Before
+    public void setUp() {
+        mGain = new GainRamp(RAMP_MS);
+        mGain.configure(SAMPLE_RATE, 2);
+    }
+
+    private static float[] constant(int frames, float value) {
+        float[] samples = new float[frames * 2];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    @Test
+    public void unityGainLeavesTheSignalAlone() {
+        float[] samples = new float[1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) Math.sin(i * 0.1);
+        }
+        float[] expected = samples.clone();
+
+        mGain.process(samples, 0, samples.length / 2);
+
+        assertArrayEquals(expected, samples, 0f);
+    }
+
+    @Test
+    public void rampsLinearlyToANewGainOverTheRampTime() {
+        float[] samples = constant(RAMP_FRAMES * 2, 0.5f);
+        mGain.setGain(0f);
+
+        // in uneven blocks, as the chain may hand them over
+        mGain.process(samples, 0, 100);
+        mGain.process(samples, 200, RAMP_FRAMES * 2 - 100);
+
+        float step = 0.5f / RAMP_FRAMES;
+        for (int frame = 0; frame < RAMP_FRAMES; frame++) {
+            float expected = 0.5f - step * (frame + 1);
+            assertEquals("frame " + frame, expected, samples[frame * 2], 1e-5f);
+            assertEquals(samples[frame * 2], samples[frame * 2 + 1], 0f);
+        }
+        for (int i = RAMP_FRAMES * 2; i < samples.length; i++) {
+            assertEquals(0f, samples[i], 0f);
+        }
+    }
+
+    @Test
+    public void changeDuringARampCarriesOnFromWhereItGot() {
+        float[] samples = constant(RAMP_FRAMES * 3, 1f);
+        mGain.setGain(0f);
+        mGain.process(samples, 0, RAMP_FRAMES / 2);
+        mGain.setGain(2f);
+        mGain.process(samples, RAMP_FRAMES, RAMP_FRAMES * 5 / 2);
+
+        float largest = 0;
+        for (int i = 2; i < samples.length; i += 2) {
+            largest = Math.max(largest, Math.abs(samples[i] - samples[i - 2]));
+        }
+        // the second ramp covers 1.5 in the same time as the first covered 1
+        assertTrue(largest <= 1.5f / RAMP_FRAMES * 1.01f);
+        assertEquals(2f, samples[samples.length - 1], 0f);
+    }
+
+    @Test
+    public void setsTheGainInDecibels() {
+        mGain.setGainDb(-6.0206f);
+        mGain.reset();
+        float[] samples = constant(4, 0.8f);
+
+        mGain.process(samples, 0, 4);
+
+        assertEquals(0.4f, samples[7], 1e-5f);
+    }
+
+    @Test
+    public void resetJumpsToTheGain() {
+        mGain.setGain(0.25f);
+        mGain.reset();
+        float[] samples = constant(2, 1f);
+
+        mGain.process(samples, 0, 2);
+
+        assertEquals(0.25f, samples[0], 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANegativeGain() {
+        mGain.setGain(-1f);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GopPlannerTest {
+
+    private static final long FRAME_US = 33333;
+
+    /**
+     * A sample table with groups of pictures of the given lengths, one after the other.
+     */
+    private static FakeSampleSource table(int... gops) {
+        int count = 0;
+        for (int gop : gops) {
+            count += gop;
+        }
+        long[] times = new long[count];
+        int[] sizes = new int[count];
+        boolean[] sync = new boolean[count];
+        int sample = 0;
+        for (int gop : gops) {
+            for (int i = 0; i < gop; i++, sample++) {
+                times[sample] = sample * FRAME_US;
+                sizes[sample] = 8;
+                sync[sample] = i == 0;
+            }
+        }
+        return new FakeSampleSource(times, sizes, sync, 0);
+    }
+
+    private static GopPlanner planner(FakeSampleSource table) {
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(table);
+        return new GopPlanner(index);
+    }
+
+    private static long frame(int index) {
+        return index * FRAME_US;
+    }
+
+    @Test
+    public void segmentEndsAtTheFrameOnScreen() {
+        GopPlanner planner = planner(table(30, 30, 30));
+
+        assertEquals(new GopPlanner.Segment(frame(30), frame(45)), planner.at(frame(45)));
+        assertEquals(new GopPlanner.Segment(frame(60), frame(60)), planner.at(frame(60)));
+    }
+
+    @Test
+    public void beforeAKeyframeIsThePreviousGroup() {
+        GopPlanner planner = planner(table(12, 50, 5));
+
+        assertEquals(new GopPlanner.Segment(frame(12), frame(62) - 1), planner.before(frame(62)));
+        assertEquals(new GopPlanner.Segment(0, frame(12) - 1), planner.before(frame(12)));
+        assertNull(planner.before(0));
+    }
+
+    @Test
+    public void beforeAFrameInsideAGroupRestartsIt() {
+        GopPlanner planner = planner(table(12, 50, 5));
+
+        assertEquals(new GopPlanner.Segment(frame(12), frame(40) - 1), planner.before(frame(40)));
+    }
+
+    @Test
+    public void unknownKeyframesPlanNothing() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.add(0);
+        index.add(frame(30));
+        GopPlanner planner = new GopPlanner(index);
+
+        // not scanned that far
+        assertNull(planner.at(frame(100)));
+        assertEquals(new GopPlanner.Segment(0, frame(20)), planner.at(frame(20)));
+    }
+
+    /**
+     * Walks the whole table backwards as the player does, decoding each segment into a bounded
+     * buffer, and checks that every frame comes out once, in reverse, with the memory capped.
+     */
+    @Test
+    public void walksEveryFrameBackwardsWithinTheBuffer() {
+        int[][] layouts = {{30, 30, 30}, {12, 50, 5, 1, 33}, {120}, {1, 1, 1}};
+        for (int[] gops : layouts) {
+            for (int capacity : new int[]{1, 4, 7, 30, 200}) {
+                FakeSampleSource table = table(gops);
+                GopPlanner planner = planner(table);
+                ReverseFrameBuffer buffer = new ReverseFrameBuffer(capacity);
+                ByteBuffer frame = ByteBuffer.allocate(8);
+                int last = table.sampleTimes.length - 1;
+                List<Long> shown = new ArrayList<>();
+                long decoded = 0;
+                GopPlanner.Segment segment = planner.at(frame(last));
+                while (segment != null) {
+                    buffer.clear();
+                    for (long timeUs : table.sampleTimes) {
+                        if (timeUs >= segment.getKeyframeUs() && timeUs <= segment.getEndUs()) {
+                            buffer.offer(timeUs, frame);
+                            decoded++;
+                        }
+                    }
+                    for (int i = buffer.size() - 1; i >= 0; i--) {
+                        shown.add(buffer.getPresentationTimeUs(i));
+                    }
+                    assertTrue(buffer.getAllocatedBytes() <= capacity * 8);
+                    segment = planner.before(buffer.getEarliestUs());
+                }
+                String what = "gops " + gops.length + " capacity " + capacity;
+                assertEquals(what, last + 1, shown.size());
+                for (int i = 0; i <= last; i++) {
+                    assertEquals(what, frame(last - i), (long) shown.get(i));
+                }
+                if (capacity >= 120) {
+                    // every group fits: each frame decoded once
+                    assertEquals(what, last + 1, decoded);
+                }
+            }
+        }
+    }
+}
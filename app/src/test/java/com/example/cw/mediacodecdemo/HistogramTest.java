@@ -0,0 +1,107 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void estimatesPercentilesToTheBucket() {
+        Histogram histogram = new Histogram(0, 1000, 100);
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value - 1);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(499, snapshot.getMean());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(999, snapshot.getMax());
+        assertEquals(495, snapshot.getPercentile(50));
+        assertEquals(895, snapshot.getPercentile(90));
+        assertEquals(985, snapshot.getPercentile(99));
+        assertEquals(5, snapshot.getPercentile(0));
+        assertEquals(995, snapshot.getPercentile(100));
+        assertEquals(10, snapshot.getBucketCount(42));
+    }
+
+    @Test
+    public void keepsValuesOutsideTheRange() {
+        Histogram histogram = new Histogram(-100, 100, 20);
+        histogram.record(-5000);
+        histogram.record(3);
+        histogram.record(100);
+        histogram.record(7000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1, snapshot.getUnderflowCount());
+        assertEquals(2, snapshot.getOverflowCount());
+        assertEquals(1, snapshot.getBucketCount(10));
+        // the ends report what was actually seen, not the bucket edges
+        assertEquals(-5000, snapshot.getPercentile(1));
+        assertEquals(5, snapshot.getPercentile(50));
+        assertEquals(7000, snapshot.getPercentile(100));
+        assertEquals(-5000, snapshot.getMin());
+    }
+
+    @Test
+    public void snapshotsAreImmutableAndResetStartsOver() {
+        Histogram histogram = new Histogram(0, 100, 10);
+        Histogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getPercentile(50));
+        assertEquals(0, empty.getMax());
+
+        histogram.record(42);
+        Histogram.Snapshot one = histogram.snapshot();
+        histogram.record(43);
+        assertEquals(1, one.getCount());
+        assertEquals(2, histogram.snapshot().getCount());
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        histogram.record(7);
+        assertEquals(7, histogram.snapshot().getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnevenBuckets() {
+        new Histogram(0, 100, 7);
+    }
+
+    @Test
+    public void countsEveryValueFromConcurrentWriters() throws InterruptedException {
+        final Histogram histogram = new Histogram(0, 1000, 100);
+        final int perThread = 100000;
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int offset = i;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < perThread; n++) {
+                        histogram.record((n + offset) % 1000);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        // snapshots taken while writing always add up
+        while (writers[0].isAlive()) {
+            Histogram.Snapshot snapshot = histogram.snapshot();
+            long sum = snapshot.getUnderflowCount() + snapshot.getOverflowCount();
+            for (int bucket = 0; bucket < 100; bucket++) {
+                sum += snapshot.getBucketCount(bucket);
+            }
+            assertEquals(snapshot.getCount(), sum);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(writers.length * perThread, snapshot.getCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(999, snapshot.getMax());
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyframeIndexTest {
+
+    private static final long FRAME_US = 33333;
+    private static final int GOP = 30;
+
+    @Test
+    public void indexesEverySyncSample() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(FakeSampleSource.uniform(1000, 10, FRAME_US, GOP));
+
+        assertTrue(index.isComplete());
+        assertEquals(34, index.size());
+    }
+
+    @Test
+    public void floorFindsPreviousKeyframe() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(FakeSampleSource.uniform(300, 10, FRAME_US, GOP));
+
+        assertEquals(0, index.floor(0));
+        assertEquals(0, index.floor(29 * FRAME_US));
+        assertEquals(30 * FRAME_US, index.floor(30 * FRAME_US));
+        assertEquals(270 * FRAME_US, index.floor(100000000));
+        assertEquals(-1, index.floor(-1));
+    }
+
+    @Test
+    public void closestSnapsToNearestKeyframe() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(FakeSampleSource.uniform(300, 10, FRAME_US, GOP));
+
+        assertEquals(30 * FRAME_US, index.closest(44 * FRAME_US));
+        assertEquals(60 * FRAME_US, index.closest(46 * FRAME_US));
+        assertEquals(0, index.closest(-5));
+        assertEquals(270 * FRAME_US, index.closest(100000000));
+    }
+
+    @Test
+    public void lookupsPastScannedRangeAreUnknownUntilComplete() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.add(0);
+        index.add(1000000);
+
+        assertEquals(1000000, index.floor(1000000));
+        assertEquals(-1, index.floor(1500000));
+        assertEquals(-1, index.closest(1500000));
+        assertFalse(index.isComplete());
+    }
+
+    @Test
+    public void cancelStopsScan() {
+        KeyframeIndex index = new KeyframeIndex();
+        index.cancel();
+        index.scan(FakeSampleSource.uniform(300, 10, FRAME_US, GOP));
+
+        assertEquals(0, index.size());
+        assertFalse(index.isComplete());
+    }
+
+    @Test
+    public void readerSeesConsistentIndexWhileBuilding() throws Exception {
+        final KeyframeIndex index = new KeyframeIndex();
+        final int count = 100000;
+        Thread builder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.scan(FakeSampleSource.uniform(count, 1, 1000, 1));
+            }
+        });
+        builder.start();
+        while (!index.isComplete()) {
+            int size = index.size();
+            if (size > 1) {
+                long lastUs = (size - 1) * 1000L;
+                assertEquals(lastUs, index.floor(lastUs));
+                assertEquals(lastUs - 1000, index.closest(lastUs - 1400));
+            }
+            Thread.yield();
+        }
+        builder.join();
+        assertEquals(count, index.size());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoopTimelineTest {
+
+    private static final long FRAME_US = 33333;
+
+    @Test
+    public void offsetsEachIterationByThePeriod() {
+        LoopTimeline timeline = new LoopTimeline(1000000);
+        assertEquals(0, timeline.map(0));
+        assertEquals(966666, timeline.map(966666));
+        assertTrue(timeline.onWrap());
+
+        assertEquals(1000000, timeline.map(0));
+        assertTrue(timeline.onWrap());
+        assertEquals(2000000 + FRAME_US, timeline.map(FRAME_US));
+        assertEquals(2, timeline.getIterations());
+    }
+
+    @Test
+    public void measuresPeriodFromSamplesWhenUnknown() {
+        LoopTimeline timeline = new LoopTimeline(0);
+        long lastUs = 0;
+        for (int i = 0; i < 30; i++) {
+            lastUs = timeline.map(i * FRAME_US);
+        }
+        timeline.onWrap();
+
+        // the first frame of the next pass follows one frame after the last one
+        assertEquals(lastUs + FRAME_US, timeline.map(0));
+    }
+
+    @Test
+    public void resetReturnsToFirstIteration() {
+        LoopTimeline timeline = new LoopTimeline(1000000);
+        timeline.map(0);
+        timeline.onWrap();
+        timeline.reset();
+
+        assertEquals(500000, timeline.map(500000));
+        assertEquals(0, timeline.getIterations());
+    }
+
+    @Test
+    public void refusesToWrapAnEmptyIteration() {
+        LoopTimeline timeline = new LoopTimeline(1000000);
+        assertFalse(timeline.onWrap());
+        timeline.map(0);
+        assertTrue(timeline.onWrap());
+        assertFalse(timeline.onWrap());
+        assertEquals(1000000, timeline.getOffsetUs());
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MasterClockTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private FakeNanoClock mClock;
+    private FakeAudioSource mAudio;
+    private MasterClock mMasterClock;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeNanoClock();
+        mClock.nowNs = 5000000000L;
+        mAudio = new FakeAudioSource();
+        mMasterClock = new MasterClock(mClock);
+    }
+
+    @Test
+    public void reportsNoTimeBeforeStart() {
+        assertEquals(-1, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void interpolatesBetweenHardwareTimestamps() {
+        startWithAudio();
+        mAudio.setTimestamp(SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        assertEquals(1000000, mMasterClock.getAudioTimeUs());
+
+        mClock.advanceUs(12345);
+        assertEquals(1012345, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void usesPlayHeadUntilTimestampsArrive() {
+        startWithAudio();
+        mAudio.headPosition = SAMPLE_RATE / 2;
+        mMasterClock.update();
+        assertEquals(500000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void survivesThirtyTwoBitFrameWraparound() {
+        startWithAudio();
+        long nearWrap = 0xFFFFFFFFL - SAMPLE_RATE / 2;
+        mAudio.setTimestamp(nearWrap, mClock.nowNs);
+        mMasterClock.update();
+        long beforeUs = mMasterClock.getAudioTimeUs();
+
+        mClock.advanceUs(1000000);
+        // one second later the 32-bit counter has wrapped to half a second
+        mAudio.setTimestamp(SAMPLE_RATE / 2 - 1, mClock.nowNs);
+        mMasterClock.update();
+
+        assertEquals(beforeUs + 1000000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void neverGoesBackwards() {
+        startWithAudio();
+        mAudio.setTimestamp(SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        mClock.advanceUs(300000);
+        long interpolatedUs = mMasterClock.getAudioTimeUs();
+
+        // a fresh timestamp reports audio slightly behind the interpolated value
+        mAudio.setTimestamp(SAMPLE_RATE + SAMPLE_RATE / 4, mClock.nowNs);
+        mMasterClock.update();
+
+        assertEquals(interpolatedUs, mMasterClock.getAudioTimeUs());
+        mClock.advanceUs(100000);
+        assertEquals(1350000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void stopsInterpolatingWhenAudioStalls() {
+        startWithAudio();
+        mAudio.setTimestamp(0, mClock.nowNs);
+        mMasterClock.update();
+
+        mClock.advanceUs(5000000);
+        assertEquals(500000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void pauseFreezesAndResumeContinuesWithoutJump() {
+        startWithAudio();
+        mAudio.setTimestamp(SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        mClock.advanceUs(100000);
+        mMasterClock.pause();
+
+        mClock.advanceUs(3000000);
+        assertEquals(1100000, mMasterClock.getAudioTimeUs());
+
+        mMasterClock.resume();
+        // the track still reports the timestamp taken before the pause, so the play head is used
+        mAudio.headPosition = SAMPLE_RATE * 11 / 10;
+        mMasterClock.update();
+        mClock.advanceUs(20000);
+        assertEquals(1120000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void fallsBackToSystemClockWithoutAudio() {
+        startWithAudio();
+        mAudio.setTimestamp(2 * SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        mMasterClock.setAudioSource(null);
+
+        mClock.advanceUs(4000000);
+        mMasterClock.update();
+        assertEquals(6000000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void rebaseRestartsFromNewPositionAndCountsFramesFromThere() {
+        startWithAudio();
+        mAudio.setTimestamp(5 * SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        mMasterClock.pause();
+
+        // seek back to two seconds: the track was flushed and counts from zero again
+        mClock.advanceUs(50000);
+        mAudio.hasTimestamp = false;
+        mAudio.headPosition = 0;
+        mMasterClock.rebase(2000000);
+        assertEquals(2000000, mMasterClock.getAudioTimeUs());
+
+        mClock.advanceUs(100000);
+        mAudio.setTimestamp(SAMPLE_RATE / 10, mClock.nowNs);
+        mMasterClock.update();
+        assertEquals(2100000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void rateChangeTakesEffectWhenItsFirstFrameIsPlayed() {
+        startWithAudio();
+        // the audio from one second of output on was written at double speed
+        mMasterClock.setRate(2f, SAMPLE_RATE);
+        mAudio.setTimestamp(SAMPLE_RATE / 2, mClock.nowNs);
+        mMasterClock.update();
+        assertEquals(500000, mMasterClock.getAudioTimeUs());
+
+        mClock.advanceUs(1500000);
+        mAudio.setTimestamp(2 * SAMPLE_RATE, mClock.nowNs);
+        mMasterClock.update();
+        assertEquals(3000000, mMasterClock.getAudioTimeUs());
+
+        mClock.advanceUs(10000);
+        assertEquals(3020000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void rebaseAppliesAPendingRateAtOnce() {
+        startWithAudio();
+        mMasterClock.setRate(0.5f, 10 * SAMPLE_RATE);
+
+        mAudio.hasTimestamp = false;
+        mMasterClock.rebase(4000000);
+        mAudio.headPosition = SAMPLE_RATE;
+        mMasterClock.update();
+
+        assertEquals(4500000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test
+    public void freeRunsAtTheRateWithoutAudio() {
+        mMasterClock.start();
+        mClock.advanceUs(100000);
+
+        mMasterClock.setRate(16f, 0);
+        mClock.advanceUs(100000);
+        assertEquals(1700000, mMasterClock.getAudioTimeUs());
+
+        mMasterClock.pause();
+        mClock.advanceUs(100000);
+        mMasterClock.resume();
+        mClock.advanceUs(10000);
+        assertEquals(1860000, mMasterClock.getAudioTimeUs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStoppedRate() {
+        mMasterClock.setRate(0f, 0);
+    }
+
+    private void startWithAudio() {
+        mMasterClock.setAudioSource(mAudio);
+        mMasterClock.start();
+    }
+
+    private static class FakeAudioSource implements AudioClockSource {
+
+        boolean hasTimestamp;
+        long framePosition;
+        long nanoTime;
+        int headPosition;
+
+        void setTimestamp(long framePosition, long nanoTime) {
+            this.hasTimestamp = true;
+            this.framePosition = framePosition;
+            this.nanoTime = nanoTime;
+        }
+
+        @Override
+        public boolean getTimestamp(long[] out) {
+            out[0] = framePosition;
+            out[1] = nanoTime;
+            return hasTimestamp;
+        }
+
+        @Override
+        public int getPlaybackHeadPosition() {
+            return headPosition;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Mp4ExtractorTest {
+
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("fixture", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void describesTheTracks() throws IOException {
+        Mp4Extractor extractor = open(new Mp4Fixture().add(Mp4Fixture.video(30)).add(Mp4Fixture.audio(43)));
+
+        assertEquals(2, extractor.getTrackCount());
+        Mp4Extractor.Track video = extractor.getTrack(VIDEO);
+        assertEquals("video/avc", video.getMime());
+        assertEquals(1, video.getTrackId());
+        assertEquals(320, video.getWidth());
+        assertEquals(240, video.getHeight());
+        assertEquals(1000000, video.getDurationUs());
+        assertEquals(30, video.getFrameRate(), 0.01);
+        assertEquals(30, video.getSampleCount());
+        assertArrayEquals(Mp4Fixture.concat(Mp4Fixture.bytes(0, 0, 0, 1), Mp4Fixture.SPS), video.getCsd(0));
+        assertArrayEquals(Mp4Fixture.concat(Mp4Fixture.bytes(0, 0, 0, 1), Mp4Fixture.PPS), video.getCsd(1));
+
+        Mp4Extractor.Track audio = extractor.getTrack(AUDIO);
+        assertEquals("audio/mp4a-latm", audio.getMime());
+        assertEquals(44100, audio.getSampleRate());
+        assertEquals(2, audio.getChannelCount());
+        assertEquals(1, audio.getCsdCount());
+        assertArrayEquals(Mp4Fixture.AUDIO_SPECIFIC_CONFIG, audio.getCsd(0));
+        assertEquals(302, audio.getMaxSampleSize());
+        assertEquals(43 * 1024 * 1000000L / 44100, audio.getDurationUs());
+    }
+
+    @Test
+    public void readsSelectedTracksInDecodeOrder() throws IOException {
+        Mp4Extractor extractor = open(new Mp4Fixture().add(Mp4Fixture.video(30)).add(Mp4Fixture.audio(43)));
+        extractor.selectTrack(VIDEO);
+        extractor.selectTrack(AUDIO);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        int[] next = new int[2];
+        long lastDecodeUs = Long.MIN_VALUE;
+        int trackIndex;
+        while ((trackIndex = extractor.getSampleTrackIndex()) >= 0) {
+            Mp4Extractor.Track track = extractor.getTrack(trackIndex);
+            int sample = next[trackIndex]++;
+            assertEquals(track.getSampleTimeUs(sample), extractor.getSampleTime());
+            assertTrue(track.getSampleDecodeTimeUs(sample) >= lastDecodeUs);
+            lastDecodeUs = track.getSampleDecodeTimeUs(sample);
+            int size = extractor.readSampleData(buffer, 0);
+            assertEquals(track.getSampleSize(sample), size);
+            assertPayload(buffer, size, track.getTrackId(), sample);
+            extractor.advance();
+        }
+        assertEquals(30, next[VIDEO]);
+        assertEquals(43, next[AUDIO]);
+        assertEquals(-1, extractor.readSampleData(buffer, 0));
+        assertEquals(-1, extractor.getSampleTime());
+        assertFalse(extractor.advance());
+    }
+
+    @Test
+    public void appliesCompositionOffsetsAndTheEditList() throws IOException {
+        Mp4Fixture.TrackSpec spec = Mp4Fixture.video(8);
+        // I P B B: decode order 0 1 2 3 shows as 1 4 2 3, shifted back one frame by the edit
+        spec.compositionOffsets = new int[]{3000, 9000, 0, 0};
+        spec.editMediaTime = 3000;
+        Mp4Extractor extractor = open(new Mp4Fixture().add(spec));
+        extractor.selectTrack(VIDEO);
+
+        long[] times = new long[8];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = extractor.getSampleTime();
+            extractor.advance();
+        }
+        assertArrayEquals(new long[]{0, 100000, 33333, 66666, 133333, 233333, 166666, 200000}, times);
+        assertEquals(0, extractor.getTrack(VIDEO).getSampleDecodeTimeUs(1));
+    }
+
+    @Test
+    public void replacesLengthPrefixesWithStartCodes() throws IOException {
+        Mp4Fixture.TrackSpec spec = Mp4Fixture.video(4);
+        spec.nalCount = 3;
+        spec.payloadSize = 10;
+        spec.nalLengthSize = 2;
+        Mp4Extractor extractor = open(new Mp4Fixture().add(spec));
+        extractor.selectTrack(VIDEO);
+        extractor.advance();
+
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.limit(3);
+        int size = extractor.readSampleData(buffer, 5);
+
+        // each 2 byte length became a 4 byte start code
+        assertEquals(3 * 14, size);
+        assertEquals(5, buffer.position());
+        assertEquals(5 + size, buffer.limit());
+        for (int n = 0; n < 3; n++) {
+            int nal = 5 + 14 * n;
+            assertEquals(1, buffer.getInt(nal));
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Mp4Fixture.payloadByte(1, 1), buffer.get(nal + 4 + i));
+            }
+        }
+        assertTrue(extractor.getTrack(VIDEO).getMaxSampleSize() >= size);
+    }
+
+    @Test
+    public void seeksToSyncSamples() throws IOException {
+        Mp4Fixture.TrackSpec spec = Mp4Fixture.video(30);
+        spec.syncSamples = new int[]{1, 11, 21};
+        Mp4Extractor extractor = open(new Mp4Fixture().add(spec).add(Mp4Fixture.audio(43)));
+        extractor.selectTrack(VIDEO);
+        Mp4Extractor.Track video = extractor.getTrack(VIDEO);
+        long frame14Us = video.getSampleTimeUs(14);
+
+        extractor.seekTo(frame14Us, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        assertEquals(video.getSampleTimeUs(10), extractor.getSampleTime());
+        assertEquals(MediaExtractor.SAMPLE_FLAG_SYNC, extractor.getSampleFlags());
+        extractor.advance();
+        assertEquals(0, extractor.getSampleFlags());
+
+        extractor.seekTo(frame14Us, MediaExtractor.SEEK_TO_NEXT_SYNC);
+        assertEquals(video.getSampleTimeUs(20), extractor.getSampleTime());
+        extractor.seekTo(frame14Us, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(video.getSampleTimeUs(10), extractor.getSampleTime());
+        extractor.seekTo(video.getSampleTimeUs(17), MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(video.getSampleTimeUs(20), extractor.getSampleTime());
+        extractor.seekTo(video.getSampleTimeUs(25), MediaExtractor.SEEK_TO_NEXT_SYNC);
+        assertEquals(-1, extractor.getSampleTime());
+
+        // audio, all sync samples, goes to the sample playing at the time
+        extractor.unselectTrack(VIDEO);
+        extractor.selectTrack(AUDIO);
+        extractor.seekTo(500000, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        assertEquals(extractor.getTrack(AUDIO).getSampleTimeUs(21), extractor.getSampleTime());
+    }
+
+    @Test
+    public void followsChunkRunsAnd64BitOffsets() throws IOException {
+        Mp4Fixture.TrackSpec video = Mp4Fixture.video(40);
+        video.chunkRuns = new int[][]{{1, 1}, {3, 4}, {6, 7}};
+        Mp4Fixture fixture = new Mp4Fixture().add(video).add(Mp4Fixture.audio(60));
+        fixture.co64 = true;
+        Mp4Extractor extractor = open(fixture);
+        extractor.selectTrack(VIDEO);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 40; i++) {
+            int size = extractor.readSampleData(buffer, 0);
+            assertPayload(buffer, size, 1, i);
+            extractor.advance();
+        }
+        assertEquals(-1, extractor.getSampleTrackIndex());
+    }
+
+    @Test
+    public void feedsTheKeyframeIndex() throws IOException {
+        Mp4Fixture.TrackSpec spec = Mp4Fixture.video(30);
+        spec.syncSamples = new int[]{1, 11, 21};
+        Mp4Extractor extractor = open(new Mp4Fixture().add(spec));
+        extractor.selectTrack(VIDEO);
+
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(extractor);
+
+        assertTrue(index.isComplete());
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void rejectsWhatItCannotRead() throws IOException {
+        byte[] notMp4 = new byte[1000];
+        Arrays.fill(notMp4, (byte) 7);
+        assertRejected(notMp4);
+
+        byte[] file = new Mp4Fixture().add(Mp4Fixture.video(30)).build();
+        assertRejected(Arrays.copyOf(file, 200));
+
+        Mp4Fixture fragmented = new Mp4Fixture().add(Mp4Fixture.video(30));
+        fragmented.fragmented = true;
+        assertRejected(fragmented.build());
+    }
+
+    @Test
+    public void parseAndReadThroughput() throws IOException {
+        // not a pass/fail benchmark: prints the cost of opening a long file and of reading it
+        Mp4Fixture.TrackSpec video = Mp4Fixture.video(54000);
+        video.payloadSize = 2000;
+        video.syncSamples = new int[1800];
+        for (int i = 0; i < video.syncSamples.length; i++) {
+            video.syncSamples[i] = 1 + 30 * i;
+        }
+        open(new Mp4Fixture().add(video).add(Mp4Fixture.audio(84000)));
+
+        int rounds = 10;
+        long parseStartNs = System.nanoTime();
+        Mp4Extractor extractor = null;
+        for (int i = 0; i < rounds; i++) {
+            extractor = new Mp4Extractor(mFile);
+        }
+        long parseNs = (System.nanoTime() - parseStartNs) / rounds;
+
+        extractor.selectTrack(VIDEO);
+        extractor.selectTrack(AUDIO);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(extractor.getTrack(VIDEO).getMaxSampleSize());
+        long bytes = 0;
+        int samples = 0;
+        long readStartNs = System.nanoTime();
+        int size;
+        while ((size = extractor.readSampleData(buffer, 0)) >= 0) {
+            bytes += size;
+            samples++;
+            extractor.advance();
+        }
+        long readNs = System.nanoTime() - readStartNs;
+        assertEquals(54000 + 84000, samples);
+        System.out.println("Mp4Extractor: parsed " + samples + " samples in " + parseNs / 1000 + "us, read "
+                + bytes / 1000000 + " MB at " + (long) (bytes / (readNs / 1e9) / 1e6) + " MB/s, "
+                + (long) (samples / (readNs / 1e9)) + " samples/s");
+    }
+
+    private Mp4Extractor open(Mp4Fixture fixture) throws IOException {
+        return new Mp4Extractor(fixture.write(mFile));
+    }
+
+    private void assertRejected(byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(content);
+        out.close();
+        try {
+            new Mp4Extractor(mFile);
+            fail("accepted a file it cannot read");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertPayload(ByteBuffer buffer, int size, int trackId, int sample) {
+        byte expected = Mp4Fixture.payloadByte(trackId, sample);
+        for (int i = 0; i < size; i++) {
+            if (trackId == 1 && i < 4) {
+                // the start code where the NAL length was
+                continue;
+            }
+            assertEquals("byte " + i + " of sample " + sample, expected, buffer.get(i));
+        }
+        if (trackId == 1) {
+            assertEquals(1, buffer.getInt(0));
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.cw.mediacodecdemo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes small MP4 files for {@link Mp4Extractor} tests: an AVC track whose samples are
+ * length-prefixed NAL units and an AAC track, interleaved chunk by chunk in one {@code mdat}.
+ * <p>
+ * Every payload byte of sample {@code i} of track {@code id} is {@link #payloadByte}.
+ */
+final class Mp4Fixture {
+
+    static final byte[] SPS = {0x67, 0x42, 0x00, 0x1e, (byte) 0xab};
+    static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+
+    static final class TrackSpec {
+        boolean video;
+        int trackId;
+        int timescale;
+        int sampleCount;
+        // every sample has this duration
+        int sampleDelta;
+        // video: NAL units per sample and their payload size; audio: sample size
+        int nalCount = 1;
+        int payloadSize = 16;
+        int nalLengthSize = 4;
+        // composition offsets repeating over the samples, or null
+        int[] compositionOffsets;
+        // 1-based, or null if every sample is a sync sample
+        int[] syncSamples;
+        // runs of {first chunk, samples per chunk}
+        int[][] chunkRuns = {{1, 5}};
+        // media time of the edit, or -1 for no edit list
+        long editMediaTime = -1;
+
+        int sampleSize(int sample) {
+            return video ? nalCount * (nalLengthSize + payloadSize) : payloadSize + sample % 3;
+        }
+
+        int samplesInChunk(int chunk) {
+            int samples = 0;
+            for (int[] run : chunkRuns) {
+                if (chunk + 1 >= run[0]) {
+                    samples = run[1];
+                }
+            }
+            return samples;
+        }
+    }
+
+    static TrackSpec video(int sampleCount) {
+        TrackSpec spec = new TrackSpec();
+        spec.video = true;
+        spec.trackId = 1;
+        spec.timescale = 90000;
+        spec.sampleCount = sampleCount;
+        spec.sampleDelta = 3000;
+        return spec;
+    }
+
+    static TrackSpec audio(int sampleCount) {
+        TrackSpec spec = new TrackSpec();
+        spec.trackId = 2;
+        spec.timescale = 44100;
+        spec.sampleCount = sampleCount;
+        spec.sampleDelta = 1024;
+        spec.payloadSize = 300;
+        spec.chunkRuns = new int[][]{{1, 8}};
+        return spec;
+    }
+
+    static byte payloadByte(int trackId, int sample) {
+        return (byte) (trackId * 31 + sample);
+    }
+
+    private final List<TrackSpec> mTracks = new ArrayList<>();
+    boolean co64;
+    boolean fragmented;
+
+    Mp4Fixture add(TrackSpec spec) {
+        mTracks.add(spec);
+        return this;
+    }
+
+    File write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(build());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    byte[] build() throws IOException {
+        // chunks of each track in turn until all are written; offsets relative to the mdat payload
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        List<List<Long>> chunkOffsets = new ArrayList<>();
+        int[] next = new int[mTracks.size()];
+        int[] chunk = new int[mTracks.size()];
+        for (int t = 0; t < mTracks.size(); t++) {
+            chunkOffsets.add(new ArrayList<Long>());
+        }
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (int t = 0; t < mTracks.size(); t++) {
+                TrackSpec spec = mTracks.get(t);
+                if (next[t] >= spec.sampleCount) {
+                    continue;
+                }
+                chunkOffsets.get(t).add((long) mdat.size());
+                int end = Math.min(spec.sampleCount, next[t] + spec.samplesInChunk(chunk[t]++));
+                for (; next[t] < end; next[t]++) {
+                    mdat.write(sample(spec, next[t]));
+                }
+                more = true;
+            }
+        }
+        byte[] ftyp = box("ftyp", ascii("isom"), ints(0x200), ascii("isomiso2avc1mp41"));
+        int base = ftyp.length + moov(chunkOffsets, 0).length + 8;
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(ftyp);
+        file.write(moov(chunkOffsets, base));
+        file.write(ints(mdat.size() + 8));
+        file.write(ascii("mdat"));
+        file.write(mdat.toByteArray());
+        return file.toByteArray();
+    }
+
+    private static byte[] sample(TrackSpec spec, int index) {
+        ByteBuffer sample = ByteBuffer.allocate(spec.sampleSize(index));
+        byte value = payloadByte(spec.trackId, index);
+        int nals = spec.video ? spec.nalCount : 1;
+        for (int n = 0; n < nals; n++) {
+            if (spec.video) {
+                if (spec.nalLengthSize == 4) {
+                    sample.putInt(spec.payloadSize);
+                } else {
+                    sample.putShort((short) spec.payloadSize);
+                }
+            }
+            while (sample.position() < (n + 1) * (sample.capacity() / nals)) {
+                sample.put(value);
+            }
+        }
+        return sample.array();
+    }
+
+    private byte[] moov(List<List<Long>> chunkOffsets, int base) throws IOException {
+        long durationMs = 0;
+        List<byte[]> parts = new ArrayList<>();
+        for (int t = 0; t < mTracks.size(); t++) {
+            TrackSpec spec = mTracks.get(t);
+            durationMs = Math.max(durationMs, (long) spec.sampleCount * spec.sampleDelta * 1000 / spec.timescale);
+            parts.add(trak(spec, chunkOffsets.get(t), base));
+        }
+        parts.add(0, fullBox("mvhd", 0, ints(0, 0, 1000, (int) durationMs), new byte[80]));
+        if (fragmented) {
+            parts.add(box("mvex", fullBox("trex", 0, ints(1, 1, 0, 0, 0))));
+        }
+        return box("moov", parts.toArray(new byte[parts.size()][]));
+    }
+
+    private byte[] trak(TrackSpec spec, List<Long> chunkOffsets, int base) throws IOException {
+        int duration = spec.sampleCount * spec.sampleDelta;
+        byte[] tkhd = fullBox("tkhd", 0, ints(0, 0, spec.trackId, 0, duration), new byte[60]);
+        byte[] mdhd = fullBox("mdhd", 0, ints(0, 0, spec.timescale, duration), new byte[4]);
+        byte[] hdlr = fullBox("hdlr", 0, ints(0), ascii(spec.video ? "vide" : "soun"), new byte[13]);
+        byte[] stbl = box("stbl", stsd(spec), stts(spec), ctts(spec), stss(spec), stsz(spec), stsc(spec),
+                chunkOffsets(chunkOffsets, base));
+        byte[] mdia = box("mdia", mdhd, hdlr, box("minf", stbl));
+        if (spec.editMediaTime < 0) {
+            return box("trak", tkhd, mdia);
+        }
+        byte[] elst = fullBox("elst", 0, ints(1, duration, (int) spec.editMediaTime, 0x10000));
+        return box("trak", tkhd, box("edts", elst), mdia);
+    }
+
+    private static byte[] stsd(TrackSpec spec) throws IOException {
+        byte[] entry;
+        if (spec.video) {
+            ByteArrayOutputStream avcC = new ByteArrayOutputStream();
+            avcC.write(bytes(1, 0x42, 0, 0x1e, 0xfc | spec.nalLengthSize - 1, 0xe0 | 1));
+            avcC.write(shorts(SPS.length));
+            avcC.write(SPS);
+            avcC.write(1);
+            avcC.write(shorts(PPS.length));
+            avcC.write(PPS);
+            entry = box("avc1", new byte[6], shorts(1), new byte[16], shorts(320, 240),
+                    ints(0x480000, 0x480000, 0), shorts(1), new byte[32], shorts(0x18, 0xffff),
+                    box("avcC", avcC.toByteArray()));
+        } else {
+            byte[] decoderSpecificInfo = concat(bytes(5, AUDIO_SPECIFIC_CONFIG.length), AUDIO_SPECIFIC_CONFIG);
+            byte[] decoderConfig = concat(bytes(4, 13 + decoderSpecificInfo.length, 0x40, 0x15, 0, 0, 0),
+                    ints(128000, 128000), decoderSpecificInfo);
+            byte[] esDescriptor = concat(bytes(3, 3 + decoderConfig.length + 3, 0, 1, 0), decoderConfig,
+                    bytes(6, 1, 2));
+            entry = box("mp4a", new byte[6], shorts(1), shorts(0, 0), ints(0), shorts(2, 16, 0, 0),
+                    ints(44100 << 16), fullBox("esds", 0, esDescriptor));
+        }
+        return fullBox("stsd", 0, ints(1), entry);
+    }
+
+    private static byte[] stts(TrackSpec spec) {
+        return fullBox("stts", 0, ints(1, spec.sampleCount, spec.sampleDelta));
+    }
+
+    private static byte[] ctts(TrackSpec spec) {
+        if (spec.compositionOffsets == null) {
+            return new byte[0];
+        }
+        int[] entries = new int[1 + 2 * spec.sampleCount];
+        entries[0] = spec.sampleCount;
+        for (int i = 0; i < spec.sampleCount; i++) {
+            entries[1 + 2 * i] = 1;
+            entries[2 + 2 * i] = spec.compositionOffsets[i % spec.compositionOffsets.length];
+        }
+        return fullBox("ctts", 0, ints(entries));
+    }
+
+    private static byte[] stss(TrackSpec spec) {
+        if (spec.syncSamples == null) {
+            return new byte[0];
+        }
+        return fullBox("stss", 0, ints(spec.syncSamples.length), ints(spec.syncSamples));
+    }
+
+    private static byte[] stsz(TrackSpec spec) {
+        int[] sizes = new int[spec.sampleCount];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = spec.sampleSize(i);
+        }
+        return fullBox("stsz", 0, ints(0, spec.sampleCount), ints(sizes));
+    }
+
+    private static byte[] stsc(TrackSpec spec) {
+        int[] entries = new int[1 + 3 * spec.chunkRuns.length];
+        entries[0] = spec.chunkRuns.length;
+        for (int i = 0; i < spec.chunkRuns.length; i++) {
+            entries[1 + 3 * i] = spec.chunkRuns[i][0];
+            entries[2 + 3 * i] = spec.chunkRuns[i][1];
+            entries[3 + 3 * i] = 1;
+        }
+        return fullBox("stsc", 0, ints(entries));
+    }
+
+    private byte[] chunkOffsets(List<Long> offsets, int base) {
+        ByteBuffer table = ByteBuffer.allocate(4 + offsets.size() * (co64 ? 8 : 4));
+        table.putInt(offsets.size());
+        for (long offset : offsets) {
+            if (co64) {
+                table.putLong(offset + base);
+            } else {
+                table.putInt((int) (offset + base));
+            }
+        }
+        return fullBox(co64 ? "co64" : "stco", 0, table.array());
+    }
+
+    static byte[] box(String type, byte[]... parts) {
+        byte[] content = concat(parts);
+        return concat(ints(content.length + 8), ascii(type), content);
+    }
+
+    static byte[] fullBox(String type, int version, byte[]... parts) {
+        return box(type, concat(ints(version << 24), concat(parts)));
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * values.length);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+}
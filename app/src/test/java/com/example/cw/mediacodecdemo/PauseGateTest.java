@@ -0,0 +1,71 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PauseGateTest {
+
+    private final PauseGate mGate = new PauseGate();
+
+    @Test
+    public void passesStraightThroughWhenNotPaused() {
+        assertFalse(mGate.isPaused());
+        assertFalse(mGate.awaitResume());
+        assertEquals(-1, mGate.getResumeRequestNs());
+    }
+
+    @Test
+    public void parksWithoutSpinningUntilResumed() throws InterruptedException {
+        mGate.pause();
+        final AtomicBoolean parked = new AtomicBoolean();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parked.set(mGate.awaitResume());
+            }
+        });
+        thread.start();
+        waitForState(thread, Thread.State.WAITING);
+
+        mGate.resume(1234);
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(parked.get());
+        assertFalse(mGate.isPaused());
+        assertEquals(1234, mGate.getResumeRequestNs());
+    }
+
+    @Test
+    public void releaseWakesParkedThreadsForGood() throws InterruptedException {
+        mGate.pause();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mGate.awaitResume();
+            }
+        });
+        thread.start();
+        waitForState(thread, Thread.State.WAITING);
+
+        mGate.release();
+        thread.join(5000);
+        mGate.pause();
+
+        assertFalse(thread.isAlive());
+        assertFalse(mGate.isPaused());
+        // not a resume
+        assertEquals(-1, mGate.getResumeRequestNs());
+    }
+
+    private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != state) {
+            assertTrue("thread never reached " + state, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).getCapacity());
+        assertEquals(1024, new PcmRingBuffer(1024).getCapacity());
+        // 100 ms of 44.1 kHz stereo is 8820 samples
+        assertEquals(16384, PcmRingBuffer.forDuration(100, 44100, 2).getCapacity());
+    }
+
+    @Test
+    public void writeStopsWhenFullAndReadWrapsAround() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] data = {1, 2, 3, 4, 5, 6};
+        short[] out = new short[8];
+
+        assertEquals(6, ring.write(data, 0, 6));
+        assertEquals(4, ring.read(out, 0, 4));
+        assertEquals(6, ring.write(data, 0, 6));
+        assertEquals(0, ring.write(data, 0, 6));
+        assertEquals(8, ring.getFillLevel());
+        assertEquals(8, ring.read(out, 0, 8));
+        assertArrayEquals(new short[]{5, 6, 1, 2, 3, 4, 5, 6}, out);
+    }
+
+    @Test
+    public void byteBufferWriteConsumesWholeSamplesOnly() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        for (short i = 1; i <= 6; i++) {
+            buffer.putShort(i);
+        }
+        buffer.flip();
+
+        assertEquals(8, ring.write(buffer, 12));
+        assertEquals(8, buffer.position());
+        short[] out = new short[4];
+        ring.read(out, 0, 4);
+        assertArrayEquals(new short[]{1, 2, 3, 4}, out);
+    }
+
+    @Test
+    public void countsUnderrunsOnlyAfterDataArrived() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        short[] out = new short[4];
+
+        ring.read(out, 0, 4);
+        assertEquals(0, ring.getUnderrunCount());
+        ring.write(new short[]{1, 2}, 0, 2);
+        assertEquals(2, ring.read(out, 0, 4));
+        assertEquals(0, ring.read(out, 0, 4));
+        assertEquals(1, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void countsEachStarvationOnce() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        short[] out = new short[4];
+        ring.write(new short[]{1, 2}, 0, 2);
+        ring.read(out, 0, 4);
+
+        for (int i = 0; i < 50; i++) {
+            ring.read(out, 0, 4);
+        }
+        assertEquals(1, ring.getUnderrunCount());
+
+        ring.write(new short[]{3}, 0, 1);
+        assertEquals(1, ring.read(out, 0, 4));
+        ring.read(out, 0, 4);
+        ring.read(out, 0, 4);
+        assertEquals(2, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void producerAndConsumerThreadsSeeEverySampleInOrder() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(256);
+        final int total = 2000000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                short[] chunk = new short[300];
+                int next = 0;
+                while (next < total) {
+                    int length = Math.min(total - next, 1 + random.nextInt(chunk.length));
+                    for (int i = 0; i < length; i++) {
+                        chunk[i] = (short) (next + i);
+                    }
+                    int offset = 0;
+                    while (offset < length) {
+                        int written = ring.write(chunk, offset, length - offset);
+                        if (written == 0) {
+                            Thread.yield();
+                        }
+                        offset += written;
+                    }
+                    next += length;
+                }
+            }
+        });
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(2);
+                short[] chunk = new short[300];
+                int expected = 0;
+                while (expected < total) {
+                    int count = ring.read(chunk, 0, 1 + random.nextInt(chunk.length));
+                    if (count == 0) {
+                        Thread.yield();
+                    }
+                    for (int i = 0; i < count; i++, expected++) {
+                        if (chunk[i] != (short) expected) {
+                            failure.set("sample " + expected + " was " + chunk[i]);
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join(30000);
+        consumer.join(30000);
+
+        assertNull(failure.get(), failure.get());
+        assertFalse(consumer.isAlive());
+        assertEquals(0, ring.getFillLevel());
+    }
+}
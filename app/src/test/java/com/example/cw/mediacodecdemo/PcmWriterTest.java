@@ -0,0 +1,81 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmWriterTest {
+
+    @Test
+    public void writesOnlyTheRangeDescribedByBufferInfo() {
+        CountingSink sink = new CountingSink(Integer.MAX_VALUE);
+        PcmWriter writer = new PcmWriter(sink);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        for (int i = 0; i < 64; i++) {
+            buffer.put(i, (byte) i);
+        }
+
+        assertEquals(16, writer.write(buffer, 8, 16));
+        assertEquals(16, sink.bytes);
+        // bytes 8..23
+        assertEquals(248, sink.checksum);
+    }
+
+    @Test
+    public void keepsWritingUntilTheSinkTookEverything() {
+        CountingSink sink = new CountingSink(5);
+        PcmWriter writer = new PcmWriter(sink);
+
+        assertEquals(32, writer.write(ByteBuffer.allocateDirect(32), 0, 32));
+        assertEquals(32, writer.getBytesWritten());
+        assertEquals(7, sink.calls);
+    }
+
+    @Test
+    public void steadyStateBufferAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        CountingSink sink = new CountingSink(Integer.MAX_VALUE);
+        PcmWriter writer = new PcmWriter(sink);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+        for (int i = 0; i < 20000; i++) {
+            writer.write(buffer, 0, 4096);
+        }
+        int buffers = 100000;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < buffers; i++) {
+            writer.write(buffer, i & 63, 4096 - 64);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("allocated " + allocated + " bytes for " + buffers + " buffers", allocated < buffers / 100);
+    }
+
+    private static class CountingSink implements PcmSink {
+
+        private final int mMaxPerCall;
+        long bytes;
+        long checksum;
+        int calls;
+
+        CountingSink(int maxPerCall) {
+            this.mMaxPerCall = maxPerCall;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, int size) {
+            calls++;
+            int count = Math.min(size, mMaxPerCall);
+            for (int i = 0; i < count; i++) {
+                checksum += buffer.get();
+            }
+            bytes += count;
+            return count;
+        }
+    }
+}
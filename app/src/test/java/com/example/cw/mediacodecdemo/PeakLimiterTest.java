@@ -0,0 +1,128 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PeakLimiterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private static PeakLimiter limiter(float ceilingDb, int releaseMs, int channels) {
+        PeakLimiter limiter = new PeakLimiter(ceilingDb, releaseMs);
+        limiter.configure(SAMPLE_RATE, channels);
+        return limiter;
+    }
+
+    private static float[] sine(double frequency, int frames, double amplitude) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static float peak(float[] samples, int from, int to) {
+        float peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    @Test
+    public void leavesAQuietSignalAlone() {
+        PeakLimiter limiter = limiter(-6f, 50, 1);
+        float[] samples = sine(440, 4800, 0.4);
+        float[] expected = samples.clone();
+
+        limiter.process(samples, 0, samples.length);
+
+        assertArrayEquals(expected, samples, 0f);
+        assertEquals(0f, limiter.getGainReductionDb(), 0f);
+    }
+
+    @Test
+    public void noPeakGetsAboveTheCeiling() {
+        float ceiling = (float) Math.pow(10, -1 / 20.0);
+        for (double amplitude : new double[]{1, 2, 8}) {
+            for (double frequency : new double[]{40, 1000, 15000}) {
+                PeakLimiter limiter = limiter(-1f, 50, 1);
+                float[] samples = sine(frequency, SAMPLE_RATE / 4, amplitude);
+
+                limiter.process(samples, 0, samples.length);
+
+                assertTrue(amplitude + " at " + frequency, peak(samples, 0, samples.length) <= ceiling * 1.000001f);
+            }
+        }
+    }
+
+    @Test
+    public void holdsALoudToneAtTheCeiling() {
+        PeakLimiter limiter = limiter(-6f, 100, 1);
+        float[] samples = sine(1000, SAMPLE_RATE / 2, 1.0);
+
+        limiter.process(samples, 0, samples.length);
+
+        double ceiling = Math.pow(10, -6 / 20.0);
+        // the release is far slower than the tone, so the gain hardly moves between peaks
+        assertEquals(ceiling, peak(samples, samples.length / 2, samples.length), ceiling * 0.01);
+        assertEquals(-6f, limiter.getGainReductionDb(), 0.2f);
+    }
+
+    @Test
+    public void recoversAfterTheRelease() {
+        PeakLimiter limiter = limiter(-6f, 20, 1);
+        float[] burst = sine(1000, 480, 1.0);
+        limiter.process(burst, 0, burst.length);
+        float[] quiet = sine(1000, SAMPLE_RATE / 2, 0.1);
+        float[] expected = quiet.clone();
+
+        limiter.process(quiet, 0, quiet.length);
+
+        // the envelope falls from 1 under 0.5 within 20 ms * ln(2), then stays put
+        assertTrue(peak(quiet, 0, 240) < 0.1f);
+        for (int i = 960; i < quiet.length; i++) {
+            assertEquals(expected[i], quiet[i], 0f);
+        }
+    }
+
+    @Test
+    public void scalesBothChannelsAlike() {
+        PeakLimiter limiter = limiter(-6f, 100, 2);
+        float[] samples = new float[2 * 4800];
+        float[] tone = sine(500, 4800, 1.0);
+        for (int i = 0; i < tone.length; i++) {
+            samples[2 * i] = tone[i];
+            samples[2 * i + 1] = tone[i] / 4;
+        }
+
+        limiter.process(samples, 0, tone.length);
+
+        for (int i = 0; i < samples.length; i += 2) {
+            assertEquals(samples[i] / 4, samples[i + 1], 1e-6f);
+        }
+    }
+
+    @Test
+    public void glidesToANewCeiling() {
+        PeakLimiter limiter = limiter(0f, 100, 1);
+        float[] samples = sine(1000, SAMPLE_RATE / 2, 1.0);
+        limiter.process(samples, 0, 4800);
+
+        limiter.setCeilingDb(-12f);
+        limiter.process(samples, 4800, samples.length - 4800);
+
+        float largest = 0;
+        for (int i = 1; i < samples.length; i++) {
+            largest = Math.max(largest, Math.abs(samples[i] - samples[i - 1]));
+        }
+        assertTrue(largest <= 2 * Math.PI * 1000 / SAMPLE_RATE * 1.01);
+        assertEquals(Math.pow(10, -12 / 20.0), peak(samples, samples.length - 4800, samples.length), 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACeilingAboveFullScale() {
+        new PeakLimiter(3f);
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PlaybackSchedulerTest {
+
+    private static final int FRAMES = 30;
+
+    private PlaybackScheduler mScheduler;
+    private final List<String> mStarts = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mScheduler != null) {
+            mScheduler.shutdown();
+            mScheduler.awaitTermination(5000);
+        }
+    }
+
+    @Test
+    public void runsManyPlayersOnBoundedWorkersAndDecoders() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(2, 4);
+        List<DecodeJob> jobs = new ArrayList<>();
+        List<PlaybackScheduler.Handle> handles = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            DecodeJob job = new DecodeJob();
+            jobs.add(job);
+            handles.add(mScheduler.submit(job, PlaybackScheduler.PRIORITY_VISIBLE));
+        }
+        awaitDone(handles);
+
+        for (DecodeJob job : jobs) {
+            assertEquals(1, job.releases.get());
+            assertEquals(FRAMES, job.codec.renderedPts.size());
+            for (int i = 0; i < FRAMES; i++) {
+                assertEquals(i * 33333L, (long) job.codec.renderedPts.get(i));
+            }
+        }
+        assertEquals(2, mScheduler.getWorkerCount());
+        assertEquals(4, mScheduler.getMaxAdmittedCount());
+        assertEquals(0, mScheduler.getAdmittedCount());
+    }
+
+    @Test
+    public void admitsByPriorityThenInSubmissionOrder() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(1, 1);
+        PlaybackScheduler.Handle holder = mScheduler.submit(new ScriptedJob("holder", PlaybackScheduler.STEP_PARKED),
+                PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitStarts(1);
+        List<PlaybackScheduler.Handle> handles = new ArrayList<>();
+        handles.add(submitFinishing("background 1", PlaybackScheduler.PRIORITY_BACKGROUND));
+        handles.add(submitFinishing("visible 1", PlaybackScheduler.PRIORITY_VISIBLE));
+        handles.add(submitFinishing("background 2", PlaybackScheduler.PRIORITY_BACKGROUND));
+        PlaybackScheduler.Handle promoted = submitFinishing("background 3", PlaybackScheduler.PRIORITY_BACKGROUND);
+        handles.add(promoted);
+        handles.add(submitFinishing("visible 2", PlaybackScheduler.PRIORITY_VISIBLE));
+        promoted.setPriority(PlaybackScheduler.PRIORITY_FOCUSED);
+        assertEquals(5, mScheduler.getWaitingCount());
+        assertFalse(promoted.isAdmitted());
+
+        holder.cancel();
+        awaitDone(handles);
+
+        assertEquals(6, mStarts.size());
+        assertEquals("background 3", mStarts.get(1));
+        assertEquals("visible 1", mStarts.get(2));
+        assertEquals("visible 2", mStarts.get(3));
+        assertEquals("background 1", mStarts.get(4));
+        assertEquals("background 2", mStarts.get(5));
+        assertEquals(1, mScheduler.getMaxAdmittedCount());
+        assertTrue(promoted.getAdmissionWaitNs() > 0);
+    }
+
+    @Test
+    public void parkedJobOnlyRunsWhenWoken() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(1, 1);
+        ScriptedJob job = new ScriptedJob("parked", PlaybackScheduler.STEP_PARKED);
+        PlaybackScheduler.Handle handle = mScheduler.submit(job, PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitSteps(handle, 1);
+        Thread.sleep(20);
+        assertEquals(1, handle.getSteps());
+
+        handle.wake();
+        awaitSteps(handle, 2);
+        Thread.sleep(20);
+        assertEquals(2, handle.getSteps());
+    }
+
+    @Test
+    public void idleJobBacksOffInsteadOfSpinning() throws InterruptedException {
+        long backoffNs = 5000000L;
+        mScheduler = new PlaybackScheduler(1, 1, backoffNs);
+        PlaybackScheduler.Handle handle = mScheduler.submit(new ScriptedJob("idle", PlaybackScheduler.STEP_IDLE),
+                PlaybackScheduler.PRIORITY_VISIBLE);
+        Thread.sleep(100);
+
+        // about one step per back-off; a spinning worker would manage millions
+        long steps = handle.getSteps();
+        assertTrue("steps " + steps, steps >= 2 && steps <= 100000000L / backoffNs + 2);
+    }
+
+    @Test
+    public void shutdownReleasesStartedJobsAndDropsWaitingOnes() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(2, 1);
+        ScriptedJob started = new ScriptedJob("started", PlaybackScheduler.STEP_PARKED);
+        ScriptedJob waiting = new ScriptedJob("waiting", PlaybackScheduler.STEP_DONE);
+        mScheduler.submit(started, PlaybackScheduler.PRIORITY_VISIBLE);
+        PlaybackScheduler.Handle waitingHandle = mScheduler.submit(waiting, PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitStarts(1);
+
+        mScheduler.shutdown();
+        mScheduler.awaitTermination(5000);
+
+        assertEquals(1, started.releases.get());
+        // never started, but told it is over
+        assertEquals(1, waiting.releases.get());
+        assertTrue(waitingHandle.isDone());
+        assertEquals(1, mStarts.size());
+        mScheduler = null;
+    }
+
+    @Test
+    public void jobWithoutADecoderRetriesWithoutHoldingUpTheWorker() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(1, 2);
+        final AtomicInteger attempts = new AtomicInteger();
+        ScriptedJob starved = new ScriptedJob("starved", PlaybackScheduler.STEP_DONE) {
+            @Override
+            public boolean start() {
+                // the decoders are taken elsewhere for the first few attempts
+                return attempts.incrementAndGet() > 3 && super.start();
+            }
+        };
+        ScriptedJob other = new ScriptedJob("other", PlaybackScheduler.STEP_IDLE);
+        PlaybackScheduler.Handle starvedHandle = mScheduler.submit(starved, PlaybackScheduler.PRIORITY_VISIBLE);
+        PlaybackScheduler.Handle otherHandle = mScheduler.submit(other, PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitDone(Collections.singletonList(starvedHandle));
+
+        assertEquals(4, attempts.get());
+        assertEquals(1, starved.releases.get());
+        assertNull(starved.error);
+        // the one worker kept stepping the other job meanwhile
+        assertTrue(otherHandle.getSteps() > 0);
+    }
+
+    @Test
+    public void cancelWhileWaitingReleasesWithoutStarting() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(1, 1);
+        mScheduler.submit(new ScriptedJob("holder", PlaybackScheduler.STEP_PARKED), PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitStarts(1);
+        ScriptedJob waiting = new ScriptedJob("waiting", PlaybackScheduler.STEP_DONE);
+        PlaybackScheduler.Handle handle = mScheduler.submit(waiting, PlaybackScheduler.PRIORITY_VISIBLE);
+
+        handle.cancel();
+
+        assertTrue(handle.isDone());
+        assertEquals(1, waiting.releases.get());
+        assertNull(waiting.error);
+        assertEquals(0, mScheduler.getWaitingCount());
+        assertEquals(1, mScheduler.getAdmittedCount());
+        handle.cancel();
+        assertEquals(1, waiting.releases.get());
+        assertEquals(1, mStarts.size());
+    }
+
+    @Test
+    public void failureIsHandedToTheJob() throws InterruptedException {
+        mScheduler = new PlaybackScheduler(1, 1);
+        ScriptedJob failing = new ScriptedJob("failing", PlaybackScheduler.STEP_BUSY) {
+            @Override
+            public int step() {
+                throw new IllegalStateException("codec died");
+            }
+        };
+        ScriptedJob next = new ScriptedJob("next", PlaybackScheduler.STEP_DONE);
+        PlaybackScheduler.Handle handle = mScheduler.submit(failing, PlaybackScheduler.PRIORITY_VISIBLE);
+        PlaybackScheduler.Handle nextHandle = mScheduler.submit(next, PlaybackScheduler.PRIORITY_VISIBLE);
+        awaitDone(Arrays.asList(handle, nextHandle));
+
+        assertEquals(1, failing.releases.get());
+        assertEquals("codec died", failing.error.getMessage());
+        // the slot is given back
+        assertEquals(1, next.releases.get());
+        assertNull(next.error);
+    }
+
+    @Test
+    public void scalesWithThePlayerCount() throws InterruptedException {
+        // not a pass/fail benchmark: prints decode throughput as players are added
+        for (int players : new int[]{1, 4, 16, 64}) {
+            mScheduler = new PlaybackScheduler(2, 8);
+            List<PlaybackScheduler.Handle> handles = new ArrayList<>();
+            long startNs = System.nanoTime();
+            for (int i = 0; i < players; i++) {
+                handles.add(mScheduler.submit(new DecodeJob(), i % 4 == 0
+                        ? PlaybackScheduler.PRIORITY_FOCUSED : PlaybackScheduler.PRIORITY_VISIBLE));
+            }
+            awaitDone(handles);
+            long elapsedNs = System.nanoTime() - startNs;
+            long maxWaitNs = 0;
+            for (PlaybackScheduler.Handle handle : handles) {
+                maxWaitNs = Math.max(maxWaitNs, handle.getAdmissionWaitNs());
+            }
+            System.out.println("PlaybackScheduler: " + players + " players, " + mScheduler.getWorkerCount()
+                    + " workers: " + (long) (players * FRAMES * 1e9 / elapsedNs) + " frames/s, longest admission wait "
+                    + maxWaitNs / 1000 + "us");
+            assertTrue(mScheduler.getMaxAdmittedCount() <= 8);
+            mScheduler.shutdown();
+            mScheduler.awaitTermination(5000);
+        }
+        mScheduler = null;
+    }
+
+    private PlaybackScheduler.Handle submitFinishing(String name, int priority) {
+        return mScheduler.submit(new ScriptedJob(name, PlaybackScheduler.STEP_DONE), priority);
+    }
+
+    private void awaitStarts(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mStarts.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitSteps(PlaybackScheduler.Handle handle, long steps) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handle.getSteps() < steps) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitDone(List<PlaybackScheduler.Handle> handles) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        for (PlaybackScheduler.Handle handle : handles) {
+            while (!handle.isDone()) {
+                assertTrue("jobs did not finish", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Records its start and returns the same step result every time.
+     */
+    private class ScriptedJob implements PlaybackScheduler.Job {
+
+        final String name;
+        final int result;
+        final AtomicInteger releases = new AtomicInteger();
+        volatile Exception error;
+
+        ScriptedJob(String name, int result) {
+            this.name = name;
+            this.result = result;
+        }
+
+        @Override
+        public boolean start() {
+            mStarts.add(name);
+            return true;
+        }
+
+        @Override
+        public int step() {
+            return result;
+        }
+
+        @Override
+        public void release(Exception error) {
+            this.error = error;
+            releases.incrementAndGet();
+        }
+    }
+
+    /**
+     * A polled decode of a fake codec, as a player would run it on the scheduler.
+     */
+    private static class DecodeJob implements PlaybackScheduler.Job, AsyncDecodeEngine.OutputSink {
+
+        final FakeCodec codec = new FakeCodec(4, 64);
+        final AtomicInteger releases = new AtomicInteger();
+        private final AsyncDecodeEngine mEngine;
+        private final SyncCodecDriver mDriver;
+
+        DecodeJob() {
+            codec.outputDelay = 1;
+            mEngine = new AsyncDecodeEngine(codec, FakeSampleSource.uniform(FRAMES, 16, 33333, 10), this,
+                    new DecodeMetrics());
+            mDriver = new SyncCodecDriver(codec, mEngine);
+        }
+
+        @Override
+        public boolean start() {
+            mEngine.start();
+            return true;
+        }
+
+        @Override
+        public int step() {
+            if (!mDriver.step(0)) {
+                return PlaybackScheduler.STEP_DONE;
+            }
+            return mDriver.madeProgress() ? PlaybackScheduler.STEP_BUSY : PlaybackScheduler.STEP_IDLE;
+        }
+
+        @Override
+        public void release(Exception error) {
+            codec.stop();
+            releases.incrementAndGet();
+        }
+
+        @Override
+        public void onOutputBuffer(Codec codec, int index, long presentationTimeUs, int size, int flags) {
+            codec.releaseOutputBuffer(index, size != 0);
+        }
+
+        @Override
+        public void onLoopReset() {
+        }
+
+        @Override
+        public void onFinished(Exception error) {
+        }
+    }
+}
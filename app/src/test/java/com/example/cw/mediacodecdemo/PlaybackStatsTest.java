@@ -0,0 +1,69 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStatsTest {
+
+    @Test
+    public void countsLateAndDroppedFrames() {
+        PlaybackStats stats = new PlaybackStats();
+        stats.onFrameRendered(-2000, 5000);
+        // late against its plan
+        stats.onFrameRendered(25000, PlaybackStats.NO_DRIFT);
+        // on time for the display but behind the audio
+        stats.onFrameRendered(0, 30000);
+        stats.onFrameDropped();
+        stats.onAudioUnderrun();
+
+        PlaybackStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(3, snapshot.getRenderedFrames());
+        assertEquals(1, snapshot.getDroppedFrames());
+        assertEquals(2, snapshot.getLateFrames());
+        assertEquals(1, snapshot.getAudioUnderruns());
+        assertEquals(0.75f, snapshot.getJankRatio(), 0.001f);
+        assertEquals(3, snapshot.getPresentationErrorUs().getCount());
+        assertEquals(2, snapshot.getAvDriftUs().getCount());
+        assertEquals(30000, snapshot.getAvDriftUs().getMax());
+
+        stats.setLateThresholdUs(40000);
+        stats.onFrameRendered(30000, 30000);
+        assertEquals(2, stats.snapshot().getLateFrames());
+
+        stats.reset();
+        snapshot = stats.snapshot();
+        assertEquals(0, snapshot.getRenderedFrames());
+        assertEquals(0, snapshot.getAvDriftUs().getCount());
+        assertEquals(0f, snapshot.getJankRatio(), 0f);
+    }
+
+    @Test
+    public void measuresQueueToOutputLatencyOutOfOrder() {
+        QueueLatencyTracker tracker = new QueueLatencyTracker();
+        // I P B queued 1 ms apart, out as I B P
+        tracker.onQueued(0, 1000000);
+        tracker.onQueued(66666, 2000000);
+        tracker.onQueued(33333, 3000000);
+
+        assertEquals(9000000, tracker.onOutput(0, 10000000));
+        assertEquals(9000000, tracker.onOutput(33333, 12000000));
+        assertEquals(11000000, tracker.onOutput(66666, 13000000));
+        // each sample is measured once
+        assertEquals(-1, tracker.onOutput(66666, 14000000));
+
+        tracker.onQueued(100000, 15000000);
+        tracker.clear();
+        assertEquals(-1, tracker.onOutput(100000, 16000000));
+    }
+
+    @Test
+    public void forgetsTheOldestSamples() {
+        QueueLatencyTracker tracker = new QueueLatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.onQueued(i, i);
+        }
+        assertEquals(-1, tracker.onOutput(0, 200));
+        assertEquals(101, tracker.onOutput(99, 200));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReverseFrameBufferTest {
+
+    private static ByteBuffer frame(int value, int size) {
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        while (frame.hasRemaining()) {
+            frame.put((byte) value);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void keepsTheLastFramesOffered() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(3);
+
+        for (int i = 1; i <= 5; i++) {
+            buffer.offer(i * 100, frame(i, 16));
+        }
+
+        assertEquals(3, buffer.size());
+        assertTrue(buffer.isFull());
+        assertTrue(buffer.isTruncated());
+        assertEquals(300, buffer.getEarliestUs());
+        assertEquals(500, buffer.getLatestUs());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(300 + i * 100, buffer.getPresentationTimeUs(i));
+            ByteBuffer frame = buffer.getFrame(i);
+            assertEquals(16, frame.remaining());
+            assertEquals(3 + i, frame.get(0));
+        }
+    }
+
+    @Test
+    public void notTruncatedUntilFull() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(3);
+
+        buffer.offer(100, frame(1, 16));
+        buffer.offer(200, frame(2, 16));
+
+        assertFalse(buffer.isTruncated());
+        assertFalse(buffer.isFull());
+        assertEquals(100, buffer.getEarliestUs());
+    }
+
+    @Test
+    public void ignoresFramesOutOfOrder() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(3);
+
+        buffer.offer(200, frame(2, 16));
+        buffer.offer(100, frame(1, 16));
+        buffer.offer(200, frame(3, 16));
+
+        assertEquals(1, buffer.size());
+        assertEquals(2, buffer.getFrame(0).get(0));
+    }
+
+    @Test
+    public void reusesItsMemory() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(4);
+        for (int round = 0; round < 10; round++) {
+            buffer.clear();
+            for (int i = 0; i < 50; i++) {
+                buffer.offer(i, frame(i, 64));
+            }
+        }
+
+        assertEquals(4 * 64, buffer.getAllocatedBytes());
+        assertEquals(46, buffer.getEarliestUs());
+    }
+
+    @Test
+    public void growsSlotsForBiggerFrames() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(2);
+        buffer.offer(0, frame(0, 16));
+        buffer.clear();
+
+        buffer.offer(0, frame(7, 32));
+
+        assertEquals(32, buffer.getFrame(0).remaining());
+        assertEquals(32, buffer.getAllocatedBytes());
+        assertEquals(-1, new ReverseFrameBuffer(1).getEarliestUs());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexPastTheFramesFails() {
+        ReverseFrameBuffer buffer = new ReverseFrameBuffer(2);
+        buffer.offer(0, frame(0, 16));
+
+        buffer.getFrame(1);
+    }
+}
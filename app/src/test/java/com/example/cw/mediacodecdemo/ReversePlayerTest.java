@@ -0,0 +1,159 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReversePlayerTest {
+
+    private static final long FRAME_US = 33333;
+    private static final YuvLayout LAYOUT = new YuvLayout(YuvLayout.FORMAT_NV12, 4, 2);
+    private static final int FRAMES_PER_BUFFER = 8;
+
+    private final List<Long> mShown = new ArrayList<>();
+    private FakeCodec mCodec;
+    private ReversePlayer mPlayer;
+    private boolean mClosed;
+
+    @Before
+    public void setUp() {
+        mCodec = new FakeCodec(4, 64);
+        mCodec.outputDelay = 2;
+        final FakeSampleSource source = FakeSampleSource.uniform(100, LAYOUT.getFrameSize(), FRAME_US, 30);
+        KeyframeIndex index = new KeyframeIndex();
+        index.scan(FakeSampleSource.uniform(100, LAYOUT.getFrameSize(), FRAME_US, 30));
+        BatchFrameExtractor.Clip clip = new BatchFrameExtractor.Clip() {
+            @Override
+            public Codec getCodec() {
+                return mCodec;
+            }
+
+            @Override
+            public SampleSource getSource() {
+                return source;
+            }
+
+            @Override
+            public YuvLayout getLayout() {
+                return LAYOUT;
+            }
+
+            @Override
+            public void close(boolean failed) {
+                mClosed = true;
+            }
+        };
+        mPlayer = new ReversePlayer(clip, index, FRAMES_PER_BUFFER, new ReversePlayer.Presenter() {
+            @Override
+            public void present(long presentationTimeUs, ByteBuffer frame, YuvLayout layout) {
+                assertSame(LAYOUT, layout);
+                assertEquals(LAYOUT.getFrameSize(), frame.remaining());
+                synchronized (mShown) {
+                    mShown.add(presentationTimeUs);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mPlayer.release();
+    }
+
+    private static long frame(int index) {
+        return index * FRAME_US;
+    }
+
+    @Test
+    public void seekShowsTheFrameOnScreenAtTheTime() throws IOException {
+        assertEquals(frame(45), mPlayer.seekTo(frame(45) + 100));
+        assertEquals(frame(45), mPlayer.getPositionUs());
+        assertEquals(frame(0), mPlayer.seekTo(frame(0)));
+    }
+
+    @Test
+    public void stepsBackwardToTheStart() throws IOException {
+        mPlayer.seekTo(frame(99));
+
+        for (int i = 98; i >= 0; i--) {
+            assertEquals(frame(i), mPlayer.stepBackward());
+        }
+        assertEquals(-1, mPlayer.stepBackward());
+        assertEquals(0, mPlayer.getPositionUs());
+        assertEquals(100, mShown.size());
+        assertTrue(mPlayer.getAllocatedBytes() <= 2 * FRAMES_PER_BUFFER * LAYOUT.getFrameSize());
+        assertNull(mPlayer.getError());
+    }
+
+    @Test
+    public void stepsForwardBackUpAndPastTheBuffer() throws IOException {
+        mPlayer.seekTo(frame(50));
+        for (int i = 49; i >= 47; i--) {
+            assertEquals(frame(i), mPlayer.stepBackward());
+        }
+
+        for (int i = 48; i <= 99; i++) {
+            assertEquals(frame(i), mPlayer.stepForward());
+        }
+        assertEquals(-1, mPlayer.stepForward());
+        assertEquals(frame(99), mPlayer.getPositionUs());
+
+        // and back again over the frames decoded going forward
+        for (int i = 98; i >= 40; i--) {
+            assertEquals(frame(i), mPlayer.stepBackward());
+        }
+    }
+
+    @Test
+    public void prefetchedGroupNeedsNoWait() throws Exception {
+        mPlayer.seekTo(frame(59));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mPlayer.getSegmentsDecoded() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        long waits = mPlayer.getWaits();
+
+        // the first buffer, then into the prefetched one
+        for (int i = 58; i >= 51; i--) {
+            assertEquals(frame(i), mPlayer.stepBackward());
+        }
+
+        assertEquals(waits, mPlayer.getWaits());
+    }
+
+    @Test
+    public void playsBackwardToTheStart() throws Exception {
+        mPlayer.seekTo(frame(20));
+
+        mPlayer.playBackward(1000f);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mPlayer.isPlaying() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertFalse(mPlayer.isPlaying());
+        assertEquals(21, mShown.size());
+        assertEquals(0, (long) mShown.get(20));
+    }
+
+    @Test
+    public void stepsDoNothingBeforeASeek() throws IOException {
+        assertEquals(-1, mPlayer.stepBackward());
+        assertEquals(-1, mPlayer.stepForward());
+        assertTrue(mShown.isEmpty());
+    }
+
+    @Test
+    public void releaseClosesTheClip() {
+        mPlayer.release();
+
+        assertTrue(mClosed);
+    }
+}
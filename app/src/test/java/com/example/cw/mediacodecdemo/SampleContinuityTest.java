@@ -0,0 +1,54 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleContinuityTest {
+
+    private static final long FRAME_US = 23220;
+
+    @Test
+    public void shortForwardSeekOnASharedSourceIsADiscontinuity() {
+        SampleContinuity continuity = new SampleContinuity();
+        continuity.onTaken(1000000, 3);
+        continuity.onTaken(1000000 + FRAME_US, 3);
+        assertFalse(continuity.isDiscontinuity(3));
+
+        // the video player seeked 50 ms ahead: the serial of the next sample tells
+        assertTrue(continuity.isDiscontinuity(4));
+        continuity.reset();
+        continuity.onTaken(1050000 + FRAME_US, 4);
+        assertFalse(continuity.isDiscontinuity(4));
+    }
+
+    @Test
+    public void gapsInAFileOfItsOwnAreNotDiscontinuities() {
+        SampleContinuity continuity = new SampleContinuity();
+        continuity.onTaken(0, 0);
+        continuity.onTaken(FRAME_US, 0);
+        continuity.onTaken(5000000, 0);
+        assertFalse(continuity.isDiscontinuity(0));
+        assertEquals(5000000, continuity.getLastTimeUs());
+    }
+
+    @Test
+    public void ownShortForwardSeekStartsAfresh() {
+        SampleContinuity continuity = new SampleContinuity();
+        continuity.onTaken(2000000, 0);
+        // the player flushes and rebases where it takes its own seek, 100 ms ahead
+        continuity.reset();
+        assertEquals(-1, continuity.getLastTimeUs());
+        assertFalse(continuity.isDiscontinuity(0));
+        assertFalse(continuity.isDiscontinuity(1));
+        continuity.onTaken(2100000, 0);
+        assertEquals(2100000, continuity.getLastTimeUs());
+    }
+
+    @Test
+    public void nothingTakenIsNotADiscontinuity() {
+        SampleContinuity continuity = new SampleContinuity();
+        assertFalse(continuity.isDiscontinuity(7));
+        assertEquals(-1, continuity.getLastTimeUs());
+    }
+}
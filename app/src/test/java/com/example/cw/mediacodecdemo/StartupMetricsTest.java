@@ -0,0 +1,62 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupMetricsTest {
+
+    private int mReports;
+
+    private final StartupMetrics.Listener mListener = new StartupMetrics.Listener() {
+        @Override
+        public void onStartupComplete(StartupMetrics metrics) {
+            mReports++;
+        }
+    };
+
+    @Test
+    public void measuresMilestonesFromThePrepareCall() {
+        StartupMetrics metrics = new StartupMetrics(1000);
+        assertEquals(-1, metrics.getTimeToFirstFrameNs());
+
+        metrics.onOpened(5000);
+        metrics.onStart(9000);
+        metrics.onFirstFrame(20000);
+        metrics.onFirstFrame(30000);
+        metrics.onFirstAudio(25000);
+
+        assertEquals(4000, metrics.getOpenNs());
+        assertEquals(8000, metrics.getStartNs());
+        assertEquals(19000, metrics.getTimeToFirstFrameNs());
+        assertEquals(24000, metrics.getTimeToFirstAudioNs());
+        assertEquals(-1, metrics.getSurfaceNs());
+    }
+
+    @Test
+    public void reportsOnceWhenBothOutputsHaveStarted() {
+        StartupMetrics metrics = new StartupMetrics(0);
+        metrics.setListener(mListener);
+
+        metrics.onFirstAudio(10);
+        assertFalse(metrics.isComplete());
+        assertEquals(0, mReports);
+        metrics.onFirstFrame(20);
+        metrics.onFirstAudio(30);
+
+        assertTrue(metrics.isComplete());
+        assertEquals(1, mReports);
+    }
+
+    @Test
+    public void completesOnTheFirstFrameWithoutAudio() {
+        StartupMetrics metrics = new StartupMetrics(0);
+        metrics.setListener(mListener);
+        metrics.setExpectsAudio(false);
+
+        metrics.onFirstFrame(20);
+
+        assertEquals(1, mReports);
+        assertEquals(-1, metrics.getTimeToFirstAudioNs());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.cw.mediacodecdemo;
+
+import android.media.MediaExtractor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SyncCodecDriverTest {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private FakeCodec mCodec;
+    private RecordingSink mSink;
+    private DecodeMetrics mMetrics;
+    private AsyncDecodeEngine mEngine;
+    private SyncCodecDriver mDriver;
+
+    @Before
+    public void setUp() {
+        mCodec = new FakeCodec(4, 64);
+        mCodec.outputDelay = 2;
+        mSink = new RecordingSink();
+        mMetrics = new DecodeMetrics();
+        mEngine = new AsyncDecodeEngine(mCodec, FakeSampleSource.uniform(30, 16, 33333, 10), mSink, mMetrics);
+        mDriver = new SyncCodecDriver(mCodec, mEngine);
+    }
+
+    @Test
+    public void decodesEveryFrameInOrderThenFinishes() {
+        mEngine.start();
+        runToEnd();
+
+        assertEquals(AsyncDecodeEngine.STATE_FINISHED, mEngine.getState());
+        assertEquals(1, mSink.finishedCount);
+        assertEquals(30, mCodec.renderedPts.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i * 33333L, (long) mCodec.renderedPts.get(i));
+        }
+        assertFalse(mDriver.step(TIMEOUT_US));
+    }
+
+    @Test
+    public void keepsTheInputQueueFullWithoutBlocking() {
+        mEngine.start();
+        runToEnd();
+
+        // the first step fills all four slots; after each drain the codec still holds the two it
+        // keeps back
+        assertEquals(4, mMetrics.getMaxQueuedPerIteration());
+        assertEquals(2, mMetrics.getMaxInFlight());
+        assertTrue("average in flight " + mMetrics.getAverageInFlight(), mMetrics.getAverageInFlight() >= 1.5f);
+        assertEquals(0, mMetrics.getBlockedIterations());
+        assertEquals(0, mCodec.blockedUs);
+        // a one-sample-per-timeout loop needs at least one iteration per frame
+        assertTrue("iterations " + mMetrics.getIterations(), mMetrics.getIterations() < 30);
+    }
+
+    @Test
+    public void blocksOnlyWhenNeitherSideMoves() {
+        mCodec.outputDelay = 4;
+        mEngine.start();
+
+        assertTrue(mDriver.step(TIMEOUT_US));
+        assertEquals(0, mMetrics.getBlockedIterations());
+        assertEquals(0, mCodec.blockedUs);
+
+        // every slot is inside the codec and nothing is ready
+        assertTrue(mDriver.step(TIMEOUT_US));
+        assertEquals(1, mMetrics.getBlockedIterations());
+        assertEquals(TIMEOUT_US, mCodec.blockedUs);
+    }
+
+    @Test
+    public void seekFlushesWithoutRestartingTheCodec() {
+        mEngine.start();
+        while (mCodec.renderedPts.size() < 5) {
+            assertTrue(mDriver.step(TIMEOUT_US));
+        }
+        mEngine.seekTo(15 * 33333L, MediaExtractor.SEEK_TO_PREVIOUS_SYNC, 15 * 33333L);
+        int rendered = mCodec.renderedPts.size();
+        runToEnd();
+
+        assertEquals(1, mCodec.startCount);
+        assertEquals(1, mCodec.flushCount);
+        // decoded from the sync sample at 10, shown from the target on
+        assertEquals(15, mCodec.renderedPts.size() - rendered);
+        assertEquals(15 * 33333L, (long) mCodec.renderedPts.get(rendered));
+        assertEquals(1, mSink.finishedCount);
+    }
+
+    @Test
+    public void loopsWithoutFlushing() {
+        mEngine.setLoop(new LoopTimeline(30 * 33333L));
+        mEngine.start();
+        while (mCodec.renderedPts.size() < 75) {
+            assertTrue(mDriver.step(TIMEOUT_US));
+        }
+
+        assertEquals(0, mCodec.flushCount);
+        assertEquals(2, mSink.loopResetCount);
+        assertEquals(0, mMetrics.getBlockedIterations());
+        for (int i = 0; i < 75; i++) {
+            assertEquals(i * 33333L, (long) mCodec.renderedPts.get(i));
+        }
+    }
+
+    private void runToEnd() {
+        for (int i = 0; i < 1000 && mDriver.step(TIMEOUT_US); i++) {
+        }
+    }
+
+    private static class RecordingSink implements AsyncDecodeEngine.OutputSink {
+
+        int loopResetCount;
+        int finishedCount;
+
+        @Override
+        public void onOutputBuffer(Codec codec, int index, long presentationTimeUs, int size, int flags) {
+            codec.releaseOutputBuffer(index, size != 0);
+        }
+
+        @Override
+        public void onLoopReset() {
+            loopResetCount++;
+        }
+
+        @Override
+        public void onFinished(Exception error) {
+            finishedCount++;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThresholdSyncControllerTest {
+
+    private static final long FRAME_US = 33333;
+
+    private FakeNanoClock mClock;
+    private long mAudioStartNs;
+    private ThresholdSyncController mController;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeNanoClock();
+        mClock.nowNs = 1000000000L;
+        mAudioStartNs = mClock.nowNs;
+        // audio plays in real time from the moment the test starts
+        MediaTimeProvider audio = new MediaTimeProvider() {
+            @Override
+            public long getAudioTimeUs() {
+                return (mClock.nowNs - mAudioStartNs) / 1000;
+            }
+        };
+        mController = new ThresholdSyncController(audio, mClock);
+    }
+
+    @Test
+    public void earlyFrameIsScheduledForItsPresentationTime() {
+        assertEquals(SyncController.ACTION_RENDER_AT, mController.onFrame(50000));
+        assertEquals(mAudioStartNs + 50000000L, mController.getRenderTimeNs());
+    }
+
+    @Test
+    public void fastPlaybackSchedulesInRealTime() {
+        mController.setRate(2f);
+
+        assertEquals(SyncController.ACTION_RENDER_AT, mController.onFrame(50000));
+        assertEquals(mAudioStartNs + 25000000L, mController.getRenderTimeNs());
+    }
+
+    @Test
+    public void fastPlaybackMeasuresLatenessInRealTime() {
+        mController.setRate(4f);
+        mClock.advanceUs(120000);
+
+        // 120 ms of media behind is 30 ms of real time: under the drop threshold
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(0));
+        assertEquals(30000, mController.getLastDriftUs());
+    }
+
+    @Test
+    public void slightlyLateFrameIsRenderedNow() {
+        mClock.advanceUs(60000);
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(40000));
+        assertEquals(mClock.nowNs, mController.getRenderTimeNs());
+        assertEquals(20000, mController.getLastDriftUs());
+    }
+
+    @Test
+    public void dropsUntilLagFallsBelowRecoverThreshold() {
+        mClock.advanceUs(100000);
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(50000));
+        // 30 ms late is under the drop threshold but still above the recover threshold
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(70000));
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(95000));
+        // back below the drop threshold, so it is not dropped again
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(70000));
+        assertEquals(2, mController.getDroppedFrames());
+        assertEquals(2, mController.getRenderedFrames());
+    }
+
+    @Test
+    public void rendersAfterTooManyConsecutiveDrops() {
+        mController.setMaxConsecutiveDrops(3);
+        mClock.advanceUs(1000000);
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(0));
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(FRAME_US));
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(2 * FRAME_US));
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(3 * FRAME_US));
+        assertEquals(SyncController.ACTION_DROP, mController.onFrame(4 * FRAME_US));
+    }
+
+    @Test
+    public void freeRunsFromFirstFrameWithoutMasterClock() {
+        ThresholdSyncController controller = new ThresholdSyncController(null, mClock);
+
+        assertEquals(SyncController.ACTION_RENDER_NOW, controller.onFrame(5000000));
+        mClock.advanceUs(10000);
+        assertEquals(SyncController.ACTION_RENDER_AT, controller.onFrame(5000000 + FRAME_US));
+        assertEquals(mClock.nowNs + (FRAME_US - 10000) * 1000, controller.getRenderTimeNs());
+    }
+
+    @Test
+    public void freeRunsWhileMasterIsOnTheOtherSideOfASeek() {
+        mClock.advanceUs(500000);
+        // video already seeked to 30 s, audio has not caught up yet
+        assertEquals(SyncController.ACTION_RENDER_NOW, mController.onFrame(30000000));
+        mClock.advanceUs(10000);
+        assertEquals(SyncController.ACTION_RENDER_AT, mController.onFrame(30000000 + FRAME_US));
+        assertEquals(mClock.nowNs + (FRAME_US - 10000) * 1000, mController.getRenderTimeNs());
+        assertEquals(0, mController.getDroppedFrames());
+    }
+
+    @Test
+    public void driftStaysBoundedWhenDecodeTimeSpikes() {
+        // decoding normally takes 5 ms a frame, but frames 100-104 each take 150 ms
+        long worstDriftUs = 0;
+        long worstSteadyDriftUs = 0;
+        for (int frame = 0; frame < 300; frame++) {
+            long ptsUs = frame * FRAME_US;
+            mClock.advanceUs(frame >= 100 && frame < 105 ? 150000 : 5000);
+            if (mController.onFrame(ptsUs) == SyncController.ACTION_DROP) {
+                continue;
+            }
+            long displayedAtNs = mController.getRenderTimeNs();
+            long driftUs = (displayedAtNs - mAudioStartNs) / 1000 - ptsUs;
+            worstDriftUs = Math.max(worstDriftUs, Math.abs(driftUs));
+            if (frame < 100 || frame >= 140) {
+                worstSteadyDriftUs = Math.max(worstSteadyDriftUs, Math.abs(driftUs));
+            }
+            // the decoder waits for a held frame before producing the next one
+            mClock.nowNs = Math.max(mClock.nowNs, displayedAtNs);
+        }
+
+        assertTrue(mController.getDroppedFrames() > 0);
+        // the lag never exceeds what the spike itself cost
+        assertTrue("worst drift " + worstDriftUs, worstDriftUs <= 5 * (150000 - FRAME_US) + 5000);
+        // and video is back in sync with audio within about a second of the spike
+        assertTrue("steady drift " + worstSteadyDriftUs, worstSteadyDriftUs <= 5000);
+    }
+}
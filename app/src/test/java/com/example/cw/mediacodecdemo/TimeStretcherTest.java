@@ -0,0 +1,302 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimeStretcherTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final float[] RATES = {0.5f, 0.75f, 1.25f, 1.5f, 2f, 3f, 4f};
+
+    /**
+     * @return {@code frames} frames of a sine at {@code frequency}, negated in every second
+     * channel.
+     */
+    private static short[] tone(double frequency, int frames, int channels, double amplitude) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = c % 2 == 0 ? value : (short) -value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Runs {@code input} through {@code stretcher} in chunks of {@code chunk} frames.
+     *
+     * @return the output, trimmed to its length.
+     */
+    private static short[] stretch(TimeStretcher stretcher, short[] input, int channels, int chunk) {
+        short[] output = new short[input.length * 3];
+        int frames = input.length / channels;
+        int in = 0;
+        int out = 0;
+        while (in < frames) {
+            in += stretcher.putSamples(input, in * channels, Math.min(chunk, frames - in));
+            out += stretcher.receiveSamples(output, out * channels, output.length / channels - out);
+        }
+        short[] trimmed = new short[out * channels];
+        System.arraycopy(output, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    /**
+     * @return the frequency of channel {@code channel}, from its rising zero crossings between
+     * the given frames, interpolated between samples.
+     */
+    private static double frequency(short[] samples, int channels, int channel, int from, int to) {
+        double first = -1;
+        double last = -1;
+        int crossings = 0;
+        for (int i = from + 1; i < to; i++) {
+            int previous = samples[(i - 1) * channels + channel];
+            int current = samples[i * channels + channel];
+            if (previous < 0 && current >= 0) {
+                double at = i - 1 + (double) -previous / (current - previous);
+                if (first < 0) {
+                    first = at;
+                }
+                last = at;
+                crossings++;
+            }
+        }
+        return (crossings - 1) * SAMPLE_RATE / (last - first);
+    }
+
+    private static int maxStep(short[] samples, int channels, int channel) {
+        int max = 0;
+        for (int i = channels + channel; i < samples.length; i += channels) {
+            max = Math.max(max, Math.abs(samples[i] - samples[i - channels]));
+        }
+        return max;
+    }
+
+    @Test
+    public void passesAudioThroughUnchangedAtNormalSpeed() {
+        short[] input = new short[SAMPLE_RATE * 2];
+        Random random = new Random(1);
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) random.nextInt();
+        }
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+
+        short[] output = stretch(stretcher, input, 2, 1024);
+
+        assertArrayEquals(input, output);
+        assertTrue(stretcher.isIdle());
+    }
+
+    @Test
+    public void outputLengthFollowsTheRate() {
+        int frames = SAMPLE_RATE * 3;
+        short[] input = tone(440, frames, 1, 10000);
+        for (float rate : RATES) {
+            TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+            stretcher.setRate(rate);
+
+            int out = stretch(stretcher, input, 1, 1000).length;
+
+            // all but what is held for the next sequence comes out
+            double expected = frames / rate;
+            int held = (int) (SAMPLE_RATE * 0.2 / rate);
+            assertTrue("rate " + rate + ": " + out, out <= expected + 1 && out >= expected - held);
+        }
+    }
+
+    @Test
+    public void keepsThePitch() {
+        for (double frequency : new double[]{110, 440, 1000}) {
+            short[] input = tone(frequency, SAMPLE_RATE * 2, 1, 10000);
+            for (float rate : RATES) {
+                TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+                stretcher.setRate(rate);
+
+                short[] output = stretch(stretcher, input, 1, 512);
+
+                double measured = frequency(output, 1, 0, 0, output.length);
+                String what = frequency + " Hz at " + rate;
+                assertEquals(what, frequency, measured, frequency * 0.01);
+            }
+        }
+    }
+
+    /**
+     * The sequences are spliced where the waveforms line up, so a pure tone comes out without
+     * steps steeper than the tone itself has.
+     */
+    @Test
+    public void splicesWithoutClicks() {
+        double frequency = 440;
+        double amplitude = 10000;
+        int steepest = (int) Math.ceil(2 * Math.PI * frequency * amplitude / SAMPLE_RATE);
+        short[] input = tone(frequency, SAMPLE_RATE * 2, 1, amplitude);
+        for (float rate : RATES) {
+            TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+            stretcher.setRate(rate);
+
+            short[] output = stretch(stretcher, input, 1, 700);
+
+            assertTrue("rate " + rate, maxStep(output, 1, 0) <= steepest * 1.1);
+        }
+    }
+
+    @Test
+    public void keepsTheChannelsApart() {
+        short[] input = tone(300, SAMPLE_RATE, 2, 8000);
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+        stretcher.setRate(1.5f);
+
+        short[] output = stretch(stretcher, input, 2, 333);
+
+        assertTrue(output.length > 0);
+        for (int i = 0; i < output.length; i += 2) {
+            assertEquals(-output[i], output[i + 1]);
+        }
+    }
+
+    @Test
+    public void changesRateMidStreamWithoutClicks() {
+        double frequency = 440;
+        double amplitude = 10000;
+        int steepest = (int) Math.ceil(2 * Math.PI * frequency * amplitude / SAMPLE_RATE);
+        short[] input = tone(frequency, SAMPLE_RATE, 1, amplitude);
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        short[] output = new short[SAMPLE_RATE * 4];
+        int out = 0;
+        float[] rates = {1f, 2f, 1f, 0.5f, 4f, 1f};
+        int chunk = input.length / rates.length;
+        for (int i = 0; i < rates.length; i++) {
+            stretcher.setRate(rates[i]);
+            int in = 0;
+            while (in < chunk) {
+                in += stretcher.putSamples(input, i * chunk + in, chunk - in);
+                out += stretcher.receiveSamples(output, out, output.length - out);
+            }
+        }
+        short[] trimmed = new short[out];
+        System.arraycopy(output, 0, trimmed, 0, out);
+
+        assertTrue(maxStep(trimmed, 1, 0) <= steepest * 1.1);
+        assertEquals(frequency, frequency(trimmed, 1, 0, 0, out), frequency * 0.01);
+    }
+
+    @Test
+    public void readsAndWritesByteBuffers() {
+        short[] input = tone(440, SAMPLE_RATE / 2, 2, 5000);
+        TimeStretcher reference = new TimeStretcher(SAMPLE_RATE, 2);
+        reference.setRate(2f);
+        short[] expected = stretch(reference, input, 2, 256);
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+        stretcher.setRate(2f);
+        ByteBuffer in = ByteBuffer.allocateDirect(input.length * 2).order(ByteOrder.nativeOrder());
+        in.asShortBuffer().put(input);
+        ByteBuffer out = ByteBuffer.allocateDirect(input.length * 2);
+
+        for (int start = 0; start < in.capacity(); start += 1024) {
+            in.limit(Math.min(in.capacity(), start + 1024));
+            in.position(start);
+            while (in.hasRemaining()) {
+                stretcher.putSamples(in);
+                stretcher.receiveSamples(out);
+            }
+        }
+        out.flip();
+
+        assertEquals(expected.length * 2, out.remaining());
+        for (short sample : expected) {
+            assertEquals(sample, out.getShort());
+        }
+    }
+
+    @Test
+    public void clearDropsWhatIsHeld() {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        stretcher.setRate(2f);
+        short[] input = tone(440, 4096, 1, 5000);
+        stretcher.putSamples(input, 0, input.length);
+
+        stretcher.clear();
+        stretcher.setRate(1f);
+
+        assertTrue(stretcher.isIdle());
+        assertEquals(0, stretcher.receiveSamples(new short[16], 0, 16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRatesOutOfRange() {
+        new TimeStretcher(SAMPLE_RATE, 2).setRate(TimeStretcher.MAX_RATE * 2);
+    }
+
+    /**
+     * Not a pass/fail benchmark: prints how many times faster than real time stereo audio is
+     * stretched, and checks that it keeps up with playback without allocating.
+     */
+    @Test
+    public void throughput() {
+        int sampleRate = 48000;
+        int seconds = 20;
+        short[] input = new short[sampleRate * 2];
+        Random random = new Random(7);
+        for (int i = 0; i < input.length; i += 2) {
+            short value = (short) (8000 * Math.sin(2 * Math.PI * 220 * i / 2 / sampleRate) + random.nextInt(2000));
+            input[i] = value;
+            input[i + 1] = (short) (value / 2);
+        }
+        short[] output = new short[4096 * 2];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (float rate : new float[]{0.5f, 1f, 1.5f, 2f, 4f}) {
+            TimeStretcher stretcher = new TimeStretcher(sampleRate, 2);
+            stretcher.setRate(rate);
+            // warm up
+            run(stretcher, input, output, 2);
+            long allocated = allocatedBytes(threads);
+            long startNs = System.nanoTime();
+            run(stretcher, input, output, seconds);
+            long elapsedNs = System.nanoTime() - startNs;
+            allocated = allocatedBytes(threads) - allocated;
+            double realTime = seconds * 1e9 / elapsedNs;
+            System.out.println("TimeStretcher 48 kHz stereo rate=" + rate
+                    + String.format(" %.0fx real time", realTime)
+                    + (allocated >= 0 ? " allocated=" + allocated + " bytes" : ""));
+            assertTrue(realTime > 1);
+            if (allocated >= 0) {
+                assertEquals(0, allocated);
+            }
+        }
+    }
+
+    private static void run(TimeStretcher stretcher, short[] second, short[] output, int seconds) {
+        int frames = second.length / 2;
+        for (int s = 0; s < seconds; s++) {
+            int in = 0;
+            while (in < frames) {
+                in += stretcher.putSamples(second, in * 2, Math.min(1024, frames - in));
+                while (stretcher.receiveSamples(output, 0, output.length / 2) > 0) {
+                    // drained
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 where the JVM does not count them.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()) {
+                return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.cw.mediacodecdemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class YuvConverterTest {
+
+    private static final int[] FORMATS = {YuvLayout.FORMAT_I420, YuvLayout.FORMAT_NV12, YuvLayout.FORMAT_NV21};
+
+    private ForkJoinPool mPool;
+
+    @After
+    public void tearDown() {
+        if (mPool != null) {
+            mPool.shutdown();
+        }
+    }
+
+    @Test
+    public void layoutOffsets() {
+        YuvLayout i420 = new YuvLayout(YuvLayout.FORMAT_I420, 6, 4, 8, 6);
+        assertEquals(48, i420.getUOffset());
+        assertEquals(48 + 4 * 3, i420.getVOffset());
+        assertEquals(48 + 12 + 4 * 2, i420.getFrameSize());
+        YuvLayout nv21 = new YuvLayout(YuvLayout.FORMAT_NV21, 6, 4, 8, 6);
+        assertEquals(49, nv21.getUOffset());
+        assertEquals(48, nv21.getVOffset());
+        assertEquals(48 + 8 * 2, nv21.getFrameSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddCropRejected() {
+        new YuvLayout(YuvLayout.FORMAT_NV12, 4, 4, 8, 8, 1, 0);
+    }
+
+    @Test
+    public void matchesFloatReference() {
+        for (int format : FORMATS) {
+            YuvLayout layout = new YuvLayout(format, 32, 16);
+            byte[] frame = frame(layout);
+            int[] argb = new int[32 * 16];
+            new YuvConverter(null).convert(frame, 0, layout, argb, 32, 16);
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 32; x++) {
+                    assertClose(layout + " " + x + "," + y, reference(lumaAt(x, y), uAt(x / 2, y / 2),
+                            vAt(x / 2, y / 2), false), argb[y * 32 + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bt709MatchesFloatReference() {
+        YuvLayout layout = new YuvLayout(YuvLayout.FORMAT_NV12, 16, 8);
+        byte[] frame = frame(layout);
+        int[] argb = new int[16 * 8];
+        YuvConverter converter = new YuvConverter(null);
+        converter.setStandard(YuvConverter.STANDARD_BT709);
+        converter.convert(frame, 0, layout, argb, 16, 8);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 16; x++) {
+                assertClose(x + "," + y, reference(lumaAt(x, y), uAt(x / 2, y / 2), vAt(x / 2, y / 2), true),
+                        argb[y * 16 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void blackAndWhiteClamp() {
+        YuvLayout layout = new YuvLayout(YuvLayout.FORMAT_I420, 2, 2);
+        byte[] frame = {0, 0, (byte) 255, (byte) 255, (byte) 128, (byte) 128};
+        int[] argb = new int[4];
+        new YuvConverter(null).convert(frame, 0, layout, argb, 2, 2);
+        assertEquals(0xff000000, argb[0]);
+        assertEquals(0xffffffff, argb[3]);
+    }
+
+    @Test
+    public void cropAndPaddingSkipped() {
+        for (int format : FORMATS) {
+            // visible 20x10 at 4,2 in a 32 byte stride, 16 row buffer; one byte before the frame
+            YuvLayout layout = new YuvLayout(format, 20, 10, 32, 16, 4, 2);
+            byte[] frame = frame(layout);
+            byte[] shifted = new byte[frame.length + 1];
+            System.arraycopy(frame, 0, shifted, 1, frame.length);
+            int[] argb = new int[20 * 10];
+            new YuvConverter(null).convert(shifted, 1, layout, argb, 20, 10);
+            for (int y = 0; y < 10; y++) {
+                for (int x = 0; x < 20; x++) {
+                    int sx = x + 4;
+                    int sy = y + 2;
+                    assertClose(layout + " " + x + "," + y, reference(lumaAt(sx, sy), uAt(sx / 2, sy / 2),
+                            vAt(sx / 2, sy / 2), false), argb[y * 20 + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void downscalePicksCentres() {
+        YuvLayout layout = new YuvLayout(YuvLayout.FORMAT_NV12, 64, 32);
+        byte[] frame = frame(layout);
+        int[] argb = new int[16 * 8];
+        new YuvConverter(null).convert(frame, 0, layout, argb, 16, 8);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 16; x++) {
+                int sx = x * 4 + 2;
+                int sy = y * 4 + 2;
+                assertClose(x + "," + y, reference(lumaAt(sx, sy), uAt(sx / 2, sy / 2), vAt(sx / 2, sy / 2), false),
+                        argb[y * 16 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void directBufferMatchesArray() {
+        for (int format : FORMATS) {
+            YuvLayout layout = new YuvLayout(format, 48, 30, 64, 32, 2, 0);
+            byte[] frame = frame(layout);
+            ByteBuffer direct = ByteBuffer.allocateDirect(frame.length + 8);
+            direct.position(8);
+            direct.put(frame);
+            direct.position(8);
+            YuvConverter converter = new YuvConverter(null);
+            int[] fromArray = new int[40 * 20];
+            int[] fromBuffer = new int[40 * 20];
+            converter.convert(frame, 0, layout, fromArray, 40, 20);
+            converter.convert(direct, layout, fromBuffer, 40, 20);
+            assertArrayEquals(layout.toString(), fromArray, fromBuffer);
+            assertEquals(8, direct.position());
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        mPool = new ForkJoinPool(4);
+        for (int format : FORMATS) {
+            YuvLayout layout = new YuvLayout(format, 320, 240, 352, 256, 16, 8);
+            byte[] frame = frame(layout);
+            int[] serial = new int[320 * 240];
+            int[] parallel = new int[320 * 240];
+            new YuvConverter(null).convert(frame, 0, layout, serial, 320, 240);
+            YuvConverter converter = new YuvConverter(mPool);
+            // twice, the second time on the reused bands
+            converter.convert(frame, 0, layout, parallel, 320, 240);
+            Arrays.fill(parallel, 0);
+            converter.convert(ByteBuffer.wrap(frame), layout, parallel, 320, 240);
+            assertArrayEquals(layout.toString(), serial, parallel);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortSourceRejected() {
+        YuvLayout layout = new YuvLayout(YuvLayout.FORMAT_I420, 16, 16);
+        new YuvConverter(null).convert(new byte[layout.getFrameSize() - 1], 0, layout, new int[256], 16, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void upscaleRejected() {
+        YuvLayout layout = new YuvLayout(YuvLayout.FORMAT_I420, 16, 16);
+        new YuvConverter(null).convert(new byte[layout.getFrameSize()], 0, layout, new int[1024], 32, 32);
+    }
+
+    /**
+     * Megapixels per second of 1080p to full size and to a quarter size thumbnail, per layout
+     * and thread count.  Prints the figures; only checks that the parallel runs are not
+     * pathologically slower.
+     */
+    @Test
+    public void throughput() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int format : FORMATS) {
+            YuvLayout layout = new YuvLayout(format, 1920, 1080, 1920, 1088);
+            byte[] frame = frame(layout);
+            ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+            direct.put(frame);
+            direct.flip();
+            int[] argb = new int[1920 * 1080];
+            double serial = 0;
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+                YuvConverter converter = new YuvConverter(pool);
+                double full = megapixelsPerSecond(converter, frame, null, layout, argb, 1920, 1080);
+                double fullDirect = megapixelsPerSecond(converter, null, direct, layout, argb, 1920, 1080);
+                double thumbnail = megapixelsPerSecond(converter, frame, null, layout, argb, 480, 270);
+                System.out.println("YuvConverter " + layout + " threads=" + threads
+                        + String.format(" full=%.0f MP/s direct=%.0f MP/s quarter=%.0f MP/s",
+                        full, fullDirect, thumbnail));
+                if (threads == 1) {
+                    serial = full;
+                } else {
+                    assertTrue(full > serial / 4);
+                }
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return output megapixels per second, after a warm up.
+     */
+    private static double megapixelsPerSecond(YuvConverter converter, byte[] array, ByteBuffer buffer,
+                                              YuvLayout layout, int[] argb, int width, int height) {
+        int iterations = 0;
+        long startNs = 0;
+        long elapsedNs;
+        while (true) {
+            if (array != null) {
+                converter.convert(array, 0, layout, argb, width, height);
+            } else {
+                converter.convert(buffer, layout, argb, width, height);
+            }
+            if (++iterations == 5) {
+                startNs = System.nanoTime();
+            }
+            elapsedNs = System.nanoTime() - startNs;
+            if (iterations > 5 && elapsedNs > 200000000L) {
+                break;
+            }
+        }
+        return (iterations - 5) * (double) width * height * 1000 / elapsedNs;
+    }
+
+    private static int lumaAt(int x, int y) {
+        return (x * 7 + y * 13) % 256;
+    }
+
+    private static int uAt(int x, int y) {
+        return (x * 29 + y * 3 + 40) % 256;
+    }
+
+    private static int vAt(int x, int y) {
+        return (x * 5 + y * 31 + 200) % 256;
+    }
+
+    /**
+     * @return a frame of the pattern above, written from the layout's description; padding is
+     * left at 0x55.
+     */
+    private static byte[] frame(YuvLayout layout) {
+        int stride = layout.getStride();
+        int slice = layout.getSliceHeight();
+        int width = layout.getCropLeft() + layout.getWidth();
+        int height = layout.getCropTop() + layout.getHeight();
+        byte[] frame = new byte[layout.getFrameSize()];
+        Arrays.fill(frame, (byte) 0x55);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame[y * stride + x] = (byte) lumaAt(x, y);
+            }
+        }
+        int lumaSize = stride * slice;
+        for (int y = 0; y < (height + 1) / 2; y++) {
+            for (int x = 0; x < (width + 1) / 2; x++) {
+                byte u = (byte) uAt(x, y);
+                byte v = (byte) vAt(x, y);
+                switch (layout.getFormat()) {
+                    case YuvLayout.FORMAT_I420:
+                        int chromaStride = (stride + 1) / 2;
+                        frame[lumaSize + y * chromaStride + x] = u;
+                        frame[lumaSize + chromaStride * ((slice + 1) / 2) + y * chromaStride + x] = v;
+                        break;
+                    case YuvLayout.FORMAT_NV12:
+                        frame[lumaSize + y * stride + 2 * x] = u;
+                        frame[lumaSize + y * stride + 2 * x + 1] = v;
+                        break;
+                    default:
+                        frame[lumaSize + y * stride + 2 * x] = v;
+                        frame[lumaSize + y * stride + 2 * x + 1] = u;
+                        break;
+                }
+            }
+        }
+        return frame;
+    }
+
+    private static int reference(int y, int u, int v, boolean bt709) {
+        double luma = 255.0 / 219 * (y - 16);
+        double cb = 255.0 / 224 * (u - 128);
+        double cr = 255.0 / 224 * (v - 128);
+        double kr = bt709 ? 0.2126 : 0.299;
+        double kb = bt709 ? 0.0722 : 0.114;
+        double kg = 1 - kr - kb;
+        double r = luma + 2 * (1 - kr) * cr;
+        double b = luma + 2 * (1 - kb) * cb;
+        double g = luma - (2 * kb * (1 - kb) * cb + 2 * kr * (1 - kr) * cr) / kg;
+        return 0xff000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static void assertClose(String message, int expected, int actual) {
+        for (int shift = 0; shift <= 24; shift += 8) {
+            int e = expected >>> shift & 0xff;
+            int a = actual >>> shift & 0xff;
+            assertTrue(message + " expected " + Integer.toHexString(expected) + " got "
+                    + Integer.toHexString(actual), Math.abs(e - a) <= 2);
+        }
+    }
+}